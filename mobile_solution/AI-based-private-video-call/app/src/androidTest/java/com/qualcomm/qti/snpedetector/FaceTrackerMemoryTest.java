@@ -0,0 +1,112 @@
+package com.qualcomm.qti.snpedetector;
+
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.qualcomm.qti.snpedetector.tracking.ReinitPolicy;
+import com.qualcomm.qti.snpedetector.tracking.TrackerBackend;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays a synthetic clip (a square moving over a gray background, detected on every frame)
+ * through FaceTracker, with the backend of the app and with MIL, and logs the native heap before
+ * and after. The tracker reuses its input Mat, so the native heap must not grow with the frame count.
+ * <p>
+ * The clip is 10 minutes at 30 fps by default (replayed as fast as the tracker goes); the
+ * 'frames' argument changes it:
+ * ./gradlew :app:connectedAndroidTest [-Pandroid.testInstrumentationRunnerArguments.frames=3000],
+ * then: adb logcat -s FaceTrackerMemoryTest
+ */
+@RunWith(AndroidJUnit4.class)
+public class FaceTrackerMemoryTest {
+    private static final String LOGTAG = "FaceTrackerMemoryTest";
+    private static final int GRID_SIZE = 300;
+    private static final int SQUARE_SIZE = 60;
+    private static final int WARMUP_FRAMES = 300;
+    private static final int DEFAULT_FRAMES = 10 * 60 * 30;
+    // allocator slack and the tracker's own scratch state; a leaked 300x300 Mat per frame is 270 MB
+    private static final long MAX_GROWTH_BYTES = 4 * 1024 * 1024;
+
+    private final int[] mPixels = new int[GRID_SIZE * GRID_SIZE];
+    private final ArrayList<Box> mBoxes = Box.createBoxes(1);
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        assertTrue("OpenCV not loaded", OpenCVLoader.initDebug());
+    }
+
+    @Test
+    public void nativeHeapDoesNotGrowWithFramesOfTheAppBackend() {
+        checkNativeHeap(MainActivity.TRACKER_BACKEND);
+    }
+
+    @Test
+    public void nativeHeapDoesNotGrowWithFramesOfMil() {
+        checkNativeHeap(TrackerBackend.MIL);
+    }
+
+    private void checkNativeHeap(TrackerBackend backend) {
+        final int frames = getFrameCount();
+        final FaceTracker tracker = new FaceTracker(GRID_SIZE, GRID_SIZE, backend, new ReinitPolicy());
+        try {
+            mBoxes.get(0).type_score = 0.9f;
+            replay(tracker, 0, WARMUP_FRAMES);
+            final long before = nativeHeapAfterGc();
+            replay(tracker, WARMUP_FRAMES, frames);
+            final long after = nativeHeapAfterGc();
+            Log.d(LOGTAG, backend + ", " + tracker + ": native heap " + before / 1024 + " kB -> " + after / 1024 +
+                    " kB over " + frames + " frames (" + (after - before) / 1024 + " kB)");
+            assertTrue(backend + ": the native heap grew by " + (after - before) + " bytes", after - before < MAX_GROWTH_BYTES);
+        } finally {
+            tracker.release();
+        }
+    }
+
+    private static int getFrameCount() {
+        final Bundle arguments = InstrumentationRegistry.getArguments();
+        final String frames = arguments == null ? null : arguments.getString("frames");
+        return frames == null ? DEFAULT_FRAMES : Integer.parseInt(frames);
+    }
+
+    // one frame per step: the square moves right and down, and its detection with it
+    private void replay(FaceTracker tracker, int firstFrame, int frames) {
+        final Box box = mBoxes.get(0);
+        for (int f = firstFrame; f < firstFrame + frames; f++) {
+            final int x0 = 20 + f % 200;
+            final int y0 = 100 + f % 50;
+            for (int y = 0; y < GRID_SIZE; y++) {
+                for (int x = 0; x < GRID_SIZE; x++) {
+                    final boolean inside = x >= x0 && x < x0 + SQUARE_SIZE && y >= y0 && y < y0 + SQUARE_SIZE;
+                    mPixels[y * GRID_SIZE + x] = inside ? 0xFFE03020 : 0xFF606060;
+                }
+            }
+            box.left = x0 / (float) GRID_SIZE;
+            box.top = y0 / (float) GRID_SIZE;
+            box.right = (x0 + SQUARE_SIZE) / (float) GRID_SIZE;
+            box.bottom = (y0 + SQUARE_SIZE) / (float) GRID_SIZE;
+            if (f == 0)
+                tracker.setTrackedCoordinates(x0 + SQUARE_SIZE / 2, y0 + SQUARE_SIZE / 2);
+            tracker.removeTrackedBox(mPixels, GRID_SIZE, GRID_SIZE, mBoxes, 0.5f);
+        }
+    }
+
+    // what is left once the finalizers of the unreachable Mats have run
+    private static long nativeHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            Runtime.getRuntime().gc();
+            System.runFinalization();
+        }
+        return Debug.getNativeHeapAllocatedSize();
+    }
+}
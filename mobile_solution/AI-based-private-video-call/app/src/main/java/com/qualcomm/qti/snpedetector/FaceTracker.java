@@ -3,12 +3,13 @@ package com.qualcomm.qti.snpedetector;
 import android.graphics.Bitmap;
 import android.util.Log;
 
-import org.opencv.core.Core;
-import org.opencv.imgproc.Imgproc;
+import com.qualcomm.qti.snpedetector.tracking.ObjectTracker;
+import com.qualcomm.qti.snpedetector.tracking.ReinitPolicy;
+import com.qualcomm.qti.snpedetector.tracking.TrackerBackend;
+
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Rect2d;
-import org.opencv.android.Utils;
-import org.opencv.tracking.TrackerMIL;
 
 import java.util.ArrayList;
 
@@ -16,123 +17,197 @@ import java.util.ArrayList;
 public class FaceTracker {
     public static final String LOGTAG = "SNPEDetector:FaceTraker";
 
-    private TrackerMIL tracker;
-    private static int gridHeight;
-    private static int gridWidth;
-    private static int trackedX;
-    private static int trackedY;
-
-    private static boolean hasTrackedCoordinates = false;
+    private ObjectTracker tracker;
+    private final ReinitPolicy mReinitPolicy;
+    private final Rect2d mTrackedRect = new Rect2d();
+    private final Rect2d mSeedRect = new Rect2d();
+    // the IoU of the track with every box: both normalized and packed (see BoxGeometry)
+    private final float[] mTrackedBox = new float[4];
+    private float[] mBoxCoordinates;
+    private float[] mIous = new float[0];
+    private int gridHeight;
+    private int gridWidth;
+    private int trackedX;
+    private int trackedY;
+
+    private boolean hasTrackedCoordinates = false;
 
     private boolean trackerInitCalled = false;
 
+    // the image of the tracker, re-used for every frame and sized to the grid: the model input
+    // pixels go from their int[] into the native Mat with a single copy. Most trackers only need
+    // the luma (they convert color images to gray anyway), and then that's all they get.
+    private final boolean mGrayscale;
+    private Mat mInputMat;
+    private byte[] mInputBytes;
+    // for the Bitmap input only
+    private int[] mBitmapPixels;
+
 
     public FaceTracker(int width, int height) {
-        gridWidth = width;
-        gridHeight = height;
-        Log.d(LOGTAG, "INFO: Creating Tracker ...");
-        tracker = TrackerMIL.create();
-        Log.d(LOGTAG, "INFO: Created Tracker done!");
+        this(width, height, TrackerBackend.MIL, new ReinitPolicy());
+    }
+
+    public FaceTracker(int width, int height, TrackerBackend backend, ReinitPolicy reinitPolicy) {
+        tracker = backend.create();
+        mReinitPolicy = reinitPolicy;
+        mGrayscale = !tracker.needsColor();
+        allocateInput(width, height);
+        Log.d(LOGTAG, "INFO: Created Tracker " + tracker.getName() + ", " + (mGrayscale ? "gray" : "RGB"));
+    }
+
+    public String getTrackerName() {
+        return tracker.getName();
     }
 
+    /**
+     * Frees the native buffers (the input Mat, and the tracker's). The tracker can't be used afterwards.
+     */
+    public void release() {
+        if (mInputMat != null)
+            mInputMat.release();
+        mInputMat = null;
+        mInputBytes = null;
+        mBitmapPixels = null;
+        tracker.release();
+    }
+
+    @Override
+    public String toString() {
+        return tracker.getName() + ", " + mReinitPolicy;
+    }
 
-    public static void setTrackedCoordinates(int x, int y) {
+
+    public void setTrackedCoordinates(int x, int y) {
         trackedY = y;
         trackedX = x;
         hasTrackedCoordinates = true;
     }
 
-    private static Mat bitmapToMat(Bitmap bitmap) {
-        Mat rgba_mat = new Mat();
-        Bitmap bmp32 = bitmap.copy(Bitmap.Config.ARGB_8888, true);
-        Utils.bitmapToMat(bmp32, rgba_mat);
-        Mat bw_mat = new Mat();
-        Imgproc.cvtColor(rgba_mat, bw_mat, Imgproc.COLOR_RGBA2RGB);
-        return bw_mat;
+    // (re)sizes the input to the grid; on a change of grid (e.g. another model) the track is lost
+    private void allocateInput(int width, int height) {
+        if (mInputMat != null && width == gridWidth && height == gridHeight)
+            return;
+        if (mInputMat != null) {
+            mInputMat.release();
+            tracker.release();
+        }
+        gridWidth = width;
+        gridHeight = height;
+        mInputMat = new Mat(height, width, mGrayscale ? CvType.CV_8UC1 : CvType.CV_8UC3);
+        mInputBytes = new byte[width * height * (mGrayscale ? 1 : 3)];
     }
 
-    private static Rect2d boxToRect2d(Box box) {
-        double left = Math.round(box.left * gridWidth);
-        double top = Math.round(box.top * gridHeight);
-        double width = Math.round((box.right-box.left) * gridWidth);
-        double height = Math.round((box.bottom-box.top) * gridHeight);
-        Rect2d rect = new Rect2d(left, top, width, height);
-        return rect;
+    // ARGB pixels of the grid -> the input Mat: luma (BT.601, as COLOR_RGB2GRAY), or RGB
+    private Mat pixelsToMat(int[] argbPixels) {
+        final byte[] bytes = mInputBytes;
+        final int pixels = gridWidth * gridHeight;
+        if (mGrayscale) {
+            for (int i = 0; i < pixels; i++) {
+                final int p = argbPixels[i];
+                bytes[i] = (byte) ((77 * ((p >> 16) & 0xFF) + 150 * ((p >> 8) & 0xFF) + 29 * (p & 0xFF) + 128) >> 8);
+            }
+        } else {
+            for (int i = 0, j = 0; i < pixels; i++, j += 3) {
+                final int p = argbPixels[i];
+                bytes[j] = (byte) (p >> 16);
+                bytes[j + 1] = (byte) (p >> 8);
+                bytes[j + 2] = (byte) p;
+            }
+        }
+        mInputMat.put(0, 0, bytes);
+        return mInputMat;
     }
 
-    // Compute the IOU between the two boxes. (Assuming the origin is top left corner.)
-    private static double computeIou(Rect2d a, Rect2d b) {
-        double aBottom = a.y + a.height;
-        double bBottom = b.y + b.height;
-        double aRight = a.x + a.width;
-        double bRight = b.x + b.width;
-        double yA = Math.max(a.y, b.y);
-        double xA = Math.max(a.x, b.x);
-        double yB = Math.min(aBottom, bBottom);
-        double xB = Math.max(aRight, bRight);
-        // Compute the intersection area.
-        double interArea = Math.max(0.f, (xB - xA + 1)) * Math.max(0.f, (yB - yA + 1));
-        double boxAArea = (aBottom - a.x) * (aRight - a.x);
-        double boxBArea = (bBottom - b.y) * (bRight - b.x);
-        double iou = interArea / (boxAArea + boxBArea - interArea);
-        return iou;
+    private Rect2d boxToRect2d(Box box, Rect2d rect) {
+        rect.x = Math.round(box.left * gridWidth);
+        rect.y = Math.round(box.top * gridHeight);
+        rect.width = Math.round((box.right-box.left) * gridWidth);
+        rect.height = Math.round((box.bottom-box.top) * gridHeight);
+        return rect;
     }
 
-    private static Box getNearestBox(int targetX, int targetY, ArrayList<Box> boxes) {
-        double nearestDist = 1e9;
-        int nearestDistIdx = 0;
-        for (int i=0; i < boxes.size(); i++) {
-            Box currBox = boxes.get(i);
-            Rect2d currRect = boxToRect2d(currBox);
-            int boxCenterX = (int)(currRect.x + currRect.width/2);
-            int boxCenterY = (int)(currRect.y + currRect.height/2);
-            double dist = Math.sqrt(Math.pow(boxCenterX-targetX,2) + Math.pow(boxCenterY-targetY,2));
-            if (dist < nearestDist) {
-                nearestDist = dist;
-                nearestDistIdx = i;
-            }
-        }
-        Box initBox = boxes.get(nearestDistIdx);
+    private Box getNearestBox(int targetX, int targetY, ArrayList<Box> boxes) {
+        Box initBox = boxes.get(BoxGeometry.getNearestBoxIndex(targetX, targetY, boxes, gridWidth, gridHeight));
         Log.d(LOGTAG, "getNearestBox: Click(" + String.valueOf(targetX) + ", " + String.valueOf(targetY) +")(" + String.valueOf(initBox.left*300) + ", " + String.valueOf(initBox.top*300) +")" );
         return initBox;
     }
 
-    private boolean initFromBox(Bitmap imageBitmap, Box initBox) {
-        tracker = TrackerMIL.create();
-        Mat image = bitmapToMat(imageBitmap);
-        Rect2d initRect = boxToRect2d(initBox);
-        return tracker.init(image, initRect);
+    private boolean initFromBox(Mat image, Box initBox) {
+        Rect2d initRect = boxToRect2d(initBox, mSeedRect);
+        final boolean ok = tracker.init(image, initRect);
+        if (ok)
+            mReinitPolicy.onSeeded();
+        return ok;
     }
 
-    private Rect2d updateState(Bitmap imageBitmap) {
-        Mat image = bitmapToMat(imageBitmap);
-        Rect2d trackedRect = new Rect2d();
-        boolean ok = tracker.update(image, trackedRect);
-        return ok ? trackedRect: null;
+    private Rect2d updateState(Mat image) {
+        boolean ok = tracker.update(image, mTrackedRect);
+        return ok ? mTrackedRect : null;
     }
 
+    /**
+     * Same as below, for a Bitmap of the model input (its pixels are read into a re-used buffer).
+     */
     public ArrayList<Box> removeTrackedBox(Bitmap imageBitmap, ArrayList<Box> boxes, float thresh) {
+        if (boxes == null) {
+            return null;
+        }
+        final int width = imageBitmap.getWidth();
+        final int height = imageBitmap.getHeight();
+        if (mBitmapPixels == null || mBitmapPixels.length != width * height)
+            mBitmapPixels = new int[width * height];
+        imageBitmap.getPixels(mBitmapPixels, 0, width, 0, 0, width, height);
+        return removeTrackedBox(mBitmapPixels, width, height, boxes, thresh);
+    }
+
+    /**
+     * Tracks the selected box on the ARGB pixels of the model input (width x height, e.g. the
+     * pixels written by the NV21 kernel), and flags the box it overlaps.
+     */
+    public ArrayList<Box> removeTrackedBox(int[] argbPixels, int width, int height, ArrayList<Box> boxes, float thresh) {
         // early exit
         if (boxes == null) {
             return null;
         }
+        if (mInputMat == null)
+            throw new IllegalStateException("FaceTracker was released");
+        if (argbPixels.length < width * height)
+            throw new IllegalArgumentException("the pixels are smaller than " + width + "x" + height);
+        final boolean selecting = hasTrackedCoordinates && !boxes.isEmpty();
+        allocateInput(width, height);
+        // nothing selected (or the track is lost): nothing to track, not even a picture to convert
+        if (!selecting && !tracker.isTracking()) {
+            for (Box box : boxes) box.is_tracked = false;
+            return boxes;
+        }
+        final Mat image = pixelsToMat(argbPixels);
 
-        if (hasTrackedCoordinates) {
+        // a pending selection waits for a frame with detections
+        if (selecting) {
             Log.d(LOGTAG, "INFO: Tracker was initialized!");
             Box initBox = getNearestBox(trackedX, trackedY, boxes);
-            initFromBox(imageBitmap, initBox);
+            initFromBox(image, initBox);
             hasTrackedCoordinates = false;
         }
 
         // We update no matter what, if track is lost we need to re-init from boxes
-        Rect2d trackedRect = updateState(imageBitmap);
+        Rect2d trackedRect = updateState(image);
         if (trackedRect == null) {
             Log.e(LOGTAG, "ERROR: Track was lost!");
             for (Box box : boxes) box.is_tracked = false;
             return boxes;
         }
         
-        // Get box with highest overlap with tracked box
+        // Get box with highest overlap with tracked box: all the IoUs in one pass
+        mTrackedBox[0] = (float) (trackedRect.x / gridWidth);
+        mTrackedBox[1] = (float) (trackedRect.y / gridHeight);
+        mTrackedBox[2] = (float) ((trackedRect.x + trackedRect.width) / gridWidth);
+        mTrackedBox[3] = (float) ((trackedRect.y + trackedRect.height) / gridHeight);
+        mBoxCoordinates = BoxGeometry.packBoxes(boxes, mBoxCoordinates);
+        if (mIous.length < boxes.size())
+            mIous = new float[boxes.size()];
+        BoxGeometry.iouMatrix(mTrackedBox, 1, mBoxCoordinates, boxes.size(), mIous);
         double highestIoU = 0;
         int highestIoUIdx = 0;
         for (int i=0; i < boxes.size(); i++) {
@@ -141,18 +216,25 @@ public class FaceTracker {
             if (box.type_score < thresh) {
                 continue;
             }
-            Rect2d currRect = boxToRect2d(box);
-            double currIou = computeIou(currRect, trackedRect);
+            double currIou = mIous[i];
             if (currIou > highestIoU) {
                 highestIoU = currIou;
                 highestIoUIdx = i;
             }
         }
+        if (boxes.isEmpty())
+            return boxes;
+        // the track is on a detection only if they overlap enough
+        if (!mReinitPolicy.isMatch(highestIoU)) {
+            mReinitPolicy.shouldReseed(highestIoU);
+            return boxes;
+        }
         Box trackedBox = boxes.get(highestIoUIdx);
         trackedBox.is_tracked = true;
-        if (highestIoU > 0.3) {
-            initFromBox(imageBitmap, trackedBox);
-            Log.w(LOGTAG, "Found matching IoU, creating new tracker...");
+        // re-seed from the matching detection only on drift, or once in a while
+        if (mReinitPolicy.shouldReseed(highestIoU)) {
+            initFromBox(image, trackedBox);
+            Log.d(LOGTAG, "Re-seeded the tracker from the detection (IoU " + highestIoU + ")");
         }
         // return boxes or null
         return boxes;
@@ -23,14 +23,32 @@ import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.qualcomm.qti.snpe.NeuralNetwork;
 import com.qualcomm.qti.snpedetector.helpers.CameraPreviewHelper;
+import com.qualcomm.qti.snpedetector.helpers.IterationStats;
+import com.qualcomm.qti.snpedetector.helpers.LumaStatistics;
+import com.qualcomm.qti.snpedetector.helpers.MotionGate;
 import com.qualcomm.qti.snpedetector.helpers.NV21ConversionHelper;
 import com.qualcomm.qti.snpedetector.helpers.SNPEHelper;
+import com.qualcomm.qti.snpedetector.helpers.SnpeInferenceEngine;
 import com.qualcomm.qti.snpedetector.helpers.TimeStat;
 import com.qualcomm.qti.snpedetector.FaceTracker;
+import com.qualcomm.qti.snpedetector.engine.ClassPolicy;
+import com.qualcomm.qti.snpedetector.engine.EngineInitializer;
+import com.qualcomm.qti.snpedetector.engine.ModelManifest;
+import com.qualcomm.qti.snpedetector.engine.ModelRegistry;
+import com.qualcomm.qti.snpedetector.engine.SegmentationOutputs;
+import com.qualcomm.qti.snpedetector.pipeline.FramePipeline;
+import com.qualcomm.qti.snpedetector.pipeline.PipelineFrame;
+import com.qualcomm.qti.snpedetector.pipeline.RoiCascade;
+import com.qualcomm.qti.snpedetector.segmentation.MaskBuilder;
+import com.qualcomm.qti.snpedetector.tracking.MultiObjectTracker;
+import com.qualcomm.qti.snpedetector.tracking.ReinitPolicy;
+import com.qualcomm.qti.snpedetector.tracking.TrackerBackend;
 import org.opencv.android.OpenCVLoader;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import io.fotoapparat.parameter.Resolution;
 import io.fotoapparat.preview.Frame;
@@ -39,14 +57,17 @@ import pub.devrel.easypermissions.EasyPermissions;
 
 /**
  * Setup:
- * 1. Load NN model on SNPE, get input resolution
+ * 1. Load NN model on SNPE and warm it up, in the background (EngineInitializer)
  * 2. Check that you have the Camera permissions, or ask for them
- * 3. Configure camera for the closest input resolution
+ * 3. Configure camera for the closest input resolution (the frames are skipped until 1. is done)
  * 4. Start preview feed between onResume and onPause
  * <p>
  * For every frame (in a separate thread):
+ * 0. Skip frames too dark to process, from Y plane statistics
+ * 0.1 Reuse the previous boxes if the scene didn't change since the last inference
  * 1. nv21->(rgba)Bitmap
  * 2. Counter-rotate the Bitmap and scale it to the model input size
+ * (1-2, and 3.1-3.2 are fused into a single NV21->FloatTensor pass with USE_FUSED_NV21_KERNEL)
  * 3. Perform the inference on the Bitmap
  * 3.1 Bitmap to RGBA[] byte array
  * 3.2 RGBA[] to SNPE BGR[] FloatTensor (300x300x3)
@@ -54,11 +75,50 @@ import pub.devrel.easypermissions.EasyPermissions;
  * 3.4 Output Tensors -> Boxes
  * 4. Copy the boxes locally for rendering
  * <p>
+ * With USE_ASYNC_PIPELINE the camera thread only copies the frame; 0-0.1 and the NV21->FloatTensor
+ * pass, 3.3-3.4, and the tracking with 4 run on 3 dedicated threads (see FramePipeline), and
+ * stale frames are dropped between them.
+ * <p>
  * When Boxes are updated:
  * 1. update box rendering in the Overlay
  */
 public class MainActivity extends AppCompatActivity {
     public static final String LOGTAG = "SNPEDetector";
+    // true: NV21 -> tensor in a single pass; false: through the RGBA and the model input Bitmaps
+    private static final boolean USE_FUSED_NV21_KERNEL = true;
+    // true: the camera thread hands the frames to a FramePipeline (always with the fused kernel)
+    private static final boolean USE_ASYNC_PIPELINE = true;
+    // false: latency mode (1 frame in flight); true: throughput mode (the next frames are prepared
+    // into free input tensors while the current one executes)
+    private static final boolean PIPELINE_THROUGHPUT_MODE = true;
+    private static final int PIPELINE_THROUGHPUT_FRAMES = 2;
+    // true: log the cold and warm net_load times (with and without the SNPE init cache) at startup
+    private static final boolean RUN_NET_LOAD_BENCHMARK = false;
+    // dummy inferences on a black tensor before the first frame, to pay the GPU kernel compilation
+    private static final int NET_WARMUP_RUNS = 2;
+    // the detections that matter for the privacy mask: the others are dropped when decoding
+    private static final ClassPolicy PRIVACY_CLASS_POLICY = ClassPolicy.ofLabels("person");
+    // the model at startup (see assets/models); a long press on the privacy switch cycles through the others
+    private static final String STARTUP_MODEL_NAME = "mobilenet_ssd";
+    // pipeline only: the model sees the full frame every ROI_FULL_FRAME_INTERVAL inferences, and a
+    // crop around the last subjects in between (more pixels on them, for the same inference cost)
+    private static final boolean ROI_CASCADE = true;
+    private static final int ROI_FULL_FRAME_INTERVAL = 5;
+    private static final float ROI_PADDING = 0.3f;
+    private static final float ROI_MIN_SIZE = 0.25f;
+    // the tracker of the selected subject (to be confirmed per device class with the offline
+    // TrackerBenchmark), re-seeded from the detections only on drift or every TRACKER_RESEED_INTERVAL frames;
+    // package-private for FaceTrackerMemoryTest
+    static final TrackerBackend TRACKER_BACKEND = TrackerBackend.KCF;
+    private static final int TRACKER_RESEED_INTERVAL = 30;
+    // pipeline only: while people are tracked, the detection runs on 1 moving frame out of
+    // DETECTION_INTERVAL, and the tracks predict the boxes of the frames in between
+    private static final int DETECTION_INTERVAL = 3;
+    private static final int MAX_TRACKS = 16;
+    private static final int MAX_TRACKED_DETECTIONS = 32;
+    // segmentation privacy: the background blurred by this radius (pixels of the model input),
+    // instead of black (0)
+    private static final int BACKGROUND_BLUR_RADIUS = 12;
     private boolean mFrameOrientation = false; // false -> portrait, true -> landscape
     private boolean mFrameOrientationChanged = false;
 
@@ -73,29 +133,67 @@ public class MainActivity extends AppCompatActivity {
     private Switch mCustomCoverSwitch;
     private Switch mRotateSwitch;
 
-    private boolean mNetworkLoaded;
+    // set by the EngineInitializer listener; until then the frames are skipped
+    private volatile boolean mNetworkLoaded;
+    private volatile boolean mModelSwitchPending;
+    private EngineInitializer mEngineInitializer;
+    // startup metric: onCreate -> first frame published with detections
+    private long mCreateTimeNs;
+    private volatile boolean mFirstMaskedFramePublished;
     private int mNV21FrameRotation;
     private boolean mInferenceSkipped;
     private Bitmap mNV21PreviewBitmap;
     private Bitmap mModelInputBitmap;
     private Canvas mModelInputCanvas;
     private Paint mModelBitmapPaint;
+    private final LumaStatistics mLumaStatistics = new LumaStatistics();
+    private final MotionGate mMotionGate = new MotionGate();
+    private ArrayList<Box> mLastFilteredBoxes;
     private final TimeStat mTimer = new TimeStat();
     private final TimeStat mTimer2 = new TimeStat();
+    // detections iterated per frame by the decoding, the tracking and the rendering (vs all the outputs)
+    private final IterationStats mIterationStats = new IterationStats();
+
+    // async pipeline: each stage thread has its own timer, and the tracking stage its own boxes
+    private FramePipeline mFramePipeline;
+    private final TimeStat mPreprocessTimer = new TimeStat();
+    private final TimeStat mInferenceTimer = new TimeStat();
+    private final ArrayList<Box> mPipelineFilteredBoxes = new ArrayList<>();
+    // the velocities of their edges, for the overlay to draw them at the display time
+    private float[] mPipelineVelocities = new float[4 * MAX_TRACKS];
+    private final RoiCascade mRoiCascade = new RoiCascade(ROI_CASCADE ? ROI_FULL_FRAME_INTERVAL : 1, ROI_PADDING, ROI_MIN_SIZE);
+    // the people of the detections, with their ids (tracking stage); the pre-processing only
+    // knows whether there are any, and counts the frames since the last detection
+    private final MultiObjectTracker mMultiTracker = new MultiObjectTracker(MAX_TRACKS, MAX_TRACKED_DETECTIONS);
+    private volatile boolean mTracksAlive;
+    private int mFramesSinceDetection;
+    // segmentation models: the person pixels of the model in use (inference stage), and whether
+    // the overlay shows a mask (tracking stage)
+    private ModelManifest mMaskManifest;
+    private MaskBuilder mMaskBuilder;
+    private boolean mMaskPublished;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mCreateTimeNs = System.nanoTime();
+
+        // load the network in the background, while OpenCV, the UI and the camera start
+        startNetInitializer();
 
-        // opencv setup
+        // opencv setup; the tracker is native, so it comes after it
         Boolean isOpenCvLoaded = OpenCVLoader.initDebug();
         Log.d(LOGTAG, "Loading OpenCV4Android... Success? " + isOpenCvLoaded.toString());
+        if (isOpenCvLoaded && mFaceTracker == null)
+            mFaceTracker = new FaceTracker(300, 300, TRACKER_BACKEND, new ReinitPolicy(
+                    ReinitPolicy.DEFAULT_MATCH_IOU, ReinitPolicy.DEFAULT_MAX_DRIFT, TRACKER_RESEED_INTERVAL));
 
 
         // populate UI
         setContentView(R.layout.activity_main);
         mOverlayRenderer = findViewById(R.id.overlayRenderer);
         mOverlayRenderer.setOrientation(mFrameOrientation);
+        mOverlayRenderer.setBackgroundBlur(BACKGROUND_BLUR_RADIUS);
         mPrivacySwitch = findViewById(R.id.privacy);
         mPrivacySwitch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             @Override
@@ -104,39 +202,126 @@ public class MainActivity extends AppCompatActivity {
               }
 
         });
+        mPrivacySwitch.setOnLongClickListener(v -> switchToNextModel());
 
       }
 
-    // this function makes sure we load the network the first time it's required - we could do it
-    // in the onCreate, but this will block the first paint of the UI, leaving a gray box
-    private void ensureNetCreated() {
-        if (mSnpeHelper == null) {
-            // load the neural network for object detection with SNPE
-            mSnpeHelper = new SNPEHelper(getApplication());
-            mFaceTracker = new FaceTracker(300, 300);
-            mTimer.startInterval();
-            mNetworkLoaded = mSnpeHelper.loadMobileNetSSDFromAssets();
-            mTimer.stopInterval("net_load", 1, false);
+    // the network is loaded and warmed up on its own thread; the frames are processed once it's ready
+    private void startNetInitializer() {
+        if (mSnpeHelper != null)
+            return;
+        mSnpeHelper = new SNPEHelper(getApplication());
+        mSnpeHelper.setInputTensorCount(getPipelineFramesInFlight());
+        mSnpeHelper.setClassPolicy(PRIVACY_CLASS_POLICY);
+        mEngineInitializer = new EngineInitializer(() -> {
+            final ModelRegistry registry = mSnpeHelper.getModelRegistry();
+            final ModelManifest manifest = registry.get(STARTUP_MODEL_NAME) != null ?
+                    registry.get(STARTUP_MODEL_NAME) : registry.getDefault();
+            if (manifest == null)
+                return null;
+            if (RUN_NET_LOAD_BENCHMARK)
+                Log.d(LOGTAG, mSnpeHelper.benchmarkNetLoad(manifest, NeuralNetwork.Runtime.GPU_FLOAT16, 3));
+            if (!mSnpeHelper.loadModelFromAssets(manifest))
+                return null;
+            Log.d(LOGTAG, "net_load " + (mSnpeHelper.wasLastNetLoadWarm() ? "warm" : "cold") + ": "
+                    + Math.round(mSnpeHelper.getLastNetLoadMs()) + " ms");
+            return mSnpeHelper.getInferenceEngine();
+        }, NET_WARMUP_RUNS);
+        mEngineInitializer.addListener(engine -> {
+            mNetworkLoaded = engine != null;
+            Log.d(LOGTAG, "Network " + (mNetworkLoaded ? "ready" : "NOT loaded") + " after " +
+                    (System.nanoTime() - mCreateTimeNs) / 1000000 + " ms (load " + Math.round(mEngineInitializer.getLoadMs()) +
+                    " ms, first inference " + Math.round(mEngineInitializer.getFirstWarmupMs()) + " ms, then " +
+                    Math.round(mEngineInitializer.getLastWarmupMs()) + " ms)");
 
             // update the text in the text box
             runOnUiThread(mUpdateTopLabelTask);
-        }
+        });
+        mEngineInitializer.start();
+    }
+
+    /**
+     * Hot swap to the next model of the registry: it loads and warms up in the background while
+     * the frames keep running on the current one, and comes in between two frames.
+     */
+    private boolean switchToNextModel() {
+        final ModelManifest current = mSnpeHelper.getModelManifest();
+        final ModelRegistry registry = mSnpeHelper.getModelRegistry();
+        final List<String> names = registry.getNames();
+        if (!mNetworkLoaded || mModelSwitchPending || current == null || names.size() < 2)
+            return false;
+        final String nextName = names.get((names.indexOf(current.name) + 1) % names.size());
+        mModelSwitchPending = true;
+        Toast.makeText(this, "Loading " + nextName + "...", Toast.LENGTH_SHORT).show();
+        final long startNs = System.nanoTime();
+        mSnpeHelper.switchModel(registry.get(nextName), NET_WARMUP_RUNS, engine -> {
+            mModelSwitchPending = false;
+            Log.d(LOGTAG, "Model " + nextName + (engine == null ? " NOT loaded, staying on " + current.name :
+                    " ready after " + (System.nanoTime() - startNs) / 1000000 + " ms, switching at the next frame"));
+        });
+        return true;
+    }
+
+    // once: time to the first frame with the detections (i.e. masked), from onCreate
+    private void onFramePublished(boolean hasDetections) {
+        if (!hasDetections || mFirstMaskedFramePublished)
+            return;
+        mFirstMaskedFramePublished = true;
+        final long elapsedMs = (System.nanoTime() - mCreateTimeNs) / 1000000;
+        mTimer.addInterval("first_masked_frame", elapsedMs, 1);
+        Log.d(LOGTAG, "Startup: first masked frame " + elapsedMs + " ms after onCreate");
     }
 
     @Override
     protected void onStart() {
         super.onStart();
+        if (USE_ASYNC_PIPELINE) {
+            if (mFramePipeline == null) {
+                mFramePipeline = new FramePipeline(mPreprocessStage, mInferenceStage, mTrackingStage, getPipelineFramesInFlight());
+                mFramePipeline.setReleaseListener(mReleaseInputTensor);
+            }
+            mFramePipeline.start();
+        }
         createCameraPreviewHelper();
     }
 
+    @Override
+    protected void onStop() {
+        if (mFramePipeline != null) {
+            mFramePipeline.stop();
+            Log.d(LOGTAG, "Frame pipeline stopped (" + getPipelineModeName() + "): " +
+                    mTimer.getAverageTickFrequency("published") + " fps, " +
+                    mTimer.getAverageInterval("e2e_latency") + " ms latency\n" + mFramePipeline + "\n" + mRoiCascade);
+            mRoiCascade.reset();
+            mMultiTracker.reset();
+            mTracksAlive = false;
+        }
+        Log.d(LOGTAG, "Motion gate: " + mMotionGate);
+        mMotionGate.resetMetrics();
+        Log.d(LOGTAG, "Frame luma: " + mLumaStatistics);
+        mLumaStatistics.resetMetrics();
+        Log.d(LOGTAG, "Detections iterated per frame (" + PRIVACY_CLASS_POLICY + "): " + mIterationStats);
+        if (mFaceTracker != null)
+            Log.d(LOGTAG, "Tracker: " + mFaceTracker);
+        Log.d(LOGTAG, "Overlay snapshots: " + mOverlayRenderer.getSnapshotStatistics());
+        Log.d(LOGTAG, "Overlay draws: " + mOverlayRenderer.getDrawStatistics());
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        // the camera and the pipeline are stopped: free the native buffers of the tracker
+        if (mFaceTracker != null)
+            mFaceTracker.release();
+        super.onDestroy();
+    }
+
     private final CameraPreviewHelper.Callbacks mCameraPreviewCallbacks = new CameraPreviewHelper.Callbacks() {
         @Override
         public Resolution selectPreviewResolution(Iterable<Resolution> resolutions) {
-            // defer net creation to this moment, so the UI has time to be flushed
-            ensureNetCreated();
-
             // This function selects the resolution (amongst the set of possible 'preview'
             // resolutions) which is closest to the input resolution of the model (but not smaller)
+            // the network may still be loading: don't wait for it, MobileNet-SSD takes 300x300
             final int fallbackSize = 300; // if the input is not reliable, just assume some size;
             final int targetWidth =  mNetworkLoaded ? mSnpeHelper.getInputTensorWidth() : fallbackSize;
             final int targetHeight = mNetworkLoaded ? mSnpeHelper.getInputTensorHeight() : fallbackSize;
@@ -169,10 +354,83 @@ public class MainActivity extends AppCompatActivity {
             if (!getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED))
                 return;
 
-            // [2ms] convert NV21-format preview frame -> RGBA Bitmap (same size)
+            // [0.3ms] copy the frame and return, so that the preview is never stalled by the inference
+            if (USE_ASYNC_PIPELINE) {
+                mFramePipeline.submit(frame.getImage(), frame.getSize().width, frame.getSize().height, frame.getRotation());
+                mTimer2.tick("cam", 10);
+                return;
+            }
+
             mTimer2.startInterval();
-            mTimer.startInterval();
             mNV21FrameRotation = frame.getRotation();
+
+            // [0.1ms] reject covered-lens and dark frames from the Y plane, before any conversion
+            mTimer.startInterval();
+            final boolean frameUsable = mLumaStatistics.analyze(frame.getImage(), frame.getSize().width, frame.getSize().height);
+            mTimer.stopInterval("luma", 10, false);
+
+            // [0.05ms] static scene: skip the inference and re-publish the previous results
+            mTimer.startInterval();
+            final boolean frameMoved = frameUsable && mMotionGate.shouldInfer(frame.getImage(), frame.getSize().width, frame.getSize().height);
+            mTimer.stopInterval("motion", 10, false);
+            if (frameUsable && !frameMoved) {
+                mOverlayRenderer.setBoxesFromAnotherThread(mLastFilteredBoxes);
+                mTimer2.stopInterval("frame", 10, false);
+                mTimer2.tick("cam", 10);
+                runOnUiThread(mUpdateTopLabelTask);
+                return;
+            }
+
+            // unusable frames have no results, as if the inference had been skipped
+            final ArrayList<Box> boxes = !frameUsable ? null : USE_FUSED_NV21_KERNEL ?
+                    inferenceOnNV21Frame(frame) : inferenceThroughBitmaps(frame);
+            if (boxes != null)
+                recordDecodeIterations();
+            else
+                // dark, black, or no model: the next frames must not re-use the results from before
+                mMotionGate.invalidate();
+
+            /**
+             * Face Tracking here
+             */
+            mTimer.startInterval();
+            float thresh = mOverlayRenderer.getBoxScoreThreshold();
+            // (no tracker without OpenCV: the boxes as they are)
+            ArrayList<Box> filteredBoxes = mFaceTracker == null ? boxes : USE_FUSED_NV21_KERNEL ?
+                    mFaceTracker.removeTrackedBox(mSnpeHelper.getModelInputPixels(), mSnpeHelper.getInputTensorWidth(), mSnpeHelper.getInputTensorHeight(), boxes, thresh) :
+                    mFaceTracker.removeTrackedBox(mModelInputBitmap, boxes, thresh);
+            mTimer.stopInterval("track", 10, false);
+           /**
+             * End of Face Tracking, boxes is mutable
+             */
+            mInferenceSkipped = filteredBoxes == null;
+            mLastFilteredBoxes = filteredBoxes;
+
+            // publish a copy of the results (never waiting for a draw), to draw while guessing the next set
+            mOverlayRenderer.setBoxesFromAnotherThread(filteredBoxes);
+            recordPublishIterations(filteredBoxes);
+            onFramePublished(filteredBoxes != null);
+
+            // done, schedule a UI update
+            mTimer2.stopInterval("frame", 10, false);
+            mTimer2.tick("cam", 10);
+            runOnUiThread(mUpdateTopLabelTask);
+        }
+
+        // single pass: NV21 preview frame -> model input tensor (and its pixels, for tracking)
+        private ArrayList<Box> inferenceOnNV21Frame(Frame frame) {
+            // [1ms + 2-45ms] rotate, letterbox, scale and normalize straight into the tensor, then infer
+            mTimer.startInterval();
+            final int rotation = mFrameOrientation ? 0 : frame.getRotation();
+            final ArrayList<Box> boxes = mSnpeHelper.mobileNetSSDInference(frame.getImage(), frame.getSize().width, frame.getSize().height, rotation);
+            mTimer.stopInterval("detect", 10, false);
+            return boxes;
+        }
+
+        // three passes: NV21 -> RGBA Bitmap (preview size) -> model input Bitmap (Canvas) -> tensor
+        private ArrayList<Box> inferenceThroughBitmaps(Frame frame) {
+            // [2ms] convert NV21-format preview frame -> RGBA Bitmap (same size)
+            mTimer.startInterval();
             mNV21PreviewBitmap = mNV21ConversionHelper.convert(frame.getImage(), frame.getSize().width, frame.getSize().height);
             mTimer.stopInterval("nv21conv", 10, false);
 
@@ -227,26 +485,7 @@ public class MainActivity extends AppCompatActivity {
             mTimer.startInterval();
             final ArrayList<Box> boxes = mSnpeHelper.mobileNetSSDInference(mModelInputBitmap);
             mTimer.stopInterval("detect", 10, false);
-
-            /**
-             * Face Tracking here
-             */
-            mTimer.startInterval();
-            float thresh = mOverlayRenderer.getBoxScoreThreshold();
-            ArrayList<Box> filteredBoxes = mFaceTracker.removeTrackedBox(mModelInputBitmap, boxes, thresh);
-            mTimer.stopInterval("track", 10, false);
-           /**
-             * End of Face Tracking, boxes is mutable
-             */
-            mInferenceSkipped = filteredBoxes == null;
-
-            // deep copy the results so we can draw the current set while guessing the next set
-            mOverlayRenderer.setBoxesFromAnotherThread(filteredBoxes);
-
-            // done, schedule a UI update
-            mTimer2.stopInterval("frame", 10, false);
-            mTimer2.tick("cam", 10);
-            runOnUiThread(mUpdateTopLabelTask);
+            return boxes;
         }
     };
 
@@ -279,4 +518,223 @@ public class MainActivity extends AppCompatActivity {
         //((TextView) findViewById(R.id.text)).setText(txt);
 
     };
+
+    // the outputs the decoding looked at (before: all of them were decoded)
+    private void recordDecodeIterations() {
+        mIterationStats.record("decode", mSnpeHelper.getLastDetections().getLastScannedCount(), SnpeInferenceEngine.MNETSSD_NUM_BOXES);
+    }
+
+    // the tracker and onDraw iterate the published boxes (before: all the outputs, of any class)
+    private void recordPublishIterations(ArrayList<Box> boxes) {
+        if (boxes == null)
+            return;
+        mIterationStats.record("track", boxes.size(), SnpeInferenceEngine.MNETSSD_NUM_BOXES);
+        mIterationStats.record("render", boxes.size(), SnpeInferenceEngine.MNETSSD_NUM_BOXES);
+    }
+
+    private static int getPipelineFramesInFlight() {
+        return PIPELINE_THROUGHPUT_MODE ? PIPELINE_THROUGHPUT_FRAMES : 1;
+    }
+
+    private static String getPipelineModeName() {
+        return PIPELINE_THROUGHPUT_MODE ? "throughput mode, " + PIPELINE_THROUGHPUT_FRAMES + " frames in flight" : "latency mode";
+    }
+
+    // gives the input tensor back, for frames dropped or done with the inference; and forgets the
+    // motion reference if its results were discarded (mailbox overflow, black frame, model switch)
+    private final FramePipeline.ReleaseListener mReleaseInputTensor = frame -> {
+        if (frame.inputSlot >= 0) {
+            mSnpeHelper.releaseInputTensor(frame.inputSlot);
+            frame.inputSlot = -1;
+        }
+        if (frame.motionReference) {
+            frame.motionReference = false;
+            mMotionGate.invalidate();
+        }
+    };
+
+    // pipeline stage 1: luma and motion gates, then NV21 -> a free input tensor (and pixels, for the tracker)
+    private final FramePipeline.Stage mPreprocessStage = frame -> {
+        // [0.1ms] reject covered-lens and dark frames from the Y plane, before any conversion
+        mPreprocessTimer.startInterval();
+        final boolean frameUsable = mLumaStatistics.analyze(frame.image, frame.width, frame.height);
+        mPreprocessTimer.stopInterval("luma", 10, false);
+        if (!frameUsable) {
+            // unusable frames have no results, as if the inference had been skipped, and the
+            // frames that follow must not re-use the results from before them
+            frame.needsInference = false;
+            mMotionGate.invalidate();
+            return true;
+        }
+
+        // people are tracked: detect on 1 frame out of DETECTION_INTERVAL, and move the tracks
+        // on the others (the segmentation masks can't be moved). Before the motion gate, so that
+        // its reference stays the last inferred frame.
+        if (++mFramesSinceDetection < DETECTION_INTERVAL && mTracksAlive && mSnpeHelper.getLastSegmentation() == null) {
+            frame.needsInference = false;
+            frame.predictTracks = true;
+            return true;
+        }
+
+        // [0.05ms] static scene: skip the inference and re-publish the previous results
+        mPreprocessTimer.startInterval();
+        final boolean frameMoved = mMotionGate.shouldInfer(frame.image, frame.width, frame.height);
+        mPreprocessTimer.stopInterval("motion", 10, false);
+        if (!frameMoved) {
+            frame.needsInference = false;
+            frame.reusePreviousResults = true;
+            return true;
+        }
+        frame.motionReference = true;
+        mFramesSinceDetection = 0;
+
+        // [1ms] rotate, letterbox, scale and normalize straight into a free input tensor (there is
+        // one per frame in flight, so this doesn't wait); the whole frame, or the RoiCascade's crop
+        mPreprocessTimer.startInterval();
+        try {
+            frame.inputSlot = mSnpeHelper.acquireInputTensor();
+        } catch (InterruptedException e) {
+            // the pipeline is stopping
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        final int inputPixels = mSnpeHelper.getInputTensorWidth() * mSnpeHelper.getInputTensorHeight();
+        if (frame.inputPixels == null || frame.inputPixels.length != inputPixels)
+            frame.inputPixels = new int[inputPixels];
+        final int rotation = mFrameOrientation ? 0 : frame.rotation;
+        // the crops are for the detections: a segmentation always sees the whole frame
+        if (mSnpeHelper.getLastSegmentation() == null)
+            mRoiCascade.nextRoi(frame.roi);
+        final boolean notBlack = mSnpeHelper.preprocessNV21(frame.image, frame.width, frame.height, rotation, frame.inputSlot, frame.roi, frame.inputPixels);
+        mPreprocessTimer.stopInterval("preproc", 10, false);
+        if (!notBlack) {
+            frame.needsInference = false;
+            mReleaseInputTensor.onFrameReleased(frame);
+        }
+        return true;
+    };
+
+    // pipeline stage 2: inference, with the boxes copied into the frame
+    private final FramePipeline.Stage mInferenceStage = frame -> {
+        if (!frame.needsInference)
+            return true;
+        // [2-45ms] SNPE inference on the prepared tensor, which is free for the next frame afterwards
+        mInferenceTimer.startInterval();
+        frame.setResults(mSnpeHelper.mobileNetSSDInference(frame.inputSlot, frame.roi));
+        if (frame.hasResults) {
+            mRoiCascade.update(frame.roi, mSnpeHelper.getLastDetections());
+            recordDecodeIterations();
+            buildMask(frame);
+        }
+        mReleaseInputTensor.onFrameReleased(frame);
+        mInferenceTimer.stopInterval("detect", 10, false);
+        return true;
+    };
+
+    // [1ms] segmentation models: the person pixels, packed into the frame (the outputs are overwritten by the next inference)
+    private void buildMask(PipelineFrame frame) {
+        final SegmentationOutputs segmentation = mSnpeHelper.getLastSegmentation();
+        final ModelManifest manifest = mSnpeHelper.getModelManifest();
+        if (segmentation == null || manifest == null)
+            return;
+        if (manifest != mMaskManifest) {
+            final int personClassId = manifest.findClassId("person");
+            mMaskBuilder = personClassId < 0 ? null : new MaskBuilder(personClassId);
+            mMaskManifest = manifest;
+            if (mMaskBuilder == null)
+                Log.w(LOGTAG, "The model " + manifest.name + " has no person class: no privacy mask");
+        }
+        if (mMaskBuilder == null)
+            return;
+        mMaskBuilder.build(segmentation, frame.mask);
+        frame.hasMask = true;
+    }
+
+    // pipeline stage 3: tracking, and publishing to the overlay
+    private final FramePipeline.Stage mTrackingStage = frame -> {
+        if (frame.reusePreviousResults) {
+            // the overlay keeps the last mask as is
+            if (!mMaskPublished)
+                mOverlayRenderer.setBoxesFromAnotherThread(mLastFilteredBoxes);
+            mTimer.tick("published", 10);
+            runOnUiThread(mUpdateTopLabelTask);
+            return true;
+        }
+
+        // [0.05ms] no inference for this frame: the boxes of the tracks, moved to it
+        if (frame.predictTracks) {
+            mTimer.startInterval();
+            mMultiTracker.predict(frame.captureTimeNs);
+            mMultiTracker.getBoxes(frame.captureTimeNs, mPipelineFilteredBoxes, mPipelineVelocities);
+            mTimer.stopInterval("predict", 10, false);
+            mLastFilteredBoxes = mPipelineFilteredBoxes;
+            mOverlayRenderer.setBoxesFromAnotherThread(mLastFilteredBoxes, mPipelineVelocities, frame.captureTimeNs);
+            mMaskPublished = false;
+            recordPublishIterations(mLastFilteredBoxes);
+            onFramePublished(true);
+            mTimer.addInterval("e2e_latency", (System.nanoTime() - frame.captureTimeNs) / 1000000, 10);
+            mTimer.tick("published", 10);
+            runOnUiThread(mUpdateTopLabelTask);
+            return true;
+        }
+
+        // [3ms] segmentation privacy: the mask, upsampled and composited into the cover of the overlay
+        // (or the model input pixels, blurred around the person)
+        if (frame.hasMask) {
+            mTimer.startInterval();
+            mOverlayRenderer.setMaskFromAnotherThread(frame.mask, frame.width, frame.height,
+                    frame.inputPixels, mSnpeHelper.getInputTensorWidth(), mSnpeHelper.getInputTensorHeight());
+            mTimer.stopInterval("mask", 10, false);
+            mMaskPublished = true;
+            frame.motionReference = false;
+            mMultiTracker.reset();
+            mTracksAlive = false;
+            onFramePublished(true);
+            mTimer.addInterval("e2e_latency", (System.nanoTime() - frame.captureTimeNs) / 1000000, 10);
+            mTimer.tick("published", 10);
+            runOnUiThread(mUpdateTopLabelTask);
+            return true;
+        }
+
+        // [0.5ms] the tracker reads the pixels of the model input straight from the frame (unless
+        // they're of the model before a switch)
+        mTimer.startInterval();
+        final int inputWidth = mSnpeHelper.getInputTensorWidth();
+        final int inputHeight = mSnpeHelper.getInputTensorHeight();
+        final boolean trackable = frame.hasResults && frame.inputPixels != null && frame.inputPixels.length == inputWidth * inputHeight;
+        float thresh = mOverlayRenderer.getBoxScoreThreshold();
+        final ArrayList<Box> trackedBoxes = trackable ? frame.boxes : null;
+        ArrayList<Box> filteredBoxes = mFaceTracker == null ? trackedBoxes :
+                mFaceTracker.removeTrackedBox(frame.inputPixels, inputWidth, inputHeight, trackedBoxes, thresh);
+        mTimer.stopInterval("track", 10, false);
+        mInferenceSkipped = filteredBoxes == null;
+        if (trackable)
+            frame.motionReference = false;
+
+        // the frame (and its boxes) goes back to the pool: keep our own copy, for the static scenes
+        // [0.1ms] the people get their track ids, for the predicted frames that follow
+        if (filteredBoxes == null) {
+            mLastFilteredBoxes = null;
+            mMultiTracker.reset();
+        } else {
+            Box.copyBoxes(filteredBoxes, mPipelineFilteredBoxes);
+            mLastFilteredBoxes = mPipelineFilteredBoxes;
+            mMultiTracker.update(mPipelineFilteredBoxes, thresh, frame.captureTimeNs);
+            if (mPipelineVelocities.length < 4 * mPipelineFilteredBoxes.size())
+                mPipelineVelocities = new float[4 * mPipelineFilteredBoxes.size()];
+            for (int i = 0; i < mPipelineFilteredBoxes.size(); i++)
+                mMultiTracker.getVelocity(mPipelineFilteredBoxes.get(i).track_id, mPipelineVelocities, 4 * i);
+        }
+        mTracksAlive = mMultiTracker.getTrackCount() > 0;
+        mOverlayRenderer.setBoxesFromAnotherThread(mLastFilteredBoxes, mPipelineVelocities, frame.captureTimeNs);
+        mMaskPublished = false;
+        recordPublishIterations(mLastFilteredBoxes);
+        onFramePublished(mLastFilteredBoxes != null);
+
+        // done, schedule a UI update
+        mTimer.addInterval("e2e_latency", (System.nanoTime() - frame.captureTimeNs) / 1000000, 10);
+        mTimer.tick("published", 10);
+        runOnUiThread(mUpdateTopLabelTask);
+        return true;
+    };
 }
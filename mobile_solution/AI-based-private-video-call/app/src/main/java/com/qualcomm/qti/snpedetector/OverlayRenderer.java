@@ -7,9 +7,12 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.BitmapFactory;
 import android.graphics.Bitmap;
+import android.graphics.Matrix;
 import android.graphics.Path;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.Region;
+import android.os.Build;
 import android.support.annotation.Nullable;
 import android.support.constraint.ConstraintLayout;
 import android.util.ArrayMap;
@@ -17,8 +20,19 @@ import android.util.AttributeSet;
 import android.view.View;
 import android.util.Log;
 
+import com.qualcomm.qti.snpedetector.helpers.DrawStats;
+import com.qualcomm.qti.snpedetector.overlay.OverlayGeometry;
+import com.qualcomm.qti.snpedetector.pipeline.BoxSnapshot;
+import com.qualcomm.qti.snpedetector.pipeline.TripleBuffer;
+import com.qualcomm.qti.snpedetector.segmentation.BlurCompositor;
+import com.qualcomm.qti.snpedetector.segmentation.MaskCompositor;
+import com.qualcomm.qti.snpedetector.segmentation.PackedMask;
+import com.qualcomm.qti.snpedetector.tracking.BoxPropagator;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 import java.lang.Math;
@@ -27,12 +41,57 @@ import static java.lang.Math.abs;
 
 public class OverlayRenderer extends View {
     public static final String LOGTAG = "SNPEDetector:OverlayRenderer";
-    private boolean mFrameOrientation = false; // 0 -> portrait, 1 -> landscape
-
-    private ReentrantLock mLock = new ReentrantLock();
-    private ArrayList<Box> mBoxes = new ArrayList<>();
+    private volatile boolean mFrameOrientation = false; // 0 -> portrait, 1 -> landscape
+    // the size of the view for the publishing thread, which can't ask the View (set on the UI thread)
+    private volatile int mViewWidth;
+    private volatile int mViewHeight;
+
+    // the results, from the publishing thread to onDraw without any lock: the publisher fills
+    // a snapshot of its own and swaps it in, onDraw reads the latest complete one
+    private final TripleBuffer<BoxSnapshot> mSnapshots = new TripleBuffer<>(new BoxSnapshot(), new BoxSnapshot(), new BoxSnapshot());
+    private long mSnapshotSequence;
+    private final AtomicBoolean mApplyPosted = new AtomicBoolean();
+
+    // what is drawn (UI thread): the snapshot is applied before the draws, that only draw it, and
+    // only what changed by more than the epsilon is redrawn (see applySnapshot())
+    private final OverlayGeometry mGeometry = new OverlayGeometry();
+    private long mShownSequence = -1;
+    private boolean mShownResults;
+    private boolean mShownMask;
+    // the view or the settings changed: all of the geometry is to compute again, and to redraw
+    private boolean mGeometryStale = true;
+    private boolean mAnimationPosted;
+    // the geometry as paths, re-used: the background (with holes) and the boxes
+    private final Path mBackgroundPath = new Path();
+    private final Path mBoxesPath = new Path();
+    private boolean mPathsStale = true;
+    private final DrawStats mDrawStats = new DrawStats();
+    private long mGeometryAllocations;
+
+    // segmentation privacy: the mask, composited into a cover (transparent person, black elsewhere)
+    // at up to the preview resolution, drawn over the view instead of the boxes
+    private static final int COVER_STRIPES = Math.min(2, Runtime.getRuntime().availableProcessors());
+    private MaskCompositor mMaskCompositor;
+    // or the background blurred instead of black: the cover is then the model input, blurred
+    // outside the person (feathered), at its resolution (scaled up with filtering when drawn)
+    private static final int BLUR_DOWNSAMPLE = 2;
+    private static final int BLUR_FEATHER_RADIUS = 3;
+    private BlurCompositor mBlurCompositor;
+    private volatile int mBlurRadius;
+    private int mAppliedBlurRadius;
+    // the compositors (and their worker threads) live while the view is attached: the publishing
+    // thread composites, and the UI thread creates and shuts them down, only under this lock, so
+    // that a composite never runs on a stopped pool (null: detached)
+    private final ReentrantLock mCompositorLock = new ReentrantLock();
+    // (the cover is a Bitmap: it's only swapped under this lock, and drawn under it)
+    private final ReentrantLock mCoverLock = new ReentrantLock();
+    private int[] mCoverPixels;
+    private Bitmap mCoverBitmap;
+    private final Matrix mCoverMatrix = new Matrix();
+    private final RectF mCoverRect = new RectF();
+    private final float[] mCoverMatrixValues = new float[9];
+    private final Paint mCoverPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
 
-    private boolean mHasResults;
     private Paint mOutlinePaint = new Paint();
     private Paint mFillPaint = new Paint();
     private Paint mEmojiPaint = new Paint();
@@ -43,7 +102,6 @@ public class OverlayRenderer extends View {
 
     private int mEmojiSize = 300;
     private String mEmoji = "\uD83D\uDE0A";
-    private int flag =0;
 
     private float selectedX;
     private float selectedY;
@@ -68,11 +126,18 @@ public class OverlayRenderer extends View {
     }
 
     public void setOrientation(boolean o) {
+        if (o == mFrameOrientation)
+            return;
         mFrameOrientation = o;
+        mGeometryStale = true;
+        postApplySnapshot();
     }
 
     public void setEnablePrivacy(boolean o){
+        if (o == mEnablePrivacy)
+            return;
         mEnablePrivacy = o;
+        invalidate();
     }
 
 
@@ -81,6 +146,17 @@ public class OverlayRenderer extends View {
     }
     public void setNextBoxScoreThreshold(float scoreThreshold) {
         mBoxScoreThreshold = scoreThreshold;
+        mGeometryStale = true;
+    }
+
+    /**
+     * Segmentation privacy: the background blurred by 'radius' pixels of the model input instead
+     * of black (0: black). Applies from the next mask.
+     */
+    public void setBackgroundBlur(int radius) {
+        if (radius < 0 || (radius + BLUR_DOWNSAMPLE / 2) / BLUR_DOWNSAMPLE > BlurCompositor.MAX_RADIUS)
+            throw new IllegalArgumentException("bad blur radius " + radius);
+        mBlurRadius = radius;
     }
 
     public void setEmojiSize(int size){
@@ -99,22 +175,251 @@ public class OverlayRenderer extends View {
     }
 
     public void setBoxesFromAnotherThread(ArrayList<Box> nextBoxes) {
-        mLock.lock();
-        if (nextBoxes == null) {
-            mHasResults = false;
-            for (Box box : mBoxes)
-                box.type_score = 0;
+        setBoxesFromAnotherThread(nextBoxes, null, System.nanoTime());
+    }
+
+    /**
+     * The boxes of the frame captured at timeNs (System.nanoTime()), with the velocities of their
+     * edges (see MultiObjectTracker.getBoxes()): until the next ones, they are extrapolated to the
+     * time of each draw (for up to BoxPropagator.MAX_EXTRAPOLATION_NS).
+     * <p>
+     * Never waits for a draw. Only one thread may publish (boxes or masks) at a time.
+     */
+    public void setBoxesFromAnotherThread(ArrayList<Box> nextBoxes, float[] velocities, long timeNs) {
+        mSnapshots.getWriteBuffer().set(++mSnapshotSequence, timeNs, nextBoxes, velocities);
+        mSnapshots.publish();
+        postApplySnapshot();
+    }
+
+    // the publications vs the draws, e.g. "published 900, read 600 (300 overwritten before being read)"
+    public String getSnapshotStatistics() {
+        return mSnapshots.toString();
+    }
+
+    // the cost of the draws on the UI thread, and how many updates were redrawn or skipped
+    public String getDrawStatistics() {
+        return mDrawStats.toString();
+    }
+
+    public void setMaskFromAnotherThread(PackedMask mask, int previewWidth, int previewHeight) {
+        setMaskFromAnotherThread(mask, previewWidth, previewHeight, null, 0, 0);
+    }
+
+    /**
+     * Segmentation privacy: the mask of the foreground over the model input (the space of the
+     * boxes), for a preview of previewWidth x previewHeight. The cover is composited here, on the
+     * calling thread (and the workers of the compositor), not on the UI thread.
+     * <p>
+     * With a background blur, the pixels of the model input (inputWidth x inputHeight, ARGB, over
+     * the mask) are blurred into the cover; without them, the background is black. Ignored
+     * before the first layout, and while the view is detached.
+     */
+    public void setMaskFromAnotherThread(PackedMask mask, int previewWidth, int previewHeight,
+                                         int[] inputPixels, int inputWidth, int inputHeight) {
+        final int viewWidth = mViewWidth;
+        final int viewHeight = mViewHeight;
+        final boolean landscape = mFrameOrientation;
+        if (viewWidth == 0 || viewHeight == 0)
+            return;
+
+        // the part of the model input on the view, as in onDraw: boxes at u,v (0..1) are drawn at
+        // X = viewWidth + dx - size * u, Y = size * v - dy (portrait), or at X = viewWidth + dx - size * v,
+        // Y = viewHeight + dy - size * u (landscape)
+        final int virtualSize = Math.max(viewWidth, viewHeight);
+        final int virtualDx = (virtualSize - viewWidth) / 2;
+        final int virtualDy = (virtualSize - viewHeight) / 2;
+        final float uBegin, uEnd, vBegin, vEnd;
+        if (landscape) {
+            uBegin = clamp01((float) virtualDy / virtualSize);
+            uEnd = clamp01((float) (viewHeight + virtualDy) / virtualSize);
+            vBegin = clamp01((float) virtualDx / virtualSize);
+            vEnd = clamp01((float) (viewWidth + virtualDx) / virtualSize);
         } else {
-            mHasResults = true;
-            for (int i = 0; i < nextBoxes.size(); i++) {
-                final Box otherBox = nextBoxes.get(i);
-                if (i >= mBoxes.size())
-                    mBoxes.add(new Box());
-                otherBox.copyTo(mBoxes.get(i));
+            uBegin = clamp01((float) virtualDx / virtualSize);
+            uEnd = clamp01((float) (viewWidth + virtualDx) / virtualSize);
+            vBegin = clamp01((float) virtualDy / virtualSize);
+            vEnd = clamp01((float) (viewHeight + virtualDy) / virtualSize);
+        }
+        if (uBegin >= uEnd || vBegin >= vEnd)
+            return;
+
+        final int blurRadius = mBlurRadius;
+        final boolean blur = blurRadius > 0 && inputPixels != null && inputWidth > 0 && inputHeight > 0
+                && inputPixels.length >= inputWidth * inputHeight;
+        final int coverWidth, coverHeight;
+        mCompositorLock.lock();
+        try {
+            // (the view is detached: the compositors are shut down)
+            if (mMaskCompositor == null)
+                return;
+            if (blur) {
+                // the model input over the view, blurred outside the person
+                coverWidth = Math.max(1, Math.round(inputWidth * (uEnd - uBegin)));
+                coverHeight = Math.max(1, Math.round(inputHeight * (vEnd - vBegin)));
+                if (mCoverPixels == null || mCoverPixels.length != coverWidth * coverHeight)
+                    mCoverPixels = new int[coverWidth * coverHeight];
+                final int x0 = Math.min(Math.round(inputWidth * uBegin), inputWidth - coverWidth);
+                final int y0 = Math.min(Math.round(inputHeight * vBegin), inputHeight - coverHeight);
+                for (int y = 0; y < coverHeight; y++)
+                    System.arraycopy(inputPixels, (y0 + y) * inputWidth + x0, mCoverPixels, y * coverWidth, coverWidth);
+                if (blurRadius != mAppliedBlurRadius) {
+                    mBlurCompositor.setBlur(blurRadius, BLUR_FEATHER_RADIUS, BLUR_DOWNSAMPLE);
+                    mAppliedBlurRadius = blurRadius;
+                }
+                mBlurCompositor.setMaskRegion(uBegin, vBegin, uEnd, vEnd);
+                mBlurCompositor.coverArgb(mask, mCoverPixels, coverWidth, coverHeight);
+            } else {
+                // 1 cover pixel per view pixel, down to the preview resolution
+                final float scale = Math.min(1f, (float) Math.max(previewWidth, previewHeight) / Math.max(viewWidth, viewHeight));
+                coverWidth = Math.max(1, Math.round(virtualSize * (uEnd - uBegin) * scale));
+                coverHeight = Math.max(1, Math.round(virtualSize * (vEnd - vBegin) * scale));
+                if (mCoverPixels == null || mCoverPixels.length != coverWidth * coverHeight)
+                    mCoverPixels = new int[coverWidth * coverHeight];
+                Arrays.fill(mCoverPixels, 0);
+                mMaskCompositor.setMaskRegion(uBegin, vBegin, uEnd, vEnd);
+                mMaskCompositor.compositeArgb(mask, mCoverPixels, coverWidth, coverHeight, Color.BLACK);
             }
+        } finally {
+            mCompositorLock.unlock();
         }
-        mLock.unlock();
-        postInvalidate();
+
+        // cover pixel (x, y) -> u = uBegin + x * du, v = vBegin + y * dv -> view
+        final float du = virtualSize * (uEnd - uBegin) / coverWidth;
+        final float dv = virtualSize * (vEnd - vBegin) / coverHeight;
+        final float[] m = mCoverMatrixValues;
+        Arrays.fill(m, 0);
+        if (landscape) {
+            m[Matrix.MSKEW_X] = -dv;
+            m[Matrix.MTRANS_X] = viewWidth + virtualDx - virtualSize * vBegin;
+            m[Matrix.MSKEW_Y] = -du;
+            m[Matrix.MTRANS_Y] = viewHeight + virtualDy - virtualSize * uBegin;
+        } else {
+            m[Matrix.MSCALE_X] = -du;
+            m[Matrix.MTRANS_X] = viewWidth + virtualDx - virtualSize * uBegin;
+            m[Matrix.MSCALE_Y] = dv;
+            m[Matrix.MTRANS_Y] = virtualSize * vBegin - virtualDy;
+        }
+        m[Matrix.MPERSP_2] = 1;
+
+        mCoverLock.lock();
+        if (mCoverBitmap == null || mCoverBitmap.getWidth() != coverWidth || mCoverBitmap.getHeight() != coverHeight)
+            mCoverBitmap = Bitmap.createBitmap(coverWidth, coverHeight, Bitmap.Config.ARGB_8888);
+        mCoverBitmap.setPixels(mCoverPixels, 0, coverWidth, 0, 0, coverWidth, coverHeight);
+        mCoverMatrix.setValues(m);
+        mCoverRect.set(0, 0, coverWidth, coverHeight);
+        mCoverMatrix.mapRect(mCoverRect);
+        mCoverLock.unlock();
+        mSnapshots.getWriteBuffer().setMask(++mSnapshotSequence, System.nanoTime());
+        mSnapshots.publish();
+        postApplySnapshot();
+    }
+
+    // from any thread: the UI thread applies the latest snapshot (once for any number of them)
+    private void postApplySnapshot() {
+        if (mApplyPosted.compareAndSet(false, true))
+            post(mApplySnapshotTask);
+    }
+
+    private final Runnable mApplySnapshotTask = () -> {
+        mApplyPosted.set(false);
+        applySnapshot();
+    };
+
+    // while the boxes move: once per display frame
+    private final Runnable mAnimateTask = () -> {
+        mAnimationPosted = false;
+        applySnapshot();
+    };
+
+    /**
+     * UI thread: takes the latest snapshot and moves its boxes to now; only if they changed by more
+     * than the epsilon (or the results, the view or the settings changed) are the paths rebuilt
+     * and the view invalidated.
+     */
+    private void applySnapshot() {
+        final BoxSnapshot snapshot = mSnapshots.getReadBuffer();
+        final boolean newSnapshot = snapshot.sequence != mShownSequence;
+        mShownSequence = snapshot.sequence;
+        final boolean stateChanged = snapshot.hasResults != mShownResults || snapshot.hasMask != mShownMask;
+        mShownResults = snapshot.hasResults;
+        mShownMask = snapshot.hasMask;
+
+        // no boxes: the X, or a new mask cover
+        if (!snapshot.hasResults || snapshot.hasMask) {
+            mGeometry.clear();
+            if (stateChanged || (snapshot.hasMask && newSnapshot)) {
+                mDrawStats.recordUpdate();
+                invalidate();
+            } else if (newSnapshot) {
+                mDrawStats.recordSkippedUpdate();
+            }
+            return;
+        }
+
+        // [s] the boxes move from the time of their frame to now
+        final long sinceBoxesNs = snapshot.moving ? snapshot.getAgeNs(System.nanoTime()) : 0;
+        final float dt = Math.max(0, Math.min(sinceBoxesNs, BoxPropagator.MAX_EXTRAPOLATION_NS)) * 1e-9f;
+        final int viewWidth = getWidth();
+        final int viewHeight = getHeight();
+        final int virtualSize = Math.max(viewWidth, viewHeight);
+        mGeometry.setView(viewWidth, viewHeight, virtualSize, mFrameOrientation);
+        final boolean full = stateChanged || mGeometryStale;
+        mGeometryStale = false;
+        // the whole view: with hardware acceleration (API 21+) a dirty rect is ignored anyway
+        if (mGeometry.update(snapshot, dt, mBoxScoreThreshold) || full) {
+            mPathsStale = true;
+            mDrawStats.recordUpdate();
+            invalidate();
+        } else if (newSnapshot) {
+            mDrawStats.recordSkippedUpdate();
+        }
+
+        // keep following the motion on every display frame, until the next boxes (or the limit:
+        // stale boxes stay where they are)
+        if (snapshot.moving && sinceBoxesNs < BoxPropagator.MAX_EXTRAPOLATION_NS && !mAnimationPosted) {
+            mAnimationPosted = true;
+            postOnAnimation(mAnimateTask);
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mViewWidth = w;
+        mViewHeight = h;
+        mGeometryStale = true;
+        mPathsStale = true;
+        postApplySnapshot();
+    }
+
+    private static float clamp01(float value) {
+        return Math.max(0, Math.min(1, value));
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mCompositorLock.lock();
+        if (mMaskCompositor == null) {
+            mMaskCompositor = new MaskCompositor(COVER_STRIPES);
+            mBlurCompositor = new BlurCompositor(COVER_STRIPES);
+            mAppliedBlurRadius = 0;
+        }
+        mCompositorLock.unlock();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // waits for a composite in progress (a few ms), if the pipeline is still running
+        mCompositorLock.lock();
+        if (mMaskCompositor != null) {
+            mMaskCompositor.shutdown();
+            mBlurCompositor.shutdown();
+            mMaskCompositor = null;
+            mBlurCompositor = null;
+        }
+        mCompositorLock.unlock();
     }
 
     private void init() {
@@ -127,78 +432,83 @@ public class OverlayRenderer extends View {
 
     @Override
     protected void onDraw(Canvas canvas) {
+        // (timed: the draws are on the UI thread)
+        final long drawStartNs = System.nanoTime();
         final int viewWidth = getWidth();
         final int viewHeight = getHeight();
         mEmojiPaint.setTextSize(mEmojiSize);
 
         // in case there were no results, just draw an X on screen.. totally optional
-        if (!mHasResults) {
+        if (!mShownResults) {
             mOutlinePaint.setColor(Color.WHITE);
             canvas.drawLine(viewWidth, 0, 0, viewHeight, mOutlinePaint);
             canvas.drawLine(0, 0, viewWidth, viewHeight, mOutlinePaint);
+            recordDraw(drawStartNs);
             return;
         }
 
-        final int virtualSize = Math.max(viewHeight, viewHeight);
-        final int virtualDx = (virtualSize - viewWidth) / 2;
-        final int virtualDy = (virtualSize - viewHeight) / 2;
-
-        Path backpath = new Path();
-        backpath.moveTo(0, 0);
-        if (mFrameOrientation) {
-            backpath.lineTo(0, viewWidth);
-            backpath.lineTo(viewHeight, viewWidth);
-            backpath.lineTo(viewHeight, 0);
-        } else {
-            backpath.lineTo(0, viewHeight);
-            backpath.lineTo(viewWidth, viewHeight);
-            backpath.lineTo(viewWidth, 0);
+        if (mShownMask) {
+            // the cover, and black around it (the view outside of the model input)
+            if (mEnablePrivacy) {
+                mCoverLock.lock();
+                canvas.drawBitmap(mCoverBitmap, mCoverMatrix, mCoverPaint);
+                canvas.save();
+                clipOut(canvas, mCoverRect);
+                canvas.drawPaint(mFillPaint);
+                canvas.restore();
+                mCoverLock.unlock();
+            }
+            recordDraw(drawStartNs);
+            return;
         }
-        backpath.setFillType(Path.FillType.EVEN_ODD);
-
 
-        mLock.lock();
-        flag =0;
-        float bl=0, bt=0, br=0, bb=0;
-        for (int i = 0; i < mBoxes.size(); i++) {
+        // black around the boxes (even-odd: the boxes are holes), and the boxes, as applied
+        if (mEnablePrivacy) {
+            if (mPathsStale)
+                rebuildPaths(viewWidth, viewHeight);
+            canvas.drawPath(mBackgroundPath, mFillPaint);
+            canvas.drawPath(mBoxesPath, mOutlinePaint);
+        }
+        recordDraw(drawStartNs);
+    }
 
-            final Box box = mBoxes.get(i);
-            if (!box.type_name.equals("person")){
-                continue;
-            }
-            // skip rendering below the threshold
-            if (box.type_score < mBoxScoreThreshold) {
-                continue;
-            }
+    // clipRect() with DIFFERENCE is deprecated from API 26 (and only allowed to shrink the clip from 28)
+    @SuppressWarnings("deprecation")
+    private static void clipOut(Canvas canvas, RectF rect) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            canvas.clipOutRect(rect);
+        else
+            canvas.clipRect(rect, Region.Op.DIFFERENCE);
+    }
 
-            // compute the final geometry
-            if (mFrameOrientation) {
-                // LANDSCAPE MODE, FRONT CAMERA COORD
-                bt = viewHeight - (virtualSize * box.left - virtualDy);
-                bl = viewWidth - (virtualSize * box.top - virtualDx);
-                bb = viewHeight - (virtualSize * box.right - virtualDy);
-                br = viewWidth - (virtualSize * box.bottom - virtualDx);
-            } else {
-                // PORTRAIT MODE, FRONT CAMERA COORD
-                bl = viewWidth - (virtualSize * box.left - virtualDx);
-                bt = virtualSize * box.top - virtualDy;
-                br = viewWidth - (virtualSize * box.right - virtualDx);
-                bb = virtualSize * box.bottom - virtualDy;
-            }
-            if (mEnablePrivacy) {
-                Path path = new Path();
-                //path.setFillType(Path.FillType.EVEN_ODD);
-                path.addRect(bl , bt  , br, bb , Path.Direction.CW);
-                backpath.addPath(path);
-                canvas.drawPath(backpath, mFillPaint);
-                canvas.drawPath(path, mOutlinePaint);
-                flag =1;
-            }
+    // the paths of the applied geometry, re-using their storage
+    private void rebuildPaths(int viewWidth, int viewHeight) {
+        mBackgroundPath.rewind();
+        mBackgroundPath.moveTo(0, 0);
+        if (mFrameOrientation) {
+            mBackgroundPath.lineTo(0, viewWidth);
+            mBackgroundPath.lineTo(viewHeight, viewWidth);
+            mBackgroundPath.lineTo(viewHeight, 0);
+        } else {
+            mBackgroundPath.lineTo(0, viewHeight);
+            mBackgroundPath.lineTo(viewWidth, viewHeight);
+            mBackgroundPath.lineTo(viewWidth, 0);
         }
-        if(mEnablePrivacy && flag == 0) {
-            canvas.drawPath(backpath, mFillPaint);
+        mBackgroundPath.setFillType(Path.FillType.EVEN_ODD);
+        mBoxesPath.rewind();
+        final float[] rects = mGeometry.getRects();
+        for (int k = 0; k < mGeometry.getCount() * 4; k += 4) {
+            mBackgroundPath.addRect(rects[k], rects[k + 1], rects[k + 2], rects[k + 3], Path.Direction.CW);
+            mBoxesPath.addRect(rects[k], rects[k + 1], rects[k + 2], rects[k + 3], Path.Direction.CW);
         }
-        mLock.unlock();
+        mPathsStale = false;
+    }
+
+    // the geometry grows its arrays (rarely): the only allocations of the update and the draw
+    private void recordDraw(long drawStartNs) {
+        final long allocations = mGeometry.getAllocations() - mGeometryAllocations;
+        mGeometryAllocations += allocations;
+        mDrawStats.recordDraw(System.nanoTime() - drawStartNs, allocations);
     }
 
     public void changeSelectedCoords(float X, float Y){
@@ -3,46 +3,119 @@ package com.qualcomm.qti.snpedetector.helpers;
 import android.app.Application;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
 import android.os.Looper;
-import android.util.ArrayMap;
 import android.util.Log;
 import android.widget.Toast;
 
-import com.qualcomm.qti.snpe.FloatTensor;
 import com.qualcomm.qti.snpe.NeuralNetwork;
 import com.qualcomm.qti.snpe.SNPE;
 import com.qualcomm.qti.snpedetector.Box;
 import com.qualcomm.qti.snpedetector.MainActivity;
-
+import com.qualcomm.qti.snpedetector.Roi;
+import com.qualcomm.qti.snpedetector.engine.ClassPolicy;
+import com.qualcomm.qti.snpedetector.engine.DetectionBuffer;
+import com.qualcomm.qti.snpedetector.engine.DetectionOutputs;
+import com.qualcomm.qti.snpedetector.engine.EngineInitializer;
+import com.qualcomm.qti.snpedetector.engine.InferenceEngine;
+import com.qualcomm.qti.snpedetector.engine.ModelFileCache;
+import com.qualcomm.qti.snpedetector.engine.ModelManifest;
+import com.qualcomm.qti.snpedetector.engine.ModelRegistry;
+import com.qualcomm.qti.snpedetector.engine.RuntimeDecisionStore;
+import com.qualcomm.qti.snpedetector.engine.RuntimeSelector;
+import com.qualcomm.qti.snpedetector.engine.SegmentationEngine;
+import com.qualcomm.qti.snpedetector.engine.SegmentationOutputs;
+import com.qualcomm.qti.snpedetector.pipeline.EngineSwitch;
+
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 @SuppressWarnings("SameParameterValue")
 public class SNPEHelper {
     private final Application mApplication;
     private final Context mContext;
 
-    private final BitmapToFloatArrayHelper mBitmapToFloatHelper;
+    private StripedPreprocessor mPreprocessor;
+    private BitmapToFloatArrayHelper mBitmapToFloatHelper;
+    private final NV21ToTensorKernel mNV21ToTensorKernel;
+    // full-frame pixels, when the model is given a Roi
+    private final NV21ToTensorKernel mNV21ToPixelsKernel;
     private final TimeStat mTimeStat;
+    // the pre-processing may run on another thread than the inference (FramePipeline)
+    private final TimeStat mPreprocessTimeStat;
 
     private String mSNPEVersionCached;
 
-    // all of the following are allocated in the load function for the network
-    private NeuralNetwork mNeuralNetwork;
-    private String mRuntimeCoreName = "no core";
-    private int[] mInputTensorShapeBHWC;
-    private FloatTensor mInputTensorReused;
-    private Map<String, FloatTensor> mInputTensorsMap;
+    // the network, on SNPE by default (see setInferenceEngine()), with its input slots and the
+    // swaps to another model (see switchModel()); slot 0 is for the non-pipelined functions
+    private final EngineSwitch mEngineSwitch = new EngineSwitch();
+    private volatile String mRuntimeCoreName = "no core";
+    // the model of the engine (null if not from a manifest), and its outputs if it's a segmentation
+    private volatile ModelManifest mManifest;
+    private volatile SegmentationOutputs mSegmentationOutputs;
+    private float[] mNV21InputFloatsHW3;
+    private int[] mModelInputPixels;
+
+    // pipelined execution: rotating input slots of the engine
+    private int mInputTensorCount = 1;
+    private float[] mSlotInputFloatsHW3;
 
 
     public SNPEHelper(Application application) {
         mApplication = application;
         mContext = application;
-        mBitmapToFloatHelper = new BitmapToFloatArrayHelper();
+        mNV21ToTensorKernel = new NV21ToTensorKernel();
+        mNV21ToPixelsKernel = new NV21ToTensorKernel();
         mTimeStat = new TimeStat();
+        mPreprocessTimeStat = new TimeStat();
+        setPreprocessingStripes(DEFAULT_PREPROCESSING_STRIPES);
+        setScoreFloor(MNETSSD_DEFAULT_SCORE_FLOOR);
+        mEngineSwitch.setListener(this::onEngineSwitched);
+    }
+
+    // BGR, -1..1, like RgbaToFloatHelper
+    private static final float DEFAULT_INPUT_MEAN = 127.5f;
+
+    // up to 4 (the big cores, on most SoCs) threads for the pre-processing
+    private static final int DEFAULT_PREPROCESSING_STRIPES = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Splits the pre-processing in row stripes, run in parallel on a fixed pool of threads (the
+     * calling thread included). 1 runs everything on the calling thread. Not to be called while
+     * a frame is being processed.
+     */
+    public void setPreprocessingStripes(int stripes) {
+        if (mPreprocessor != null) {
+            if (mPreprocessor.getStripeCount() == stripes)
+                return;
+            mPreprocessor.shutdown();
+        }
+        mPreprocessor = new StripedPreprocessor(stripes);
+        mBitmapToFloatHelper = new BitmapToFloatArrayHelper(mPreprocessor);
+    }
+
+    public int getPreprocessingStripes() {
+        return mPreprocessor.getStripeCount();
+    }
+
+    /**
+     * Input tensors for the pipelined execution (see acquireInputTensor()): 1 is the latency mode
+     * (a frame is prepared only when the previous inference is over), 2+ the throughput mode (the
+     * next frames are prepared while the current one executes). Call before loading the network.
+     */
+    public void setInputTensorCount(int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("count must be >= 1, was " + count);
+        mInputTensorCount = count;
+    }
+
+    public int getInputTensorCount() {
+        return mInputTensorCount;
     }
 
     public String getSNPEVersion() {
@@ -56,96 +129,445 @@ public class SNPEHelper {
     }
 
     public int getInputTensorWidth() {
-        return mInputTensorShapeBHWC == null ? 0 : mInputTensorShapeBHWC[mInputTensorShapeBHWC.length == 3 ? 1 : 2];
+        final InferenceEngine engine = mEngineSwitch.getEngine();
+        return engine == null ? 0 : engine.getInputWidth();
     }
 
     public int getInputTensorHeight() {
-        return mInputTensorShapeBHWC == null ? 0 : mInputTensorShapeBHWC[mInputTensorShapeBHWC.length == 3 ? 0 : 1];
+        final InferenceEngine engine = mEngineSwitch.getEngine();
+        return engine == null ? 0 : engine.getInputHeight();
+    }
+
+    /**
+     * Runs the inferences on another engine (e.g. OpenCvDnnEngine on devices without SNPE), right
+     * away: no frame may be in flight (see switchModel() otherwise). The previous engine is
+     * released; the input slots are the ones of the new engine.
+     */
+    public void setInferenceEngine(InferenceEngine engine) {
+        mEngineSwitch.install(engine);
+    }
+
+    public InferenceEngine getInferenceEngine() {
+        return mEngineSwitch.getEngine();
+    }
+
+    // the model of the engine, or null if the engine doesn't come from a manifest
+    public ModelManifest getModelManifest() {
+        return mManifest;
+    }
+
+    /**
+     * The output of the last inference, if the model is a segmentation one (null otherwise: the
+     * model outputs detections). Overwritten by the next inference.
+     */
+    public SegmentationOutputs getLastSegmentation() {
+        return mSegmentationOutputs;
+    }
+
+    // on the thread that installed the engine, before its first frame
+    private void onEngineSwitched(InferenceEngine engine) {
+        mRuntimeCoreName = engine.getName();
+        mManifest = engine instanceof SegmentationEngine ? ((SegmentationEngine) engine).getManifest() : null;
+        mSegmentationOutputs = mManifest != null && mManifest.decoder == ModelManifest.Decoder.SEGMENTATION ?
+                ((SegmentationEngine) engine).createSegmentationOutputs() : null;
+        Log.d(MainActivity.LOGTAG, "Engine " + engine.getName() + (mManifest == null ? "" : ", model " + mManifest) +
+                " (switch " + mEngineSwitch.getSwitchCount() + ", waited " + Math.round(mEngineSwitch.getLastSwitchWaitMs()) + " ms)");
+    }
+
+    /* Models: the detections (MobileNet-SSD), or a segmentation */
+
+    // the manifests of the models (see ModelManifest), next to their DLC in the assets
+    private static final String MODEL_MANIFESTS_ASSET_DIR = "models";
+    private final ModelRegistry mModelRegistry = new ModelRegistry();
+    private static final boolean MODEL_NEEDS_CPU_FALLBACK = true;
+    // the threshold of the overlay: the NMS outputs are sorted, so decoding stops at the first score below this
+    private static final float MNETSSD_DEFAULT_SCORE_FLOOR = 0.4f;
+    private final DetectionOutputs mSSDOutputs = new DetectionOutputs(SnpeInferenceEngine.MNETSSD_NUM_BOXES);
+    private final DetectionBuffer mSSDDetections = new DetectionBuffer(SnpeInferenceEngine.MNETSSD_NUM_BOXES);
+
+    /**
+     * Detections scoring below this are neither read from the output tensors nor decoded.
+     */
+    public void setScoreFloor(float scoreFloor) {
+        mSSDOutputs.scoreFloor = scoreFloor;
+        mSSDDetections.setScoreFloor(scoreFloor);
+    }
+
+    /**
+     * Only the detections of these classes come out of the inference functions (default: all).
+     */
+    public void setClassPolicy(ClassPolicy classPolicy) {
+        mSSDDetections.setClassPolicy(classPolicy);
+    }
+
+    /**
+     * The detections of the last inference, as primitive arrays (the ArrayList<Box> returned by
+     * the inference functions is a view of these). Overwritten by the next inference.
+     */
+    public DetectionBuffer getLastDetections() {
+        return mSSDDetections;
     }
 
-    /* MobileNet-SSD Specific */
+    // probe the runtimes on the first start on a device, instead of always using GPU_FLOAT16
+    private static final boolean MODEL_AUTO_SELECT_RUNTIME = true;
+    private static final String RUNTIME_DECISIONS_FILE_NAME = "runtime_decisions.properties";
+    // DSP, GPU... on the probe; CPU is the reference for the accuracy check
+    private static final NeuralNetwork.Runtime[] PROBED_RUNTIMES = {
+            NeuralNetwork.Runtime.DSP, NeuralNetwork.Runtime.GPU_FLOAT16, NeuralNetwork.Runtime.GPU};
+    private static final int PROBE_WARMUP_RUNS = 3;
+    private static final int PROBE_TIMED_RUNS = 5;
+    // the input of the probe: people, so that the CPU has detections to compare the others with
+    private static final String PROBE_IMAGE_ASSET = "probe/person.png";
+
+    // per-runtime copies of the DLC where SNPE saves its compiled state (init cache)
+    private static final boolean MODEL_USE_INIT_CACHE = true;
+    private static final String MODEL_CACHE_DIR_NAME = "snpe_models";
+
+    // the model, mapped from the APK, and its SHA-256
+    private final Object mLoadLock = new Object();
+    private String mModelFileName;
+    private ByteBuffer mModelBuffer;
+    private String mModelHash;
+    // the last load
+    private volatile float mLastNetLoadMs;
+    private volatile boolean mLastNetLoadWarm;
+
+    /**
+     * The models in the assets, from their manifests (models/*.properties); the first one, by
+     * file name, is the default. Read on the first call.
+     */
+    public ModelRegistry getModelRegistry() {
+        synchronized (mModelRegistry) {
+            if (mModelRegistry.size() == 0)
+                readModelManifests(mModelRegistry);
+            return mModelRegistry;
+        }
+    }
 
-    private static final String MNETSSD_MODEL_ASSET_NAME = "mobilenet.dlc";
-    private static final String MNETSSD_INPUT_LAYER = "Preprocessor/sub:0";
-    private static final String MNETSSD_OUTPUT_LAYER = "Postprocessor/BatchMultiClassNonMaxSuppression";
-    private static final String MNETSSD_OUTPUT_BOXES_1_100_4 = "Postprocessor/BatchMultiClassNonMaxSuppression_boxes";
-    private static final String MNETSSD_OUTPUT_SCORES_1_1_100 = "Postprocessor/BatchMultiClassNonMaxSuppression_scores";
-    private static final String MNETSSD_OUTPUT_CLASSES_1_1_100 = "Postprocessor/BatchMultiClassNonMaxSuppression_classes";
-    private static final boolean MNETSSD_NEEDS_CPU_FALLBACK = true;
-    private static final int MNETSSD_NUM_BOXES = 100;
-    private final float mSSDOutputBoxes[] = new float[MNETSSD_NUM_BOXES * 4];
-    private final float mSSDOutputClasses[] = new float[MNETSSD_NUM_BOXES];
-    private final float mSSDOutputScores[] = new float[MNETSSD_NUM_BOXES];
-    private final ArrayList<Box> mSSDBoxes = Box.createBoxes(MNETSSD_NUM_BOXES);
+    private void readModelManifests(ModelRegistry registry) {
+        String[] fileNames;
+        try {
+            fileNames = mApplication.getAssets().list(MODEL_MANIFESTS_ASSET_DIR);
+        } catch (IOException e) {
+            fileNames = null;
+        }
+        if (fileNames == null || fileNames.length == 0) {
+            complain("No model manifests in the assets/" + MODEL_MANIFESTS_ASSET_DIR);
+            return;
+        }
+        Arrays.sort(fileNames);
+        for (String fileName : fileNames) {
+            if (!fileName.endsWith(".properties"))
+                continue;
+            try (InputStream in = mApplication.getAssets().open(MODEL_MANIFESTS_ASSET_DIR + "/" + fileName)) {
+                registry.register(ModelManifest.parse(fileName, in));
+            } catch (IOException | IllegalArgumentException e) {
+                complain("Skipping the model manifest " + fileName + ": " + e.getMessage());
+            }
+        }
+        Log.d(MainActivity.LOGTAG, "Model registry: " + registry);
+    }
 
-    public boolean loadMobileNetSSDFromAssets() {
+    /**
+     * Loads a model on the fastest runtime of the device, and runs the next inferences on it
+     * right away: no frame may be in flight. Slow: not on the UI thread.
+     */
+    public boolean loadModelFromAssets(ModelManifest manifest) {
         // cleanup
         disposeNeuralNetwork();
 
-        // select core
-        NeuralNetwork.Runtime selectedCore = NeuralNetwork.Runtime.GPU_FLOAT16;
-
-        // load the network
-        mNeuralNetwork = loadNetworkFromDLCAsset(mApplication, MNETSSD_MODEL_ASSET_NAME,
-                selectedCore, MNETSSD_NEEDS_CPU_FALLBACK, MNETSSD_OUTPUT_LAYER);
-
-        // if it didn't work, retry on CPU
-        if (mNeuralNetwork == null) {
-            complain("Error loading the DLC network on the " + selectedCore + " core. Retrying on CPU.");
-            mNeuralNetwork = loadNetworkFromDLCAsset(mApplication, MNETSSD_MODEL_ASSET_NAME,
-                    NeuralNetwork.Runtime.CPU, MNETSSD_NEEDS_CPU_FALLBACK, MNETSSD_OUTPUT_LAYER);
-            if (mNeuralNetwork == null) {
-                complain("Error also on CPU");
-                return false;
+        final SnpeInferenceEngine engine = loadEngine(manifest);
+        if (engine == null)
+            return false;
+        setInferenceEngine(engine);
+        return true;
+    }
+
+    /**
+     * Hot swap: loads and warms up a model in the background while the current one keeps running,
+     * then switches to it between two frames (the frames in flight finish on the current model,
+     * which is released then). The listener is called on the loading thread, with null if the
+     * model could not load (the current one then stays).
+     */
+    public EngineInitializer switchModel(ModelManifest manifest, int warmupRuns, EngineInitializer.Listener listener) {
+        final EngineInitializer initializer = new EngineInitializer(() -> loadEngine(manifest), warmupRuns);
+        initializer.addListener(engine -> {
+            if (engine != null)
+                mEngineSwitch.post(engine);
+            if (listener != null)
+                listener.onEngineReady(engine);
+        });
+        initializer.start();
+        return initializer;
+    }
+
+    private SnpeInferenceEngine loadEngine(ModelManifest manifest) {
+        synchronized (mLoadLock) {
+            // [~30ms the first time] map the model: SNPE reads it from the APK, not from a copy on the Java heap
+            if (!mapModel(manifest))
+                return null;
+
+            // select core: the one measured to be the fastest on this device, or GPU_FLOAT16
+            NeuralNetwork.Runtime selectedCore = NeuralNetwork.Runtime.GPU_FLOAT16;
+            RuntimeDecisionStore decisionStore = null;
+            String decisionKey = null;
+            // (the probe compares detections: segmentation models stay on the default)
+            if (MODEL_AUTO_SELECT_RUNTIME && manifest.decoder == ModelManifest.Decoder.SSD_DETECTIONS) {
+                decisionStore = new RuntimeDecisionStore(new File(mApplication.getFilesDir(), RUNTIME_DECISIONS_FILE_NAME));
+                decisionKey = RuntimeDecisionStore.createKey(Build.MODEL, getSNPEVersion(), mModelHash);
+                final NeuralNetwork.Runtime decided = selectRuntime(manifest, decisionStore, decisionKey);
+                if (decided != null)
+                    selectedCore = decided;
+            }
+
+            // load the network
+            SnpeInferenceEngine engine = loadNetwork(manifest, selectedCore);
+
+            // if it didn't work, retry on CPU
+            if (engine == null) {
+                complain("Error loading the DLC network on the " + selectedCore + " core. Retrying on CPU.");
+                // measure again on the next start
+                if (decisionStore != null)
+                    decisionStore.remove(decisionKey);
+                engine = loadNetwork(manifest, NeuralNetwork.Runtime.CPU);
+                if (engine == null) {
+                    complain("Error also on CPU");
+                    return null;
+                }
+                complain("Loading on the CPU worked");
             }
-            complain("Loading on the CPU worked");
+            return engine;
         }
+    }
 
-        // cache the runtime name
-        mRuntimeCoreName = mNeuralNetwork.getRuntime().toString();
-        // read the input shape
-        mInputTensorShapeBHWC = mNeuralNetwork.getInputTensorsShapes().get(MNETSSD_INPUT_LAYER);
-        // allocate the single input tensor
-        mInputTensorReused = mNeuralNetwork.createFloatTensor(mInputTensorShapeBHWC);
-        // add it to the map of inputs, even if it's a single input
-        mInputTensorsMap = new HashMap<>();
-        mInputTensorsMap.put(MNETSSD_INPUT_LAYER, mInputTensorReused);
+    // time of the last network load (cold: SNPE compiled the graph, warm: from its init cache)
+    public float getLastNetLoadMs() {
+        return mLastNetLoadMs;
+    }
+
+    public boolean wasLastNetLoadWarm() {
+        return mLastNetLoadWarm;
+    }
+
+    private boolean mapModel(ModelManifest manifest) {
+        if (mModelBuffer != null && manifest.modelFileName.equals(mModelFileName))
+            return true;
+        // the previous model's mapping goes with its buffer
+        mModelFileName = null;
+        mModelBuffer = null;
+        mModelHash = null;
+        try {
+            mModelBuffer = SnpeInferenceEngine.mapAsset(mApplication, manifest.modelFileName);
+        } catch (IOException e) {
+            complain("Cannot read the model " + manifest.modelFileName + ": " + e);
+            return false;
+        }
+        mModelFileName = manifest.modelFileName;
+        mModelHash = ModelFileCache.sha256Hex(mModelBuffer);
         return true;
     }
 
-    public ArrayList<Box> mobileNetSSDInference(Bitmap modelInputBitmap) {
-        // execute the inference, and get 3 tensors as outputs
-        final Map<String, FloatTensor> outputs = inferenceOnBitmap(modelInputBitmap);
-        if (outputs == null)
+    /**
+     * Loads on a runtime from its copy of the DLC with the init cache (extracted the first time),
+     * or straight from the mapped model if the copy can't be written.
+     */
+    private SnpeInferenceEngine loadNetwork(ModelManifest manifest, NeuralNetwork.Runtime runtime) {
+        final long startNs = System.nanoTime();
+        SnpeInferenceEngine engine = null;
+        boolean warm = false;
+        if (MODEL_USE_INIT_CACHE) {
+            final ModelFileCache cache = getModelFileCache();
+            final String key = ModelFileCache.createKey(mModelHash, runtime.name(), getSNPEVersion());
+            try {
+                final File dlcFile = cache.extract(manifest.modelFileName, key, mModelBuffer);
+                warm = cache.isWarm(dlcFile);
+                engine = SnpeInferenceEngine.loadFromFile(mApplication, manifest, dlcFile, runtime,
+                        MODEL_NEEDS_CPU_FALLBACK, true, mInputTensorCount);
+                if (engine != null)
+                    cache.markWarm(dlcFile);
+                else
+                    cache.invalidate(manifest.modelFileName, key);
+            } catch (IOException e) {
+                Log.w(MainActivity.LOGTAG, "No init cache for the model: " + e);
+            }
+        }
+        if (engine == null) {
+            warm = false;
+            engine = SnpeInferenceEngine.loadFromBuffer(mApplication, manifest, mModelBuffer, runtime,
+                    MODEL_NEEDS_CPU_FALLBACK, mInputTensorCount);
+        }
+        if (engine == null)
             return null;
 
-        // convert tensors to boxes - Note: Optimized to read-all upfront
-        outputs.get(MNETSSD_OUTPUT_BOXES_1_100_4).read(mSSDOutputBoxes, 0, mSSDOutputBoxes.length);
-        outputs.get(MNETSSD_OUTPUT_CLASSES_1_1_100).read(mSSDOutputClasses, 0, mSSDOutputClasses.length);
-        outputs.get(MNETSSD_OUTPUT_SCORES_1_1_100).read(mSSDOutputScores, 0, mSSDOutputScores.length);
-        for (int i = 0; i < MNETSSD_NUM_BOXES; ++i) {
-            final Box box = mSSDBoxes.get(i);
-            box.top = mSSDOutputBoxes[i * 4];
-            box.left = mSSDOutputBoxes[i * 4 + 1];
-            box.bottom = mSSDOutputBoxes[i * 4 + 2];
-            box.right = mSSDOutputBoxes[i * 4 + 3];
-            box.type_id = Math.round(mSSDOutputClasses[i]);
-            box.type_score = mSSDOutputScores[i];
-            box.type_name = lookupMsCoco(box.type_id + 1, "???");
+        // [~1s cold on GPU, a fraction of it warm]
+        mLastNetLoadMs = (System.nanoTime() - startNs) / 1e6f;
+        mLastNetLoadWarm = warm;
+        mTimeStat.addInterval(warm ? "net_load_warm" : "net_load_cold", Math.round(mLastNetLoadMs), 1);
+        return engine;
+    }
+
+    private ModelFileCache getModelFileCache() {
+        // the code cache is cleared when the app is updated, like the SNPE libraries may be
+        return new ModelFileCache(new File(mApplication.getCodeCacheDir(), MODEL_CACHE_DIR_NAME));
+    }
+
+    /**
+     * The runtime decided for this device, SNPE version and model or, the first time, the one
+     * measured to be the fastest (RuntimeSelector), which is then stored. Null if nothing could load.
+     */
+    private NeuralNetwork.Runtime selectRuntime(ModelManifest manifest, RuntimeDecisionStore store, String key) {
+        // decided already
+        final String decided = store.get(key);
+        if (decided != null) {
+            try {
+                Log.d(MainActivity.LOGTAG, "Runtime " + decided + " (decided on a previous start)");
+                return NeuralNetwork.Runtime.valueOf(decided);
+            } catch (IllegalArgumentException e) {
+                // not a runtime of this SDK
+                store.remove(key);
+            }
+        }
+
+        // [seconds] first start: load and time each runtime; no CPU fallback, to measure the runtime
+        // itself, and no init cache, to keep a single copy of the model
+        final RuntimeSelector selector = new RuntimeSelector(PROBE_WARMUP_RUNS, PROBE_TIMED_RUNS);
+        selector.addReferenceCandidate(NeuralNetwork.Runtime.CPU.name(), () -> loadProbeEngine(manifest, NeuralNetwork.Runtime.CPU));
+        for (NeuralNetwork.Runtime runtime : PROBED_RUNTIMES)
+            selector.addCandidate(runtime.name(), () -> loadProbeEngine(manifest, runtime));
+        if (!setProbeImage(selector, manifest))
+            return null;
+        mTimeStat.startInterval();
+        final RuntimeSelector.Selection selection = selector.select();
+        mTimeStat.stopInterval("rt_probe", 1, false);
+        Log.d(MainActivity.LOGTAG, "Runtime probe: " + selection);
+        if (selection.engine == null)
+            return null;
+        // loaded again with the init cache, so that the next start is already warm
+        selection.engine.release();
+        // a runtime that detects nothing could have won: the default, and measure again next time
+        if (!selection.accuracyChecked) {
+            Log.w(MainActivity.LOGTAG, "Runtime probe: nothing detected on " + PROBE_IMAGE_ASSET + ", no decision stored");
+            return null;
         }
-        return mSSDBoxes;
+        store.put(key, selection.selectedName);
+        return NeuralNetwork.Runtime.valueOf(selection.selectedName);
+    }
+
+    // the probe picture, normalized like the model wants it; false if it can't be read
+    private boolean setProbeImage(RuntimeSelector selector, ModelManifest manifest) {
+        final Bitmap bitmap;
+        try (InputStream in = mApplication.getAssets().open(PROBE_IMAGE_ASSET)) {
+            bitmap = BitmapFactory.decodeStream(in);
+        } catch (IOException e) {
+            complain("Cannot read the runtime probe " + PROBE_IMAGE_ASSET + ": " + e);
+            return false;
+        }
+        if (bitmap == null) {
+            complain("Cannot decode the runtime probe " + PROBE_IMAGE_ASSET);
+            return false;
+        }
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        bitmap.recycle();
+        selector.setProbeImage(pixels, width, height, manifest.inputMean, manifest.inputScale, manifest.inputBgr);
+        return true;
+    }
+
+    private SnpeInferenceEngine loadProbeEngine(ModelManifest manifest, NeuralNetwork.Runtime runtime) {
+        if (!new SNPE.NeuralNetworkBuilder(mApplication).isRuntimeSupported(runtime))
+            return null;
+        return SnpeInferenceEngine.loadFromBuffer(mApplication, manifest, mModelBuffer, runtime, false, mInputTensorCount);
+    }
+
+    /**
+     * Startup benchmark of the network load on a runtime, e.g.
+     * "GPU_FLOAT16 net_load: stream 1510 ms, mapped 1320 ms, cold 1350 ms, warm 240 ms".
+     * stream is the former way (the DLC copied through the Java heap), mapped is without the init
+     * cache, cold creates the init cache, and warm (median of 'warmRuns') uses it. Slow: call it
+     * before loading the network, and not on the UI thread.
+     */
+    public String benchmarkNetLoad(ModelManifest manifest, NeuralNetwork.Runtime runtime, int warmRuns) {
+        synchronized (mLoadLock) {
+            if (!mapModel(manifest))
+                return runtime + " net_load: no model";
+            final StringBuilder sb = new StringBuilder(runtime.toString()).append(" net_load:");
+
+            long startNs = System.nanoTime();
+            SnpeInferenceEngine engine = SnpeInferenceEngine.loadFromAsset(mApplication, manifest,
+                    runtime, MODEL_NEEDS_CPU_FALLBACK, 1);
+            appendLoadTime(sb, "stream", engine, startNs);
+
+            startNs = System.nanoTime();
+            engine = SnpeInferenceEngine.loadFromBuffer(mApplication, manifest, mModelBuffer, runtime, MODEL_NEEDS_CPU_FALLBACK, 1);
+            appendLoadTime(sb, "mapped", engine, startNs);
+
+            if (MODEL_USE_INIT_CACHE) {
+                getModelFileCache().invalidate(manifest.modelFileName,
+                        ModelFileCache.createKey(mModelHash, runtime.name(), getSNPEVersion()));
+                final int savedSlots = mInputTensorCount;
+                mInputTensorCount = 1;
+                engine = loadNetwork(manifest, runtime);
+                sb.append(", cold ").append(engine == null ? "failed" : Math.round(mLastNetLoadMs) + " ms");
+                if (engine != null) {
+                    engine.release();
+                    final float[] warmMs = new float[warmRuns];
+                    int loaded = 0;
+                    for (int i = 0; i < warmRuns; i++) {
+                        engine = loadNetwork(manifest, runtime);
+                        if (engine == null)
+                            break;
+                        engine.release();
+                        warmMs[loaded++] = mLastNetLoadMs;
+                    }
+                    Arrays.sort(warmMs, 0, loaded);
+                    sb.append(", warm ").append(loaded == 0 ? "failed" : Math.round(warmMs[loaded / 2]) + " ms");
+                }
+                mInputTensorCount = savedSlots;
+            }
+            return sb.toString();
+        }
+    }
+
+    private static void appendLoadTime(StringBuilder sb, String label, SnpeInferenceEngine engine, long startNs) {
+        final long elapsedMs = (System.nanoTime() - startNs) / 1000000;
+        sb.append(sb.charAt(sb.length() - 1) == ':' ? " " : ", ").append(label).append(' ')
+                .append(engine == null ? "failed" : elapsedMs + " ms");
+        if (engine != null)
+            engine.release();
+    }
+
+    public ArrayList<Box> mobileNetSSDInference(Bitmap modelInputBitmap) {
+        // execute the inference, and get the detections as outputs
+        return inferenceOnBitmap(modelInputBitmap) ? mobileNetSSDOutputsToBoxes() : null;
+    }
+
+    /**
+     * Same as above, but straight from the NV21 camera frame: rotation, letterboxing, scaling and
+     * normalization happen in a single pass into the input tensor. See getModelInputPixels().
+     */
+    public ArrayList<Box> mobileNetSSDInference(byte[] nv21, int previewWidth, int previewHeight, int rotationDegrees) {
+        // execute the inference, and get the detections as outputs
+        return inferenceOnNV21(nv21, previewWidth, previewHeight, rotationDegrees) ? mobileNetSSDOutputsToBoxes() : null;
+    }
+
+    private ArrayList<Box> mobileNetSSDOutputsToBoxes() {
+        return mSSDDetections.asBoxes();
     }
 
 
     /* Generic functions, for typical image models */
 
-    private Map<String, FloatTensor> inferenceOnBitmap(Bitmap inputBitmap) {
+    private boolean inferenceOnBitmap(Bitmap inputBitmap) {
         // safety check
-        if (mNeuralNetwork == null || mInputTensorReused == null ||
+        switchModelIfPending();
+        final InferenceEngine engine = mEngineSwitch.getEngine();
+        if (engine == null ||
                 inputBitmap.getWidth() != getInputTensorWidth() ||
                 inputBitmap.getHeight() != getInputTensorHeight()) {
             complain("No NN loaded, or image size different than tensor size");
-            return null;
+            return false;
         }
 
         // [0.3ms] Bitmap to RGBA byte array (size: 300*300*4 (RGBA..))
@@ -155,58 +577,211 @@ public class SNPEHelper {
         mTimeStat.startInterval();
         final float[] inputFloatsHW3 = mBitmapToFloatHelper.bufferToNormalFloatsBGR();
         if (mBitmapToFloatHelper.isFloatBufferBlack())
+            return false;
+        engine.setInput(0, inputFloatsHW3);
+        mTimeStat.stopInterval("i_tensor", 20, false);
+
+        return executeNetwork(0);
+    }
+
+    private boolean inferenceOnNV21(byte[] nv21, int previewWidth, int previewHeight, int rotationDegrees) {
+        // safety check
+        switchModelIfPending();
+        if (mEngineSwitch.getEngine() == null) {
+            complain("No NN loaded");
+            return false;
+        }
+
+        final int inputPixels = getInputTensorWidth() * getInputTensorHeight();
+        if (mModelInputPixels == null || mModelInputPixels.length != inputPixels) {
+            mNV21InputFloatsHW3 = new float[inputPixels * 3];
+            mModelInputPixels = new int[inputPixels];
+            Log.d(MainActivity.LOGTAG, "Reallocating NV21 input arrays");
+        }
+        if (!preprocessNV21(nv21, previewWidth, previewHeight, rotationDegrees, mNV21InputFloatsHW3, mModelInputPixels))
+            return false;
+        return inferenceOnFloats(mNV21InputFloatsHW3);
+    }
+
+    /**
+     * Pre-processing only, for pipelines running it on its own thread: NV21 (preview size) ->
+     * normalized BGR floats, and ARGB pixels if not null, into the caller's arrays (sized for
+     * getInputTensorWidth() x getInputTensorHeight()). Returns false if the frame is black.
+     * Must always be called from the same thread.
+     */
+    public boolean preprocessNV21(byte[] nv21, int previewWidth, int previewHeight, int rotationDegrees,
+                                  float[] outputFloatsHW3, int[] outputPixelsOrNull) {
+        return preprocessNV21(nv21, previewWidth, previewHeight, rotationDegrees, null, outputFloatsHW3, outputPixelsOrNull);
+    }
+
+    /**
+     * Same as above, but the floats are of a region of the frame only (null: the full frame). The
+     * ARGB pixels are still of the full frame, for the consumers of the picture.
+     */
+    public boolean preprocessNV21(byte[] nv21, int previewWidth, int previewHeight, int rotationDegrees,
+                                  Roi roiOrNull, float[] outputFloatsHW3, int[] outputPixelsOrNull) {
+        final boolean fullFrame = roiOrNull == null || roiOrNull.isFullFrame();
+        updateInputNormalization();
+        // (re)configure the geometry only when the preview, the rotation or the region change
+        final int inputWidth = getInputTensorWidth();
+        final int inputHeight = getInputTensorHeight();
+        if (fullFrame) {
+            if (!mNV21ToTensorKernel.isConfiguredFor(previewWidth, previewHeight, rotationDegrees, false, inputWidth, inputHeight))
+                mNV21ToTensorKernel.configure(previewWidth, previewHeight, rotationDegrees, false, inputWidth, inputHeight);
+        } else if (!mNV21ToTensorKernel.isConfiguredFor(previewWidth, previewHeight, rotationDegrees, false, inputWidth, inputHeight, roiOrNull)) {
+            mNV21ToTensorKernel.configure(previewWidth, previewHeight, rotationDegrees, false, inputWidth, inputHeight, roiOrNull);
+        }
+
+        // [1ms] Pre-processing: NV21 (preview size) -> Float Input Tensor (300,300,3 floats)
+        mPreprocessTimeStat.startInterval();
+        final long sumG = mPreprocessor.nv21ToTensor(mNV21ToTensorKernel, nv21, outputFloatsHW3, fullFrame ? outputPixelsOrNull : null);
+        // [0.5ms] crop: one more pass, for the pixels of the full frame only
+        if (!fullFrame && outputPixelsOrNull != null) {
+            if (!mNV21ToPixelsKernel.isConfiguredFor(previewWidth, previewHeight, rotationDegrees, false, inputWidth, inputHeight))
+                mNV21ToPixelsKernel.configure(previewWidth, previewHeight, rotationDegrees, false, inputWidth, inputHeight);
+            mPreprocessor.nv21ToTensor(mNV21ToPixelsKernel, nv21, null, outputPixelsOrNull);
+        }
+        mPreprocessTimeStat.stopInterval("i_preproc", 20, false);
+        return !RgbaToFloatHelper.isBlack(sumG, inputWidth * inputHeight);
+    }
+
+    // the normalization of the model's manifest (the default one for the engines without)
+    private void updateInputNormalization() {
+        final ModelManifest manifest = mManifest;
+        final float mean = manifest == null ? DEFAULT_INPUT_MEAN : manifest.inputMean;
+        final float scale = manifest == null ? RgbaToFloatHelper.INPUT_SCALE : manifest.inputScale;
+        final boolean bgr = manifest == null || manifest.inputBgr;
+        if (!mNV21ToTensorKernel.isNormalizedAs(mean, scale, bgr))
+            mNV21ToTensorKernel.setNormalization(mean, scale, bgr);
+    }
+
+    /**
+     * Inference only, on floats prepared by preprocessNV21(). The returned boxes belong to this
+     * helper, and are overwritten by the next inference.
+     */
+    public ArrayList<Box> mobileNetSSDInference(float[] inputFloatsHW3) {
+        if (mEngineSwitch.getEngine() == null) {
+            complain("No NN loaded");
             return null;
-        mInputTensorReused.write(inputFloatsHW3, 0, inputFloatsHW3.length, 0, 0);
+        }
+        return inferenceOnFloats(inputFloatsHW3) ? mobileNetSSDOutputsToBoxes() : null;
+    }
+
+    private boolean inferenceOnFloats(float[] inputFloatsHW3) {
+        mTimeStat.startInterval();
+        mEngineSwitch.getEngine().setInput(0, inputFloatsHW3);
         mTimeStat.stopInterval("i_tensor", 20, false);
 
+        return executeNetwork(0);
+    }
+
+    /* Pipelined execution: prepare into a free input tensor while another one executes */
+
+    /**
+     * Waits for a free input tensor, and returns its slot. It must be given back with
+     * releaseInputTensor(), once the inference on it has executed (or the frame was dropped).
+     * Not to be mixed with the non-pipelined inference functions. This is where a model loaded
+     * by switchModel() comes in: the frame is then the first one on it.
+     */
+    public int acquireInputTensor() throws InterruptedException {
+        return mEngineSwitch.acquireSlot();
+    }
+
+    public void releaseInputTensor(int slot) {
+        mEngineSwitch.releaseSlot(slot);
+    }
+
+    /**
+     * preprocessNV21(), straight into an acquired input tensor. Returns false if the frame is black.
+     * Must always be called from the same thread.
+     */
+    public boolean preprocessNV21(byte[] nv21, int previewWidth, int previewHeight, int rotationDegrees,
+                                  int tensorSlot, int[] outputPixelsOrNull) {
+        return preprocessNV21(nv21, previewWidth, previewHeight, rotationDegrees, tensorSlot, null, outputPixelsOrNull);
+    }
+
+    public boolean preprocessNV21(byte[] nv21, int previewWidth, int previewHeight, int rotationDegrees,
+                                  int tensorSlot, Roi roiOrNull, int[] outputPixelsOrNull) {
+        final int inputFloats = getInputTensorWidth() * getInputTensorHeight() * 3;
+        if (mSlotInputFloatsHW3 == null || mSlotInputFloatsHW3.length != inputFloats)
+            mSlotInputFloatsHW3 = new float[inputFloats];
+        if (!preprocessNV21(nv21, previewWidth, previewHeight, rotationDegrees, roiOrNull, mSlotInputFloatsHW3, outputPixelsOrNull))
+            return false;
+        mEngineSwitch.getEngine().setInput(tensorSlot, mSlotInputFloatsHW3);
+        return true;
+    }
+
+    /**
+     * Inference on an input tensor prepared by the function above. The returned boxes belong to
+     * this helper, and are overwritten by the next inference. The tensor can be released after this.
+     */
+    public ArrayList<Box> mobileNetSSDInference(int tensorSlot) {
+        if (mEngineSwitch.getEngine() == null) {
+            complain("No NN loaded");
+            return null;
+        }
+        return executeNetwork(tensorSlot) ? mobileNetSSDOutputsToBoxes() : null;
+    }
+
+    /**
+     * Same as above, for a tensor prepared from a region of the frame: the boxes (and
+     * getLastDetections()) are mapped back to the frame.
+     */
+    public ArrayList<Box> mobileNetSSDInference(int tensorSlot, Roi roi) {
+        if (mEngineSwitch.getEngine() == null) {
+            complain("No NN loaded");
+            return null;
+        }
+        if (!executeNetwork(tensorSlot))
+            return null;
+        if (!roi.isFullFrame())
+            roi.mapToFrame(mSSDDetections);
+        return mobileNetSSDOutputsToBoxes();
+    }
+
+    /**
+     * ARGB pixels of the last model input prepared from NV21, for consumers of the picture (e.g. tracking).
+     */
+    public int[] getModelInputPixels() {
+        return mModelInputPixels;
+    }
+
+    private boolean executeNetwork(int slot) {
         // [31ms on GPU16, 50ms on GPU] execute the inference
         mTimeStat.startInterval();
-        final Map<String, FloatTensor> outputs = mNeuralNetwork.execute(mInputTensorsMap);
+        final InferenceEngine engine = mEngineSwitch.getEngine();
+        final SegmentationOutputs segmentation = mSegmentationOutputs;
+        final boolean executed;
+        if (segmentation != null) {
+            // a segmentation model: no detections, see getLastSegmentation()
+            executed = ((SegmentationEngine) engine).execute(slot, segmentation);
+            mSSDDetections.clear();
+        } else {
+            executed = engine.execute(slot, mSSDOutputs);
+            if (executed)
+                mSSDDetections.decode(mSSDOutputs);
+        }
         mTimeStat.stopInterval("nn_exec ", 20, false);
 
-        return outputs;
+        return executed;
     }
 
-    private static NeuralNetwork loadNetworkFromDLCAsset(
-            Application application, String assetFileName, NeuralNetwork.Runtime selectedRuntime,
-            boolean needsCpuFallback, String... outputLayerNames) {
+    // the non-pipelined functions switch to a model loaded by switchModel() between their frames
+    private void switchModelIfPending() {
         try {
-            // input stream to read from the assets
-            InputStream assetInputStream = application.getAssets().open(assetFileName);
-
-            // create the neural network
-            NeuralNetwork network = new SNPE.NeuralNetworkBuilder(application)
-                    .setDebugEnabled(false)
-                    .setOutputLayers(outputLayerNames)
-                    .setModel(assetInputStream, assetInputStream.available())
-                    .setPerformanceProfile(NeuralNetwork.PerformanceProfile.HIGH_PERFORMANCE)
-                    .setRuntimeOrder(selectedRuntime) // Runtime.DSP, Runtime.GPU_FLOAT16, Runtime.GPU, Runtime.CPU
-                    .setCpuFallbackEnabled(needsCpuFallback)
-                    .build();
-
-            // close input
-            assetInputStream.close();
-
-            // all right, network loaded
-            return network;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-        } catch (IllegalStateException | IllegalArgumentException e2) {
-            Log.e(MainActivity.LOGTAG, "SNPE could not load the network; try a different core, maybe? Trace follows:");
-            e2.printStackTrace();
-            return null;
+            mEngineSwitch.switchIfPending();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     private void disposeNeuralNetwork() {
-        if (mNeuralNetwork == null)
+        if (mEngineSwitch.getEngine() == null && !mEngineSwitch.hasPending())
             return;
-        mNeuralNetwork.release();
-        mNeuralNetwork = null;
-        mInputTensorShapeBHWC = null;
-        mInputTensorReused = null;
-        mInputTensorsMap = null;
+        mEngineSwitch.release();
+        mManifest = null;
+        mSegmentationOutputs = null;
+        mRuntimeCoreName = "no core";
     }
 
     private void complain(String message) {
@@ -215,96 +790,4 @@ public class SNPEHelper {
         if (Looper.myLooper() == Looper.getMainLooper())
             Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
     }
-
-    // VERBOSE COCO object map
-    private Map<Integer, String> mCocoMap;
-
-    private String lookupMsCoco(int cocoIndex, String fallback) {
-        // map obtained from: https://github.com/tensorflow/models/blob/master/research/object_detection/data/mscoco_label_map.pbtxt
-        // referenced by TensorFlow here: https://github.com/tensorflow/models/blob/master/research/object_detection/object_detection_tutorial.ipynb
-        if (mCocoMap == null) {
-            mCocoMap = new ArrayMap<>();
-            mCocoMap.put(1, "person");
-            mCocoMap.put(2, "bicycle");
-            mCocoMap.put(3, "car");
-            mCocoMap.put(4, "motorcycle");
-            mCocoMap.put(5, "airplane");
-            mCocoMap.put(6, "bus");
-            mCocoMap.put(7, "train");
-            mCocoMap.put(8, "truck");
-            mCocoMap.put(9, "boat");
-            mCocoMap.put(10, "traffic light");
-            mCocoMap.put(11, "fire hydrant");
-            mCocoMap.put(13, "stop sign");
-            mCocoMap.put(14, "parking meter");
-            mCocoMap.put(15, "bench");
-            mCocoMap.put(16, "bird");
-            mCocoMap.put(17, "cat");
-            mCocoMap.put(18, "dog");
-            mCocoMap.put(19, "horse");
-            mCocoMap.put(20, "sheep");
-            mCocoMap.put(21, "cow");
-            mCocoMap.put(22, "elephant");
-            mCocoMap.put(23, "bear");
-            mCocoMap.put(24, "zebra");
-            mCocoMap.put(25, "giraffe");
-            mCocoMap.put(27, "backpack");
-            mCocoMap.put(28, "umbrella");
-            mCocoMap.put(31, "handbag");
-            mCocoMap.put(32, "tie");
-            mCocoMap.put(33, "suitcase");
-            mCocoMap.put(34, "frisbee");
-            mCocoMap.put(35, "skis");
-            mCocoMap.put(36, "snowboard");
-            mCocoMap.put(37, "sports ball");
-            mCocoMap.put(38, "kite");
-            mCocoMap.put(39, "baseball bat");
-            mCocoMap.put(40, "baseball glove");
-            mCocoMap.put(41, "skateboard");
-            mCocoMap.put(42, "surfboard");
-            mCocoMap.put(43, "tennis racket");
-            mCocoMap.put(44, "bottle");
-            mCocoMap.put(46, "wine glass");
-            mCocoMap.put(47, "cup");
-            mCocoMap.put(48, "fork");
-            mCocoMap.put(49, "knife");
-            mCocoMap.put(50, "spoon");
-            mCocoMap.put(51, "bowl");
-            mCocoMap.put(52, "banana");
-            mCocoMap.put(53, "apple");
-            mCocoMap.put(54, "sandwich");
-            mCocoMap.put(55, "orange");
-            mCocoMap.put(56, "broccoli");
-            mCocoMap.put(57, "carrot");
-            mCocoMap.put(58, "hot dog");
-            mCocoMap.put(59, "pizza");
-            mCocoMap.put(60, "donut");
-            mCocoMap.put(61, "cake");
-            mCocoMap.put(62, "chair");
-            mCocoMap.put(63, "couch");
-            mCocoMap.put(64, "potted plant");
-            mCocoMap.put(65, "bed");
-            mCocoMap.put(67, "dining table");
-            mCocoMap.put(70, "toilet");
-            mCocoMap.put(72, "tv");
-            mCocoMap.put(73, "laptop");
-            mCocoMap.put(74, "mouse");
-            mCocoMap.put(75, "remote");
-            mCocoMap.put(76, "keyboard");
-            mCocoMap.put(77, "cell phone");
-            mCocoMap.put(78, "microwave");
-            mCocoMap.put(79, "oven");
-            mCocoMap.put(80, "toaster");
-            mCocoMap.put(81, "sink");
-            mCocoMap.put(82, "refrigerator");
-            mCocoMap.put(84, "book");
-            mCocoMap.put(85, "clock");
-            mCocoMap.put(86, "vase");
-            mCocoMap.put(87, "scissors");
-            mCocoMap.put(88, "teddy bear");
-            mCocoMap.put(89, "hair drier");
-            mCocoMap.put(90, "toothbrush");
-        }
-        return mCocoMap.containsKey(cocoIndex) ? mCocoMap.get(cocoIndex) : fallback;
-    }
 }
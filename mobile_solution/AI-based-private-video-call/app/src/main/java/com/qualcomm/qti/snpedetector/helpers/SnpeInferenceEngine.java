@@ -0,0 +1,244 @@
+package com.qualcomm.qti.snpedetector.helpers;
+
+import android.app.Application;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import com.qualcomm.qti.snpe.FloatTensor;
+import com.qualcomm.qti.snpe.NeuralNetwork;
+import com.qualcomm.qti.snpe.SNPE;
+import com.qualcomm.qti.snpedetector.MainActivity;
+import com.qualcomm.qti.snpedetector.engine.DetectionOutputs;
+import com.qualcomm.qti.snpedetector.engine.ModelManifest;
+import com.qualcomm.qti.snpedetector.engine.SegmentationEngine;
+import com.qualcomm.qti.snpedetector.engine.SegmentationOutputs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A DLC on SNPE, described by its ModelManifest (layers, outputs, decoder: e.g. MobileNet-SSD
+ * detections or a DeepLab segmentation), with one input tensor (and input map) per slot.
+ */
+public class SnpeInferenceEngine implements SegmentationEngine {
+    // outputs of the MobileNet-SSD NMS
+    public static final int MNETSSD_NUM_BOXES = 100;
+
+    private final NeuralNetwork mNeuralNetwork;
+    private final ModelManifest mManifest;
+    private final String mName;
+    private final int[] mInputTensorShapeBHWC;
+    private final FloatTensor[] mInputTensors;
+    private final Map<String, FloatTensor>[] mInputTensorMaps;
+
+    /**
+     * Loads the DLC from the assets on the runtime; returns null if SNPE can't. The model goes
+     * through a stream, copied on the Java heap: prefer the functions below.
+     */
+    public static SnpeInferenceEngine loadFromAsset(Application application, ModelManifest manifest,
+                                                    NeuralNetwork.Runtime runtime, boolean needsCpuFallback,
+                                                    int inputSlots) {
+        return load(application, manifest, runtime, needsCpuFallback, false, inputSlots, builder -> {
+            try (InputStream assetInputStream = application.getAssets().open(manifest.modelFileName)) {
+                builder.setModel(assetInputStream, assetInputStream.available());
+            }
+        });
+    }
+
+    /**
+     * Loads the DLC from a buffer, e.g. mapAsset(); returns null if SNPE can't.
+     */
+    public static SnpeInferenceEngine loadFromBuffer(Application application, ModelManifest manifest, ByteBuffer model,
+                                                     NeuralNetwork.Runtime runtime, boolean needsCpuFallback,
+                                                     int inputSlots) {
+        return load(application, manifest, runtime, needsCpuFallback, false, inputSlots, builder -> builder.setModel(model));
+    }
+
+    /**
+     * Loads the DLC from a file; with 'initCache', SNPE saves its initialized state for the
+     * runtime into the file on the first load, and the next loads skip the graph compilation.
+     * The file must then be writable, and used with one runtime only (see ModelFileCache).
+     */
+    public static SnpeInferenceEngine loadFromFile(Application application, ModelManifest manifest, File dlcFile,
+                                                   NeuralNetwork.Runtime runtime, boolean needsCpuFallback,
+                                                   boolean initCache, int inputSlots) {
+        return load(application, manifest, runtime, needsCpuFallback, initCache, inputSlots, builder -> builder.setModel(dlcFile));
+    }
+
+    /**
+     * Maps an asset stored uncompressed in the APK (see noCompress in build.gradle), or, if it is
+     * compressed, inflates it into a direct buffer.
+     */
+    public static ByteBuffer mapAsset(Application application, String assetFileName) throws IOException {
+        try (AssetFileDescriptor fd = application.getAssets().openFd(assetFileName);
+             FileInputStream in = fd.createInputStream()) {
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getDeclaredLength());
+        } catch (FileNotFoundException e) {
+            // openFd() fails on compressed assets
+            Log.w(MainActivity.LOGTAG, "The asset " + assetFileName + " is compressed in the APK, and can't be mapped");
+        }
+        try (InputStream in = application.getAssets().open(assetFileName)) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(in.available());
+            final byte[] chunk = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(chunk)) > 0)
+                bytes.write(chunk, 0, read);
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.size());
+            buffer.put(bytes.toByteArray());
+            buffer.rewind();
+            return buffer;
+        }
+    }
+
+    // no generic array creation: a raw Map[] cast to the maps of tensors
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private SnpeInferenceEngine(NeuralNetwork network, ModelManifest manifest, int inputSlots) {
+        mNeuralNetwork = network;
+        mManifest = manifest;
+        // cache the runtime name
+        mName = "SNPE " + network.getRuntime().toString();
+        // read the input shape
+        mInputTensorShapeBHWC = network.getInputTensorsShapes().get(manifest.inputLayer);
+        if (mInputTensorShapeBHWC == null)
+            throw new IllegalArgumentException(manifest.name + ": no input layer " + manifest.inputLayer);
+        // allocate the input tensors, each in its map of inputs, even if it's a single input
+        mInputTensors = new FloatTensor[inputSlots];
+        mInputTensorMaps = (Map<String, FloatTensor>[]) new Map[inputSlots];
+        for (int i = 0; i < inputSlots; i++) {
+            mInputTensors[i] = network.createFloatTensor(mInputTensorShapeBHWC);
+            mInputTensorMaps[i] = new HashMap<>();
+            mInputTensorMaps[i].put(manifest.inputLayer, mInputTensors[i]);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public int getInputWidth() {
+        return mInputTensorShapeBHWC[mInputTensorShapeBHWC.length == 3 ? 1 : 2];
+    }
+
+    @Override
+    public int getInputHeight() {
+        return mInputTensorShapeBHWC[mInputTensorShapeBHWC.length == 3 ? 0 : 1];
+    }
+
+    @Override
+    public int getInputSlotCount() {
+        return mInputTensors.length;
+    }
+
+    @Override
+    public void setInput(int slot, float[] inputFloatsHW3) {
+        mInputTensors[slot].write(inputFloatsHW3, 0, inputFloatsHW3.length, 0, 0);
+    }
+
+    @Override
+    public boolean execute(int slot, DetectionOutputs outputs) {
+        if (mManifest.decoder != ModelManifest.Decoder.SSD_DETECTIONS)
+            return false;
+        final Map<String, FloatTensor> tensors = mNeuralNetwork.execute(mInputTensorMaps[slot]);
+        if (tensors == null)
+            return false;
+
+        // the scores first: they're sorted, so only the boxes and classes above the floor are read
+        final int capacity = Math.min(mManifest.maxDetections, outputs.getCapacity());
+        tensors.get(mManifest.scoresTensor).read(outputs.scoresN, 0, capacity);
+        int count = 0;
+        while (count < capacity && outputs.scoresN[count] >= outputs.scoreFloor)
+            count++;
+        tensors.get(mManifest.boxesTensor).read(outputs.boxesN4, 0, count * 4);
+        tensors.get(mManifest.classesTensor).read(outputs.classesN, 0, count);
+        outputs.count = count;
+        return true;
+    }
+
+    @Override
+    public ModelManifest getManifest() {
+        return mManifest;
+    }
+
+    @Override
+    public SegmentationOutputs createSegmentationOutputs() {
+        if (mManifest.decoder != ModelManifest.Decoder.SEGMENTATION)
+            return null;
+        // [batch,] height, width[, channels]
+        final int[] shape = mNeuralNetwork.getOutputTensorsShapes().get(mManifest.maskTensor);
+        int dims = shape.length;
+        if (dims >= 3 && shape[dims - 1] == mManifest.maskChannels && (dims == 4 || shape[0] != 1))
+            dims--;
+        return new SegmentationOutputs(shape[dims - 1], shape[dims - 2], mManifest.maskChannels);
+    }
+
+    @Override
+    public boolean execute(int slot, SegmentationOutputs outputs) {
+        if (mManifest.decoder != ModelManifest.Decoder.SEGMENTATION)
+            return false;
+        final Map<String, FloatTensor> tensors = mNeuralNetwork.execute(mInputTensorMaps[slot]);
+        if (tensors == null)
+            return false;
+        tensors.get(mManifest.maskTensor).read(outputs.dataHWC, 0, outputs.dataHWC.length);
+        return true;
+    }
+
+    /**
+     * Frees the input tensors, then the network, right away (e.g. the previous model of a swap).
+     */
+    @Override
+    public void release() {
+        for (FloatTensor tensor : mInputTensors)
+            tensor.release();
+        for (Map<String, FloatTensor> map : mInputTensorMaps)
+            map.clear();
+        mNeuralNetwork.release();
+    }
+
+    private interface ModelSetter {
+        void setModel(SNPE.NeuralNetworkBuilder builder) throws IOException;
+    }
+
+    private static SnpeInferenceEngine load(Application application, ModelManifest manifest, NeuralNetwork.Runtime selectedRuntime,
+                                            boolean needsCpuFallback, boolean initCache, int inputSlots,
+                                            ModelSetter modelSetter) {
+        try {
+            // create the neural network
+            final SNPE.NeuralNetworkBuilder builder = new SNPE.NeuralNetworkBuilder(application)
+                    .setDebugEnabled(false)
+                    .setOutputLayers(manifest.outputLayers)
+                    .setPerformanceProfile(NeuralNetwork.PerformanceProfile.HIGH_PERFORMANCE)
+                    .setRuntimeOrder(selectedRuntime) // Runtime.DSP, Runtime.GPU_FLOAT16, Runtime.GPU, Runtime.CPU
+                    .setCpuFallbackEnabled(needsCpuFallback)
+                    .setInitCacheEnabled(initCache);
+            modelSetter.setModel(builder);
+            final NeuralNetwork network = builder.build();
+            if (network == null)
+                return null;
+
+            // all right, network loaded; if it doesn't match the manifest, free it now
+            try {
+                return new SnpeInferenceEngine(network, manifest, inputSlots);
+            } catch (IllegalArgumentException e) {
+                network.release();
+                throw e;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } catch (IllegalStateException | IllegalArgumentException e2) {
+            Log.e(MainActivity.LOGTAG, "SNPE could not load the network; try a different core, maybe? Trace follows:");
+            e2.printStackTrace();
+            return null;
+        }
+    }
+}
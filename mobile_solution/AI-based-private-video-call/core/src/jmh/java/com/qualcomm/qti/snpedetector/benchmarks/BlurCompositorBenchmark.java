@@ -0,0 +1,84 @@
+package com.qualcomm.qti.snpedetector.benchmarks;
+
+import com.qualcomm.qti.snpedetector.segmentation.BlurCompositor;
+import com.qualcomm.qti.snpedetector.segmentation.PackedMask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The background blur of a 720p preview frame, for several radii (frame pixels): at the full
+ * resolution (downsample 1, the naive way), and from a quarter of it in each direction, with a
+ * 513x513 mask of an ellipse in the middle (the subject).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class BlurCompositorBenchmark {
+    private static final int MASK_SIZE = 513;
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    @Param({"8", "16", "32"})
+    public int radius;
+
+    @Param({"1", "4"})
+    public int downsample;
+
+    @Param({"1", "4"})
+    public int stripes;
+
+    private final PackedMask mMask = new PackedMask();
+    private BlurCompositor mCompositor;
+    private int[] mSourceArgb;
+    private int[] mArgb;
+
+    @Setup
+    public void setup() {
+        mMask.setSize(MASK_SIZE, MASK_SIZE);
+        for (int y = 0; y < MASK_SIZE; y++) {
+            for (int x = 0; x < MASK_SIZE; x++) {
+                final float dx = (x - MASK_SIZE / 2f) / (MASK_SIZE * 0.25f);
+                final float dy = (y - MASK_SIZE / 2f) / (MASK_SIZE * 0.4f);
+                if (dx * dx + dy * dy < 1)
+                    mMask.set(x, y);
+            }
+        }
+        mCompositor = new BlurCompositor(stripes);
+        mCompositor.setBlur(radius, 4, downsample);
+        final byte[] rgba = SyntheticFrames.rgba(WIDTH, HEIGHT, 42);
+        mSourceArgb = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < mSourceArgb.length; i++)
+            mSourceArgb[i] = 0xFF000000 | (rgba[i * 4] & 0xFF) << 16 | (rgba[i * 4 + 1] & 0xFF) << 8 | (rgba[i * 4 + 2] & 0xFF);
+        mArgb = new int[mSourceArgb.length];
+    }
+
+    @TearDown
+    public void tearDown() {
+        mCompositor.shutdown();
+    }
+
+    // includes the copy of the source frame, as the compositing is in place
+    @Benchmark
+    public int[] compositeArgb() {
+        System.arraycopy(mSourceArgb, 0, mArgb, 0, mArgb.length);
+        mCompositor.compositeArgb(mMask, mArgb, WIDTH, HEIGHT);
+        return mArgb;
+    }
+
+    @Benchmark
+    public int[] coverArgb() {
+        System.arraycopy(mSourceArgb, 0, mArgb, 0, mArgb.length);
+        mCompositor.coverArgb(mMask, mArgb, WIDTH, HEIGHT);
+        return mArgb;
+    }
+}
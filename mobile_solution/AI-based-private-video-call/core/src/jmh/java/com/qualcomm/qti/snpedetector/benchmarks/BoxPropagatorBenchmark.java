@@ -0,0 +1,103 @@
+package com.qualcomm.qti.snpedetector.benchmarks;
+
+import com.qualcomm.qti.snpedetector.Box;
+import com.qualcomm.qti.snpedetector.tracking.BoxPropagator;
+import com.qualcomm.qti.snpedetector.tracking.MultiObjectTracker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of the box motion, for 1 to 64 people on a grid, all moving: the Kalman
+ * correction of every box by its detection and the prediction to the display time (the
+ * propagator alone), and a whole MultiObjectTracker update (association included).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class BoxPropagatorBenchmark {
+    private static final long FRAME_NS = 33_000_000L;
+    private static final long DISPLAY_DELAY_NS = 16_000_000L;
+
+    @Param({"1", "4", "16", "64"})
+    public int tracks;
+
+    private BoxPropagator mPropagator;
+    private MultiObjectTracker mTracker;
+    private final ArrayList<Box> mDetections = new ArrayList<>();
+    private final ArrayList<Box> mTrackBoxes = new ArrayList<>();
+    private float[] mBoxes;
+    private float[] mVelocities;
+    private long mTimeNs;
+
+    @Setup
+    public void setup() {
+        mPropagator = new BoxPropagator(tracks);
+        mTracker = new MultiObjectTracker(tracks, tracks);
+        mBoxes = new float[tracks * 4];
+        mVelocities = new float[tracks * 4];
+        mDetections.clear();
+        // a grid of boxes, drifting right
+        final int side = (int) Math.ceil(Math.sqrt(tracks));
+        final float size = 0.8f / side;
+        for (int i = 0; i < tracks; i++) {
+            final Box box = new Box();
+            box.left = (i % side) * size;
+            box.top = (i / side) * size;
+            box.right = box.left + size * 0.8f;
+            box.bottom = box.top + size * 0.8f;
+            box.type_score = 0.9f;
+            mDetections.add(box);
+            mPropagator.start(i, 0, box.left, box.top, box.right, box.bottom);
+        }
+        mTracker.update(mDetections, 0.5f, 0);
+        mTimeNs = 0;
+    }
+
+    // the detections move by a small step, back and forth
+    private void moveDetections() {
+        mTimeNs += FRAME_NS;
+        final float step = (mTimeNs / FRAME_NS) % 20 < 10 ? 0.001f : -0.001f;
+        for (int i = 0; i < tracks; i++) {
+            final Box box = mDetections.get(i);
+            box.left += step;
+            box.right += step;
+        }
+    }
+
+    @Benchmark
+    public float[] correctAndPredict() {
+        moveDetections();
+        for (int i = 0; i < tracks; i++) {
+            final Box box = mDetections.get(i);
+            mPropagator.correct(i, mTimeNs, box.left, box.top, box.right, box.bottom);
+            mPropagator.getBox(i, mTimeNs + DISPLAY_DELAY_NS, mBoxes, i * 4);
+        }
+        return mBoxes;
+    }
+
+    // the overlay, between two frames
+    @Benchmark
+    public float[] predictOnly() {
+        mTimeNs += FRAME_NS / 4;
+        for (int i = 0; i < tracks; i++)
+            mPropagator.getBox(i, mTimeNs, mBoxes, i * 4);
+        return mBoxes;
+    }
+
+    @Benchmark
+    public int trackerUpdate() {
+        moveDetections();
+        mTracker.update(mDetections, 0.5f, mTimeNs);
+        return mTracker.getBoxes(mTimeNs + DISPLAY_DELAY_NS, mTrackBoxes, mVelocities);
+    }
+}
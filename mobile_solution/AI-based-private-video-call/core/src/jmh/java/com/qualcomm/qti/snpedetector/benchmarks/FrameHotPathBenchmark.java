@@ -0,0 +1,142 @@
+package com.qualcomm.qti.snpedetector.benchmarks;
+
+import com.qualcomm.qti.snpedetector.Box;
+import com.qualcomm.qti.snpedetector.BoxGeometry;
+import com.qualcomm.qti.snpedetector.engine.DetectionBuffer;
+import com.qualcomm.qti.snpedetector.engine.DetectionOutputs;
+import com.qualcomm.qti.snpedetector.helpers.MobileNetSSDDecoder;
+import com.qualcomm.qti.snpedetector.helpers.RgbaToFloatHelper;
+import com.qualcomm.qti.snpedetector.helpers.TimeStat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every per-frame step of the current pipeline, one frame per operation: run with the 'gc'
+ * profiler to read the allocated bytes per frame (gc.alloc.rate.norm) next to ns/frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FrameHotPathBenchmark {
+
+    @Param({"300x300", "640x480", "1920x1080"})
+    public String resolution;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mRgba;
+    private float[] mFloatsBGR;
+    private float[] mSSDOutputBoxes;
+    private float[] mSSDOutputClasses;
+    private float[] mSSDOutputScores;
+    private ArrayList<Box> mDecodedBoxes;
+    private ArrayList<Box> mRendererBoxes;
+    private DetectionOutputs mSSDOutputs;
+    private DetectionBuffer mDetections;
+    private final TimeStat mTimeStat = new TimeStat();
+    private static final float[] TRACKED_BOX = {0.25f, 0.25f, 0.75f, 0.75f};
+    private float[] mPackedBoxes;
+    private final float[] mIous = new float[SyntheticFrames.SSD_NUM_BOXES];
+
+    @Setup
+    public void setup() {
+        final int[] size = SyntheticFrames.parseResolution(resolution);
+        mWidth = size[0];
+        mHeight = size[1];
+        mRgba = SyntheticFrames.rgba(mWidth, mHeight, 42);
+        mFloatsBGR = new float[mWidth * mHeight * 3];
+        mSSDOutputBoxes = SyntheticFrames.ssdBoxes(42);
+        mSSDOutputClasses = SyntheticFrames.ssdClasses(42);
+        mSSDOutputScores = SyntheticFrames.ssdScores();
+        mDecodedBoxes = Box.createBoxes(SyntheticFrames.SSD_NUM_BOXES);
+        MobileNetSSDDecoder.decode(mSSDOutputBoxes, mSSDOutputClasses, mSSDOutputScores, SyntheticFrames.SSD_NUM_BOXES, mDecodedBoxes);
+        mRendererBoxes = new ArrayList<>();
+        mSSDOutputs = new DetectionOutputs(SyntheticFrames.SSD_NUM_BOXES);
+        System.arraycopy(mSSDOutputBoxes, 0, mSSDOutputs.boxesN4, 0, mSSDOutputBoxes.length);
+        System.arraycopy(mSSDOutputClasses, 0, mSSDOutputs.classesN, 0, mSSDOutputClasses.length);
+        System.arraycopy(mSSDOutputScores, 0, mSSDOutputs.scoresN, 0, mSSDOutputScores.length);
+        mSSDOutputs.count = SyntheticFrames.SSD_NUM_BOXES;
+        mDetections = new DetectionBuffer(SyntheticFrames.SSD_NUM_BOXES);
+        // as in SNPEHelper: the synthetic scores fall below it after 14 detections
+        mDetections.setScoreFloor(0.3f);
+    }
+
+    // BitmapToFloatArrayHelper.bufferToNormalFloatsBGR
+    @Benchmark
+    public boolean normalizeBGR() {
+        final int area = mWidth * mHeight;
+        final long sumG = RgbaToFloatHelper.rgbaToNormalFloatsBGR(mRgba, mFloatsBGR, area);
+        return RgbaToFloatHelper.isBlack(sumG, area);
+    }
+
+    // SNPEHelper.mobileNetSSDInference, after the output tensors have been read
+    @Benchmark
+    public ArrayList<Box> decodeSSD() {
+        MobileNetSSDDecoder.decode(mSSDOutputBoxes, mSSDOutputClasses, mSSDOutputScores, SyntheticFrames.SSD_NUM_BOXES, mDecodedBoxes);
+        return mDecodedBoxes;
+    }
+
+    // SNPEHelper.executeNetwork: all the outputs, decoded up to the score floor (expect 0 B/op)
+    @Benchmark
+    public int decodeDetectionBuffer() {
+        return mDetections.decode(mSSDOutputs);
+    }
+
+    // the same, plus the ArrayList<Box> view (expect 0 B/op too)
+    @Benchmark
+    public ArrayList<Box> decodeDetectionBufferAsBoxes() {
+        mDetections.decode(mSSDOutputs);
+        return mDetections.asBoxes();
+    }
+
+    // FaceTracker.removeTrackedBox: IoU of every box against the tracked one, packed, in one pass
+    @Benchmark
+    public int trackerIou() {
+        mPackedBoxes = BoxGeometry.packBoxes(mDecodedBoxes, mPackedBoxes);
+        BoxGeometry.iouMatrix(TRACKED_BOX, 1, mPackedBoxes, mDecodedBoxes.size(), mIous);
+        double highestIoU = 0;
+        int highestIoUIdx = 0;
+        for (int i = 0; i < mDecodedBoxes.size(); i++) {
+            if (mIous[i] > highestIoU) {
+                highestIoU = mIous[i];
+                highestIoUIdx = i;
+            }
+        }
+        return highestIoUIdx;
+    }
+
+    // FaceTracker.getNearestBox
+    @Benchmark
+    public int nearestBox() {
+        return BoxGeometry.getNearestBoxIndex(mWidth / 2, mHeight / 2, mDecodedBoxes, mWidth, mHeight);
+    }
+
+    // OverlayRenderer.setBoxesFromAnotherThread, minus the lock
+    @Benchmark
+    public ArrayList<Box> copyBoxesToRenderer() {
+        for (int i = 0; i < mDecodedBoxes.size(); i++) {
+            if (i >= mRendererBoxes.size())
+                mRendererBoxes.add(new Box());
+            mDecodedBoxes.get(i).copyTo(mRendererBoxes.get(i));
+        }
+        return mRendererBoxes;
+    }
+
+    // MainActivity.onCameraPreviewFrame, for each of its 'stopInterval' calls
+    @Benchmark
+    public float timeStatStopInterval() {
+        mTimeStat.startInterval();
+        mTimeStat.stopInterval("frame", 10, false);
+        return mTimeStat.getAverageInterval("frame");
+    }
+}
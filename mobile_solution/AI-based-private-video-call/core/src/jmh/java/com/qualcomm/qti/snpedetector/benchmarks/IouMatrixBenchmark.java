@@ -0,0 +1,81 @@
+package com.qualcomm.qti.snpedetector.benchmarks;
+
+import com.qualcomm.qti.snpedetector.BoxGeometry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The IoU of 100 detections with 32 tracks (the association of a crowded frame): the batch
+ * kernels of BoxGeometry, and the pair-by-pair computeIou() on (x, y, width, height) they replace.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class IouMatrixBenchmark {
+    private static final int DETECTIONS = 100;
+    private static final int TRACKS = 32;
+
+    private final float[] mDetections = new float[DETECTIONS * 4];
+    private final float[] mTracks = new float[TRACKS * 4];
+    private final float[] mMatrix = new float[DETECTIONS * TRACKS];
+
+    @Setup
+    public void setup() {
+        // boxes of 5-30% of the frame, about a quarter of the pairs overlapping
+        final Random random = new Random(42);
+        fill(mDetections, DETECTIONS, random);
+        fill(mTracks, TRACKS, random);
+    }
+
+    private static void fill(float[] boxes, int count, Random random) {
+        for (int i = 0; i < count; i++) {
+            final float width = 0.05f + random.nextFloat() * 0.25f;
+            final float height = 0.05f + random.nextFloat() * 0.25f;
+            boxes[i * 4] = random.nextFloat() * (1 - width);
+            boxes[i * 4 + 1] = random.nextFloat() * (1 - height);
+            boxes[i * 4 + 2] = boxes[i * 4] + width;
+            boxes[i * 4 + 3] = boxes[i * 4 + 1] + height;
+        }
+    }
+
+    @Benchmark
+    public float[] iouMatrix() {
+        BoxGeometry.iouMatrix(mDetections, DETECTIONS, mTracks, TRACKS, mMatrix);
+        return mMatrix;
+    }
+
+    @Benchmark
+    public float[] giouMatrix() {
+        BoxGeometry.giouMatrix(mDetections, DETECTIONS, mTracks, TRACKS, mMatrix);
+        return mMatrix;
+    }
+
+    @Benchmark
+    public float[] diouMatrix() {
+        BoxGeometry.diouMatrix(mDetections, DETECTIONS, mTracks, TRACKS, mMatrix);
+        return mMatrix;
+    }
+
+    @Benchmark
+    public float[] pairwiseComputeIou() {
+        for (int i = 0; i < DETECTIONS; i++) {
+            final float[] a = mDetections;
+            for (int j = 0; j < TRACKS; j++) {
+                final float[] b = mTracks;
+                mMatrix[i * TRACKS + j] = (float) BoxGeometry.computeIou(
+                        a[i * 4], a[i * 4 + 1], a[i * 4 + 2] - a[i * 4], a[i * 4 + 3] - a[i * 4 + 1],
+                        b[j * 4], b[j * 4 + 1], b[j * 4 + 2] - b[j * 4], b[j * 4 + 3] - b[j * 4 + 1]);
+            }
+        }
+        return mMatrix;
+    }
+}
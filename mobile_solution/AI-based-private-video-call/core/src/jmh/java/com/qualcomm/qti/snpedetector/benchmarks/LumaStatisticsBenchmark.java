@@ -0,0 +1,59 @@
+package com.qualcomm.qti.snpedetector.benchmarks;
+
+import com.qualcomm.qti.snpedetector.helpers.LumaStatistics;
+import com.qualcomm.qti.snpedetector.helpers.NV21ToTensorKernel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of the Y plane statistics (per sampling stride), against the pre-processing that they
+ * save on rejected frames ('preprocessSaved': NV21 -> 300x300 tensor).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class LumaStatisticsBenchmark {
+
+    @Param({"640x480", "1920x1080"})
+    public String resolution;
+
+    @Param({"1", "4", "8", "16"})
+    public int stride;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mNV21;
+    private float[] mFloatsBGR;
+    private final LumaStatistics mLumaStatistics = new LumaStatistics();
+    private final NV21ToTensorKernel mKernel = new NV21ToTensorKernel();
+
+    @Setup
+    public void setup() {
+        final int[] size = SyntheticFrames.parseResolution(resolution);
+        mWidth = size[0];
+        mHeight = size[1];
+        mNV21 = SyntheticFrames.nv21(mWidth, mHeight, 42);
+        mFloatsBGR = new float[300 * 300 * 3];
+        mLumaStatistics.setSampleStride(stride);
+        mKernel.configure(mWidth, mHeight, 270, false, 300, 300);
+    }
+
+    @Benchmark
+    public boolean analyze() {
+        return mLumaStatistics.analyze(mNV21, mWidth, mHeight);
+    }
+
+    @Benchmark
+    public long preprocessSaved() {
+        return mKernel.convert(mNV21, mFloatsBGR, null);
+    }
+}
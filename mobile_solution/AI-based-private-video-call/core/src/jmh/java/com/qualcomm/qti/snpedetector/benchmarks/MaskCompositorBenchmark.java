@@ -0,0 +1,110 @@
+package com.qualcomm.qti.snpedetector.benchmarks;
+
+import com.qualcomm.qti.snpedetector.engine.SegmentationOutputs;
+import com.qualcomm.qti.snpedetector.segmentation.MaskBuilder;
+import com.qualcomm.qti.snpedetector.segmentation.MaskCompositor;
+import com.qualcomm.qti.snpedetector.segmentation.PackedMask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The segmentation privacy path: a 513x513 DeepLab output (class ids, or 21 class scores) into a
+ * PackedMask, and the mask composited over a preview frame of that size (ARGB, or NV21 in place).
+ * The subject is an ellipse in the middle, so about a third of the rows have a blended edge.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class MaskCompositorBenchmark {
+    private static final int MASK_SIZE = 513;
+    private static final int CLASSES = 21;
+    private static final int PERSON = 15;
+
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"1", "4"})
+    public int stripes;
+
+    private int mWidth;
+    private int mHeight;
+    private SegmentationOutputs mClassIds;
+    private SegmentationOutputs mScores;
+    private final MaskBuilder mBuilder = new MaskBuilder(PERSON);
+    private final PackedMask mMask = new PackedMask();
+    private MaskCompositor mCompositor;
+    private int[] mSourceArgb;
+    private int[] mArgb;
+    private byte[] mSourceNV21;
+    private byte[] mNV21;
+
+    @Setup
+    public void setup() {
+        final int[] size = SyntheticFrames.parseResolution(resolution);
+        mWidth = size[0];
+        mHeight = size[1];
+        mClassIds = new SegmentationOutputs(MASK_SIZE, MASK_SIZE, 1);
+        mScores = new SegmentationOutputs(MASK_SIZE, MASK_SIZE, CLASSES);
+        for (int y = 0; y < MASK_SIZE; y++) {
+            for (int x = 0; x < MASK_SIZE; x++) {
+                final float dx = (x - MASK_SIZE / 2f) / (MASK_SIZE * 0.25f);
+                final float dy = (y - MASK_SIZE / 2f) / (MASK_SIZE * 0.4f);
+                final boolean person = dx * dx + dy * dy < 1;
+                final int pixel = y * MASK_SIZE + x;
+                mClassIds.dataHWC[pixel] = person ? PERSON : 0;
+                for (int c = 0; c < CLASSES; c++)
+                    mScores.dataHWC[pixel * CLASSES + c] = ((pixel * 31 + c * 7) % 13) * 0.1f;
+                mScores.dataHWC[pixel * CLASSES + (person ? PERSON : 0)] = 2;
+            }
+        }
+        mBuilder.build(mClassIds, mMask);
+        mCompositor = new MaskCompositor(stripes);
+        final byte[] rgba = SyntheticFrames.rgba(mWidth, mHeight, 42);
+        mSourceArgb = new int[mWidth * mHeight];
+        for (int i = 0; i < mSourceArgb.length; i++)
+            mSourceArgb[i] = 0xFF000000 | (rgba[i * 4] & 0xFF) << 16 | (rgba[i * 4 + 1] & 0xFF) << 8 | (rgba[i * 4 + 2] & 0xFF);
+        mArgb = new int[mSourceArgb.length];
+        mSourceNV21 = SyntheticFrames.nv21(mWidth, mHeight, 42);
+        mNV21 = new byte[mSourceNV21.length];
+    }
+
+    @TearDown
+    public void tearDown() {
+        mCompositor.shutdown();
+    }
+
+    @Benchmark
+    public int buildFromClassIds() {
+        return mBuilder.build(mClassIds, mMask);
+    }
+
+    @Benchmark
+    public int buildFromScores() {
+        return mBuilder.build(mScores, mMask);
+    }
+
+    // includes the copy of the source frame, as the compositing is in place
+    @Benchmark
+    public int[] compositeArgb() {
+        System.arraycopy(mSourceArgb, 0, mArgb, 0, mArgb.length);
+        mCompositor.compositeArgb(mMask, mArgb, mWidth, mHeight, 0xFF000000);
+        return mArgb;
+    }
+
+    @Benchmark
+    public byte[] compositeNV21() {
+        System.arraycopy(mSourceNV21, 0, mNV21, 0, mNV21.length);
+        mCompositor.compositeNV21(mMask, mNV21, mWidth, mHeight, 16, 128, 128);
+        return mNV21;
+    }
+}
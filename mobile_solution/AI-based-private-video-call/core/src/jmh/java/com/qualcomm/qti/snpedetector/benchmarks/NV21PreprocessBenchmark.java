@@ -0,0 +1,103 @@
+package com.qualcomm.qti.snpedetector.benchmarks;
+
+import com.qualcomm.qti.snpedetector.helpers.NV21ToTensorKernel;
+import com.qualcomm.qti.snpedetector.helpers.RgbaToFloatHelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NV21 preview frame -> 300x300 BGR float tensor: the fused single pass, against a JVM stand-in
+ * of the three passes of the Bitmap path (NV21 -> RGBA at preview size, roto-scale into the
+ * model input, normalize). The stand-in touches the same amount of memory as the real path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class NV21PreprocessBenchmark {
+    private static final int INPUT_SIZE = 300;
+    private static final int ROTATION = 270;
+
+    @Param({"300x300", "640x480", "1920x1080"})
+    public String resolution;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mNV21;
+    private byte[] mPreviewRgba;
+    private byte[] mInputRgba;
+    private float[] mFloatsBGR;
+    private int[] mInputArgb;
+    private final NV21ToTensorKernel mKernel = new NV21ToTensorKernel();
+
+    @Setup
+    public void setup() {
+        final int[] size = SyntheticFrames.parseResolution(resolution);
+        mWidth = size[0];
+        mHeight = size[1];
+        mNV21 = SyntheticFrames.nv21(mWidth, mHeight, 42);
+        mPreviewRgba = new byte[mWidth * mHeight * 4];
+        mInputRgba = new byte[INPUT_SIZE * INPUT_SIZE * 4];
+        mFloatsBGR = new float[INPUT_SIZE * INPUT_SIZE * 3];
+        mInputArgb = new int[INPUT_SIZE * INPUT_SIZE];
+        mKernel.configure(mWidth, mHeight, ROTATION, false, INPUT_SIZE, INPUT_SIZE);
+    }
+
+    @Benchmark
+    public long fused() {
+        return mKernel.convert(mNV21, mFloatsBGR, null);
+    }
+
+    // as used by the app, which also keeps a picture of the model input for the tracker
+    @Benchmark
+    public long fusedWithArgb() {
+        return mKernel.convert(mNV21, mFloatsBGR, mInputArgb);
+    }
+
+    @Benchmark
+    public long threePass() {
+        // 1. NV21 -> RGBA, full preview size
+        final int uvOffset = mWidth * mHeight;
+        for (int y = 0, dst = 0; y < mHeight; y++) {
+            for (int x = 0; x < mWidth; x++, dst += 4) {
+                final int rgb = NV21ToTensorKernel.yuvToRgb(mNV21, y * mWidth + x, uvOffset + (y >> 1) * mWidth + (x & ~1));
+                mPreviewRgba[dst] = (byte) (rgb >> 16);
+                mPreviewRgba[dst + 1] = (byte) (rgb >> 8);
+                mPreviewRgba[dst + 2] = (byte) rgb;
+                mPreviewRgba[dst + 3] = (byte) 0xFF;
+            }
+        }
+        // 2. counter-rotate (270) and letterbox into the model input, bilinear
+        final float scale = Math.min((float) INPUT_SIZE / mWidth, (float) INPUT_SIZE / mHeight);
+        final float bandX = (INPUT_SIZE - mHeight * scale) / 2;
+        final float bandY = (INPUT_SIZE - mWidth * scale) / 2;
+        for (int oy = 0, dst = 0; oy < INPUT_SIZE; oy++) {
+            for (int ox = 0; ox < INPUT_SIZE; ox++, dst += 4) {
+                final float sx = (INPUT_SIZE - (oy + 0.5f) - bandY) / scale - 0.5f;
+                final float sy = ((ox + 0.5f) - bandX) / scale - 0.5f;
+                if (sx < -0.5f || sy < -0.5f || sx >= mWidth - 0.5f || sy >= mHeight - 0.5f) {
+                    mInputRgba[dst] = mInputRgba[dst + 1] = mInputRgba[dst + 2] = 0;
+                    continue;
+                }
+                final int x0 = Math.max(0, (int) sx), y0 = Math.max(0, (int) sy);
+                final int x1 = Math.min(mWidth - 1, x0 + 1), y1 = Math.min(mHeight - 1, y0 + 1);
+                final float wx = sx - x0, wy = sy - y0;
+                for (int c = 0; c < 3; c++) {
+                    final float top = (mPreviewRgba[(y0 * mWidth + x0) * 4 + c] & 0xFF) * (1 - wx) + (mPreviewRgba[(y0 * mWidth + x1) * 4 + c] & 0xFF) * wx;
+                    final float bottom = (mPreviewRgba[(y1 * mWidth + x0) * 4 + c] & 0xFF) * (1 - wx) + (mPreviewRgba[(y1 * mWidth + x1) * 4 + c] & 0xFF) * wx;
+                    mInputRgba[dst + c] = (byte) (top * (1 - wy) + bottom * wy + 0.5f);
+                }
+            }
+        }
+        // 3. normalize
+        return RgbaToFloatHelper.rgbaToNormalFloatsBGR(mInputRgba, mFloatsBGR, INPUT_SIZE * INPUT_SIZE);
+    }
+}
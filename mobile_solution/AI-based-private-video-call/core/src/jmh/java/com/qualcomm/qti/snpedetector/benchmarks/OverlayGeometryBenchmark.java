@@ -0,0 +1,72 @@
+package com.qualcomm.qti.snpedetector.benchmarks;
+
+import com.qualcomm.qti.snpedetector.Box;
+import com.qualcomm.qti.snpedetector.overlay.OverlayGeometry;
+import com.qualcomm.qti.snpedetector.pipeline.BoxSnapshot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The overlay update of the UI thread, for 1 to 100 boxes on a 1080x1920 view: the same boxes
+ * published again (a static scene: nothing to redraw), and boxes extrapolated on every display
+ * frame (moving about a pixel per frame, so about half of the updates redraw). Run with
+ * '-prof gc': neither allocates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class OverlayGeometryBenchmark {
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final float FRAME_S = 1 / 60f;
+
+    @Param({"1", "16", "100"})
+    public int boxes;
+
+    private final OverlayGeometry mGeometry = new OverlayGeometry();
+    private final BoxSnapshot mSnapshot = new BoxSnapshot();
+    private float mDt;
+
+    @Setup
+    public void setup() {
+        mGeometry.setView(VIEW_WIDTH, VIEW_HEIGHT, VIEW_HEIGHT, false);
+        final ArrayList<Box> list = new ArrayList<>();
+        final float[] velocities = new float[boxes * 4];
+        for (int i = 0; i < boxes; i++) {
+            final Box box = new Box();
+            box.left = (i % 10) * 0.09f;
+            box.top = (i / 10) * 0.09f;
+            box.right = box.left + 0.08f;
+            box.bottom = box.top + 0.08f;
+            box.type_score = 0.9f;
+            list.add(box);
+            // [1/s] about 1 pixel per display frame, to the right
+            velocities[i * 4] = velocities[i * 4 + 2] = -60f / VIEW_HEIGHT;
+        }
+        mSnapshot.set(0, 0, list, velocities);
+        mGeometry.update(mSnapshot, 0, 0.4f);
+        mDt = 0;
+    }
+
+    @Benchmark
+    public boolean staticBoxes() {
+        return mGeometry.update(mSnapshot, 0, 0.4f);
+    }
+
+    @Benchmark
+    public boolean movingBoxes() {
+        // (back to the start past the extrapolation limit)
+        mDt = mDt > 0.3f ? 0 : mDt + FRAME_S;
+        return mGeometry.update(mSnapshot, mDt, 0.4f);
+    }
+}
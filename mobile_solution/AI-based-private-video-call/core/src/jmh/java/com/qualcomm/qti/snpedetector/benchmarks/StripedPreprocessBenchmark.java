@@ -0,0 +1,71 @@
+package com.qualcomm.qti.snpedetector.benchmarks;
+
+import com.qualcomm.qti.snpedetector.helpers.NV21ToTensorKernel;
+import com.qualcomm.qti.snpedetector.helpers.StripedPreprocessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of the row-striped pre-processing from 1 to N threads, on the model input size and on
+ * a full preview size. 'normalizeBGR' works on RGBA at that size; 'nv21ToTensor' converts an NV21
+ * frame of that size into the 300x300 model input.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class StripedPreprocessBenchmark {
+    private static final int INPUT_SIZE = 300;
+
+    @Param({"300x300", "1920x1080"})
+    public String resolution;
+
+    @Param({"1", "2", "4", "8"})
+    public int stripes;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mRgba;
+    private float[] mFloatsBGR;
+    private byte[] mNV21;
+    private float[] mInputFloatsBGR;
+    private final NV21ToTensorKernel mKernel = new NV21ToTensorKernel();
+    private StripedPreprocessor mPreprocessor;
+
+    @Setup
+    public void setup() {
+        final int[] size = SyntheticFrames.parseResolution(resolution);
+        mWidth = size[0];
+        mHeight = size[1];
+        mRgba = SyntheticFrames.rgba(mWidth, mHeight, 42);
+        mFloatsBGR = new float[mWidth * mHeight * 3];
+        mNV21 = SyntheticFrames.nv21(mWidth, mHeight, 42);
+        mInputFloatsBGR = new float[INPUT_SIZE * INPUT_SIZE * 3];
+        mKernel.configure(mWidth, mHeight, 270, false, INPUT_SIZE, INPUT_SIZE);
+        mPreprocessor = new StripedPreprocessor(stripes);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPreprocessor.shutdown();
+    }
+
+    @Benchmark
+    public long normalizeBGR() {
+        return mPreprocessor.rgbaToNormalFloatsBGR(mRgba, mFloatsBGR, mWidth, mHeight);
+    }
+
+    @Benchmark
+    public long nv21ToTensor() {
+        return mPreprocessor.nv21ToTensor(mKernel, mNV21, mInputFloatsBGR, null);
+    }
+}
@@ -0,0 +1,61 @@
+package com.qualcomm.qti.snpedetector.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Deterministic stand-ins for camera frames and network outputs, shared by the benchmarks.
+ */
+final class SyntheticFrames {
+    static final int SSD_NUM_BOXES = 100;
+
+    private SyntheticFrames() {
+    }
+
+    // parses "WIDTHxHEIGHT", as used by the @Param resolutions
+    static int[] parseResolution(String resolution) {
+        final int sep = resolution.indexOf('x');
+        return new int[]{Integer.parseInt(resolution.substring(0, sep)), Integer.parseInt(resolution.substring(sep + 1))};
+    }
+
+    static byte[] rgba(int width, int height, long seed) {
+        final byte[] rgba = new byte[width * height * 4];
+        new Random(seed).nextBytes(rgba);
+        return rgba;
+    }
+
+    static byte[] nv21(int width, int height, long seed) {
+        final byte[] nv21 = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(nv21);
+        return nv21;
+    }
+
+    // MobileNet-SSD NMS outputs: boxes (top, left, bottom, right), class ids and scores sorted descending
+    static float[] ssdBoxes(long seed) {
+        final Random random = new Random(seed);
+        final float[] boxes = new float[SSD_NUM_BOXES * 4];
+        for (int i = 0; i < SSD_NUM_BOXES; i++) {
+            final float top = random.nextFloat() * 0.8f;
+            final float left = random.nextFloat() * 0.8f;
+            boxes[i * 4] = top;
+            boxes[i * 4 + 1] = left;
+            boxes[i * 4 + 2] = top + 0.05f + random.nextFloat() * (0.95f - top);
+            boxes[i * 4 + 3] = left + 0.05f + random.nextFloat() * (0.95f - left);
+        }
+        return boxes;
+    }
+
+    static float[] ssdClasses(long seed) {
+        final Random random = new Random(seed);
+        final float[] classes = new float[SSD_NUM_BOXES];
+        for (int i = 0; i < SSD_NUM_BOXES; i++)
+            classes[i] = i < 4 ? 0 : random.nextInt(90);
+        return classes;
+    }
+
+    static float[] ssdScores() {
+        final float[] scores = new float[SSD_NUM_BOXES];
+        for (int i = 0; i < SSD_NUM_BOXES; i++)
+            scores[i] = Math.max(0, 0.95f - i * 0.05f);
+        return scores;
+    }
+}
@@ -14,9 +14,11 @@ public class Box {
     public String type_name;
     // for tracking
     public boolean is_tracked = false;
+    // persistent id of the person (see MultiObjectTracker), or -1
+    public int track_id = -1;
 
     // duplicates into another Box
-    void copyTo(Box b) {
+    public void copyTo(Box b) {
         b.top = top;
         b.left = left;
         b.bottom = bottom;
@@ -25,6 +27,7 @@ public class Box {
         b.type_name = type_name;
         b.type_score = type_score;
         b.is_tracked = is_tracked;
+        b.track_id = track_id;
     }
 
     // convenience function
@@ -34,4 +37,15 @@ public class Box {
             boxes.add(new Box());
         return boxes;
     }
+
+    // deep copies a list of boxes into another, re-using its Box objects
+    public static void copyBoxes(ArrayList<Box> source, ArrayList<Box> target) {
+        for (int i = 0; i < source.size(); i++) {
+            if (i >= target.size())
+                target.add(new Box());
+            source.get(i).copyTo(target.get(i));
+        }
+        while (target.size() > source.size())
+            target.remove(target.size() - 1);
+    }
 }
@@ -0,0 +1,175 @@
+package com.qualcomm.qti.snpedetector;
+
+import java.util.ArrayList;
+
+/**
+ * Box math of the trackers, on plain coordinates, so it doesn't depend on OpenCV's Rect2d and
+ * can be benchmarked on a desktop JVM. The matrix kernels work on boxes packed as left, top,
+ * right, bottom in float arrays, into a re-used output: one call for all the pairs of a frame.
+ */
+public final class BoxGeometry {
+
+    private BoxGeometry() {
+    }
+
+    // Compute the IOU between the two boxes. (Assuming the origin is top left corner.)
+    public static double computeIou(double ax, double ay, double aWidth, double aHeight,
+                                    double bx, double by, double bWidth, double bHeight) {
+        final double interWidth = Math.min(ax + aWidth, bx + bWidth) - Math.max(ax, bx);
+        final double interHeight = Math.min(ay + aHeight, by + bHeight) - Math.max(ay, by);
+        if (interWidth <= 0 || interHeight <= 0)
+            return 0;
+        final double interArea = interWidth * interHeight;
+        return interArea / (aWidth * aHeight + bWidth * bHeight - interArea);
+    }
+
+    // IoU of 2 boxes as left, top, right, bottom (0 if they don't overlap, or are empty)
+    public static float iou(float aLeft, float aTop, float aRight, float aBottom,
+                            float bLeft, float bTop, float bRight, float bBottom) {
+        final float interWidth = Math.min(aRight, bRight) - Math.max(aLeft, bLeft);
+        final float interHeight = Math.min(aBottom, bBottom) - Math.max(aTop, bTop);
+        if (interWidth <= 0 || interHeight <= 0)
+            return 0;
+        final float inter = interWidth * interHeight;
+        return inter / ((aRight - aLeft) * (aBottom - aTop) + (bRight - bLeft) * (bBottom - bTop) - inter);
+    }
+
+    /**
+     * Packs the boxes as left, top, right, bottom (4 floats per box) into 'out', which is
+     * re-allocated only if it's too small. Returns the packed array.
+     */
+    public static float[] packBoxes(ArrayList<Box> boxes, float[] out) {
+        if (out == null || out.length < boxes.size() * 4)
+            out = new float[boxes.size() * 4];
+        for (int i = 0; i < boxes.size(); i++) {
+            final Box box = boxes.get(i);
+            out[i * 4] = box.left;
+            out[i * 4 + 1] = box.top;
+            out[i * 4 + 2] = box.right;
+            out[i * 4 + 3] = box.bottom;
+        }
+        return out;
+    }
+
+    /**
+     * The IoU of every box of 'a' with every box of 'b' (packed as by packBoxes()), into
+     * out[i * bCount + j] for the boxes a[i] and b[j].
+     */
+    public static void iouMatrix(float[] a, int aCount, float[] b, int bCount, float[] out) {
+        checkMatrix(a, aCount, b, bCount, out);
+        for (int i = 0; i < aCount; i++) {
+            final float aLeft = a[i * 4], aTop = a[i * 4 + 1], aRight = a[i * 4 + 2], aBottom = a[i * 4 + 3];
+            final float aArea = (aRight - aLeft) * (aBottom - aTop);
+            final int row = i * bCount;
+            for (int j = 0; j < bCount; j++) {
+                final int k = j * 4;
+                final float interWidth = min(aRight, b[k + 2]) - max(aLeft, b[k]);
+                final float interHeight = min(aBottom, b[k + 3]) - max(aTop, b[k + 1]);
+                if (interWidth <= 0 || interHeight <= 0) {
+                    out[row + j] = 0;
+                    continue;
+                }
+                final float inter = interWidth * interHeight;
+                out[row + j] = inter / (aArea + (b[k + 2] - b[k]) * (b[k + 3] - b[k + 1]) - inter);
+            }
+        }
+    }
+
+    /**
+     * Like iouMatrix(), with the generalized IoU: IoU - (enclosing - union) / enclosing, in
+     * -1..1. Boxes that don't overlap still get closer to 0 as they get closer, which helps
+     * associating fast boxes.
+     */
+    public static void giouMatrix(float[] a, int aCount, float[] b, int bCount, float[] out) {
+        checkMatrix(a, aCount, b, bCount, out);
+        for (int i = 0; i < aCount; i++) {
+            final float aLeft = a[i * 4], aTop = a[i * 4 + 1], aRight = a[i * 4 + 2], aBottom = a[i * 4 + 3];
+            final float aArea = (aRight - aLeft) * (aBottom - aTop);
+            final int row = i * bCount;
+            for (int j = 0; j < bCount; j++) {
+                final int k = j * 4;
+                final float bLeft = b[k], bTop = b[k + 1], bRight = b[k + 2], bBottom = b[k + 3];
+                final float interWidth = max(0, min(aRight, bRight) - max(aLeft, bLeft));
+                final float interHeight = max(0, min(aBottom, bBottom) - max(aTop, bTop));
+                final float inter = interWidth * interHeight;
+                final float union = aArea + (bRight - bLeft) * (bBottom - bTop) - inter;
+                final float enclosing = (max(aRight, bRight) - min(aLeft, bLeft)) *
+                        (max(aBottom, bBottom) - min(aTop, bTop));
+                if (union <= 0 || enclosing <= 0) {
+                    out[row + j] = 0;
+                    continue;
+                }
+                // (one division)
+                out[row + j] = (inter * enclosing - (enclosing - union) * union) / (union * enclosing);
+            }
+        }
+    }
+
+    /**
+     * Like iouMatrix(), with the distance IoU: IoU - (distance of the centers / diagonal of the
+     * enclosing box)^2, in -1..1.
+     */
+    public static void diouMatrix(float[] a, int aCount, float[] b, int bCount, float[] out) {
+        checkMatrix(a, aCount, b, bCount, out);
+        for (int i = 0; i < aCount; i++) {
+            final float aLeft = a[i * 4], aTop = a[i * 4 + 1], aRight = a[i * 4 + 2], aBottom = a[i * 4 + 3];
+            final float aArea = (aRight - aLeft) * (aBottom - aTop);
+            final float aCenterX2 = aLeft + aRight, aCenterY2 = aTop + aBottom;
+            final int row = i * bCount;
+            for (int j = 0; j < bCount; j++) {
+                final int k = j * 4;
+                final float bLeft = b[k], bTop = b[k + 1], bRight = b[k + 2], bBottom = b[k + 3];
+                final float interWidth = max(0, min(aRight, bRight) - max(aLeft, bLeft));
+                final float interHeight = max(0, min(aBottom, bBottom) - max(aTop, bTop));
+                final float inter = interWidth * interHeight;
+                final float union = aArea + (bRight - bLeft) * (bBottom - bTop) - inter;
+                final float enclosingWidth = max(aRight, bRight) - min(aLeft, bLeft);
+                final float enclosingHeight = max(aBottom, bBottom) - min(aTop, bTop);
+                final float diagonal2 = enclosingWidth * enclosingWidth + enclosingHeight * enclosingHeight;
+                if (union <= 0 || diagonal2 <= 0) {
+                    out[row + j] = 0;
+                    continue;
+                }
+                // (the centers are doubled: so is the distance, hence the 4; one division)
+                final float dx2 = bLeft + bRight - aCenterX2;
+                final float dy2 = bTop + bBottom - aCenterY2;
+                out[row + j] = (4 * diagonal2 * inter - (dx2 * dx2 + dy2 * dy2) * union) / (4 * diagonal2 * union);
+            }
+        }
+    }
+
+    // without the NaN and -0 cases of Math.min/max(float), which the kernels can't get
+    private static float min(float a, float b) {
+        return a < b ? a : b;
+    }
+
+    private static float max(float a, float b) {
+        return a > b ? a : b;
+    }
+
+    private static void checkMatrix(float[] a, int aCount, float[] b, int bCount, float[] out) {
+        if (a.length < aCount * 4 || b.length < bCount * 4 || out.length < aCount * bCount)
+            throw new IllegalArgumentException("arrays too small for " + aCount + "x" + bCount + " boxes");
+    }
+
+    // Index of the box whose center (on a gridWidth x gridHeight grid) is closest to the target.
+    public static int getNearestBoxIndex(int targetX, int targetY, ArrayList<Box> boxes, int gridWidth, int gridHeight) {
+        double nearestDist = 1e9;
+        int nearestDistIdx = 0;
+        for (int i = 0; i < boxes.size(); i++) {
+            Box currBox = boxes.get(i);
+            double left = Math.round(currBox.left * gridWidth);
+            double top = Math.round(currBox.top * gridHeight);
+            double width = Math.round((currBox.right - currBox.left) * gridWidth);
+            double height = Math.round((currBox.bottom - currBox.top) * gridHeight);
+            int boxCenterX = (int) (left + width / 2);
+            int boxCenterY = (int) (top + height / 2);
+            double dist = Math.sqrt(Math.pow(boxCenterX - targetX, 2) + Math.pow(boxCenterY - targetY, 2));
+            if (dist < nearestDist) {
+                nearestDist = dist;
+                nearestDistIdx = i;
+            }
+        }
+        return nearestDistIdx;
+    }
+}
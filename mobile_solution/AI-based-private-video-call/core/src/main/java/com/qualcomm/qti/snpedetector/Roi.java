@@ -0,0 +1,93 @@
+package com.qualcomm.qti.snpedetector;
+
+import com.qualcomm.qti.snpedetector.engine.DetectionBuffer;
+
+/**
+ * A region of the frame that is given to the model instead of the whole frame, in the
+ * normalized (0..1) coordinates of the full-frame model input (i.e. the letterboxed frame),
+ * like the Boxes. It may extend past 0..1: that part of the model input is black.
+ * <p>
+ * The model sees the region stretched to its whole input, so the boxes it outputs (0..1 of
+ * the region) are mapped back to the frame with mapToFrame().
+ */
+public final class Roi {
+    public float left;
+    public float top;
+    public float right = 1;
+    public float bottom = 1;
+
+    public Roi set(float left, float top, float right, float bottom) {
+        if (right <= left || bottom <= top)
+            throw new IllegalArgumentException("empty roi: " + left + ", " + top + ", " + right + ", " + bottom);
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+        return this;
+    }
+
+    public Roi setFullFrame() {
+        return set(0, 0, 1, 1);
+    }
+
+    public void copyTo(Roi other) {
+        other.left = left;
+        other.top = top;
+        other.right = right;
+        other.bottom = bottom;
+    }
+
+    public boolean isFullFrame() {
+        return left == 0 && top == 0 && right == 1 && bottom == 1;
+    }
+
+    public float width() {
+        return right - left;
+    }
+
+    public float height() {
+        return bottom - top;
+    }
+
+    // region coordinates -> frame coordinates
+    public float toFrameX(float x) {
+        return left + x * (right - left);
+    }
+
+    public float toFrameY(float y) {
+        return top + y * (bottom - top);
+    }
+
+    // frame coordinates -> region coordinates (the inverse of the above)
+    public float toRoiX(float x) {
+        return (x - left) / (right - left);
+    }
+
+    public float toRoiY(float y) {
+        return (y - top) / (bottom - top);
+    }
+
+    /**
+     * Maps the detections of the model on this region to the frame, in place.
+     */
+    public void mapToFrame(DetectionBuffer detections) {
+        for (int i = 0; i < detections.count; i++) {
+            detections.left[i] = toFrameX(detections.left[i]);
+            detections.top[i] = toFrameY(detections.top[i]);
+            detections.right[i] = toFrameX(detections.right[i]);
+            detections.bottom[i] = toFrameY(detections.bottom[i]);
+        }
+    }
+
+    public void mapToFrame(Box box) {
+        box.left = toFrameX(box.left);
+        box.top = toFrameY(box.top);
+        box.right = toFrameX(box.right);
+        box.bottom = toFrameY(box.bottom);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + left + ", " + top + " - " + right + ", " + bottom + "]";
+    }
+}
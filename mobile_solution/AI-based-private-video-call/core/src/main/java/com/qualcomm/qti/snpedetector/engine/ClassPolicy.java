@@ -0,0 +1,64 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import com.qualcomm.qti.snpedetector.helpers.MobileNetSSDDecoder;
+
+/**
+ * The classes that matter downstream (e.g. "person" for the privacy mask), compiled to a bitset
+ * over the 0-based COCO class ids: DetectionBuffer applies it once at decode time, so that the
+ * rendering and the tracking only see the relevant detections, with no string compares.
+ * Immutable.
+ */
+public final class ClassPolicy {
+    // class ids 0..127, the COCO ones are 0..89
+    private static final int MAX_CLASS_IDS = 128;
+
+    private final long[] mBits = new long[MAX_CLASS_IDS / 64];
+    private final boolean mAll;
+
+    private ClassPolicy(boolean all) {
+        mAll = all;
+    }
+
+    public static ClassPolicy allowAll() {
+        return new ClassPolicy(true);
+    }
+
+    public static ClassPolicy ofClassIds(int... classIds) {
+        final ClassPolicy policy = new ClassPolicy(false);
+        for (int classId : classIds) {
+            if (classId < 0 || classId >= MAX_CLASS_IDS)
+                throw new IllegalArgumentException("class id out of range: " + classId);
+            policy.mBits[classId >> 6] |= 1L << (classId & 63);
+        }
+        return policy;
+    }
+
+    // COCO labels, e.g. "person", "cell phone"
+    public static ClassPolicy ofLabels(String... labels) {
+        final int[] classIds = new int[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            classIds[i] = MobileNetSSDDecoder.findClassId(labels[i]);
+            if (classIds[i] < 0)
+                throw new IllegalArgumentException("not a COCO label: " + labels[i]);
+        }
+        return ofClassIds(classIds);
+    }
+
+    public boolean accepts(int classId) {
+        if (mAll)
+            return true;
+        return classId >= 0 && classId < MAX_CLASS_IDS && (mBits[classId >> 6] & (1L << (classId & 63))) != 0;
+    }
+
+    @Override
+    public String toString() {
+        if (mAll)
+            return "all classes";
+        final StringBuilder sb = new StringBuilder();
+        for (int classId = 0; classId < MAX_CLASS_IDS; classId++) {
+            if (accepts(classId))
+                sb.append(sb.length() == 0 ? "" : ", ").append(MobileNetSSDDecoder.getLabel(classId));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,159 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import com.qualcomm.qti.snpedetector.Box;
+import com.qualcomm.qti.snpedetector.helpers.MobileNetSSDDecoder;
+
+import java.util.ArrayList;
+
+/**
+ * Decoded detections as parallel primitive arrays (one entry per detection, 'count' valid),
+ * allocated once: decoding a frame allocates nothing, and the class names are only resolved
+ * (through a dense array) when asked for.
+ * <p>
+ * The NMS outputs are sorted by score, so decoding stops at the first score below the floor.
+ * A ClassPolicy drops the other classes at the same time: only the relevant detections are
+ * kept (compacted), and that's all the consumers iterate.
+ * asBoxes() is the optional view as Boxes, for the consumers of the ArrayList API.
+ */
+public final class DetectionBuffer {
+    public final float[] top;
+    public final float[] left;
+    public final float[] bottom;
+    public final float[] right;
+    // 0-based COCO classes
+    public final int[] classIds;
+    public final float[] scores;
+    public int count;
+
+    private float mScoreFloor;
+    private ClassPolicy mClassPolicy = ClassPolicy.allowAll();
+    // outputs looked at by the last decode(), kept or not
+    private int mLastScannedCount;
+    // the asBoxes() view
+    private Box[] mBoxPool;
+    private ArrayList<Box> mBoxes;
+
+    public DetectionBuffer(int capacity) {
+        top = new float[capacity];
+        left = new float[capacity];
+        bottom = new float[capacity];
+        right = new float[capacity];
+        classIds = new int[capacity];
+        scores = new float[capacity];
+    }
+
+    public int getCapacity() {
+        return scores.length;
+    }
+
+    /**
+     * Detections scoring below this are not decoded (0: all of them).
+     */
+    public void setScoreFloor(float scoreFloor) {
+        mScoreFloor = scoreFloor;
+    }
+
+    public float getScoreFloor() {
+        return mScoreFloor;
+    }
+
+    /**
+     * Only the detections of these classes are kept.
+     */
+    public void setClassPolicy(ClassPolicy classPolicy) {
+        mClassPolicy = classPolicy;
+    }
+
+    public ClassPolicy getClassPolicy() {
+        return mClassPolicy;
+    }
+
+    // how many outputs the last decode() looked at (the ones above the floor, kept or not)
+    public int getLastScannedCount() {
+        return mLastScannedCount;
+    }
+
+    /**
+     * Decodes the outputs of an engine of the accepted classes, up to the first score below the
+     * floor. Returns the count.
+     */
+    public int decode(DetectionOutputs outputs) {
+        final float[] boxesN4 = outputs.boxesN4;
+        final float[] classesN = outputs.classesN;
+        final float[] scoresN = outputs.scoresN;
+        final ClassPolicy classPolicy = mClassPolicy;
+        final int limit = Math.min(outputs.count, getCapacity());
+        int i = 0;
+        int kept = 0;
+        for (; i < limit; i++) {
+            final float score = scoresN[i];
+            if (score < mScoreFloor)
+                break;
+            final int classId = Math.round(classesN[i]);
+            if (!classPolicy.accepts(classId))
+                continue;
+            top[kept] = boxesN4[i * 4];
+            left[kept] = boxesN4[i * 4 + 1];
+            bottom[kept] = boxesN4[i * 4 + 2];
+            right[kept] = boxesN4[i * 4 + 3];
+            classIds[kept] = classId;
+            scores[kept] = score;
+            kept++;
+        }
+        mLastScannedCount = i;
+        count = kept;
+        return count;
+    }
+
+    // no detections, e.g. for a model without any (segmentation)
+    public void clear() {
+        count = 0;
+        mLastScannedCount = 0;
+    }
+
+    public String getLabel(int index) {
+        return MobileNetSSDDecoder.getLabel(classIds[index]);
+    }
+
+    public void copyTo(DetectionBuffer target) {
+        if (target.getCapacity() < count)
+            throw new IllegalArgumentException("target capacity " + target.getCapacity() + " < " + count);
+        System.arraycopy(top, 0, target.top, 0, count);
+        System.arraycopy(left, 0, target.left, 0, count);
+        System.arraycopy(bottom, 0, target.bottom, 0, count);
+        System.arraycopy(right, 0, target.right, 0, count);
+        System.arraycopy(classIds, 0, target.classIds, 0, count);
+        System.arraycopy(scores, 0, target.scores, 0, count);
+        target.count = count;
+        target.mScoreFloor = mScoreFloor;
+        target.mClassPolicy = mClassPolicy;
+        target.mLastScannedCount = mLastScannedCount;
+    }
+
+    /**
+     * The detections as Boxes, for the consumers of the ArrayList API. The list and its Boxes
+     * belong to this buffer (allocated on the first call only), and are overwritten by the
+     * next call.
+     */
+    public ArrayList<Box> asBoxes() {
+        if (mBoxes == null) {
+            mBoxes = Box.createBoxes(getCapacity());
+            mBoxPool = mBoxes.toArray(new Box[0]);
+        }
+        mBoxes.clear();
+        for (int i = 0; i < count; i++) {
+            final Box box = mBoxPool[i];
+            box.top = top[i];
+            box.left = left[i];
+            box.bottom = bottom[i];
+            box.right = right[i];
+            box.type_id = classIds[i];
+            box.type_score = scores[i];
+            box.type_name = MobileNetSSDDecoder.getLabel(classIds[i]);
+            box.is_tracked = false;
+            box.track_id = -1;
+            mBoxes.add(box);
+        }
+        return mBoxes;
+    }
+}
@@ -0,0 +1,26 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+/**
+ * The typed outputs of an InferenceEngine, in the layout of the MobileNet-SSD NMS outputs:
+ * boxes as top, left, bottom, right (normalized 0..1), 0-based COCO classes, and scores
+ * sorted by decreasing score. See DetectionBuffer for the decoding.
+ */
+public final class DetectionOutputs {
+    public final float[] boxesN4;
+    public final float[] classesN;
+    public final float[] scoresN;
+    // valid detections (<= capacity)
+    public int count;
+    // hint for the engines: they may stop copying at the first score below this
+    public float scoreFloor;
+
+    public DetectionOutputs(int capacity) {
+        boxesN4 = new float[capacity * 4];
+        classesN = new float[capacity];
+        scoresN = new float[capacity];
+    }
+
+    public int getCapacity() {
+        return scoresN.length;
+    }
+}
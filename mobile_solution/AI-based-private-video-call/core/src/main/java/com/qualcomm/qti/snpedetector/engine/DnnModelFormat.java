@@ -0,0 +1,75 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import com.qualcomm.qti.snpedetector.helpers.MobileNetSSDDecoder;
+
+/**
+ * How a detection network of OpenCV's dnn module takes its input and numbers its classes, per
+ * model file format. OpenCvDnnEngine converts the input of InferenceEngine (BGR, -1..1) to the
+ * input of the network, and the class ids of the network to the 0-based COCO ones of the app.
+ */
+public enum DnnModelFormat {
+    // TensorFlow Object Detection API graph (frozen_inference_graph.pb + graph.pbtxt): the graph
+    // keeps its Preprocessor (mul, sub), so it takes RGB 0..255; 1-based COCO ids
+    TENSORFLOW_SSD(true, 0, 1, cocoClassIds()),
+    // Caffe MobileNet-SSD (MobileNetSSD_deploy): BGR, (pixel - 127.5) * 0.007843; the 20 VOC
+    // classes, 0 is the background
+    CAFFE_VOC_SSD(false, 127.5f, 0.007843f, vocClassIds());
+
+    // the input of the network: (pixel - mean) * scale, per channel
+    public final boolean inputRgb;
+    public final float inputMean;
+    public final float inputScale;
+    // network input = InferenceEngine input * gain + offset
+    private final float mGain;
+    private final float mOffset;
+    // the class ids of the network -> the 0-based COCO ids (-1: none, e.g. the background)
+    private final int[] mClassIds;
+
+    DnnModelFormat(boolean inputRgb, float inputMean, float inputScale, int[] classIds) {
+        this.inputRgb = inputRgb;
+        this.inputMean = inputMean;
+        this.inputScale = inputScale;
+        mGain = inputScale / InferenceEngine.INPUT_SCALE;
+        mOffset = (InferenceEngine.INPUT_MEAN - inputMean) * inputScale;
+        mClassIds = classIds;
+    }
+
+    /**
+     * InferenceEngine input (HWC, BGR, -1..1) -> the input of the network (CHW planes, in its
+     * channel order and normalization), for 'pixels' pixels.
+     */
+    public void toNetworkInput(float[] inputFloatsHW3, float[] outFloatsCHW, int pixels) {
+        final int first = inputRgb ? 2 * pixels : 0;
+        final int last = inputRgb ? 0 : 2 * pixels;
+        for (int p = 0, src = 0; p < pixels; p++, src += 3) {
+            outFloatsCHW[first + p] = inputFloatsHW3[src] * mGain + mOffset;
+            outFloatsCHW[pixels + p] = inputFloatsHW3[src + 1] * mGain + mOffset;
+            outFloatsCHW[last + p] = inputFloatsHW3[src + 2] * mGain + mOffset;
+        }
+    }
+
+    // the 0-based COCO id of a class id of the network, or -1 if it has none
+    public int toClassId(int networkClassId) {
+        return networkClassId >= 0 && networkClassId < mClassIds.length ? mClassIds[networkClassId] : -1;
+    }
+
+    private static int[] cocoClassIds() {
+        final int[] classIds = new int[MobileNetSSDDecoder.getClassCount() + 1];
+        for (int i = 0; i < classIds.length; i++)
+            classIds[i] = i - 1;
+        return classIds;
+    }
+
+    // (not a static field: the constants are created before them)
+    private static int[] vocClassIds() {
+        // the VOC classes (1-based), by their COCO labels
+        final String[] vocAsCocoLabels = {"airplane", "bicycle", "bird", "boat", "bottle", "bus", "car", "cat",
+                "chair", "cow", "dining table", "dog", "horse", "motorcycle", "person", "potted plant", "sheep",
+                "couch", "train", "tv"};
+        final int[] classIds = new int[vocAsCocoLabels.length + 1];
+        classIds[0] = -1;
+        for (int i = 1; i < classIds.length; i++)
+            classIds[i] = MobileNetSSDDecoder.findClassId(vocAsCocoLabels[i - 1]);
+        return classIds;
+    }
+}
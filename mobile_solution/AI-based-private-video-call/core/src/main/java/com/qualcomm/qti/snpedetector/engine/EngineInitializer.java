@@ -0,0 +1,149 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+/**
+ * Loads an engine on a background thread, so that the rest of the startup (UI, camera, ...)
+ * runs meanwhile, then warms it up with a few inferences on a black input: the first
+ * executions pay for the kernel compilation and the allocations, which would otherwise
+ * land on the first live frame.
+ * <p>
+ * The engine is ready when getFuture() is done; listeners are called then, on the loading
+ * thread (or right away, if added after).
+ */
+public final class EngineInitializer {
+    private static final Logger LOGGER = Logger.getLogger("SNPEDetector");
+    private static final int DETECTIONS_CAPACITY = 100;
+
+    public interface Loader {
+        // the loaded engine, or null if it could not load
+        InferenceEngine load() throws Exception;
+    }
+
+    public interface Listener {
+        // 'engine' is null if the load failed
+        void onEngineReady(InferenceEngine engine);
+    }
+
+    private final Loader mLoader;
+    private final int mWarmupRuns;
+    private final FutureTask<InferenceEngine> mTask;
+    private final ArrayList<Listener> mListeners = new ArrayList<>();
+    private Thread mThread;
+
+    // timings of the initialization
+    private volatile float mLoadMs;
+    private volatile float mFirstWarmupMs;
+    private volatile float mLastWarmupMs;
+
+    public EngineInitializer(Loader loader, int warmupRuns) {
+        if (warmupRuns < 0)
+            throw new IllegalArgumentException("warmupRuns must be >= 0, was " + warmupRuns);
+        mLoader = loader;
+        mWarmupRuns = warmupRuns;
+        mTask = new FutureTask<InferenceEngine>(this::loadAndWarmUp) {
+            @Override
+            protected void done() {
+                notifyListeners();
+            }
+        };
+    }
+
+    public synchronized void start() {
+        if (mThread != null)
+            return;
+        mThread = new Thread(mTask, "Engine-init");
+        mThread.start();
+    }
+
+    // done when the engine is loaded and warmed up; get() returns null, or throws, if it could not load
+    public Future<InferenceEngine> getFuture() {
+        return mTask;
+    }
+
+    public boolean isReady() {
+        return mTask.isDone();
+    }
+
+    public void addListener(Listener listener) {
+        synchronized (mListeners) {
+            if (!mTask.isDone()) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.onEngineReady(getEngineOrNull());
+    }
+
+    public float getLoadMs() {
+        return mLoadMs;
+    }
+
+    // the first warm-up inference, usually the slowest
+    public float getFirstWarmupMs() {
+        return mFirstWarmupMs;
+    }
+
+    // the last warm-up inference, close to the steady state
+    public float getLastWarmupMs() {
+        return mLastWarmupMs;
+    }
+
+    private InferenceEngine loadAndWarmUp() throws Exception {
+        long startNs = System.nanoTime();
+        final InferenceEngine engine = mLoader.load();
+        mLoadMs = (System.nanoTime() - startNs) / 1e6f;
+        if (engine == null)
+            return null;
+
+        // black input in every slot, so that each input tensor is touched once too
+        final float[] black = new float[engine.getInputWidth() * engine.getInputHeight() * 3];
+        Arrays.fill(black, -1f);
+        for (int slot = 0; slot < engine.getInputSlotCount(); slot++)
+            engine.setInput(slot, black);
+        final DetectionOutputs outputs = new DetectionOutputs(DETECTIONS_CAPACITY);
+        final SegmentationOutputs segmentation = engine instanceof SegmentationEngine ?
+                ((SegmentationEngine) engine).createSegmentationOutputs() : null;
+        for (int i = 0; i < mWarmupRuns; i++) {
+            startNs = System.nanoTime();
+            final int slot = i % engine.getInputSlotCount();
+            final boolean executed = segmentation != null ?
+                    ((SegmentationEngine) engine).execute(slot, segmentation) : engine.execute(slot, outputs);
+            if (!executed) {
+                LOGGER.warning("warm-up inference failed on " + engine.getName());
+                break;
+            }
+            final float elapsedMs = (System.nanoTime() - startNs) / 1e6f;
+            if (i == 0)
+                mFirstWarmupMs = elapsedMs;
+            mLastWarmupMs = elapsedMs;
+        }
+        LOGGER.info(engine.getName() + " ready: load " + Math.round(mLoadMs) + " ms, warm-up " +
+                Math.round(mFirstWarmupMs) + " -> " + Math.round(mLastWarmupMs) + " ms");
+        return engine;
+    }
+
+    private void notifyListeners() {
+        final Listener[] listeners;
+        synchronized (mListeners) {
+            listeners = mListeners.toArray(new Listener[0]);
+            mListeners.clear();
+        }
+        final InferenceEngine engine = getEngineOrNull();
+        for (Listener listener : listeners)
+            listener.onEngineReady(engine);
+    }
+
+    private InferenceEngine getEngineOrNull() {
+        try {
+            return mTask.get();
+        } catch (Exception e) {
+            LOGGER.warning("the engine could not load: " + e);
+            return null;
+        }
+    }
+}
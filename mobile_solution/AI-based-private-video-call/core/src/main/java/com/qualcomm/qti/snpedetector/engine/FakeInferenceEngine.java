@@ -0,0 +1,113 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+/**
+ * Deterministic stand-in for a network, for desktop runs and benchmarks of the pipeline: it
+ * "detects" one person, on the bounding box of the pixels brighter than mid-gray (so a bright
+ * rectangle on a dark synthetic frame is found where it was drawn), and nothing on dark inputs.
+ * <p>
+ * execute() can also take a scripted time, to stand in for a runtime of a given speed.
+ */
+public final class FakeInferenceEngine implements InferenceEngine {
+    public static final float DETECTION_SCORE = 0.9f;
+    // 0-based COCO class: "person"
+    private static final int PERSON_CLASS = 0;
+
+    private final String mName;
+    private final int mInputWidth;
+    private final int mInputHeight;
+    private final float[][] mInputSlots;
+    private long[] mLatenciesMs = {0};
+    private long mExecuteCount;
+
+    public FakeInferenceEngine(String name, int inputWidth, int inputHeight, int inputSlots) {
+        if (inputSlots < 1)
+            throw new IllegalArgumentException("inputSlots must be >= 1, was " + inputSlots);
+        mName = name;
+        mInputWidth = inputWidth;
+        mInputHeight = inputHeight;
+        mInputSlots = new float[inputSlots][inputWidth * inputHeight * 3];
+    }
+
+    /**
+     * The time each execute() takes, in turn (the last one repeats).
+     */
+    public void setLatenciesMs(long... latenciesMs) {
+        if (latenciesMs.length == 0)
+            throw new IllegalArgumentException("at least one latency is needed");
+        mLatenciesMs = latenciesMs.clone();
+    }
+
+    public long getExecuteCount() {
+        return mExecuteCount;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public int getInputWidth() {
+        return mInputWidth;
+    }
+
+    @Override
+    public int getInputHeight() {
+        return mInputHeight;
+    }
+
+    @Override
+    public int getInputSlotCount() {
+        return mInputSlots.length;
+    }
+
+    @Override
+    public void setInput(int slot, float[] inputFloatsHW3) {
+        System.arraycopy(inputFloatsHW3, 0, mInputSlots[slot], 0, mInputSlots[slot].length);
+    }
+
+    @Override
+    public boolean execute(int slot, DetectionOutputs outputs) {
+        final long latencyMs = mLatenciesMs[(int) Math.min(mExecuteCount, mLatenciesMs.length - 1)];
+        mExecuteCount++;
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        // bounding box of the pixels with Green > 0 (i.e. > 127.5 before the normalization)
+        final float[] input = mInputSlots[slot];
+        int minX = mInputWidth, minY = mInputHeight, maxX = -1, maxY = -1;
+        int idx = 1;
+        for (int y = 0; y < mInputHeight; y++) {
+            for (int x = 0; x < mInputWidth; x++, idx += 3) {
+                if (input[idx] > 0) {
+                    if (x < minX) minX = x;
+                    if (x > maxX) maxX = x;
+                    if (y < minY) minY = y;
+                    if (y > maxY) maxY = y;
+                }
+            }
+        }
+        if (maxX < 0 || outputs.getCapacity() == 0) {
+            outputs.count = 0;
+            return true;
+        }
+        outputs.boxesN4[0] = (float) minY / mInputHeight;
+        outputs.boxesN4[1] = (float) minX / mInputWidth;
+        outputs.boxesN4[2] = (float) (maxY + 1) / mInputHeight;
+        outputs.boxesN4[3] = (float) (maxX + 1) / mInputWidth;
+        outputs.classesN[0] = PERSON_CLASS;
+        outputs.scoresN[0] = DETECTION_SCORE;
+        outputs.count = 1;
+        return true;
+    }
+
+    @Override
+    public void release() {
+    }
+}
@@ -0,0 +1,40 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import com.qualcomm.qti.snpedetector.helpers.RgbaToFloatHelper;
+
+/**
+ * A loaded detection network, on some runtime (SNPE, OpenCV dnn, ...). The input is the model
+ * input as normalized BGR floats (HWC), and the outputs are the detections after NMS.
+ * <p>
+ * The engine has getInputSlotCount() input buffers: an input can be written into a slot while
+ * another slot executes (see InputSlotPool). Implementations are not thread-safe otherwise:
+ * setInput() and execute() on different slots may run on 2 threads, nothing else.
+ */
+public interface InferenceEngine {
+
+    // the input: (pixel - INPUT_MEAN) * INPUT_SCALE, i.e. 0..255 -> -1..1, in BGR order
+    float INPUT_MEAN = 127.5f;
+    float INPUT_SCALE = RgbaToFloatHelper.INPUT_SCALE;
+
+    // e.g. "SNPE GPU_FLOAT16", "OpenCV dnn CPU"
+    String getName();
+
+    int getInputWidth();
+
+    int getInputHeight();
+
+    int getInputSlotCount();
+
+    /**
+     * Copies the input (getInputHeight() x getInputWidth() x 3 floats) into a slot.
+     */
+    void setInput(int slot, float[] inputFloatsHW3);
+
+    /**
+     * Runs the network on the input of a slot, and writes the detections into 'outputs'.
+     * Returns false if the execution failed.
+     */
+    boolean execute(int slot, DetectionOutputs outputs);
+
+    void release();
+}
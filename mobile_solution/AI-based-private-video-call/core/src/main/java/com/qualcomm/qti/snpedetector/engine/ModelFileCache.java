@@ -0,0 +1,130 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Per-runtime copies of a model file, for runtimes that cache their initialized (compiled)
+ * state in the model file itself, like SNPE with the init cache enabled: the first load on a
+ * copy compiles and saves the cache (cold), the next ones skip the compilation (warm).
+ * <p>
+ * A copy is named by model, model hash, runtime and SDK version, so a new model or SDK never
+ * loads a stale cache; the copies of other keys are deleted when a new one is extracted.
+ */
+public final class ModelFileCache {
+    // next to a copy, once a load on it succeeded (and the runtime saved its cache)
+    private static final String WARM_SUFFIX = ".warm";
+
+    private final File mDirectory;
+
+    public ModelFileCache(File directory) {
+        mDirectory = directory;
+    }
+
+    // e.g. "9f86d081884c7d65-GPU_FLOAT16-1.19.2"
+    public static String createKey(String modelHash, String runtimeName, String sdkVersion) {
+        final String key = modelHash.substring(0, Math.min(16, modelHash.length())) + "-" + runtimeName + "-" + sdkVersion;
+        // keep it a file name
+        return key.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    // where the copy of the model for a key is (it may not exist)
+    public File getFile(String modelFileName, String key) {
+        final int dot = modelFileName.lastIndexOf('.');
+        final String base = dot > 0 ? modelFileName.substring(0, dot) : modelFileName;
+        final String extension = dot > 0 ? modelFileName.substring(dot) : "";
+        return new File(mDirectory, base + "-" + key + extension);
+    }
+
+    /**
+     * Returns the copy for the key, writing it from 'model' if missing. The copies of the same
+     * model with other keys are deleted, so that at most one is kept per model.
+     */
+    public File extract(String modelFileName, String key, ByteBuffer model) throws IOException {
+        final File file = getFile(modelFileName, key);
+        if (file.isFile())
+            return file;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+            throw new IOException("cannot create " + mDirectory);
+        deleteOtherCopies(modelFileName, file);
+
+        // write to a temporary file first, so that a crash never leaves a truncated model
+        final File temporary = new File(mDirectory, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temporary)) {
+            final ByteBuffer source = model.duplicate();
+            source.rewind();
+            final FileChannel channel = out.getChannel();
+            while (source.hasRemaining())
+                channel.write(source);
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("cannot rename " + temporary + " to " + file);
+        }
+        return file;
+    }
+
+    public boolean isWarm(File modelCopy) {
+        return modelCopy.isFile() && new File(modelCopy.getPath() + WARM_SUFFIX).isFile();
+    }
+
+    public void markWarm(File modelCopy) throws IOException {
+        new File(modelCopy.getPath() + WARM_SUFFIX).createNewFile();
+    }
+
+    // deletes a copy and its cache, e.g. for a cold start benchmark
+    public void invalidate(String modelFileName, String key) {
+        final File file = getFile(modelFileName, key);
+        new File(file.getPath() + WARM_SUFFIX).delete();
+        file.delete();
+    }
+
+    private void deleteOtherCopies(String modelFileName, File keep) {
+        final String prefix = getFile(modelFileName, "").getName();
+        final int dot = prefix.lastIndexOf('.');
+        final String base = dot > 0 ? prefix.substring(0, dot) : prefix;
+        final File[] files = mDirectory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files)
+            if (file.getName().startsWith(base) && !file.getName().startsWith(keep.getName()))
+                file.delete();
+    }
+
+    /**
+     * Maps a file read-only: the runtime reads the model from the page cache, without a copy
+     * on the Java heap.
+     */
+    public static MappedByteBuffer map(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+    }
+
+    /**
+     * SHA-256 of the content of a buffer (e.g. the mapped model), in hex. The buffer position
+     * is not changed.
+     */
+    public static String sha256Hex(ByteBuffer buffer) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final ByteBuffer content = buffer.duplicate();
+        content.rewind();
+        digest.update(content);
+        final StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest())
+            sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+}
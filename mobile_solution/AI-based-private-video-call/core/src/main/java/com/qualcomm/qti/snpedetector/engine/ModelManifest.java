@@ -0,0 +1,165 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import com.qualcomm.qti.snpedetector.helpers.MobileNetSSDDecoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * What an engine needs to know about a model, instead of constants in the code: the model file,
+ * the input layer and its normalization, the output tensors, the labels and how the outputs are
+ * decoded. Parsed from a properties file, e.g. for MobileNet-SSD:
+ * <pre>
+ * name=mobilenet_ssd
+ * model=mobilenet.dlc
+ * decoder=ssd_detections
+ * input.layer=Preprocessor/sub:0
+ * input.layout=NHWC
+ * input.channels=BGR
+ * input.mean=127.5
+ * input.scale=0.0078431375
+ * output.layers=Postprocessor/BatchMultiClassNonMaxSuppression
+ * output.boxes=Postprocessor/BatchMultiClassNonMaxSuppression_boxes
+ * output.scores=Postprocessor/BatchMultiClassNonMaxSuppression_scores
+ * output.classes=Postprocessor/BatchMultiClassNonMaxSuppression_classes
+ * output.max_detections=100
+ * labels=coco
+ * </pre>
+ * The input is (pixel - mean) * scale, per channel. 'labels' is "coco" (MobileNetSSDDecoder's
+ * table) or the labels, comma separated, indexed by the class id. Immutable.
+ */
+public final class ModelManifest {
+
+    public enum Decoder {
+        // boxes, scores and classes after NMS, sorted by score (DetectionOutputs)
+        SSD_DETECTIONS,
+        // a map of class ids, or of per-class scores (SegmentationOutputs)
+        SEGMENTATION
+    }
+
+    public final String name;
+    public final String modelFileName;
+    public final Decoder decoder;
+
+    // input: NHWC floats, (pixel - mean) * scale
+    public final String inputLayer;
+    public final boolean inputBgr;
+    public final float inputMean;
+    public final float inputScale;
+
+    // the layers the runtime must output
+    public final String[] outputLayers;
+    // SSD_DETECTIONS: the tensors, and how many detections they hold
+    public final String boxesTensor;
+    public final String scoresTensor;
+    public final String classesTensor;
+    public final int maxDetections;
+    // SEGMENTATION: the tensor, and its channels (1: already class ids)
+    public final String maskTensor;
+    public final int maskChannels;
+
+    // null: the COCO labels
+    private final String[] mLabels;
+
+    private ModelManifest(String manifestName, Properties p) {
+        name = require(manifestName, p, "name");
+        modelFileName = require(manifestName, p, "model");
+        final String decoderName = require(manifestName, p, "decoder");
+        if (decoderName.equals("ssd_detections"))
+            decoder = Decoder.SSD_DETECTIONS;
+        else if (decoderName.equals("segmentation"))
+            decoder = Decoder.SEGMENTATION;
+        else
+            throw new IllegalArgumentException(manifestName + ": unknown decoder '" + decoderName + "'");
+
+        inputLayer = require(manifestName, p, "input.layer");
+        // the tensors of SNPE (and the kernels filling them) are NHWC only
+        final String layout = p.getProperty("input.layout", "NHWC").trim();
+        if (!layout.equals("NHWC"))
+            throw new IllegalArgumentException(manifestName + ": unsupported input.layout '" + layout + "', only NHWC");
+        final String channels = p.getProperty("input.channels", "BGR").trim();
+        if (!channels.equals("BGR") && !channels.equals("RGB"))
+            throw new IllegalArgumentException(manifestName + ": input.channels must be BGR or RGB, was '" + channels + "'");
+        inputBgr = channels.equals("BGR");
+        inputMean = parseFloat(manifestName, p, "input.mean", "127.5");
+        inputScale = parseFloat(manifestName, p, "input.scale", Float.toString(1 / 127.5f));
+
+        outputLayers = require(manifestName, p, "output.layers").split("\\s*,\\s*");
+        if (decoder == Decoder.SSD_DETECTIONS) {
+            boxesTensor = require(manifestName, p, "output.boxes");
+            scoresTensor = require(manifestName, p, "output.scores");
+            classesTensor = require(manifestName, p, "output.classes");
+            maxDetections = parseInt(manifestName, p, "output.max_detections", "100");
+            maskTensor = null;
+            maskChannels = 0;
+        } else {
+            boxesTensor = scoresTensor = classesTensor = null;
+            maxDetections = 0;
+            maskTensor = require(manifestName, p, "output.mask");
+            maskChannels = parseInt(manifestName, p, "output.mask_channels", "1");
+        }
+
+        final String labels = p.getProperty("labels", "coco").trim();
+        mLabels = labels.equals("coco") ? null : labels.split("\\s*,\\s*");
+    }
+
+    /**
+     * Reads a manifest (properties); throws IllegalArgumentException if a key is missing or wrong.
+     */
+    public static ModelManifest parse(String manifestName, InputStream in) throws IOException {
+        final Properties properties = new Properties();
+        properties.load(in);
+        return new ModelManifest(manifestName, properties);
+    }
+
+    public int getLabelCount() {
+        return mLabels == null ? MobileNetSSDDecoder.getClassCount() : mLabels.length;
+    }
+
+    // the label of a class id, or MobileNetSSDDecoder.UNKNOWN_LABEL
+    public String getLabel(int classId) {
+        if (mLabels == null)
+            return MobileNetSSDDecoder.getLabel(classId);
+        return classId >= 0 && classId < mLabels.length ? mLabels[classId] : MobileNetSSDDecoder.UNKNOWN_LABEL;
+    }
+
+    // the class id of a label, or -1
+    public int findClassId(String label) {
+        if (mLabels == null)
+            return MobileNetSSDDecoder.findClassId(label);
+        for (int i = 0; i < mLabels.length; i++) {
+            if (mLabels[i].equals(label))
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + modelFileName + ", " + decoder + ")";
+    }
+
+    private static String require(String manifestName, Properties p, String key) {
+        final String value = p.getProperty(key);
+        if (value == null || value.trim().isEmpty())
+            throw new IllegalArgumentException(manifestName + ": missing '" + key + "'");
+        return value.trim();
+    }
+
+    private static float parseFloat(String manifestName, Properties p, String key, String defaultValue) {
+        try {
+            return Float.parseFloat(p.getProperty(key, defaultValue).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(manifestName + ": '" + key + "' is not a number");
+        }
+    }
+
+    private static int parseInt(String manifestName, Properties p, String key, String defaultValue) {
+        try {
+            return Integer.parseInt(p.getProperty(key, defaultValue).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(manifestName + ": '" + key + "' is not an integer");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The models an app can run, by name, from their manifests (see ModelManifest). The first one
+ * registered is the default. Thread-safe.
+ */
+public final class ModelRegistry {
+    private final Map<String, ModelManifest> mManifests = new LinkedHashMap<>();
+
+    // replaces a model of the same name
+    public synchronized void register(ModelManifest manifest) {
+        mManifests.put(manifest.name, manifest);
+    }
+
+    // the manifest of a model, or null if not registered
+    public synchronized ModelManifest get(String name) {
+        return mManifests.get(name);
+    }
+
+    // the first model registered, or null if none
+    public synchronized ModelManifest getDefault() {
+        return mManifests.isEmpty() ? null : mManifests.values().iterator().next();
+    }
+
+    public synchronized List<String> getNames() {
+        return new ArrayList<>(mManifests.keySet());
+    }
+
+    public synchronized int size() {
+        return mManifests.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "models: " + mManifests.values();
+    }
+}
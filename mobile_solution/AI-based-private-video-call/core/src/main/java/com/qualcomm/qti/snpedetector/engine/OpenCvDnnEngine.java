@@ -0,0 +1,149 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+
+/**
+ * MobileNet-SSD on OpenCV's dnn module (CPU), from the TensorFlow or Caffe files of the model.
+ * For devices without SNPE, and for desktop runs. The OpenCV classes are not part of this
+ * library: the app gets them from the ':opencv' module, the desktop tools from their own build.
+ * <p>
+ * The input blobs (1x3xHxW) are allocated once, and re-used for every frame. The input and the
+ * class ids are converted to and from the ones of the network by its DnnModelFormat.
+ */
+public final class OpenCvDnnEngine implements InferenceEngine {
+    // DetectionOutput rows: [image id, class id (1-based), score, left, top, right, bottom]
+    private static final int DETECTION_FLOATS = 7;
+
+    private final Net mNet;
+    private final String mName;
+    private final DnnModelFormat mFormat;
+    private final int mInputWidth;
+    private final int mInputHeight;
+    // per slot: the NCHW floats, the blob, and a 2D (3*H x W) view of the blob to write it
+    private final float[][] mSlotFloatsCHW;
+    private final Mat[] mSlotBlobs;
+    private final Mat[] mSlotBlobViews;
+    private float[] mDetections = new float[0];
+
+    public static OpenCvDnnEngine fromTensorflow(String modelPath, String configPath,
+                                                 int inputWidth, int inputHeight, int inputSlots) {
+        return new OpenCvDnnEngine(Dnn.readNetFromTensorflow(modelPath, configPath), DnnModelFormat.TENSORFLOW_SSD,
+                "OpenCV dnn CPU (TensorFlow)", inputWidth, inputHeight, inputSlots);
+    }
+
+    public static OpenCvDnnEngine fromCaffe(String prototxtPath, String caffeModelPath,
+                                            int inputWidth, int inputHeight, int inputSlots) {
+        return new OpenCvDnnEngine(Dnn.readNetFromCaffe(prototxtPath, caffeModelPath), DnnModelFormat.CAFFE_VOC_SSD,
+                "OpenCV dnn CPU (Caffe)", inputWidth, inputHeight, inputSlots);
+    }
+
+    private OpenCvDnnEngine(Net net, DnnModelFormat format, String name, int inputWidth, int inputHeight, int inputSlots) {
+        if (net.empty())
+            throw new IllegalArgumentException("could not load the network for " + name);
+        if (inputSlots < 1)
+            throw new IllegalArgumentException("inputSlots must be >= 1, was " + inputSlots);
+        mNet = net;
+        mNet.setPreferableBackend(Dnn.DNN_BACKEND_OPENCV);
+        mNet.setPreferableTarget(Dnn.DNN_TARGET_CPU);
+        mName = name;
+        mFormat = format;
+        mInputWidth = inputWidth;
+        mInputHeight = inputHeight;
+        mSlotFloatsCHW = new float[inputSlots][3 * inputWidth * inputHeight];
+        mSlotBlobs = new Mat[inputSlots];
+        mSlotBlobViews = new Mat[inputSlots];
+        // the Java API can't create 4D Mats: make the blob from an image of the right size
+        final Mat image = new Mat(inputHeight, inputWidth, CvType.CV_32FC3, Scalar.all(0));
+        for (int i = 0; i < inputSlots; i++) {
+            mSlotBlobs[i] = Dnn.blobFromImage(image);
+            mSlotBlobViews[i] = mSlotBlobs[i].reshape(1, 3 * inputHeight);
+        }
+        image.release();
+    }
+
+    /**
+     * Threads of OpenCV's pool, for all the OpenCV functions of the process (0: sequential).
+     */
+    public static void setThreadCount(int threads) {
+        Core.setNumThreads(threads);
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    public DnnModelFormat getModelFormat() {
+        return mFormat;
+    }
+
+    @Override
+    public int getInputWidth() {
+        return mInputWidth;
+    }
+
+    @Override
+    public int getInputHeight() {
+        return mInputHeight;
+    }
+
+    @Override
+    public int getInputSlotCount() {
+        return mSlotBlobs.length;
+    }
+
+    @Override
+    public void setInput(int slot, float[] inputFloatsHW3) {
+        // HWC -> CHW, in the channel order and normalization of the network
+        final float[] chw = mSlotFloatsCHW[slot];
+        mFormat.toNetworkInput(inputFloatsHW3, chw, mInputWidth * mInputHeight);
+        mSlotBlobViews[slot].put(0, 0, chw);
+    }
+
+    @Override
+    public boolean execute(int slot, DetectionOutputs outputs) {
+        mNet.setInput(mSlotBlobs[slot]);
+        final Mat output = mNet.forward();
+        final int rows = (int) (output.total() / DETECTION_FLOATS);
+        if (mDetections.length < rows * DETECTION_FLOATS)
+            mDetections = new float[rows * DETECTION_FLOATS];
+        final Mat detections = output.reshape(1, rows);
+        detections.get(0, 0, mDetections);
+        detections.release();
+        output.release();
+
+        // to the SNPE layout, with the COCO ids, up to the score floor (the rows are sorted by
+        // score); the classes the app doesn't know are dropped
+        int i = 0;
+        for (int row = 0; row < rows && i < outputs.getCapacity(); row++) {
+            final int d = row * DETECTION_FLOATS;
+            if (mDetections[d + 2] < outputs.scoreFloor)
+                break;
+            final int classId = mFormat.toClassId(Math.round(mDetections[d + 1]));
+            if (classId < 0)
+                continue;
+            outputs.classesN[i] = classId;
+            outputs.scoresN[i] = mDetections[d + 2];
+            outputs.boxesN4[i * 4] = mDetections[d + 4];
+            outputs.boxesN4[i * 4 + 1] = mDetections[d + 3];
+            outputs.boxesN4[i * 4 + 2] = mDetections[d + 6];
+            outputs.boxesN4[i * 4 + 3] = mDetections[d + 5];
+            i++;
+        }
+        outputs.count = i;
+        return true;
+    }
+
+    @Override
+    public void release() {
+        for (int i = 0; i < mSlotBlobs.length; i++) {
+            mSlotBlobViews[i].release();
+            mSlotBlobs[i].release();
+        }
+    }
+}
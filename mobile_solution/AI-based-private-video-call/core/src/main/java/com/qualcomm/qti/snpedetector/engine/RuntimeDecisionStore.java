@@ -0,0 +1,72 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the runtime picked by RuntimeSelector, so that the probing runs once per device,
+ * SDK and model: the decision of another SDK version or model is simply not found.
+ * Stored as a properties file; a missing or unreadable file is an empty store.
+ */
+public final class RuntimeDecisionStore {
+    private static final Logger LOGGER = Logger.getLogger("SNPEDetector");
+
+    private final File mFile;
+    private final Properties mDecisions = new Properties();
+
+    public RuntimeDecisionStore(File file) {
+        mFile = file;
+        if (!file.isFile())
+            return;
+        try (InputStream in = new FileInputStream(file)) {
+            mDecisions.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.warning("ignoring the unreadable runtime decisions " + file + ": " + e);
+            mDecisions.clear();
+        }
+    }
+
+    // e.g. "Pixel 3|1.19.2|9f86d081884c7d65"
+    public static String createKey(String deviceModel, String sdkVersion, String modelHash) {
+        return deviceModel + "|" + sdkVersion + "|" + modelHash;
+    }
+
+    // the runtime name, or null if not decided yet
+    public synchronized String get(String key) {
+        return mDecisions.getProperty(key);
+    }
+
+    /**
+     * Stores the decision, and writes the file. Returns false if the file could not be written
+     * (the decision is then only kept in memory).
+     */
+    public synchronized boolean put(String key, String runtimeName) {
+        mDecisions.setProperty(key, runtimeName);
+        return save();
+    }
+
+    // forgets a decision, e.g. when the decided runtime stops loading
+    public synchronized void remove(String key) {
+        if (mDecisions.remove(key) != null)
+            save();
+    }
+
+    private boolean save() {
+        final File parent = mFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            return false;
+        try (OutputStream out = new FileOutputStream(mFile)) {
+            mDecisions.store(out, "runtime decisions: device|sdk|model hash = runtime");
+            return true;
+        } catch (IOException e) {
+            LOGGER.warning("cannot write the runtime decisions " + mFile + ": " + e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import com.qualcomm.qti.snpedetector.BoxGeometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Picks the runtime to run a network on, by measuring: each candidate (e.g. SNPE on DSP, GPU,
+ * CPU) is loaded, warmed up, and timed on the same input, a picture with a person in it (see
+ * setProbeImage()); the fastest one whose detections agree with the reference candidate
+ * (normally CPU) wins.
+ * <p>
+ * The winner is returned still loaded, the other candidates are released. Candidates that fail
+ * to load, to execute, or the accuracy check are skipped. The check only means something if the
+ * reference detects something on the input: see Selection.accuracyChecked.
+ */
+public final class RuntimeSelector {
+    private static final Logger LOGGER = Logger.getLogger("SNPEDetector");
+
+    public interface EngineLoader {
+        // a loaded engine, or null if the runtime is not available
+        InferenceEngine load() throws Exception;
+    }
+
+    /**
+     * What was measured for a candidate.
+     */
+    public static final class Result {
+        public final String name;
+        public boolean loaded;
+        public boolean executed;
+        // false if the detections disagree with the reference (true if there's no reference)
+        public boolean accurate;
+        public float loadMs;
+        public float medianExecuteMs;
+        public String rejection;
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        public boolean isEligible() {
+            return loaded && executed && accurate;
+        }
+
+        @Override
+        public String toString() {
+            if (!isEligible())
+                return name + ": " + rejection;
+            return name + ": " + round1(medianExecuteMs) + " ms (load " + Math.round(loadMs) + " ms)";
+        }
+    }
+
+    /**
+     * The outcome of select(): the winner (null if no candidate worked) and all the results.
+     */
+    public static final class Selection {
+        public final String selectedName;
+        // the winner, loaded, owned by the caller from now on
+        public final InferenceEngine engine;
+        public final List<Result> results;
+        // false if the reference had no confident detection to compare with: then any runtime,
+        // even one that detects nothing, passed the accuracy check
+        public final boolean accuracyChecked;
+
+        Selection(String selectedName, InferenceEngine engine, List<Result> results, boolean accuracyChecked) {
+            this.selectedName = selectedName;
+            this.engine = engine;
+            this.results = Collections.unmodifiableList(results);
+            this.accuracyChecked = accuracyChecked;
+        }
+
+        @Override
+        public String toString() {
+            return "selected " + selectedName + (accuracyChecked ? " " : " (detections not compared) ") + results;
+        }
+    }
+
+    // accuracy check: confident detections must match in class, location and score
+    private static final float DEFAULT_MIN_SCORE = 0.3f;
+    private static final float DEFAULT_SCORE_TOLERANCE = 0.1f;
+    private static final float DEFAULT_MIN_IOU = 0.5f;
+    private static final int DETECTIONS_CAPACITY = 100;
+
+    private final int mWarmupRuns;
+    private final int mTimedRuns;
+    private final ArrayList<String> mNames = new ArrayList<>();
+    private final ArrayList<EngineLoader> mLoaders = new ArrayList<>();
+    private int mReferenceIndex = -1;
+    private float mMinScore = DEFAULT_MIN_SCORE;
+    private float mScoreTolerance = DEFAULT_SCORE_TOLERANCE;
+    private float mMinIou = DEFAULT_MIN_IOU;
+    private float[] mProbeInput;
+    // or a picture (ARGB), normalized as (pixel - mean) * scale and fitted to each candidate's input
+    private int[] mProbePixels;
+    private int mProbeWidth;
+    private int mProbeHeight;
+    private float mProbeMean;
+    private float mProbeScale;
+    private boolean mProbeBgr;
+
+    public RuntimeSelector(int warmupRuns, int timedRuns) {
+        if (warmupRuns < 0)
+            throw new IllegalArgumentException("warmupRuns must be >= 0, was " + warmupRuns);
+        if (timedRuns < 1)
+            throw new IllegalArgumentException("timedRuns must be >= 1, was " + timedRuns);
+        mWarmupRuns = warmupRuns;
+        mTimedRuns = timedRuns;
+    }
+
+    public RuntimeSelector addCandidate(String name, EngineLoader loader) {
+        mNames.add(name);
+        mLoaders.add(loader);
+        return this;
+    }
+
+    /**
+     * Adds the candidate the others are checked against (only one). It is measured first, and
+     * can be selected too.
+     */
+    public RuntimeSelector addReferenceCandidate(String name, EngineLoader loader) {
+        if (mReferenceIndex >= 0)
+            throw new IllegalStateException("the reference is already " + mNames.get(mReferenceIndex));
+        mReferenceIndex = mNames.size();
+        return addCandidate(name, loader);
+    }
+
+    public void setAccuracyCheck(float minScore, float scoreTolerance, float minIou) {
+        mMinScore = minScore;
+        mScoreTolerance = scoreTolerance;
+        mMinIou = minIou;
+    }
+
+    /**
+     * The input of the measurements (normalized BGR floats, HWC), instead of createProbeInput().
+     */
+    public void setProbeInput(float[] inputFloatsHW3) {
+        mProbeInput = inputFloatsHW3;
+    }
+
+    /**
+     * The input of the measurements as a picture (ARGB, width x height), with a person in it, so
+     * that the reference has detections to compare the others with. It is letterboxed to the
+     * input of each candidate, and normalized as its model wants: (pixel - mean) * scale.
+     */
+    public void setProbeImage(int[] argbPixels, int width, int height, float mean, float scale, boolean bgr) {
+        if (argbPixels.length < width * height)
+            throw new IllegalArgumentException("the pixels are smaller than " + width + "x" + height);
+        mProbePixels = argbPixels;
+        mProbeWidth = width;
+        mProbeHeight = height;
+        mProbeMean = mean;
+        mProbeScale = scale;
+        mProbeBgr = bgr;
+    }
+
+    /**
+     * Loads and measures all the candidates, one at a time (so that only 2 are loaded at once).
+     */
+    public Selection select() {
+        final int count = mNames.size();
+        final Result[] results = new Result[count];
+        DetectionOutputs referenceOutputs = null;
+        int referenceDetections = 0;
+        InferenceEngine best = null;
+        int bestIndex = -1;
+
+        // the reference first, to have its outputs for the others
+        final ArrayList<Integer> order = new ArrayList<>();
+        if (mReferenceIndex >= 0)
+            order.add(mReferenceIndex);
+        for (int i = 0; i < count; i++)
+            if (i != mReferenceIndex)
+                order.add(i);
+
+        for (int i : order) {
+            final Result result = results[i] = new Result(mNames.get(i));
+            final InferenceEngine engine = load(mLoaders.get(i), result);
+            if (engine == null) {
+                LOGGER.info("runtime probe: " + result);
+                continue;
+            }
+            final DetectionOutputs outputs = measure(engine, result);
+            if (outputs != null) {
+                if (i == mReferenceIndex) {
+                    referenceOutputs = outputs;
+                    referenceDetections = countConfident(outputs);
+                    result.accurate = true;
+                    if (referenceDetections == 0)
+                        LOGGER.warning("runtime probe: no confident detection on the reference, the detections can't be compared");
+                } else if (referenceOutputs == null) {
+                    // nothing to compare to
+                    result.accurate = true;
+                } else if (referenceDetections > 0 && countConfident(outputs) == 0) {
+                    // e.g. a badly quantized run
+                    result.accurate = false;
+                    result.rejection = "no detections, " + mNames.get(mReferenceIndex) + " has " + referenceDetections;
+                } else {
+                    result.accurate = agrees(referenceOutputs, outputs);
+                    if (!result.accurate)
+                        result.rejection = "detections differ from " + mNames.get(mReferenceIndex);
+                }
+            }
+            LOGGER.info("runtime probe: " + result);
+
+            // keep only the fastest eligible engine loaded
+            if (result.isEligible() && (best == null || result.medianExecuteMs < results[bestIndex].medianExecuteMs)) {
+                if (best != null)
+                    best.release();
+                best = engine;
+                bestIndex = i;
+            } else {
+                engine.release();
+            }
+        }
+
+        return new Selection(best == null ? null : mNames.get(bestIndex), best, new ArrayList<>(Arrays.asList(results)),
+                referenceDetections > 0);
+    }
+
+    private static InferenceEngine load(EngineLoader loader, Result result) {
+        final long t0 = System.nanoTime();
+        InferenceEngine engine;
+        try {
+            engine = loader.load();
+        } catch (Exception e) {
+            result.rejection = "load failed: " + e;
+            return null;
+        }
+        result.loadMs = (System.nanoTime() - t0) / 1e6f;
+        if (engine == null) {
+            result.rejection = "not available";
+            return null;
+        }
+        result.loaded = true;
+        return engine;
+    }
+
+    // returns the outputs of the last run, or null if an execution failed
+    private DetectionOutputs measure(InferenceEngine engine, Result result) {
+        final float[] input = getProbeInput(engine.getInputWidth(), engine.getInputHeight());
+        if (input.length != engine.getInputWidth() * engine.getInputHeight() * 3) {
+            result.rejection = "input size " + engine.getInputWidth() + "x" + engine.getInputHeight() + " differs from the probe";
+            return null;
+        }
+        final DetectionOutputs outputs = new DetectionOutputs(DETECTIONS_CAPACITY);
+        engine.setInput(0, input);
+        for (int i = 0; i < mWarmupRuns; i++) {
+            if (!engine.execute(0, outputs)) {
+                result.rejection = "execute failed";
+                return null;
+            }
+        }
+        final float[] timesMs = new float[mTimedRuns];
+        for (int i = 0; i < mTimedRuns; i++) {
+            final long t0 = System.nanoTime();
+            if (!engine.execute(0, outputs)) {
+                result.rejection = "execute failed";
+                return null;
+            }
+            timesMs[i] = (System.nanoTime() - t0) / 1e6f;
+        }
+        Arrays.sort(timesMs);
+        result.medianExecuteMs = timesMs[mTimedRuns / 2];
+        result.executed = true;
+        return outputs;
+    }
+
+    private float[] getProbeInput(int width, int height) {
+        if (mProbeInput != null)
+            return mProbeInput;
+        if (mProbePixels != null)
+            return createProbeInput(mProbePixels, mProbeWidth, mProbeHeight, width, height, mProbeMean, mProbeScale, mProbeBgr);
+        return createProbeInput(width, height);
+    }
+
+    private int countConfident(DetectionOutputs outputs) {
+        int confident = 0;
+        for (int i = 0; i < outputs.count; i++)
+            if (outputs.scoresN[i] >= mMinScore)
+                confident++;
+        return confident;
+    }
+
+    /**
+     * True if every confident detection of each side has a match on the other: same class,
+     * close score, and overlapping enough. Detections near the threshold only need to be matched
+     * by something within the tolerance, so that they don't make the check flip.
+     */
+    boolean agrees(DetectionOutputs reference, DetectionOutputs candidate) {
+        return allMatched(reference, candidate) && allMatched(candidate, reference);
+    }
+
+    private boolean allMatched(DetectionOutputs a, DetectionOutputs b) {
+        for (int i = 0; i < a.count; i++) {
+            if (a.scoresN[i] < mMinScore)
+                continue;
+            boolean matched = false;
+            for (int j = 0; j < b.count && !matched; j++)
+                matched = a.classesN[i] == b.classesN[j] &&
+                        Math.abs(a.scoresN[i] - b.scoresN[j]) <= mScoreTolerance &&
+                        iou(a.boxesN4, i, b.boxesN4, j) >= mMinIou;
+            if (!matched)
+                return false;
+        }
+        return true;
+    }
+
+    // IoU of 2 boxes in the top, left, bottom, right layout
+    private static float iou(float[] a, int i, float[] b, int j) {
+        return BoxGeometry.iou(a[i * 4 + 1], a[i * 4], a[i * 4 + 3], a[i * 4 + 2],
+                b[j * 4 + 1], b[j * 4], b[j * 4 + 3], b[j * 4 + 2]);
+    }
+
+    /**
+     * The default input of the measurements: a dark diagonal gradient, with a bright rectangle
+     * in the middle, in the normalized (-1..1) BGR floats of the model input. A real network
+     * detects nothing on it: it's for the fake engines of the tests and benchmarks.
+     */
+    public static float[] createProbeInput(int width, int height) {
+        final float[] input = new float[width * height * 3];
+        int idx = 0;
+        for (int y = 0; y < height; y++) {
+            final boolean insideY = y >= height / 4 && y < height * 3 / 4;
+            for (int x = 0; x < width; x++) {
+                final boolean inside = insideY && x >= width / 3 && x < width * 2 / 3;
+                final float value = inside ? 0.8f : -1f + 0.5f * (x + y) / (width + height);
+                input[idx++] = value;
+                input[idx++] = value;
+                input[idx++] = inside ? 0.6f : value;
+            }
+        }
+        return input;
+    }
+
+    /**
+     * A picture (ARGB) letterboxed (centered, black bars) into the model input, with the nearest
+     * pixels, as (pixel - mean) * scale floats in BGR or RGB order.
+     */
+    public static float[] createProbeInput(int[] argbPixels, int pixelsWidth, int pixelsHeight,
+                                           int width, int height, float mean, float scale, boolean bgr) {
+        final float fit = Math.min((float) width / pixelsWidth, (float) height / pixelsHeight);
+        final int fittedWidth = Math.max(1, Math.round(pixelsWidth * fit));
+        final int fittedHeight = Math.max(1, Math.round(pixelsHeight * fit));
+        final int dx = (width - fittedWidth) / 2;
+        final int dy = (height - fittedHeight) / 2;
+        final float[] input = new float[width * height * 3];
+        int idx = 0;
+        for (int y = 0; y < height; y++) {
+            final int sy = (y - dy) * pixelsHeight / fittedHeight;
+            for (int x = 0; x < width; x++, idx += 3) {
+                final int sx = (x - dx) * pixelsWidth / fittedWidth;
+                final boolean inside = y >= dy && sy < pixelsHeight && x >= dx && sx < pixelsWidth;
+                final int p = inside ? argbPixels[sy * pixelsWidth + sx] : 0;
+                final float r = (((p >> 16) & 0xFF) - mean) * scale;
+                final float g = (((p >> 8) & 0xFF) - mean) * scale;
+                final float b = ((p & 0xFF) - mean) * scale;
+                input[idx] = bgr ? b : r;
+                input[idx + 1] = g;
+                input[idx + 2] = bgr ? r : b;
+            }
+        }
+        return input;
+    }
+
+    private static float round1(float value) {
+        return Math.round(value * 10f) / 10f;
+    }
+}
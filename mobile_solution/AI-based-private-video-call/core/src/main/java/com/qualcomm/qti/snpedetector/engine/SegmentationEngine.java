@@ -0,0 +1,20 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+/**
+ * An InferenceEngine that can also run a segmentation model (ModelManifest.Decoder.SEGMENTATION).
+ * On such a model, the detection execute() fails.
+ */
+public interface SegmentationEngine extends InferenceEngine {
+
+    // the model of the engine: its decoder tells which execute() works
+    ModelManifest getManifest();
+
+    // an outputs buffer of the shape of the segmentation tensor (null for a detection model)
+    SegmentationOutputs createSegmentationOutputs();
+
+    /**
+     * Runs the network on the input of a slot, and reads the segmentation into 'outputs'.
+     * Returns false if the execution failed.
+     */
+    boolean execute(int slot, SegmentationOutputs outputs);
+}
@@ -0,0 +1,35 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+/**
+ * The output of a segmentation network (e.g. DeepLab), as read from its tensor: HWC floats,
+ * either the class id of each pixel (1 channel, the model ends with an ArgMax) or the score of
+ * each class (one channel per class). The map is usually smaller than the frame.
+ */
+public final class SegmentationOutputs {
+    public final int width;
+    public final int height;
+    public final int channels;
+    public final float[] dataHWC;
+
+    public SegmentationOutputs(int width, int height, int channels) {
+        if (width < 1 || height < 1 || channels < 1)
+            throw new IllegalArgumentException("bad segmentation shape: " + width + "x" + height + "x" + channels);
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        dataHWC = new float[width * height * channels];
+    }
+
+    // the class of a pixel: stored, or the best scoring one
+    public int getClassId(int x, int y) {
+        final int base = (y * width + x) * channels;
+        if (channels == 1)
+            return (int) dataHWC[base];
+        int best = 0;
+        for (int c = 1; c < channels; c++) {
+            if (dataHWC[base + c] > dataHWC[base + best])
+                best = c;
+        }
+        return best;
+    }
+}
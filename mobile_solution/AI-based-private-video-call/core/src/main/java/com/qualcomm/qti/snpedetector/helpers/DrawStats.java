@@ -0,0 +1,89 @@
+package com.qualcomm.qti.snpedetector.helpers;
+
+/**
+ * What the draws of a view cost the UI thread: their duration (average, worst, and how many go
+ * over a budget, i.e. may make a display frame late), the objects they allocate, and the
+ * updates around them: redrawn, or skipped as unchanged.
+ * <p>
+ * Not thread-safe: record and read from the UI thread.
+ */
+public final class DrawStats {
+    // a quarter of a 60 Hz frame
+    public static final long DEFAULT_BUDGET_NS = 4_000_000L;
+
+    private final long mBudgetNs;
+    private long mDraws;
+    private long mTotalNs;
+    private long mMaxNs;
+    private long mOverBudget;
+    private long mAllocations;
+    private long mUpdates;
+    private long mSkippedUpdates;
+
+    public DrawStats() {
+        this(DEFAULT_BUDGET_NS);
+    }
+
+    public DrawStats(long budgetNs) {
+        if (budgetNs <= 0)
+            throw new IllegalArgumentException("the budget must be > 0, was " + budgetNs);
+        mBudgetNs = budgetNs;
+    }
+
+    // one draw, and the objects allocated for it
+    public void recordDraw(long durationNs, long allocations) {
+        mDraws++;
+        mTotalNs += durationNs;
+        mMaxNs = Math.max(mMaxNs, durationNs);
+        if (durationNs > mBudgetNs)
+            mOverBudget++;
+        mAllocations += allocations;
+    }
+
+    // new content: the view to redraw
+    public void recordUpdate() {
+        mUpdates++;
+    }
+
+    // new content, the same as drawn: no redraw
+    public void recordSkippedUpdate() {
+        mSkippedUpdates++;
+    }
+
+    public long getDraws() {
+        return mDraws;
+    }
+
+    // [ms]
+    public float getAverageDrawMs() {
+        return mDraws == 0 ? 0 : mTotalNs / 1e6f / mDraws;
+    }
+
+    public float getMaxDrawMs() {
+        return mMaxNs / 1e6f;
+    }
+
+    public float getAllocationsPerDraw() {
+        return mDraws == 0 ? 0 : (float) mAllocations / mDraws;
+    }
+
+    public void reset() {
+        mDraws = mTotalNs = mMaxNs = mOverBudget = mAllocations = 0;
+        mUpdates = mSkippedUpdates = 0;
+    }
+
+    /**
+     * E.g. "300 draws: 0.42 ms avg, 3.1 ms max, 0 over 4.0 ms, 0.0 allocations per draw | updates: 300
+     * redrawn, 400 skipped".
+     */
+    @Override
+    public String toString() {
+        return mDraws + " draws: " + round2(getAverageDrawMs()) + " ms avg, " + round2(getMaxDrawMs()) + " ms max, "
+                + mOverBudget + " over " + round2(mBudgetNs / 1e6f) + " ms, " + round2(getAllocationsPerDraw()) + " allocations per draw"
+                + " | updates: " + mUpdates + " redrawn, " + mSkippedUpdates + " skipped";
+    }
+
+    private static float round2(float value) {
+        return Math.round(value * 100f) / 100f;
+    }
+}
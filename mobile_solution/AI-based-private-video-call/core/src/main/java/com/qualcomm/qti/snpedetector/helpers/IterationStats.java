@@ -0,0 +1,55 @@
+package com.qualcomm.qti.snpedetector.helpers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-stage loop counts, e.g. how many detections the decoding, the tracking and the rendering
+ * iterate per frame, next to what they iterated before (the 'baseline', e.g. all the outputs of
+ * the network). Stages may record from different threads.
+ */
+public final class IterationStats {
+    // per stage: frames, iterations, baseline iterations
+    private final Map<String, long[]> mStages = new LinkedHashMap<>();
+
+    public synchronized void record(String stage, int iterations, int baselineIterations) {
+        long[] totals = mStages.get(stage);
+        if (totals == null) {
+            totals = new long[3];
+            mStages.put(stage, totals);
+        }
+        totals[0]++;
+        totals[1] += iterations;
+        totals[2] += baselineIterations;
+    }
+
+    // average iterations per frame
+    public synchronized float getAverage(String stage) {
+        final long[] totals = mStages.get(stage);
+        return totals == null || totals[0] == 0 ? 0 : (float) totals[1] / totals[0];
+    }
+
+    public synchronized void reset() {
+        mStages.clear();
+    }
+
+    /**
+     * Averages per frame, e.g. "decode 14.0 (was 100.0) | track 1.2 (was 100.0)".
+     */
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, long[]> stage : mStages.entrySet()) {
+            final long[] totals = stage.getValue();
+            if (sb.length() > 0)
+                sb.append(" | ");
+            sb.append(stage.getKey()).append(' ').append(round1((float) totals[1] / totals[0]))
+                    .append(" (was ").append(round1((float) totals[2] / totals[0])).append(')');
+        }
+        return sb.length() == 0 ? "no frames" : sb.toString();
+    }
+
+    private static float round1(float value) {
+        return Math.round(value * 10f) / 10f;
+    }
+}
@@ -0,0 +1,137 @@
+package com.qualcomm.qti.snpedetector.helpers;
+
+/**
+ * Cheap statistics on the Y plane of an NV21 frame, sampled every 'stride' pixels in both
+ * directions: mean luma, a coarse histogram and a sharpness (blur) estimate. Used to reject
+ * unusable frames (covered lens, too dark) before any color conversion.
+ * <p>
+ * The sharpness is reported, but it doesn't reject frames by default: a blurry face still has to
+ * be covered, and the tracker carries the boxes through motion blur better than no detection
+ * would. setMinSharpness() turns the blur gate on.
+ */
+public final class LumaStatistics {
+    public static final int HISTOGRAM_BINS = 16;
+
+    // the previous check was: average Green < 13/255; a gray of G=13 has Y = 16 + 13 * 219/255
+    public static final int DEFAULT_MIN_MEAN_LUMA = 27;
+    public static final int DEFAULT_SAMPLE_STRIDE = 8;
+    // 0: the sharpness doesn't reject frames
+    public static final float DEFAULT_MIN_SHARPNESS = 0;
+
+    private int mSampleStride = DEFAULT_SAMPLE_STRIDE;
+    private int mMinMeanLuma = DEFAULT_MIN_MEAN_LUMA;
+    private float mMinSharpness = DEFAULT_MIN_SHARPNESS;
+
+    // results of the last analyze()
+    private final int[] mHistogram = new int[HISTOGRAM_BINS];
+    private int mSamples;
+    private volatile float mMeanLuma;
+    private volatile float mSharpness;
+    private boolean mUsable;
+
+    // metrics (read from any thread)
+    private volatile long mFrames;
+    private volatile long mDarkFrames;
+    private volatile long mBlurryFrames;
+    private volatile double mSumSharpness;
+
+    public void setSampleStride(int stride) {
+        if (stride < 1)
+            throw new IllegalArgumentException("stride must be >= 1, was " + stride);
+        mSampleStride = stride;
+    }
+
+    public void setMinMeanLuma(int minMeanLuma) {
+        mMinMeanLuma = minMeanLuma;
+    }
+
+    // 0 (the default) turns the blur gate off
+    public void setMinSharpness(float minSharpness) {
+        mMinSharpness = minSharpness;
+    }
+
+    /**
+     * @return true if the frame is worth processing (see isUsable())
+     */
+    public boolean analyze(final byte[] nv21, final int width, final int height) {
+        final int stride = mSampleStride;
+        final int[] histogram = mHistogram;
+        for (int i = 0; i < HISTOGRAM_BINS; i++)
+            histogram[i] = 0;
+        long sumLuma = 0;
+        long sumGradient = 0;
+        int samples = 0;
+        int gradients = 0;
+        for (int y = 0; y < height; y += stride) {
+            final int row = y * width;
+            final boolean hasBelow = y + stride < height;
+            for (int x = 0; x < width; x += stride) {
+                final int luma = nv21[row + x] & 0xFF;
+                sumLuma += luma;
+                histogram[luma >> 4]++;
+                samples++;
+                // the gradients to the next samples, where there are some
+                if (x + stride < width) {
+                    sumGradient += Math.abs((nv21[row + x + stride] & 0xFF) - luma);
+                    gradients++;
+                }
+                if (hasBelow) {
+                    sumGradient += Math.abs((nv21[row + stride * width + x] & 0xFF) - luma);
+                    gradients++;
+                }
+            }
+        }
+        mSamples = samples;
+        mMeanLuma = samples == 0 ? 0 : (float) sumLuma / samples;
+        // average absolute luma difference between neighbouring samples (0..255): low on blurry or flat frames
+        mSharpness = gradients == 0 ? 0 : (float) sumGradient / gradients;
+        final boolean dark = samples == 0 || mMeanLuma < mMinMeanLuma;
+        final boolean blurry = !dark && mSharpness < mMinSharpness;
+        mUsable = !dark && !blurry;
+
+        mFrames++;
+        mSumSharpness += mSharpness;
+        if (dark)
+            mDarkFrames++;
+        else if (blurry)
+            mBlurryFrames++;
+        return mUsable;
+    }
+
+    public boolean isUsable() {
+        return mUsable;
+    }
+
+    public float getMeanLuma() {
+        return mMeanLuma;
+    }
+
+    public float getSharpness() {
+        return mSharpness;
+    }
+
+    // bin i counts the samples with luma in [16 * i, 16 * i + 15]; valid until the next analyze()
+    public int[] getHistogram() {
+        return mHistogram;
+    }
+
+    public int getSampleCount() {
+        return mSamples;
+    }
+
+    public void resetMetrics() {
+        mFrames = 0;
+        mDarkFrames = 0;
+        mBlurryFrames = 0;
+        mSumSharpness = 0;
+    }
+
+    @Override
+    public String toString() {
+        final long frames = mFrames;
+        return "rejected " + mDarkFrames + " dark and " + mBlurryFrames + " blurry of " + frames + " frames" +
+                (mMinSharpness > 0 ? "" : " (blur gate off)") + ", average sharpness " +
+                (frames == 0 ? 0 : Math.round(mSumSharpness / frames * 10) / 10f) + ", last mean luma " +
+                Math.round(mMeanLuma) + ", last sharpness " + Math.round(mSharpness * 10) / 10f;
+    }
+}
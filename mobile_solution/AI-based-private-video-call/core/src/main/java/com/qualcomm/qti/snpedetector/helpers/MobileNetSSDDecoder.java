@@ -0,0 +1,147 @@
+package com.qualcomm.qti.snpedetector.helpers;
+
+import com.qualcomm.qti.snpedetector.Box;
+
+import java.util.ArrayList;
+
+/**
+ * MobileNet-SSD output decoding: the 3 NMS output tensors (boxes, classes, scores) -> Boxes.
+ * No Android dependencies, so it can be benchmarked on a desktop JVM.
+ */
+public final class MobileNetSSDDecoder {
+    public static final String UNKNOWN_LABEL = "???";
+
+    private MobileNetSSDDecoder() {
+    }
+
+    /**
+     * Decodes 'count' detections into the first 'count' (pre-allocated) Boxes of 'outBoxes'.
+     * Boxes are 4 floats each as: top, left, bottom, right (normalized 0..1).
+     */
+    public static void decode(final float[] boxesN4, final float[] classesN, final float[] scoresN,
+                              final int count, final ArrayList<Box> outBoxes) {
+        for (int i = 0; i < count; ++i) {
+            final Box box = outBoxes.get(i);
+            box.top = boxesN4[i * 4];
+            box.left = boxesN4[i * 4 + 1];
+            box.bottom = boxesN4[i * 4 + 2];
+            box.right = boxesN4[i * 4 + 3];
+            box.type_id = Math.round(classesN[i]);
+            box.type_score = scoresN[i];
+            box.type_name = getLabel(box.type_id);
+        }
+    }
+
+    // VERBOSE COCO object map
+    // map obtained from: https://github.com/tensorflow/models/blob/master/research/object_detection/data/mscoco_label_map.pbtxt
+    // referenced by TensorFlow here: https://github.com/tensorflow/models/blob/master/research/object_detection/object_detection_tutorial.ipynb
+    // dense: indexed by the 1-based COCO id, null for the ids not in the map
+    private static final String[] COCO_LABELS = new String[91];
+
+    static {
+        COCO_LABELS[1] = "person";
+        COCO_LABELS[2] = "bicycle";
+        COCO_LABELS[3] = "car";
+        COCO_LABELS[4] = "motorcycle";
+        COCO_LABELS[5] = "airplane";
+        COCO_LABELS[6] = "bus";
+        COCO_LABELS[7] = "train";
+        COCO_LABELS[8] = "truck";
+        COCO_LABELS[9] = "boat";
+        COCO_LABELS[10] = "traffic light";
+        COCO_LABELS[11] = "fire hydrant";
+        COCO_LABELS[13] = "stop sign";
+        COCO_LABELS[14] = "parking meter";
+        COCO_LABELS[15] = "bench";
+        COCO_LABELS[16] = "bird";
+        COCO_LABELS[17] = "cat";
+        COCO_LABELS[18] = "dog";
+        COCO_LABELS[19] = "horse";
+        COCO_LABELS[20] = "sheep";
+        COCO_LABELS[21] = "cow";
+        COCO_LABELS[22] = "elephant";
+        COCO_LABELS[23] = "bear";
+        COCO_LABELS[24] = "zebra";
+        COCO_LABELS[25] = "giraffe";
+        COCO_LABELS[27] = "backpack";
+        COCO_LABELS[28] = "umbrella";
+        COCO_LABELS[31] = "handbag";
+        COCO_LABELS[32] = "tie";
+        COCO_LABELS[33] = "suitcase";
+        COCO_LABELS[34] = "frisbee";
+        COCO_LABELS[35] = "skis";
+        COCO_LABELS[36] = "snowboard";
+        COCO_LABELS[37] = "sports ball";
+        COCO_LABELS[38] = "kite";
+        COCO_LABELS[39] = "baseball bat";
+        COCO_LABELS[40] = "baseball glove";
+        COCO_LABELS[41] = "skateboard";
+        COCO_LABELS[42] = "surfboard";
+        COCO_LABELS[43] = "tennis racket";
+        COCO_LABELS[44] = "bottle";
+        COCO_LABELS[46] = "wine glass";
+        COCO_LABELS[47] = "cup";
+        COCO_LABELS[48] = "fork";
+        COCO_LABELS[49] = "knife";
+        COCO_LABELS[50] = "spoon";
+        COCO_LABELS[51] = "bowl";
+        COCO_LABELS[52] = "banana";
+        COCO_LABELS[53] = "apple";
+        COCO_LABELS[54] = "sandwich";
+        COCO_LABELS[55] = "orange";
+        COCO_LABELS[56] = "broccoli";
+        COCO_LABELS[57] = "carrot";
+        COCO_LABELS[58] = "hot dog";
+        COCO_LABELS[59] = "pizza";
+        COCO_LABELS[60] = "donut";
+        COCO_LABELS[61] = "cake";
+        COCO_LABELS[62] = "chair";
+        COCO_LABELS[63] = "couch";
+        COCO_LABELS[64] = "potted plant";
+        COCO_LABELS[65] = "bed";
+        COCO_LABELS[67] = "dining table";
+        COCO_LABELS[70] = "toilet";
+        COCO_LABELS[72] = "tv";
+        COCO_LABELS[73] = "laptop";
+        COCO_LABELS[74] = "mouse";
+        COCO_LABELS[75] = "remote";
+        COCO_LABELS[76] = "keyboard";
+        COCO_LABELS[77] = "cell phone";
+        COCO_LABELS[78] = "microwave";
+        COCO_LABELS[79] = "oven";
+        COCO_LABELS[80] = "toaster";
+        COCO_LABELS[81] = "sink";
+        COCO_LABELS[82] = "refrigerator";
+        COCO_LABELS[84] = "book";
+        COCO_LABELS[85] = "clock";
+        COCO_LABELS[86] = "vase";
+        COCO_LABELS[87] = "scissors";
+        COCO_LABELS[88] = "teddy bear";
+        COCO_LABELS[89] = "hair drier";
+        COCO_LABELS[90] = "toothbrush";
+    }
+
+    // label of a 1-based COCO id
+    public static String lookupMsCoco(int cocoIndex, String fallback) {
+        final String name = cocoIndex >= 0 && cocoIndex < COCO_LABELS.length ? COCO_LABELS[cocoIndex] : null;
+        return name != null ? name : fallback;
+    }
+
+    // label of a 0-based class of the network output, or UNKNOWN_LABEL
+    public static String getLabel(int classId) {
+        return lookupMsCoco(classId + 1, UNKNOWN_LABEL);
+    }
+
+    // 0-based classes of the network output (some without a label)
+    public static int getClassCount() {
+        return COCO_LABELS.length - 1;
+    }
+
+    // 0-based class of a label, or -1 (a scan: not for the per-frame code)
+    public static int findClassId(String label) {
+        for (int i = 0; i < COCO_LABELS.length; i++)
+            if (label.equals(COCO_LABELS[i]))
+                return i - 1;
+        return -1;
+    }
+}
@@ -0,0 +1,164 @@
+package com.qualcomm.qti.snpedetector.helpers;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides if a frame needs a new inference, by comparing a small luma thumbnail of it with the
+ * thumbnail of the last inferred frame. The thumbnail is split in blocks, and the motion score
+ * is the highest per-block mean absolute difference (0..255), so that a small moving part of
+ * the picture (e.g. a hand) is not averaged away by a static background.
+ * <p>
+ * Static scenes skip the inference (and reuse the previous detections), but never for more than
+ * 'maxConsecutiveSkips' frames in a row.
+ */
+public final class MotionGate {
+    public static final int DEFAULT_THUMB_WIDTH = 64;
+    public static final int DEFAULT_THUMB_HEIGHT = 48;
+    public static final int DEFAULT_BLOCK_SIZE = 8;
+    public static final float DEFAULT_THRESHOLD = 6;
+    public static final int DEFAULT_MAX_CONSECUTIVE_SKIPS = 5;
+
+    private final int mThumbWidth;
+    private final int mThumbHeight;
+    private final int mBlockSize;
+    private float mThreshold = DEFAULT_THRESHOLD;
+    private int mMaxConsecutiveSkips = DEFAULT_MAX_CONSECUTIVE_SKIPS;
+
+    // the thumbnail of the current frame, and of the last inferred one (swapped on inference)
+    private int[] mThumb;
+    private int[] mReferenceThumb;
+    private boolean mHasReference;
+    private int mReferenceWidth;
+    private int mReferenceHeight;
+    // set by invalidate() (from any thread), consumed by the next shouldInfer()
+    private volatile boolean mInvalidated;
+
+    // metrics (read from any thread)
+    private volatile float mMotionScore;
+    private int mConsecutiveSkips;
+    private volatile long mFrames;
+    private volatile long mSkippedFrames;
+    private final AtomicLong mInvalidations = new AtomicLong();
+
+    public MotionGate() {
+        this(DEFAULT_THUMB_WIDTH, DEFAULT_THUMB_HEIGHT, DEFAULT_BLOCK_SIZE);
+    }
+
+    public MotionGate(int thumbWidth, int thumbHeight, int blockSize) {
+        if (thumbWidth < blockSize || thumbHeight < blockSize || blockSize < 1)
+            throw new IllegalArgumentException("the thumbnail must contain at least one block");
+        mThumbWidth = thumbWidth;
+        mThumbHeight = thumbHeight;
+        mBlockSize = blockSize;
+        mThumb = new int[thumbWidth * thumbHeight];
+        mReferenceThumb = new int[thumbWidth * thumbHeight];
+    }
+
+    // mean absolute luma difference (0..255) of the most changed block, above which we infer
+    public void setThreshold(float threshold) {
+        mThreshold = threshold;
+    }
+
+    public void setMaxConsecutiveSkips(int maxConsecutiveSkips) {
+        mMaxConsecutiveSkips = maxConsecutiveSkips;
+    }
+
+    /**
+     * @return true if the frame needs a new inference, false if the previous results can be reused
+     */
+    public boolean shouldInfer(final byte[] nv21, final int width, final int height) {
+        computeThumbnail(nv21, width, height, mThumb);
+        mFrames++;
+        if (mInvalidated) {
+            mInvalidated = false;
+            mHasReference = false;
+        }
+
+        final boolean sameGeometry = mHasReference && mReferenceWidth == width && mReferenceHeight == height;
+        mMotionScore = sameGeometry ? maxBlockMeanAbsDiff(mThumb, mReferenceThumb) : 255;
+        if (sameGeometry && mMotionScore < mThreshold && mConsecutiveSkips < mMaxConsecutiveSkips) {
+            mConsecutiveSkips++;
+            mSkippedFrames++;
+            return false;
+        }
+
+        // this frame becomes the reference
+        final int[] swap = mReferenceThumb;
+        mReferenceThumb = mThumb;
+        mThumb = swap;
+        mHasReference = true;
+        mReferenceWidth = width;
+        mReferenceHeight = height;
+        mConsecutiveSkips = 0;
+        return true;
+    }
+
+    /**
+     * Forgets the reference, so that the next frame is inferred: to call when the results of the
+     * reference frame were discarded (dropped, black, or of a model being switched out), or when a
+     * frame was rejected (dark), else the frames like it would keep re-using older results. Can
+     * be called from any thread.
+     */
+    public void invalidate() {
+        mInvalidated = true;
+        mInvalidations.incrementAndGet();
+    }
+
+    // motion score of the last frame (0..255)
+    public float getMotionScore() {
+        return mMotionScore;
+    }
+
+    // skipped / total frames, since the creation or the last resetMetrics()
+    public float getSkippedFrameRatio() {
+        return mFrames == 0 ? 0 : (float) mSkippedFrames / mFrames;
+    }
+
+    public void resetMetrics() {
+        mFrames = 0;
+        mSkippedFrames = 0;
+        mInvalidations.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "skipped " + mSkippedFrames + " of " + mFrames + " frames (" + Math.round(getSkippedFrameRatio() * 100) +
+                "%), last motion score " + mMotionScore + ", invalidated " + mInvalidations + " times";
+    }
+
+    // each thumbnail pixel is the average of 2x2 Y samples spread over its cell of the frame
+    private void computeThumbnail(final byte[] nv21, final int width, final int height, final int[] thumb) {
+        final int cellWidth = width / mThumbWidth;
+        final int cellHeight = height / mThumbHeight;
+        final int dx = Math.max(1, cellWidth / 2);
+        final int dy = Math.max(1, cellHeight / 2) * width;
+        int idx = 0;
+        for (int ty = 0; ty < mThumbHeight; ty++) {
+            int row = (ty * height / mThumbHeight + cellHeight / 4) * width;
+            if (row + dy >= width * height)
+                row = (height - 1) * width - dy;
+            for (int tx = 0; tx < mThumbWidth; tx++) {
+                int p = row + Math.min(tx * width / mThumbWidth + cellWidth / 4, width - 1 - dx);
+                thumb[idx++] = ((nv21[p] & 0xFF) + (nv21[p + dx] & 0xFF) + (nv21[p + dy] & 0xFF) + (nv21[p + dy + dx] & 0xFF)) >> 2;
+            }
+        }
+    }
+
+    private float maxBlockMeanAbsDiff(final int[] a, final int[] b) {
+        final int blockSize = mBlockSize;
+        int maxSad = 0;
+        for (int by = 0; by + blockSize <= mThumbHeight; by += blockSize) {
+            for (int bx = 0; bx + blockSize <= mThumbWidth; bx += blockSize) {
+                int sad = 0;
+                for (int y = by; y < by + blockSize; y++) {
+                    int i = y * mThumbWidth + bx;
+                    for (int x = 0; x < blockSize; x++, i++)
+                        sad += Math.abs(a[i] - b[i]);
+                }
+                if (sad > maxSad)
+                    maxSad = sad;
+            }
+        }
+        return (float) maxSad / (blockSize * blockSize);
+    }
+}
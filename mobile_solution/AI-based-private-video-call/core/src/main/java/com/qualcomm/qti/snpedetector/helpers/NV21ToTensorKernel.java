@@ -0,0 +1,245 @@
+package com.qualcomm.qti.snpedetector.helpers;
+
+import com.qualcomm.qti.snpedetector.Roi;
+
+/**
+ * Fused NV21 -> normalized BGR(-1..1) float tensor, in a single pass over the model input grid.
+ * The normalization and the channel order can be changed for other models (setNormalization()).
+ * <p>
+ * It replaces: NV21 -> RGBA Bitmap (preview size), Canvas roto-scaling into the model input
+ * Bitmap (letterboxed, bilinear-filtered), and RGBA -> BGR float normalization. Only the NV21
+ * samples that are needed for the model input are ever read.
+ * <p>
+ * The geometry matches the Matrix of the Canvas path: scale to fit (centerInside), center with
+ * black bands, then rotate around the center of the input by -rotation degrees. The color
+ * conversion uses the same integer BT.601 coefficients as RenderScript's YuvToRGB intrinsic.
+ * <p>
+ * With a Roi, only that region of the (letterboxed) model input is produced, stretched to the
+ * whole input: the crop is folded into the same inverse mapping, so it costs nothing more.
+ */
+public final class NV21ToTensorKernel {
+    // bilinear weights have 8 fractional bits
+    private static final int FRAC_BITS = 8;
+    private static final int FRAC_ONE = 1 << FRAC_BITS;
+    private static final int HALF = 1 << (FRAC_BITS - 1);
+
+    private int mPreviewWidth;
+    private int mPreviewHeight;
+    private int mRotationDegrees;
+    private boolean mMirror;
+    private int mInputWidth;
+    private int mInputHeight;
+    private final Roi mRoi = new Roi();
+    // float = pixel * mScale + mOffset, in BGR or RGB order
+    private float mMean = 127.5f;
+    private float mScale = RgbaToFloatHelper.INPUT_SCALE;
+    private float mOffset = -1;
+    private boolean mBgr = true;
+
+    // inverse mapping: (input pixel center) -> (preview coordinates)
+    private float mA00, mA01, mA10, mA11, mB0, mB1;
+
+    /**
+     * @param rotationDegrees counter-rotation applied to the preview (multiple of 90 for cameras)
+     * @param mirror          flip the result horizontally, after the rotation
+     */
+    public void configure(int previewWidth, int previewHeight, int rotationDegrees, boolean mirror,
+                          int inputWidth, int inputHeight) {
+        configure(previewWidth, previewHeight, rotationDegrees, mirror, inputWidth, inputHeight, null);
+    }
+
+    /**
+     * @param roiOrNull region of the full-frame model input to produce instead (null: all of it)
+     */
+    public void configure(int previewWidth, int previewHeight, int rotationDegrees, boolean mirror,
+                          int inputWidth, int inputHeight, Roi roiOrNull) {
+        if (roiOrNull != null)
+            roiOrNull.copyTo(mRoi);
+        else
+            mRoi.setFullFrame();
+        mPreviewWidth = previewWidth;
+        mPreviewHeight = previewHeight;
+        mRotationDegrees = rotationDegrees;
+        mMirror = mirror;
+        mInputWidth = inputWidth;
+        mInputHeight = inputHeight;
+
+        // forward: dst = R(-rot) * (scale * src + d/2 - c) + c, then optionally mirrored
+        final float scale = Math.min((float) inputWidth / previewWidth, (float) inputHeight / previewHeight);
+        final float dx = (inputWidth - previewWidth * scale) / 2;
+        final float dy = (inputHeight - previewHeight * scale) / 2;
+        final float cx = inputWidth / 2;
+        final float cy = inputHeight / 2;
+
+        // inverse rotation: R(+rot)
+        float cos, sin;
+        switch (((rotationDegrees % 360) + 360) % 360) {
+            case 0: cos = 1; sin = 0; break;
+            case 90: cos = 0; sin = 1; break;
+            case 180: cos = -1; sin = 0; break;
+            case 270: cos = 0; sin = -1; break;
+            default:
+                cos = (float) Math.cos(Math.toRadians(rotationDegrees));
+                sin = (float) Math.sin(Math.toRadians(rotationDegrees));
+                break;
+        }
+
+        // src = (R(rot) * (dst' - c) + c - d/2) / scale, with dst' = mirror ? (W - x, y) : (x, y)
+        final float m = mirror ? -1 : 1;
+        final float mx = mirror ? inputWidth : 0;
+        mA00 = m * cos / scale;
+        mA01 = -sin / scale;
+        mA10 = m * sin / scale;
+        mA11 = cos / scale;
+        mB0 = (cos * (mx - cx) + sin * cy + cx - dx) / scale;
+        mB1 = (sin * (mx - cx) - cos * cy + cy - dy) / scale;
+
+        // crop: (crop input pixel) -> (full input pixel) = (roi.left * W + x * roi.width, ...)
+        if (!mRoi.isFullFrame()) {
+            final float rw = mRoi.width();
+            final float rh = mRoi.height();
+            final float x0 = mRoi.left * inputWidth;
+            final float y0 = mRoi.top * inputHeight;
+            mB0 += mA00 * x0 + mA01 * y0;
+            mB1 += mA10 * x0 + mA11 * y0;
+            mA00 *= rw;
+            mA10 *= rw;
+            mA01 *= rh;
+            mA11 *= rh;
+        }
+    }
+
+    public boolean isConfiguredFor(int previewWidth, int previewHeight, int rotationDegrees, boolean mirror,
+                                   int inputWidth, int inputHeight) {
+        return mPreviewWidth == previewWidth && mPreviewHeight == previewHeight &&
+                mRotationDegrees == rotationDegrees && mMirror == mirror &&
+                mInputWidth == inputWidth && mInputHeight == inputHeight && mRoi.isFullFrame();
+    }
+
+    public boolean isConfiguredFor(int previewWidth, int previewHeight, int rotationDegrees, boolean mirror,
+                                   int inputWidth, int inputHeight, Roi roi) {
+        return mPreviewWidth == previewWidth && mPreviewHeight == previewHeight &&
+                mRotationDegrees == rotationDegrees && mMirror == mirror &&
+                mInputWidth == inputWidth && mInputHeight == inputHeight &&
+                mRoi.left == roi.left && mRoi.top == roi.top && mRoi.right == roi.right && mRoi.bottom == roi.bottom;
+    }
+
+    /**
+     * The floats become (pixel - mean) * scale, in BGR or RGB order. Default: BGR, -1..1.
+     */
+    public void setNormalization(float mean, float scale, boolean bgr) {
+        mMean = mean;
+        mScale = scale;
+        mOffset = -mean * scale;
+        mBgr = bgr;
+    }
+
+    public boolean isNormalizedAs(float mean, float scale, boolean bgr) {
+        return mMean == mean && mScale == scale && mBgr == bgr;
+    }
+
+    public int getInputWidth() {
+        return mInputWidth;
+    }
+
+    public int getInputHeight() {
+        return mInputHeight;
+    }
+
+    /**
+     * Converts an NV21 frame into the model input, as BGR(-1..1) floats (HWC), and optionally
+     * also as ARGB ints (for consumers that still need a picture of the model input). The floats
+     * may be null too, e.g. for just the full-frame picture when the model is given a crop.
+     *
+     * @return the sum of the Green channel (0..255 each), for the black-frame check
+     */
+    public long convert(final byte[] nv21, final float[] outputFloatsHW3, final int[] outputArgbOrNull) {
+        return convertRows(nv21, outputFloatsHW3, outputArgbOrNull, 0, mInputHeight);
+    }
+
+    /**
+     * Same as above, but only for the model input rows [beginRow, endRow) - e.g. a stripe.
+     */
+    public long convertRows(final byte[] nv21, final float[] outputFloatsHW3, final int[] outputArgbOrNull,
+                            final int beginRow, final int endRow) {
+        final int width = mPreviewWidth;
+        final int height = mPreviewHeight;
+        final int uvOffset = width * height;
+        final float scale = mScale;
+        final float offset = mOffset;
+        final boolean bgr = mBgr;
+        long sumG = 0;
+        int dstIdx = beginRow * mInputWidth * 3, argbIdx = beginRow * mInputWidth;
+        for (int oy = beginRow; oy < endRow; oy++) {
+            // preview coordinates of the center of the first pixel in this row
+            float sx = mA00 * 0.5f + mA01 * (oy + 0.5f) + mB0;
+            float sy = mA10 * 0.5f + mA11 * (oy + 0.5f) + mB1;
+            for (int ox = 0; ox < mInputWidth; ox++, sx += mA00, sy += mA10) {
+                int r = 0, g = 0, b = 0;
+                if (sx >= 0 && sy >= 0 && sx < width && sy < height) {
+                    // bilinear between the 4 nearest preview pixels (clamped to the edges)
+                    final float fx = sx - 0.5f;
+                    final float fy = sy - 0.5f;
+                    // floor, knowing that fx, fy >= -0.5
+                    final int x0f = (int) (fx + 1) - 1;
+                    final int y0f = (int) (fy + 1) - 1;
+                    final int wx = (int) ((fx - x0f) * FRAC_ONE);
+                    final int wy = (int) ((fy - y0f) * FRAC_ONE);
+                    final int x0 = x0f < 0 ? 0 : x0f;
+                    final int y0 = y0f < 0 ? 0 : y0f;
+                    final int x1 = x0f + 1 >= width ? width - 1 : x0f + 1;
+                    final int y1 = y0f + 1 >= height ? height - 1 : y0f + 1;
+                    final int w00 = (FRAC_ONE - wx) * (FRAC_ONE - wy);
+                    final int w01 = wx * (FRAC_ONE - wy);
+                    final int w10 = (FRAC_ONE - wx) * wy;
+                    final int w11 = wx * wy;
+                    // interpolate Y, V and U (chroma is shared by 2x2 luma samples), then convert once
+                    final int vu00 = uvOffset + (y0 >> 1) * width + (x0 & ~1);
+                    final int vu01 = uvOffset + (y0 >> 1) * width + (x1 & ~1);
+                    final int vu10 = uvOffset + (y1 >> 1) * width + (x0 & ~1);
+                    final int vu11 = uvOffset + (y1 >> 1) * width + (x1 & ~1);
+                    final int lumaF = ((nv21[y0 * width + x0] & 0xFF) * w00 + (nv21[y0 * width + x1] & 0xFF) * w01 +
+                            (nv21[y1 * width + x0] & 0xFF) * w10 + (nv21[y1 * width + x1] & 0xFF) * w11 + HALF) >> FRAC_BITS;
+                    final int vF = ((nv21[vu00] & 0xFF) * w00 + (nv21[vu01] & 0xFF) * w01 +
+                            (nv21[vu10] & 0xFF) * w10 + (nv21[vu11] & 0xFF) * w11 + HALF) >> FRAC_BITS;
+                    final int uF = ((nv21[vu00 + 1] & 0xFF) * w00 + (nv21[vu01 + 1] & 0xFF) * w01 +
+                            (nv21[vu10 + 1] & 0xFF) * w10 + (nv21[vu11 + 1] & 0xFF) * w11 + HALF) >> FRAC_BITS;
+                    // same as yuvToRgb, with FRAC_BITS more bits of precision
+                    final int yy = lumaF - (16 << FRAC_BITS);
+                    final int vv = vF - (128 << FRAC_BITS);
+                    final int uu = uF - (128 << FRAC_BITS);
+                    r = clamp255((yy * 298 + vv * 409 + (128 << FRAC_BITS)) >> (8 + FRAC_BITS));
+                    g = clamp255((yy * 298 - uu * 100 - vv * 208 + (128 << FRAC_BITS)) >> (8 + FRAC_BITS));
+                    b = clamp255((yy * 298 + uu * 516 + (128 << FRAC_BITS)) >> (8 + FRAC_BITS));
+                }
+                if (outputFloatsHW3 != null) {
+                    outputFloatsHW3[dstIdx] = scale * (float) (bgr ? b : r) + offset;
+                    outputFloatsHW3[dstIdx + 1] = scale * (float) g + offset;
+                    outputFloatsHW3[dstIdx + 2] = scale * (float) (bgr ? r : b) + offset;
+                }
+                dstIdx += 3;
+                if (outputArgbOrNull != null)
+                    outputArgbOrNull[argbIdx++] = 0xFF000000 | (r << 16) | (g << 8) | b;
+                sumG += g;
+            }
+        }
+        return sumG;
+    }
+
+    /**
+     * Same integer math as RenderScript's rsYuvToRGBA_uchar4 (BT.601, video range), as 0xRRGGBB.
+     */
+    public static int yuvToRgb(final byte[] nv21, final int yIdx, final int vuIdx) {
+        final int y = (nv21[yIdx] & 0xFF) - 16;
+        final int v = (nv21[vuIdx] & 0xFF) - 128;
+        final int u = (nv21[vuIdx + 1] & 0xFF) - 128;
+        final int r = clamp255((y * 298 + v * 409 + 128) >> 8);
+        final int g = clamp255((y * 298 - u * 100 - v * 208 + 128) >> 8);
+        final int b = clamp255((y * 298 + u * 516 + 128) >> 8);
+        return (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp255(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,49 @@
+package com.qualcomm.qti.snpedetector.helpers;
+
+/**
+ * Pure-Java pixel math for the model input: RGBA(0..255) bytes -> BGR(-1..1) floats.
+ * No Android dependencies, so it can be benchmarked on a desktop JVM.
+ */
+public final class RgbaToFloatHelper {
+    // 2/255, to map 0..255 to 0..2 (and then -1..1)
+    public static final float INPUT_SCALE = 0.00784313771874f;
+    // the buffer is black if on average Green < 13/255 (aka: 5%)
+    public static final int BLACK_GREEN_THRESHOLD = 13;
+
+    private RgbaToFloatHelper() {
+    }
+
+    /**
+     * Converts 'area' RGBA pixels to normalized BGR floats, and returns the sum of the Green
+     * channel (0..255 each), for the black-frame check.
+     */
+    public static long rgbaToNormalFloatsBGR(final byte[] inputArrayHW4, final float[] outputFloatsHW3, final int area) {
+        return rgbaToNormalFloatsBGR(inputArrayHW4, outputFloatsHW3, 0, area);
+    }
+
+    /**
+     * Same as above, but only for the pixels [beginPixel, endPixel) - e.g. a stripe of rows.
+     */
+    public static long rgbaToNormalFloatsBGR(final byte[] inputArrayHW4, final float[] outputFloatsHW3,
+                                             final int beginPixel, final int endPixel) {
+        long sumG = 0;
+        int srcIdx = beginPixel * 4, dstIdx = beginPixel * 3;
+        for (int i = beginPixel; i < endPixel; i++) {
+            // NOTE: the 0xFF a "cast" to unsigned int (otherwise it will be negative numbers for bright colors)
+            final int pixelR = inputArrayHW4[srcIdx] & 0xFF;
+            final int pixelG = inputArrayHW4[srcIdx + 1] & 0xFF;
+            final int pixelB = inputArrayHW4[srcIdx + 2] & 0xFF;
+            outputFloatsHW3[dstIdx] = INPUT_SCALE * (float) pixelB - 1;
+            outputFloatsHW3[dstIdx + 1] = INPUT_SCALE * (float) pixelG - 1;
+            outputFloatsHW3[dstIdx + 2] = INPUT_SCALE * (float) pixelR - 1;
+            srcIdx += 4;
+            dstIdx += 3;
+            sumG += pixelG;
+        }
+        return sumG;
+    }
+
+    public static boolean isBlack(long sumG, int area) {
+        return sumG < ((long) area * BLACK_GREEN_THRESHOLD);
+    }
+}
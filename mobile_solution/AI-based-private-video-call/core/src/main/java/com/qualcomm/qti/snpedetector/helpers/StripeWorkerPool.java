@@ -0,0 +1,108 @@
+package com.qualcomm.qti.snpedetector.helpers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed pool of pre-started threads, to run a per-frame kernel over N stripes of an image.
+ * <p>
+ * The calling thread runs stripe 0 and the workers run stripes 1..N-1; run() returns when all
+ * of them are done. Nothing is allocated per call: the workers are woken up with park/unpark
+ * and the same StripeTask object can be reused for every frame.
+ * <p>
+ * run() is meant to be called from a single thread (e.g. the camera frame processor).
+ */
+public final class StripeWorkerPool {
+
+    public interface StripeTask {
+        // process the part of the work that belongs to 'stripe' (0..stripeCount-1)
+        void runStripe(int stripe, int stripeCount);
+    }
+
+    private final int mStripeCount;
+    private final Thread[] mWorkers;
+    private final AtomicInteger mPending = new AtomicInteger();
+    private volatile int mGeneration;
+    private volatile StripeTask mTask;
+    private volatile Thread mCaller;
+    private volatile RuntimeException mFailure;
+    private volatile boolean mShutdown;
+
+    public StripeWorkerPool(int stripeCount) {
+        if (stripeCount < 1)
+            throw new IllegalArgumentException("stripeCount must be >= 1, was " + stripeCount);
+        mStripeCount = stripeCount;
+        mWorkers = new Thread[stripeCount - 1];
+        for (int i = 0; i < mWorkers.length; i++) {
+            final int stripe = i + 1;
+            mWorkers[i] = new Thread(() -> workerLoop(stripe), "StripeWorker-" + stripe);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    public int getStripeCount() {
+        return mStripeCount;
+    }
+
+    // first row (inclusive) of a stripe, for images of 'rows' rows
+    public static int stripeBegin(int stripe, int stripeCount, int rows) {
+        return (int) ((long) rows * stripe / stripeCount);
+    }
+
+    public void run(StripeTask task) {
+        if (mShutdown)
+            throw new IllegalStateException("StripeWorkerPool was shut down");
+        if (mWorkers.length == 0) {
+            task.runStripe(0, 1);
+            return;
+        }
+
+        // publish the task (the volatile write to mGeneration makes it visible), and wake up the workers
+        mTask = task;
+        mCaller = Thread.currentThread();
+        mFailure = null;
+        mPending.set(mWorkers.length);
+        mGeneration++;
+        for (Thread worker : mWorkers)
+            LockSupport.unpark(worker);
+
+        // do our share, then wait for the others
+        try {
+            task.runStripe(0, mStripeCount);
+        } finally {
+            while (mPending.get() > 0)
+                LockSupport.park(this);
+            mTask = null;
+        }
+        final RuntimeException failure = mFailure;
+        if (failure != null)
+            throw failure;
+    }
+
+    public void shutdown() {
+        mShutdown = true;
+        for (Thread worker : mWorkers)
+            LockSupport.unpark(worker);
+    }
+
+    private void workerLoop(int stripe) {
+        int lastGeneration = 0;
+        while (!mShutdown) {
+            final int generation = mGeneration;
+            if (generation == lastGeneration) {
+                LockSupport.park(this);
+                continue;
+            }
+            lastGeneration = generation;
+            try {
+                mTask.runStripe(stripe, mStripeCount);
+            } catch (RuntimeException e) {
+                mFailure = e;
+            } finally {
+                if (mPending.decrementAndGet() == 0)
+                    LockSupport.unpark(mCaller);
+            }
+        }
+    }
+}
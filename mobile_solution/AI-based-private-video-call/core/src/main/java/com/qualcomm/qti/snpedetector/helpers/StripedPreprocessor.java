@@ -0,0 +1,90 @@
+package com.qualcomm.qti.snpedetector.helpers;
+
+/**
+ * Runs the pre-processing kernels (RGBA -> BGR floats, NV21 -> tensor) over row stripes on a
+ * StripeWorkerPool, and merges the per-stripe Green sums for the black-frame check.
+ * With 1 stripe everything runs on the calling thread, as before.
+ */
+public final class StripedPreprocessor implements StripeWorkerPool.StripeTask {
+    private static final int MODE_RGBA = 1;
+    private static final int MODE_NV21 = 2;
+    // one cache line (8 longs) per stripe sum, so the workers don't write to the same line
+    private static final int SUM_STRIDE = 8;
+
+    private final StripeWorkerPool mPool;
+    private final long[] mStripeSumG;
+
+    // the frame being processed: set before running the stripes, cleared after
+    private int mMode;
+    private byte[] mInputBytes;
+    private float[] mOutputFloatsHW3;
+    private int[] mOutputArgb;
+    private int mWidth;
+    private int mRows;
+    private NV21ToTensorKernel mKernel;
+
+    public StripedPreprocessor(int stripeCount) {
+        mPool = new StripeWorkerPool(stripeCount);
+        mStripeSumG = new long[stripeCount * SUM_STRIDE];
+    }
+
+    public int getStripeCount() {
+        return mPool.getStripeCount();
+    }
+
+    /**
+     * Striped RgbaToFloatHelper.rgbaToNormalFloatsBGR. Returns the sum of the Green channel.
+     */
+    public long rgbaToNormalFloatsBGR(byte[] inputArrayHW4, float[] outputFloatsHW3, int width, int height) {
+        mMode = MODE_RGBA;
+        mInputBytes = inputArrayHW4;
+        mOutputFloatsHW3 = outputFloatsHW3;
+        mWidth = width;
+        mRows = height;
+        return runStripes();
+    }
+
+    /**
+     * Striped NV21ToTensorKernel.convert (the kernel must be configured). Returns the sum of the Green channel.
+     */
+    public long nv21ToTensor(NV21ToTensorKernel kernel, byte[] nv21, float[] outputFloatsHW3, int[] outputArgbOrNull) {
+        mMode = MODE_NV21;
+        mKernel = kernel;
+        mInputBytes = nv21;
+        mOutputFloatsHW3 = outputFloatsHW3;
+        mOutputArgb = outputArgbOrNull;
+        mRows = kernel.getInputHeight();
+        return runStripes();
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    private long runStripes() {
+        try {
+            mPool.run(this);
+        } finally {
+            mInputBytes = null;
+            mOutputFloatsHW3 = null;
+            mOutputArgb = null;
+            mKernel = null;
+        }
+        long sumG = 0;
+        for (int i = 0; i < mPool.getStripeCount(); i++)
+            sumG += mStripeSumG[i * SUM_STRIDE];
+        return sumG;
+    }
+
+    @Override
+    public void runStripe(int stripe, int stripeCount) {
+        final int beginRow = StripeWorkerPool.stripeBegin(stripe, stripeCount, mRows);
+        final int endRow = StripeWorkerPool.stripeBegin(stripe + 1, stripeCount, mRows);
+        final long sumG;
+        if (mMode == MODE_RGBA)
+            sumG = RgbaToFloatHelper.rgbaToNormalFloatsBGR(mInputBytes, mOutputFloatsHW3, beginRow * mWidth, endRow * mWidth);
+        else
+            sumG = mKernel.convertRows(mInputBytes, mOutputFloatsHW3, mOutputArgb, beginRow, endRow);
+        mStripeSumG[stripe * SUM_STRIDE] = sumG;
+    }
+}
@@ -1,12 +1,9 @@
 package com.qualcomm.qti.snpedetector.helpers;
 
-import android.util.ArrayMap;
-import android.util.Log;
-
-import com.qualcomm.qti.snpedetector.MainActivity;
-
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Logger;
 
 /*
   This class is only averaging out the time between calls to estimate average durations and fps.
@@ -19,11 +16,15 @@ import java.util.Map;
   Or use it like the following to get the frequency of a call:
      timeStat.tick("fps", 30);
      float fps = timeStat.getAverageTickFrequency("fps");
+
+  It has no Android dependencies, so it can be benchmarked on a desktop JVM; messages go through
+  java.util.logging, which Android forwards to logcat.
  */
 public class TimeStat {
     private static final boolean ALSO_LOG_FPS = false;
+    private static final Logger LOGGER = Logger.getLogger("SNPEDetector");
 
-    private Map<String, ArrayList<Long>> mDurationsAndTicksMap = new ArrayMap<>();
+    private Map<String, ArrayList<Long>> mDurationsAndTicksMap = new HashMap<>();
     private long mLastBegin;
 
     public void startInterval() {
@@ -31,18 +32,22 @@ public class TimeStat {
     }
 
     public void stopInterval(String label, int entries, boolean printMessage) {
-        final long duration = System.currentTimeMillis() - mLastBegin;
+        addInterval(label, System.currentTimeMillis() - mLastBegin, entries);
+        if (printMessage) {
+            final float avgDurationMs = getAverageInterval(label);
+            final int avgFps = (int) Math.round(1000. / Math.max(0.1, avgDurationMs));
+            LOGGER.info(label + ": " + avgDurationMs + (ALSO_LOG_FPS ? " (max fps: " + avgFps + ")" : ""));
+        }
+    }
+
+    // for durations measured elsewhere (e.g. from the capture time of a frame)
+    public void addInterval(String label, long durationMs, int entries) {
         if (!mDurationsAndTicksMap.containsKey(label))
             mDurationsAndTicksMap.put(label, new ArrayList<>());
         final ArrayList<Long> intervals = mDurationsAndTicksMap.get(label);
-        intervals.add(duration);
+        intervals.add(durationMs);
         while (intervals.size() > entries)
             intervals.remove(0);
-        if (printMessage) {
-            final float avgDurationMs = getAverageInterval(label);
-            final int avgFps = (int) Math.round(1000. / Math.max(0.1, avgDurationMs));
-            Log.d(MainActivity.LOGTAG, label + ": " + avgDurationMs + (ALSO_LOG_FPS ? " (max fps: " + avgFps + ")" : ""));
-        }
     }
 
     public float getAverageInterval(String label) {
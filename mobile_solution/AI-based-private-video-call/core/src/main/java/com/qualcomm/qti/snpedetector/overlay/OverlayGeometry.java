@@ -0,0 +1,159 @@
+package com.qualcomm.qti.snpedetector.overlay;
+
+import com.qualcomm.qti.snpedetector.pipeline.BoxSnapshot;
+
+/**
+ * The boxes of the overlay in view pixels, as drawn, and what changed since: the boxes of a
+ * snapshot are mapped to the view, and replace the drawn ones only where an edge moved by more
+ * than 'epsilon' pixels (or when boxes came or went). Otherwise the view isn't redrawn at all.
+ * <p>
+ * Flat arrays, grown to the largest count seen: update() doesn't allocate after that. No Android
+ * dependencies. Not thread-safe.
+ */
+public final class OverlayGeometry {
+    public static final float DEFAULT_EPSILON_PX = 0.5f;
+
+    private final float mEpsilon;
+
+    // the view, and the square of the model input on it (centered)
+    private int mViewWidth;
+    private int mViewHeight;
+    private int mVirtualSize;
+    private boolean mLandscape;
+    private boolean mViewChanged;
+
+    // left, top, right, bottom (sorted), 4 per box: the drawn boxes, and the next ones
+    private float[] mRects = new float[0];
+    private float[] mNextRects = new float[0];
+    private int mCount;
+    private long mAllocations;
+
+    public OverlayGeometry() {
+        this(DEFAULT_EPSILON_PX);
+    }
+
+    public OverlayGeometry(float epsilonPx) {
+        if (epsilonPx < 0)
+            throw new IllegalArgumentException("epsilon must be >= 0, was " + epsilonPx);
+        mEpsilon = epsilonPx;
+    }
+
+    /**
+     * The view, with the square of 'virtualSize' pixels the model input is stretched on (centered
+     * on the view; landscape: the front camera turned). If it changed, the next update() changes
+     * all the boxes.
+     */
+    public void setView(int viewWidth, int viewHeight, int virtualSize, boolean landscape) {
+        if (viewWidth == mViewWidth && viewHeight == mViewHeight && virtualSize == mVirtualSize && landscape == mLandscape)
+            return;
+        mViewWidth = viewWidth;
+        mViewHeight = viewHeight;
+        mVirtualSize = virtualSize;
+        mLandscape = landscape;
+        mViewChanged = true;
+    }
+
+    /**
+     * The boxes of 'snapshot' of at least 'scoreThreshold', moved by their velocities for 'dt'
+     * seconds. Returns true if they differ from the drawn ones: they're drawn from now on (see
+     * getRects()). Returns false, changing nothing, if not.
+     */
+    public boolean update(BoxSnapshot snapshot, float dt, float scoreThreshold) {
+        final int capacity = snapshot.count * 4;
+        if (mNextRects.length < capacity) {
+            mNextRects = new float[capacity];
+            final float[] rects = new float[capacity];
+            System.arraycopy(mRects, 0, rects, 0, mCount * 4);
+            mRects = rects;
+            mAllocations += 2;
+        }
+
+        // [px] the boxes on the view, at the display time
+        final float[] next = mNextRects;
+        final float dx = (mVirtualSize - mViewWidth) / 2;
+        final float dy = (mVirtualSize - mViewHeight) / 2;
+        final float size = mVirtualSize;
+        final float[] velocities = snapshot.velocities;
+        int count = 0;
+        for (int i = 0; i < snapshot.count; i++) {
+            if (snapshot.scores[i] < scoreThreshold)
+                continue;
+            float left = snapshot.left[i], top = snapshot.top[i], right = snapshot.right[i], bottom = snapshot.bottom[i];
+            if (snapshot.moving) {
+                left += velocities[i * 4] * dt;
+                top += velocities[i * 4 + 1] * dt;
+                right += velocities[i * 4 + 2] * dt;
+                bottom += velocities[i * 4 + 3] * dt;
+            }
+            final float x0, y0, x1, y1;
+            if (mLandscape) {
+                x0 = mViewWidth + dx - size * top;
+                y0 = mViewHeight + dy - size * left;
+                x1 = mViewWidth + dx - size * bottom;
+                y1 = mViewHeight + dy - size * right;
+            } else {
+                x0 = mViewWidth + dx - size * left;
+                y0 = size * top - dy;
+                x1 = mViewWidth + dx - size * right;
+                y1 = size * bottom - dy;
+            }
+            final int k = count++ * 4;
+            next[k] = x0 < x1 ? x0 : x1;
+            next[k + 1] = y0 < y1 ? y0 : y1;
+            next[k + 2] = x0 < x1 ? x1 : x0;
+            next[k + 3] = y0 < y1 ? y1 : y0;
+        }
+
+        // what moved: the boxes that changed (all of them if the count or the view did)
+        final boolean all = count != mCount || mViewChanged;
+        final float[] drawn = mRects;
+        boolean changed = false;
+        for (int k = 0; k < count * 4; k += 4) {
+            if (all || moved(drawn, next, k)) {
+                changed = true;
+            } else {
+                // within the epsilon: drawn as before, exactly
+                next[k] = drawn[k];
+                next[k + 1] = drawn[k + 1];
+                next[k + 2] = drawn[k + 2];
+                next[k + 3] = drawn[k + 3];
+            }
+        }
+        changed |= all;
+        if (!changed)
+            return false;
+        mNextRects = drawn;
+        mRects = next;
+        mCount = count;
+        mViewChanged = false;
+        return true;
+    }
+
+    // no boxes drawn (e.g. no results): the next boxes are all new
+    public void clear() {
+        mCount = 0;
+    }
+
+    // the drawn boxes: left, top, right, bottom (sorted), 4 per box
+    public float[] getRects() {
+        return mRects;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    // arrays allocated since the construction
+    public long getAllocations() {
+        return mAllocations;
+    }
+
+    private boolean moved(float[] a, float[] b, int k) {
+        return abs(a[k] - b[k]) > mEpsilon || abs(a[k + 1] - b[k + 1]) > mEpsilon
+                || abs(a[k + 2] - b[k + 2]) > mEpsilon || abs(a[k + 3] - b[k + 3]) > mEpsilon;
+    }
+
+    private static float abs(float value) {
+        return value < 0 ? -value : value;
+    }
+}
@@ -0,0 +1,87 @@
+package com.qualcomm.qti.snpedetector.pipeline;
+
+import com.qualcomm.qti.snpedetector.Box;
+
+import java.util.ArrayList;
+
+/**
+ * The boxes published to the overlay for one frame, in flat arrays (no Box objects to copy or
+ * to allocate), with the time of their frame: a slot of a TripleBuffer. The arrays grow to the
+ * largest count seen, and are re-used after.
+ */
+public final class BoxSnapshot {
+    // increasing with every snapshot of a producer, and time (System.nanoTime()) of the frame
+    public long sequence;
+    public long frameTimeNs;
+
+    // false: no results (e.g. a dark frame); the boxes are empty then
+    public boolean hasResults;
+    // the overlay shows a segmentation mask instead of the boxes
+    public boolean hasMask;
+
+    public int count;
+    public float[] left = new float[0];
+    public float[] top = new float[0];
+    public float[] right = new float[0];
+    public float[] bottom = new float[0];
+    public float[] scores = new float[0];
+    public int[] trackIds = new int[0];
+    // velocities of the edges (left, top, right, bottom per second, 4 per box), if 'moving'
+    public float[] velocities = new float[0];
+    public boolean moving;
+
+    /**
+     * Copies the boxes (null: no results), and the velocities of their edges if not null.
+     */
+    public void set(long sequence, long frameTimeNs, ArrayList<Box> boxes, float[] boxVelocities) {
+        this.sequence = sequence;
+        this.frameTimeNs = frameTimeNs;
+        hasResults = boxes != null;
+        hasMask = false;
+        moving = false;
+        count = boxes == null ? 0 : boxes.size();
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            final Box box = boxes.get(i);
+            left[i] = box.left;
+            top[i] = box.top;
+            right[i] = box.right;
+            bottom[i] = box.bottom;
+            scores[i] = box.type_score;
+            trackIds[i] = box.track_id;
+        }
+        if (boxVelocities != null) {
+            for (int i = 0; i < count * 4; i++) {
+                velocities[i] = boxVelocities[i];
+                moving |= boxVelocities[i] != 0;
+            }
+        }
+    }
+
+    // the results are a mask (drawn from elsewhere), not boxes
+    public void setMask(long sequence, long frameTimeNs) {
+        this.sequence = sequence;
+        this.frameTimeNs = frameTimeNs;
+        hasResults = true;
+        hasMask = true;
+        moving = false;
+        count = 0;
+    }
+
+    // how old the frame of the boxes is
+    public long getAgeNs(long nowNs) {
+        return nowNs - frameTimeNs;
+    }
+
+    private void ensureCapacity(int boxes) {
+        if (left.length >= boxes)
+            return;
+        left = new float[boxes];
+        top = new float[boxes];
+        right = new float[boxes];
+        bottom = new float[boxes];
+        scores = new float[boxes];
+        trackIds = new int[boxes];
+        velocities = new float[boxes * 4];
+    }
+}
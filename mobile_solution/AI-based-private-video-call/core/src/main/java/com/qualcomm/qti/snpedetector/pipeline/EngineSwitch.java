@@ -0,0 +1,149 @@
+package com.qualcomm.qti.snpedetector.pipeline;
+
+import com.qualcomm.qti.snpedetector.engine.InferenceEngine;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The current engine of a pipeline, with its input slots (an InputSlotPool per engine), and the
+ * swap to another engine between frames, without stopping the camera.
+ * <p>
+ * post() hands over a new engine, e.g. loaded and warmed up in the background by an
+ * EngineInitializer. The next acquireSlot() (the start of a frame) takes all the slots of the
+ * current engine, i.e. waits for the frames in flight on it, then installs the new engine and
+ * releases the previous one right there: no frame ever runs on half a swap, and the tensors and
+ * the native memory of the previous model are freed at a known point, not by a finalizer.
+ */
+public final class EngineSwitch {
+
+    public interface Listener {
+        // on the thread that switched, once the previous engine is released
+        void onEngineSwitched(InferenceEngine engine);
+    }
+
+    private final AtomicReference<InferenceEngine> mPending = new AtomicReference<>();
+    private volatile InferenceEngine mEngine;
+    private volatile InputSlotPool mSlots;
+    private volatile Listener mListener;
+
+    // the last switch: how long it waited for the frames in flight
+    private volatile float mLastSwitchWaitMs;
+    private volatile int mSwitchCount;
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    // the current engine, or null
+    public InferenceEngine getEngine() {
+        return mEngine;
+    }
+
+    /**
+     * Installs an engine right away. Only when no frame is in flight (e.g. before the first one).
+     */
+    public void install(InferenceEngine engine) {
+        final InferenceEngine pending = mPending.getAndSet(null);
+        if (pending != null && pending != engine)
+            pending.release();
+        switchTo(engine);
+    }
+
+    /**
+     * The engine for the next frames: it is installed at the next acquireSlot() or switchIfPending().
+     * An engine posted before and not installed yet is released.
+     */
+    public void post(InferenceEngine engine) {
+        final InferenceEngine previous = mPending.getAndSet(engine);
+        if (previous != null && previous != engine)
+            previous.release();
+    }
+
+    public boolean hasPending() {
+        return mPending.get() != null;
+    }
+
+    /**
+     * Installs the posted engine, if any: waits for all the slots of the current engine (the
+     * frames in flight), then releases it. Call at the start of a frame, holding no slot.
+     * Returns true if the engine changed.
+     */
+    public boolean switchIfPending() throws InterruptedException {
+        if (mPending.get() == null)
+            return false;
+
+        // [up to an inference] drain: holding all the slots, no frame is in flight on the current engine
+        final long startNs = System.nanoTime();
+        final InputSlotPool slots = mSlots;
+        final int[] held = new int[slots == null ? 0 : slots.getSlotCount()];
+        int heldCount = 0;
+        try {
+            for (; heldCount < held.length; heldCount++)
+                held[heldCount] = slots.acquire();
+        } catch (InterruptedException e) {
+            for (int i = 0; i < heldCount; i++)
+                slots.release(held[i]);
+            throw e;
+        }
+        mLastSwitchWaitMs = (System.nanoTime() - startNs) / 1e6f;
+
+        // the slots of the previous pool are never given back: the pool goes with its engine
+        final InferenceEngine next = mPending.getAndSet(null);
+        if (next == null) {
+            for (int i = 0; i < heldCount; i++)
+                slots.release(held[i]);
+            return false;
+        }
+        switchTo(next);
+        return true;
+    }
+
+    /**
+     * Waits for a free input slot of the current engine, after switching to a posted engine.
+     */
+    public int acquireSlot() throws InterruptedException {
+        switchIfPending();
+        final InputSlotPool slots = mSlots;
+        if (slots == null)
+            throw new IllegalStateException("no engine");
+        return slots.acquire();
+    }
+
+    public void releaseSlot(int slot) {
+        mSlots.release(slot);
+    }
+
+    public float getLastSwitchWaitMs() {
+        return mLastSwitchWaitMs;
+    }
+
+    public int getSwitchCount() {
+        return mSwitchCount;
+    }
+
+    /**
+     * Releases the current and the posted engines. Only when no frame is in flight.
+     */
+    public void release() {
+        final InferenceEngine pending = mPending.getAndSet(null);
+        if (pending != null)
+            pending.release();
+        switchTo(null);
+    }
+
+    private void switchTo(InferenceEngine engine) {
+        final InferenceEngine previous;
+        synchronized (this) {
+            previous = mEngine;
+            mSlots = engine == null ? null : new InputSlotPool(engine.getInputSlotCount());
+            mEngine = engine;
+            if (engine != null)
+                mSwitchCount++;
+        }
+        if (previous != null && previous != engine)
+            previous.release();
+        final Listener listener = mListener;
+        if (listener != null && engine != null)
+            listener.onEngineSwitched(engine);
+    }
+}
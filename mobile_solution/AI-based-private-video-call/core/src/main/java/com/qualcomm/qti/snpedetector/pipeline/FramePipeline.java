@@ -0,0 +1,243 @@
+package com.qualcomm.qti.snpedetector.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Staged, asynchronous frame pipeline:
+ * <pre>
+ *   submit() [camera thread: intake]
+ *     -> mailbox -> pre-processing thread
+ *     -> mailbox -> inference thread
+ *     -> mailbox -> post-processing (tracking, publishing) thread
+ * </pre>
+ * The mailboxes hold a single frame and the newest frame always wins, so a slow stage drops
+ * stale frames instead of queueing them, and the camera thread never waits for the inference.
+ * <p>
+ * Intake copies the camera bytes into a pooled PipelineFrame (the camera re-uses its buffers once
+ * the callback returns). When no pooled frame is free the incoming frame is dropped. Frames are
+ * recycled after the last stage, so there are no per-frame allocations in the steady state.
+ * <p>
+ * At most 'framesInFlight' frames are between the start of the pre-processing and the end of
+ * the inference. With 1 (latency mode) the pre-processing waits for the inference to be over
+ * before taking the newest frame. With more (throughput mode) it runs ahead, and the mailboxes
+ * after it keep that many frames (in order) instead of one.
+ */
+public final class FramePipeline {
+    private static final Logger LOGGER = Logger.getLogger("SNPEDetector");
+    private static final long TAKE_TIMEOUT_MS = 100;
+    private static final int STAGE_PREPROCESS = 0;
+    private static final int STAGE_INFERENCE = 1;
+
+    public interface Stage {
+        /**
+         * Processes the frame in place.
+         *
+         * @return false to drop the frame (it will not reach the following stages)
+         */
+        boolean process(PipelineFrame frame);
+    }
+
+    public interface ReleaseListener {
+        // called (from any pipeline thread) when a frame goes back to the pool, e.g. to free its resources
+        void onFrameReleased(PipelineFrame frame);
+    }
+
+    private final Stage[] mStages;
+    private final String[] mStageNames;
+    // mMailboxes[i] feeds mStages[i]
+    private final LatestFrameMailbox[] mMailboxes;
+    private final ArrayBlockingQueue<PipelineFrame> mFreeFrames;
+    private final Thread[] mThreads;
+    private final int mFramesInFlight;
+    private final Semaphore mInFlightPermits;
+    private ReleaseListener mReleaseListener;
+    private volatile boolean mRunning;
+    // intake thread only
+    private long mSequence;
+    // written by the intake thread, read from any thread
+    private volatile long mIntakeDrops;
+
+    public FramePipeline(Stage preprocessing, Stage inference, Stage postprocessing) {
+        this(preprocessing, inference, postprocessing, 1);
+    }
+
+    /**
+     * @param framesInFlight frames that can be between the pre-processing and the tracking:
+     *                       1 for the lowest latency, 2+ for the highest throughput
+     */
+    public FramePipeline(Stage preprocessing, Stage inference, Stage postprocessing, int framesInFlight) {
+        if (framesInFlight < 1)
+            throw new IllegalArgumentException("framesInFlight must be >= 1, was " + framesInFlight);
+        mFramesInFlight = framesInFlight;
+        mInFlightPermits = new Semaphore(framesInFlight);
+        mStages = new Stage[]{preprocessing, inference, postprocessing};
+        mStageNames = new String[]{"preprocess", "inference", "postprocess"};
+        mMailboxes = new LatestFrameMailbox[mStages.length];
+        // only the newest camera frame is worth pre-processing
+        mMailboxes[0] = new LatestFrameMailbox(mStageNames[0]);
+        for (int i = 1; i < mStages.length; i++)
+            mMailboxes[i] = new LatestFrameMailbox(mStageNames[i], framesInFlight);
+        // enough frames for: the mailboxes full, one in each stage, one being filled by intake
+        int poolSize = mStages.length + 1;
+        for (LatestFrameMailbox mailbox : mMailboxes)
+            poolSize += mailbox.getCapacity();
+        mFreeFrames = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++)
+            mFreeFrames.add(new PipelineFrame());
+        mThreads = new Thread[mStages.length];
+    }
+
+    // set before start()
+    public void setReleaseListener(ReleaseListener listener) {
+        mReleaseListener = listener;
+    }
+
+    public int getFramesInFlight() {
+        return mFramesInFlight;
+    }
+
+    public synchronized void start() {
+        if (mRunning)
+            return;
+        mRunning = true;
+        for (int i = 0; i < mStages.length; i++) {
+            final int stageIndex = i;
+            mThreads[i] = new Thread(() -> stageLoop(stageIndex), "Pipeline-" + mStageNames[i]);
+            mThreads[i].start();
+        }
+    }
+
+    /**
+     * Stops the stage threads (waiting for them), and recycles the frames in flight.
+     */
+    public synchronized void stop() {
+        if (!mRunning)
+            return;
+        mRunning = false;
+        for (Thread thread : mThreads)
+            thread.interrupt();
+        for (Thread thread : mThreads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (LatestFrameMailbox mailbox : mMailboxes) {
+            PipelineFrame frame;
+            while ((frame = mailbox.poll()) != null)
+                recycle(frame);
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Intake: copies the frame into the pipeline. Never blocks; call from a single thread.
+     *
+     * @return false if the frame was dropped (pipeline stopped, or no free frame)
+     */
+    public boolean submit(byte[] image, int width, int height, int rotation) {
+        if (!mRunning)
+            return false;
+        final PipelineFrame frame = mFreeFrames.poll();
+        if (frame == null) {
+            mIntakeDrops++;
+            return false;
+        }
+        if (frame.image == null || frame.image.length != image.length)
+            frame.image = new byte[image.length];
+        System.arraycopy(image, 0, frame.image, 0, image.length);
+        frame.width = width;
+        frame.height = height;
+        frame.rotation = rotation;
+        frame.reset(mSequence++, System.nanoTime());
+        recycle(mMailboxes[0].put(frame));
+        return true;
+    }
+
+    // frames dropped at intake, because all the pooled frames were in use
+    public long getIntakeDropCount() {
+        return mIntakeDrops;
+    }
+
+    public int getStageCount() {
+        return mStages.length;
+    }
+
+    // the mailbox in front of the stage: drop counts and queue residency times
+    public LatestFrameMailbox getStageMailbox(int stageIndex) {
+        return mMailboxes[stageIndex];
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("intake: dropped ").append(mIntakeDrops);
+        for (LatestFrameMailbox mailbox : mMailboxes)
+            sb.append('\n').append(mailbox);
+        return sb.toString();
+    }
+
+    private void stageLoop(int stageIndex) {
+        final Stage stage = mStages[stageIndex];
+        final LatestFrameMailbox inbox = mMailboxes[stageIndex];
+        final LatestFrameMailbox outbox = stageIndex + 1 < mMailboxes.length ? mMailboxes[stageIndex + 1] : null;
+        final boolean startsFlight = stageIndex == STAGE_PREPROCESS;
+        final boolean endsFlight = stageIndex == STAGE_INFERENCE;
+        boolean holdsPermit = false;
+        while (mRunning) {
+            final PipelineFrame frame;
+            try {
+                // wait for a place in flight before taking the frame, so it's the newest one
+                if (startsFlight && !holdsPermit) {
+                    mInFlightPermits.acquire();
+                    holdsPermit = true;
+                }
+                frame = inbox.take(TAKE_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (frame == null)
+                continue;
+            if (startsFlight) {
+                frame.inFlight = true;
+                holdsPermit = false;
+            }
+            boolean forward = false;
+            try {
+                forward = stage.process(frame);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Pipeline stage " + mStageNames[stageIndex] + " failed", e);
+            }
+            if (endsFlight)
+                endFlight(frame);
+            if (forward && outbox != null)
+                recycle(outbox.put(frame));
+            else
+                recycle(frame);
+        }
+        if (holdsPermit)
+            mInFlightPermits.release();
+    }
+
+    private void endFlight(PipelineFrame frame) {
+        if (frame.inFlight) {
+            frame.inFlight = false;
+            mInFlightPermits.release();
+        }
+    }
+
+    private void recycle(PipelineFrame frame) {
+        if (frame == null)
+            return;
+        endFlight(frame);
+        if (mReleaseListener != null)
+            mReleaseListener.onFrameReleased(frame);
+        mFreeFrames.offer(frame);
+    }
+}
@@ -0,0 +1,61 @@
+package com.qualcomm.qti.snpedetector.pipeline;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out the indices of a fixed set of buffers (e.g. the input tensors of a network), so that
+ * a frame can be prepared into a free buffer while the others are still in use. The number of
+ * slots is the number of frames in flight: 1 is the latency mode, 2 or more the throughput mode.
+ */
+public final class InputSlotPool {
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mReleased = mLock.newCondition();
+    private final boolean[] mInUse;
+    private int mFree;
+
+    public InputSlotPool(int slotCount) {
+        if (slotCount < 1)
+            throw new IllegalArgumentException("slotCount must be >= 1, was " + slotCount);
+        mInUse = new boolean[slotCount];
+        mFree = slotCount;
+    }
+
+    public int getSlotCount() {
+        return mInUse.length;
+    }
+
+    /**
+     * Waits until a slot is free, and takes it.
+     */
+    public int acquire() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mFree == 0)
+                mReleased.await();
+            for (int slot = 0; slot < mInUse.length; slot++) {
+                if (!mInUse[slot]) {
+                    mInUse[slot] = true;
+                    mFree--;
+                    return slot;
+                }
+            }
+            throw new IllegalStateException("no free slot");
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public void release(int slot) {
+        mLock.lock();
+        try {
+            if (!mInUse[slot])
+                throw new IllegalStateException("slot " + slot + " is not in use");
+            mInUse[slot] = false;
+            mFree++;
+            mReleased.signal();
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
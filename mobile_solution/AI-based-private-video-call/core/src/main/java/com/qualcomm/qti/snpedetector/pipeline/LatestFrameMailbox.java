@@ -0,0 +1,150 @@
+package com.qualcomm.qti.snpedetector.pipeline;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * "Latest wins" hand-off between two pipeline threads. Putting a frame into a full mailbox
+ * replaces the oldest one, which is returned to the caller (for recycling) and counted as
+ * dropped: the consumer always gets the newest frames, in order, and nothing ever queues up.
+ * <p>
+ * The default capacity is a single slot; more slots keep several frames in flight (e.g. the
+ * outputs of a pipelined inference) instead of dropping them.
+ */
+public final class LatestFrameMailbox {
+    private final String mName;
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    // ring of 'capacity' slots, the oldest frame at mHead
+    private final PipelineFrame[] mSlots;
+    private int mHead;
+    private int mCount;
+
+    // metrics, written under the lock; the counts can be read from any thread without it
+    private volatile long mPutCount;
+    private volatile long mDropCount;
+    private long mTakeCount;
+    private long mResidencyNsTotal;
+    private long mResidencyNsMax;
+
+    public LatestFrameMailbox(String name) {
+        this(name, 1);
+    }
+
+    public LatestFrameMailbox(String name, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be >= 1, was " + capacity);
+        mName = name;
+        mSlots = new PipelineFrame[capacity];
+    }
+
+    public int getCapacity() {
+        return mSlots.length;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return the stale frame that was replaced (dropped), or null
+     */
+    public PipelineFrame put(PipelineFrame frame) {
+        frame.enqueueTimeNs = System.nanoTime();
+        mLock.lock();
+        try {
+            PipelineFrame stale = null;
+            if (mCount == mSlots.length) {
+                stale = mSlots[mHead];
+                mSlots[mHead] = null;
+                mHead = (mHead + 1) % mSlots.length;
+                mCount--;
+                mDropCount++;
+            }
+            mSlots[(mHead + mCount) % mSlots.length] = frame;
+            mCount++;
+            mPutCount++;
+            mNotEmpty.signal();
+            return stale;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the oldest frame, for up to 'timeoutMs'. Returns null on timeout.
+     */
+    public PipelineFrame take(long timeoutMs) throws InterruptedException {
+        long remainingNs = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        mLock.lockInterruptibly();
+        try {
+            while (mCount == 0) {
+                if (remainingNs <= 0)
+                    return null;
+                remainingNs = mNotEmpty.awaitNanos(remainingNs);
+            }
+            final PipelineFrame frame = mSlots[mHead];
+            mSlots[mHead] = null;
+            mHead = (mHead + 1) % mSlots.length;
+            mCount--;
+            final long residencyNs = System.nanoTime() - frame.enqueueTimeNs;
+            mTakeCount++;
+            mResidencyNsTotal += residencyNs;
+            if (residencyNs > mResidencyNsMax)
+                mResidencyNsMax = residencyNs;
+            return frame;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // removes the oldest pending frame, if any: call until null to empty the mailbox (used when stopping)
+    public PipelineFrame poll() {
+        mLock.lock();
+        try {
+            if (mCount == 0)
+                return null;
+            final PipelineFrame frame = mSlots[mHead];
+            mSlots[mHead] = null;
+            mHead = (mHead + 1) % mSlots.length;
+            mCount--;
+            return frame;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long getPutCount() {
+        return mPutCount;
+    }
+
+    public long getDropCount() {
+        return mDropCount;
+    }
+
+    // average time a frame waited in this mailbox before being taken
+    public float getAverageResidencyMs() {
+        mLock.lock();
+        try {
+            return mTakeCount == 0 ? 0 : (float) (mResidencyNsTotal / mTakeCount) / 1e6f;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public float getMaxResidencyMs() {
+        mLock.lock();
+        try {
+            return mResidencyNsMax / 1e6f;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mName + ": put " + getPutCount() + ", dropped " + getDropCount() +
+                ", residency avg " + getAverageResidencyMs() + " ms, max " + getMaxResidencyMs() + " ms";
+    }
+}
@@ -0,0 +1,266 @@
+package com.qualcomm.qti.snpedetector.pipeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * Batch (offline) pipeline, where no item may be dropped:
+ * <pre>
+ *   source thread -> queue -> stage 1 (N workers) -> queue -> ... -> sink thread (in order)
+ * </pre>
+ * The queues are bounded, so a slow stage blocks the ones before it instead of buffering the
+ * whole input. Stages with several workers finish items out of order; the sink puts them back
+ * in source order before consuming them.
+ * <p>
+ * run() reports the items/s and, for the source, each stage and the sink, the utilisation:
+ * the fraction of the run its threads spent working rather than waiting on the queues.
+ */
+public final class OrderedBatchPipeline<T> {
+
+    public interface Source<T> {
+        // the next item, or null at the end of the input
+        T next() throws Exception;
+    }
+
+    public interface Stage<T> {
+        void process(T item) throws Exception;
+    }
+
+    public interface Sink<T> {
+        // called from a single thread, in source order
+        void accept(T item) throws Exception;
+    }
+
+    private static final class Envelope<T> {
+        final long sequence;
+        final T item;
+
+        Envelope(long sequence, T item) {
+            this.sequence = sequence;
+            this.item = item;
+        }
+    }
+
+    // marks the end of the input in the queues
+    private static final Envelope<?> END = new Envelope<>(-1, null);
+
+    private final int mQueueCapacity;
+    private final String mSourceName;
+    private final String mSinkName;
+    private final ArrayList<String> mStageNames = new ArrayList<>();
+    private final ArrayList<Integer> mStageWorkers = new ArrayList<>();
+    private final ArrayList<Supplier<Stage<T>>> mStageFactories = new ArrayList<>();
+
+    // results of the last run()
+    private long mItems;
+    private long mWallNs;
+    private String[] mReportNames;
+    private int[] mReportThreads;
+    private long[] mBusyNs;
+
+    private volatile Throwable mFailure;
+
+    public OrderedBatchPipeline(int queueCapacity) {
+        this(queueCapacity, "source", "sink");
+    }
+
+    // the names are only for the report
+    public OrderedBatchPipeline(int queueCapacity, String sourceName, String sinkName) {
+        if (queueCapacity < 1)
+            throw new IllegalArgumentException("queueCapacity must be >= 1, was " + queueCapacity);
+        mQueueCapacity = queueCapacity;
+        mSourceName = sourceName;
+        mSinkName = sinkName;
+    }
+
+    /**
+     * Adds a stage run by 'workers' threads, each with its own Stage from 'factory' (so that
+     * stages holding non thread-safe resources, e.g. a network, get one per thread).
+     */
+    public OrderedBatchPipeline<T> addStage(String name, int workers, Supplier<Stage<T>> factory) {
+        if (workers < 1)
+            throw new IllegalArgumentException("workers must be >= 1, was " + workers);
+        mStageNames.add(name);
+        mStageWorkers.add(workers);
+        mStageFactories.add(factory);
+        return this;
+    }
+
+    /**
+     * Runs the whole input through the stages, and returns the number of items. If any of the
+     * threads fails, everything is stopped and the failure is re-thrown.
+     */
+    @SuppressWarnings("unchecked")
+    public long run(Source<T> source, Sink<T> sink) throws Exception {
+        final int stageCount = mStageNames.size();
+        // queue[i] feeds stage i; queue[stageCount] feeds the sink
+        final ArrayList<BlockingQueue<Envelope<T>>> queues = new ArrayList<>();
+        for (int i = 0; i <= stageCount; i++)
+            queues.add(new ArrayBlockingQueue<>(mQueueCapacity));
+
+        mReportNames = new String[stageCount + 2];
+        mReportThreads = new int[stageCount + 2];
+        mBusyNs = new long[stageCount + 2];
+        mReportNames[0] = mSourceName;
+        mReportThreads[0] = 1;
+        for (int i = 0; i < stageCount; i++) {
+            mReportNames[i + 1] = mStageNames.get(i);
+            mReportThreads[i + 1] = mStageWorkers.get(i);
+        }
+        mReportNames[stageCount + 1] = mSinkName;
+        mReportThreads[stageCount + 1] = 1;
+        mFailure = null;
+        mItems = 0;
+
+        final ArrayList<Thread> threads = new ArrayList<>();
+        final long beginNs = System.nanoTime();
+
+        // source
+        threads.add(new Thread(() -> {
+            final BlockingQueue<Envelope<T>> out = queues.get(0);
+            long busyNs = 0;
+            long sequence = 0;
+            try {
+                while (true) {
+                    final long t0 = System.nanoTime();
+                    final T item = source.next();
+                    busyNs += System.nanoTime() - t0;
+                    if (item == null)
+                        break;
+                    out.put(new Envelope<>(sequence++, item));
+                }
+                out.put((Envelope<T>) END);
+            } catch (Throwable t) {
+                fail(t, threads);
+            }
+            addBusy(0, busyNs);
+        }, "Batch-source"));
+
+        // stages: each worker forwards the END marker, and the last one of a stage passes it on
+        for (int s = 0; s < stageCount; s++) {
+            final int stageIndex = s;
+            final int workers = mStageWorkers.get(s);
+            final int[] workersLeft = {workers};
+            for (int w = 0; w < workers; w++) {
+                final Stage<T> stage = mStageFactories.get(s).get();
+                threads.add(new Thread(() -> {
+                    final BlockingQueue<Envelope<T>> in = queues.get(stageIndex);
+                    final BlockingQueue<Envelope<T>> out = queues.get(stageIndex + 1);
+                    long busyNs = 0;
+                    try {
+                        while (true) {
+                            final Envelope<T> envelope = in.take();
+                            if (envelope == END) {
+                                // let the other workers of this stage see it too
+                                in.put(envelope);
+                                synchronized (workersLeft) {
+                                    if (--workersLeft[0] == 0)
+                                        out.put(envelope);
+                                }
+                                break;
+                            }
+                            final long t0 = System.nanoTime();
+                            stage.process(envelope.item);
+                            busyNs += System.nanoTime() - t0;
+                            out.put(envelope);
+                        }
+                    } catch (Throwable t) {
+                        fail(t, threads);
+                    }
+                    addBusy(stageIndex + 1, busyNs);
+                }, "Batch-" + mStageNames.get(s) + "-" + w));
+            }
+        }
+
+        // sink: re-orders what the multi-worker stages finished out of order
+        threads.add(new Thread(() -> {
+            final BlockingQueue<Envelope<T>> in = queues.get(stageCount);
+            final HashMap<Long, T> early = new HashMap<>();
+            long nextSequence = 0;
+            long busyNs = 0;
+            try {
+                while (true) {
+                    final Envelope<T> envelope = in.take();
+                    if (envelope == END)
+                        break;
+                    early.put(envelope.sequence, envelope.item);
+                    T item;
+                    while ((item = early.remove(nextSequence)) != null) {
+                        final long t0 = System.nanoTime();
+                        sink.accept(item);
+                        busyNs += System.nanoTime() - t0;
+                        nextSequence++;
+                    }
+                }
+            } catch (Throwable t) {
+                fail(t, threads);
+            }
+            mItems = nextSequence;
+            addBusy(stageCount + 1, busyNs);
+        }, "Batch-sink"));
+
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+        mWallNs = System.nanoTime() - beginNs;
+
+        final Throwable failure = mFailure;
+        if (failure instanceof Exception)
+            throw (Exception) failure;
+        if (failure instanceof Error)
+            throw (Error) failure;
+        return mItems;
+    }
+
+    // items per second of the last run()
+    public float getItemsPerSecond() {
+        return mWallNs == 0 ? 0 : mItems * 1e9f / mWallNs;
+    }
+
+    public String getReport() {
+        return getReport("items");
+    }
+
+    /**
+     * Per-stage report of the last run(), e.g.
+     * "120 frames in 4.1 s: 29.3 frames/s | decode 1x 35% | inference 4x 97% | encode 1x 20%"
+     */
+    public String getReport(String itemName) {
+        if (mReportNames == null)
+            return "not run";
+        final StringBuilder sb = new StringBuilder();
+        sb.append(mItems).append(' ').append(itemName).append(" in ").append(round1(mWallNs / 1e9f)).append(" s: ")
+                .append(round1(getItemsPerSecond())).append(' ').append(itemName).append("/s");
+        for (int i = 0; i < mReportNames.length; i++) {
+            final float utilisation = mWallNs == 0 ? 0 : (float) mBusyNs[i] / (mWallNs * (float) mReportThreads[i]);
+            sb.append(" | ").append(mReportNames[i]).append(' ').append(mReportThreads[i]).append("x ")
+                    .append(Math.round(utilisation * 100)).append('%');
+        }
+        return sb.toString();
+    }
+
+    private synchronized void addBusy(int index, long busyNs) {
+        mBusyNs[index] += busyNs;
+    }
+
+    private void fail(Throwable t, ArrayList<Thread> threads) {
+        if (t instanceof InterruptedException && mFailure != null)
+            return;
+        synchronized (this) {
+            if (mFailure != null)
+                return;
+            mFailure = t;
+        }
+        for (Thread thread : threads)
+            if (thread != Thread.currentThread())
+                thread.interrupt();
+    }
+
+    private static float round1(float value) {
+        return Math.round(value * 10f) / 10f;
+    }
+}
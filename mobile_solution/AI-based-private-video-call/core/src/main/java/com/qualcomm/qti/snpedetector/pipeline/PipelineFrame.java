@@ -0,0 +1,70 @@
+package com.qualcomm.qti.snpedetector.pipeline;
+
+import com.qualcomm.qti.snpedetector.Box;
+import com.qualcomm.qti.snpedetector.Roi;
+import com.qualcomm.qti.snpedetector.segmentation.PackedMask;
+
+import java.util.ArrayList;
+
+/**
+ * One camera frame travelling through the FramePipeline, with the buffers that each stage fills.
+ * Frames are pooled and recycled by the pipeline: stages must not keep references to them, or
+ * to their buffers, after process() returns.
+ */
+public final class PipelineFrame {
+    // capture (copied from the camera buffer at intake)
+    public byte[] image;
+    public int width;
+    public int height;
+    public int rotation;
+    public long sequence;
+    public long captureTimeNs;
+
+    // pre-processing output, allocated (and re-used) by the stages as needed
+    public float[] inputFloatsHW3;
+    public int[] inputPixels;
+    // index of the input buffer (e.g. tensor) the frame was prepared into, or -1
+    public int inputSlot = -1;
+    // region of the frame given to the model (see RoiCascade); the boxes are always of the frame
+    public final Roi roi = new Roi();
+
+    // set by a stage to skip the inference: with no results, re-using the previous results, or
+    // moving the tracks of the previous results (see MultiObjectTracker)
+    public boolean needsInference;
+    public boolean reusePreviousResults;
+    public boolean predictTracks;
+    // set by a stage when the frame became the reference of a motion gate, and cleared once its
+    // results are published: a frame released with it still set had its results discarded
+    public boolean motionReference;
+
+    // inference output, valid if hasResults
+    public final ArrayList<Box> boxes = new ArrayList<>();
+    public boolean hasResults;
+    // the foreground of a segmentation model, over the model input, valid if hasMask
+    public final PackedMask mask = new PackedMask();
+    public boolean hasMask;
+
+    // time when the frame entered its current mailbox
+    long enqueueTimeNs;
+    // between the pre-processing and the end of the inference (see FramePipeline)
+    boolean inFlight;
+
+    void reset(long sequence, long captureTimeNs) {
+        this.sequence = sequence;
+        this.captureTimeNs = captureTimeNs;
+        needsInference = true;
+        reusePreviousResults = false;
+        predictTracks = false;
+        motionReference = false;
+        hasResults = false;
+        hasMask = false;
+        roi.setFullFrame();
+    }
+
+    // copies the results (null: no results) into the frame
+    public void setResults(ArrayList<Box> results) {
+        hasResults = results != null;
+        if (results != null)
+            Box.copyBoxes(results, boxes);
+    }
+}
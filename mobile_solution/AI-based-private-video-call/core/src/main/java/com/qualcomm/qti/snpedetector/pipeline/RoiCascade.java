@@ -0,0 +1,110 @@
+package com.qualcomm.qti.snpedetector.pipeline;
+
+import com.qualcomm.qti.snpedetector.Roi;
+import com.qualcomm.qti.snpedetector.engine.DetectionBuffer;
+
+/**
+ * Schedules the region of the frame the model sees: the full frame every N inferences, and in
+ * between a square around the last known subjects, padded, so that they fill the model input.
+ * Letterboxing a 4:3 frame in a square input spends most of the input on the background;
+ * a crop gives the subjects several times the resolution, for the same inference cost.
+ * <p>
+ * It falls back to the full frame as soon as a crop finds nothing (the subject moved out), or
+ * the subjects cover most of the frame anyway. Thread-safe: the region is picked by the
+ * pre-processing, and the results come from the inference.
+ */
+public final class RoiCascade {
+    private final int mFullFrameInterval;
+    private final float mPadding;
+    private final float mMinSize;
+
+    // union of the last subjects, in frame coordinates
+    private boolean mHasSubject;
+    private float mSubjectLeft, mSubjectTop, mSubjectRight, mSubjectBottom;
+    private int mInferencesSinceFullFrame;
+
+    private long mFullFrameCount;
+    private long mCropCount;
+
+    /**
+     * @param fullFrameInterval 1 full frame inference every this many (1: never crop)
+     * @param padding           added on each side of the subjects, relative to their size
+     * @param minSize           the smallest crop, relative to the frame (i.e. the most zoom)
+     */
+    public RoiCascade(int fullFrameInterval, float padding, float minSize) {
+        if (fullFrameInterval < 1)
+            throw new IllegalArgumentException("fullFrameInterval must be >= 1, was " + fullFrameInterval);
+        if (minSize <= 0 || minSize > 1)
+            throw new IllegalArgumentException("minSize must be in (0, 1], was " + minSize);
+        mFullFrameInterval = fullFrameInterval;
+        mPadding = padding;
+        mMinSize = minSize;
+    }
+
+    public int getFullFrameInterval() {
+        return mFullFrameInterval;
+    }
+
+    /**
+     * The region for the next inference, into 'out'. Returns false if it's the full frame.
+     */
+    public synchronized boolean nextRoi(Roi out) {
+        if (!mHasSubject || mInferencesSinceFullFrame + 1 >= mFullFrameInterval || !computeCrop(out)) {
+            out.setFullFrame();
+            mFullFrameCount++;
+            return false;
+        }
+        mCropCount++;
+        return true;
+    }
+
+    /**
+     * The results of an inference on 'roi', already mapped to the frame (Roi.mapToFrame()).
+     */
+    public synchronized void update(Roi roi, DetectionBuffer frameDetections) {
+        mInferencesSinceFullFrame = roi.isFullFrame() ? 0 : mInferencesSinceFullFrame + 1;
+        mHasSubject = frameDetections.count > 0;
+        if (!mHasSubject)
+            return;
+        mSubjectLeft = mSubjectTop = Float.MAX_VALUE;
+        mSubjectRight = mSubjectBottom = -Float.MAX_VALUE;
+        for (int i = 0; i < frameDetections.count; i++) {
+            mSubjectLeft = Math.min(mSubjectLeft, frameDetections.left[i]);
+            mSubjectTop = Math.min(mSubjectTop, frameDetections.top[i]);
+            mSubjectRight = Math.max(mSubjectRight, frameDetections.right[i]);
+            mSubjectBottom = Math.max(mSubjectBottom, frameDetections.bottom[i]);
+        }
+    }
+
+    // frames were skipped, or the pipeline restarted: start again from the full frame
+    public synchronized void reset() {
+        mHasSubject = false;
+        mInferencesSinceFullFrame = 0;
+    }
+
+    /**
+     * Square (in the model input: the frame coordinates are normalized to a square input) around
+     * the padded subjects, moved inside the frame where possible. False if it would be about the
+     * whole frame.
+     */
+    boolean computeCrop(Roi out) {
+        final float width = mSubjectRight - mSubjectLeft;
+        final float height = mSubjectBottom - mSubjectTop;
+        final float size = Math.max(mMinSize, Math.max(width, height) * (1 + 2 * mPadding));
+        if (size >= 1)
+            return false;
+        float left = (mSubjectLeft + mSubjectRight - size) / 2;
+        float top = (mSubjectTop + mSubjectBottom - size) / 2;
+        left = Math.max(0, Math.min(1 - size, left));
+        top = Math.max(0, Math.min(1 - size, top));
+        out.set(left, top, left + size, top + size);
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final long total = mFullFrameCount + mCropCount;
+        return "roi cascade (full frame every " + mFullFrameInterval + "): " + mCropCount + " crops, " +
+                mFullFrameCount + " full frames" + (total == 0 ? "" : " (" + Math.round(100f * mCropCount / total) + "% crops)");
+    }
+}
@@ -0,0 +1,76 @@
+package com.qualcomm.qti.snpedetector.pipeline;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wait-free "latest wins" hand-off of a mutable snapshot, from one producer thread to one
+ * consumer thread, with three buffers: the producer fills its own (getWriteBuffer()) and
+ * publishes it with a single atomic swap against the middle one; the consumer swaps its own
+ * against the middle one only if something new was published (getReadBuffer()). Neither ever
+ * waits for the other, and neither sees a buffer the other is writing or reading: the consumer
+ * always reads the latest complete snapshot, and the skipped ones are simply overwritten.
+ */
+public final class TripleBuffer<T> {
+    // the middle buffer: its index, and whether it was published since the consumer took one
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    private final Object[] mBuffers;
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    // owned by the producer, and by the consumer
+    private int mWriteIndex = 0;
+    private int mReadIndex = 2;
+
+    // metrics (each written by one side only)
+    private volatile long mPublishCount;
+    private volatile long mSwapCount;
+
+    public TripleBuffer(T first, T second, T third) {
+        if (first == null || second == null || third == null || first == second || second == third || first == third)
+            throw new IllegalArgumentException("3 distinct buffers are needed");
+        mBuffers = new Object[]{first, second, third};
+    }
+
+    /**
+     * Producer: the buffer to fill, until publish(). Its previous content is of an older
+     * snapshot (or of the initial state): overwrite all of it.
+     */
+    @SuppressWarnings("unchecked")
+    public T getWriteBuffer() {
+        return (T) mBuffers[mWriteIndex];
+    }
+
+    /**
+     * Producer: the filled write buffer becomes the latest snapshot, and the producer gets
+     * another buffer to write.
+     */
+    public void publish() {
+        mWriteIndex = mMiddle.getAndSet(mWriteIndex | FRESH) & INDEX_MASK;
+        mPublishCount++;
+    }
+
+    /**
+     * Consumer: the latest published snapshot (the same as before if nothing new was
+     * published). It stays valid, and unchanged, until the next call.
+     */
+    @SuppressWarnings("unchecked")
+    public T getReadBuffer() {
+        if ((mMiddle.get() & FRESH) != 0) {
+            mReadIndex = mMiddle.getAndSet(mReadIndex) & INDEX_MASK;
+            mSwapCount++;
+        }
+        return (T) mBuffers[mReadIndex];
+    }
+
+    // consumer: whether getReadBuffer() would return a newer snapshot
+    public boolean hasFresh() {
+        return (mMiddle.get() & FRESH) != 0;
+    }
+
+    @Override
+    public String toString() {
+        final long published = mPublishCount;
+        final long read = mSwapCount;
+        return "published " + published + ", read " + read + " (" + (published - read) + " overwritten before being read)";
+    }
+}
@@ -0,0 +1,426 @@
+package com.qualcomm.qti.snpedetector.segmentation;
+
+import com.qualcomm.qti.snpedetector.helpers.StripeWorkerPool;
+
+import java.util.Arrays;
+
+/**
+ * Blurs the background of a frame, with a PackedMask as the foreground: the frame is downsampled
+ * (average of 'downsample' x 'downsample' pixels), blurred with 3 passes of a box filter (close
+ * to a Gaussian), upsampled back (bilinear, 8-bit weights), and blended under the foreground,
+ * whose edge is feathered by a box filter of the mask at the low resolution:
+ * <ul>
+ * <li>a box pass keeps a running sum along each row, so its cost doesn't depend on the radius;
+ * it writes the rows transposed, so the next pass blurs the columns, also along rows;</li>
+ * <li>everything is on integers (reciprocal multiplies, 2 channels per multiply): the output is
+ * the same bit for bit on any device, and for any number of stripes;</li>
+ * <li>the work buffers are int[] re-used from frame to frame: nothing is allocated once the
+ * size is known.</li>
+ * </ul>
+ * The frame is ARGB, in the orientation of the mask (see MaskCompositor for the region). Each
+ * step is split over the rows of a StripeWorkerPool; the composite calls are meant for a single
+ * thread.
+ */
+public final class BlurCompositor implements StripeWorkerPool.StripeTask {
+    // at the low resolution: the rounded reciprocal multiplies keep a uniform window exact up to
+    // windows of 128 pixels
+    public static final int MAX_RADIUS = 63;
+    // the sums of a block of pixels stay in the 16 bits of a channel
+    public static final int MAX_DOWNSAMPLE = 8;
+    private static final int BOX_PASSES = 3;
+    private static final int ONE = 256;
+    private static final int MODE_BLEND = 1;
+    private static final int MODE_COVER = 2;
+    private static final int STEP_DOWNSAMPLE = 1;
+    private static final int STEP_BLUR = 2;
+    private static final int STEP_UPSAMPLE = 3;
+
+    private final StripeWorkerPool mPool;
+
+    // in frame pixels
+    private int mRadius = 16;
+    private int mFeatherRadius = 4;
+    private int mDownsample = 4;
+
+    // the part of the mask over the frame
+    private float mRegionLeft = 0;
+    private float mRegionTop = 0;
+    private float mRegionRight = 1;
+    private float mRegionBottom = 1;
+
+    // the lookup tables of the current geometry: frame column -> low resolution columns and weight
+    // of the 2nd (and the same for the rows), and low resolution column -> mask column
+    private int mTableWidth, mTableHeight, mTableMaskWidth, mTableMaskHeight;
+    private boolean mTablesValid;
+    private int mSmallWidth, mSmallHeight;
+    private int[] mColumn0 = new int[0];
+    private int[] mColumn1 = new int[0];
+    private int[] mColumnWeight = new int[0];
+    private int[] mRow0 = new int[0];
+    private int[] mRow1 = new int[0];
+    private int[] mRowWeight = new int[0];
+    private int[] mMaskColumn = new int[0];
+    private int[] mMaskRow = new int[0];
+
+    // the low resolution: the colors (RGB), and the alpha of the foreground (0..ONE), each with a
+    // transposed copy
+    private int[] mSmall = new int[0];
+    private int[] mSmallTransposed = new int[0];
+    private int[] mAlpha = new int[0];
+    private int[] mAlphaTransposed = new int[0];
+    // per stripe, a row at the low resolution: the sums of a row of blocks (red and blue, green),
+    // or the 2 rows under a frame row, interpolated (colors, alpha)
+    private final int[][] mRowSums;
+    private final int[][] mRowColors;
+    private final int[][] mRowAlpha;
+
+    // the frame being composited, and the step being run: set before running the stripes
+    private int mMode;
+    private int mStep;
+    private PackedMask mMask;
+    private int[] mArgb;
+    private int mWidth;
+    private int mHeight;
+    private int[] mBlurSource;
+    private int[] mBlurTarget;
+    private int mBlurWidth;
+    private int mBlurHeight;
+    private int mBlurRadius;
+    private boolean mBlurColors;
+
+    public BlurCompositor(int stripeCount) {
+        mPool = new StripeWorkerPool(stripeCount);
+        mRowSums = new int[stripeCount][0];
+        mRowColors = new int[stripeCount][0];
+        mRowAlpha = new int[stripeCount][0];
+    }
+
+    public int getStripeCount() {
+        return mPool.getStripeCount();
+    }
+
+    /**
+     * The part of the mask (normalized, 0..1) that covers the frame; the default is all of it.
+     */
+    public void setMaskRegion(float left, float top, float right, float bottom) {
+        if (!(left >= 0 && top >= 0 && right <= 1 && bottom <= 1 && left < right && top < bottom))
+            throw new IllegalArgumentException("bad mask region: " + left + "," + top + " - " + right + "," + bottom);
+        if (left != mRegionLeft || top != mRegionTop || right != mRegionRight || bottom != mRegionBottom)
+            mTablesValid = false;
+        mRegionLeft = left;
+        mRegionTop = top;
+        mRegionRight = right;
+        mRegionBottom = bottom;
+    }
+
+    /**
+     * The radius of the blur and of the feather of the foreground edge (0: none), in frame pixels,
+     * and the downsampling: the low resolution radii are these divided by it (at least 1).
+     */
+    public void setBlur(int radius, int featherRadius, int downsample) {
+        if (downsample < 1 || downsample > MAX_DOWNSAMPLE)
+            throw new IllegalArgumentException("downsample must be 1.." + MAX_DOWNSAMPLE + ", was " + downsample);
+        if (radius < 1 || featherRadius < 0 || scaleRadius(radius, downsample) > MAX_RADIUS || scaleRadius(featherRadius, downsample) > MAX_RADIUS)
+            throw new IllegalArgumentException("bad blur: radius " + radius + ", feather " + featherRadius + " for a downsampling of " + downsample);
+        if (downsample != mDownsample)
+            mTablesValid = false;
+        mRadius = radius;
+        mFeatherRadius = featherRadius;
+        mDownsample = downsample;
+    }
+
+    /**
+     * ARGB frame, in place: out = frame * alpha + blurred frame * (1 - alpha), with the feathered
+     * alpha of the foreground.
+     */
+    public void compositeArgb(PackedMask mask, int[] argb, int width, int height) {
+        run(MODE_BLEND, mask, argb, width, height);
+    }
+
+    /**
+     * ARGB frame, in place, into a cover for an overlay: the blurred frame, with an alpha of
+     * 1 - the feathered alpha of the foreground (not premultiplied, as for Bitmap.setPixels()).
+     */
+    public void coverArgb(PackedMask mask, int[] argb, int width, int height) {
+        run(MODE_COVER, mask, argb, width, height);
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    private static int scaleRadius(int radius, int downsample) {
+        return radius == 0 ? 0 : Math.max(1, (radius + downsample / 2) / downsample);
+    }
+
+    private void run(int mode, PackedMask mask, int[] argb, int width, int height) {
+        if (width < 1 || height < 1 || argb.length < width * height)
+            throw new IllegalArgumentException("bad frame: " + width + "x" + height + " in " + argb.length + " pixels");
+        mMode = mode;
+        mMask = mask;
+        mArgb = argb;
+        mWidth = width;
+        mHeight = height;
+        updateTables(mask, width, height);
+        try {
+            runStep(STEP_DOWNSAMPLE);
+            // each pass blurs the rows and transposes: 2 of them make a 2D box
+            final int radius = scaleRadius(mRadius, mDownsample);
+            for (int pass = 0; pass < BOX_PASSES; pass++) {
+                runBlur(mSmall, mSmallTransposed, mSmallWidth, mSmallHeight, radius, true);
+                runBlur(mSmallTransposed, mSmall, mSmallHeight, mSmallWidth, radius, true);
+            }
+            final int feather = scaleRadius(mFeatherRadius, mDownsample);
+            if (feather > 0) {
+                runBlur(mAlpha, mAlphaTransposed, mSmallWidth, mSmallHeight, feather, false);
+                runBlur(mAlphaTransposed, mAlpha, mSmallHeight, mSmallWidth, feather, false);
+            }
+            runStep(STEP_UPSAMPLE);
+        } finally {
+            mMask = null;
+            mArgb = null;
+            mBlurSource = null;
+            mBlurTarget = null;
+        }
+    }
+
+    private void runBlur(int[] source, int[] target, int width, int height, int radius, boolean colors) {
+        mBlurSource = source;
+        mBlurTarget = target;
+        mBlurWidth = width;
+        mBlurHeight = height;
+        mBlurRadius = radius;
+        mBlurColors = colors;
+        runStep(STEP_BLUR);
+    }
+
+    private void runStep(int step) {
+        mStep = step;
+        mPool.run(this);
+    }
+
+    private void updateTables(PackedMask mask, int width, int height) {
+        final int maskWidth = mask.getWidth();
+        final int maskHeight = mask.getHeight();
+        if (mTablesValid && width == mTableWidth && height == mTableHeight
+                && maskWidth == mTableMaskWidth && maskHeight == mTableMaskHeight)
+            return;
+        final int smallWidth = (width + mDownsample - 1) / mDownsample;
+        final int smallHeight = (height + mDownsample - 1) / mDownsample;
+        if (mColumn0.length < width) {
+            mColumn0 = new int[width];
+            mColumn1 = new int[width];
+            mColumnWeight = new int[width];
+        }
+        if (mRow0.length < height) {
+            mRow0 = new int[height];
+            mRow1 = new int[height];
+            mRowWeight = new int[height];
+        }
+        if (mMaskColumn.length < smallWidth)
+            mMaskColumn = new int[smallWidth];
+        if (mMaskRow.length < smallHeight)
+            mMaskRow = new int[smallHeight];
+        if (mSmall.length < smallWidth * smallHeight) {
+            mSmall = new int[smallWidth * smallHeight];
+            mSmallTransposed = new int[smallWidth * smallHeight];
+            mAlpha = new int[smallWidth * smallHeight];
+            mAlphaTransposed = new int[smallWidth * smallHeight];
+        }
+        for (int stripe = 0; stripe < mRowSums.length; stripe++) {
+            if (mRowSums[stripe].length < smallWidth * 2) {
+                mRowSums[stripe] = new int[smallWidth * 2];
+                mRowColors[stripe] = new int[smallWidth];
+                mRowAlpha[stripe] = new int[smallWidth];
+            }
+        }
+        MaskCompositor.fillAxisTable(mColumn0, mColumn1, mColumnWeight, width, smallWidth, 0, 1);
+        MaskCompositor.fillAxisTable(mRow0, mRow1, mRowWeight, height, smallHeight, 0, 1);
+        fillMaskTable(mMaskColumn, smallWidth, width, maskWidth, mRegionLeft, mRegionRight);
+        fillMaskTable(mMaskRow, smallHeight, height, maskHeight, mRegionTop, mRegionBottom);
+
+        mSmallWidth = smallWidth;
+        mSmallHeight = smallHeight;
+        mTableWidth = width;
+        mTableHeight = height;
+        mTableMaskWidth = maskWidth;
+        mTableMaskHeight = maskHeight;
+        mTablesValid = true;
+    }
+
+    // the mask pixel under the center of each block of the frame
+    private void fillMaskTable(int[] maskIndex, int smallSize, int size, int maskSize, float begin, float end) {
+        for (int i = 0; i < smallSize; i++) {
+            final float center = Math.min(size, (i + 0.5f) * mDownsample) / size;
+            final int m = (int) ((begin + center * (end - begin)) * maskSize);
+            maskIndex[i] = Math.max(0, Math.min(maskSize - 1, m));
+        }
+    }
+
+    @Override
+    public void runStripe(int stripe, int stripeCount) {
+        final int rows = mStep == STEP_DOWNSAMPLE ? mSmallHeight : mStep == STEP_BLUR ? mBlurHeight : mHeight;
+        final int beginRow = StripeWorkerPool.stripeBegin(stripe, stripeCount, rows);
+        final int endRow = StripeWorkerPool.stripeBegin(stripe + 1, stripeCount, rows);
+        if (mStep == STEP_DOWNSAMPLE)
+            downsampleRows(beginRow, endRow, mRowSums[stripe]);
+        else if (mStep == STEP_BLUR && mBlurColors)
+            blurColorRows(mBlurSource, mBlurTarget, mBlurWidth, mBlurHeight, mBlurRadius, beginRow, endRow);
+        else if (mStep == STEP_BLUR)
+            blurAlphaRows(mBlurSource, mBlurTarget, mBlurWidth, mBlurHeight, mBlurRadius, beginRow, endRow);
+        else
+            upsampleRows(beginRow, endRow, mRowColors[stripe], mRowAlpha[stripe]);
+    }
+
+    // the average color of each block (summed along the frame rows), and whether the mask has the
+    // foreground under it
+    private void downsampleRows(int beginRow, int endRow, int[] sums) {
+        final int[] argb = mArgb;
+        final int width = mWidth;
+        final int height = mHeight;
+        final int smallWidth = mSmallWidth;
+        final int f = mDownsample;
+        final int lastBlock = smallWidth - 1;
+        final long[] bits = mMask.getBits();
+        final int wordsPerRow = mMask.getWordsPerRow();
+        for (int sy = beginRow; sy < endRow; sy++) {
+            final int y0 = sy * f;
+            final int y1 = Math.min(y0 + f, height);
+            // red and blue in the 2 halves of an int (64 * 255 fits in 16 bits), green apart
+            Arrays.fill(sums, 0, smallWidth * 2, 0);
+            for (int y = y0; y < y1; y++) {
+                int i = y * width;
+                for (int sx = 0; sx < lastBlock; sx++) {
+                    int rb = 0;
+                    int g = 0;
+                    for (int k = 0; k < f; k++, i++) {
+                        final int pixel = argb[i];
+                        rb += pixel & 0x00FF00FF;
+                        g += pixel & 0x0000FF00;
+                    }
+                    sums[sx * 2] += rb;
+                    sums[sx * 2 + 1] += g;
+                }
+                for (int rowEnd = (y + 1) * width; i < rowEnd; i++) {
+                    sums[lastBlock * 2] += argb[i] & 0x00FF00FF;
+                    sums[lastBlock * 2 + 1] += argb[i] & 0x0000FF00;
+                }
+            }
+            final int maskRow = mMaskRow[sy] * wordsPerRow;
+            final int rows = y1 - y0;
+            final int multiplier = 65536 / (rows * f);
+            final int lastMultiplier = 65536 / (rows * (width - lastBlock * f));
+            for (int sx = 0, small = sy * smallWidth; sx < smallWidth; sx++, small++) {
+                // the rounded average, as in the blur
+                final int m = sx == lastBlock ? lastMultiplier : multiplier;
+                final int rb = sums[sx * 2];
+                final int g = sums[sx * 2 + 1] >>> 8;
+                mSmall[small] = (((rb >>> 16) * m + 32768) >>> 16) << 16 | ((g * m + 32768) >>> 16) << 8 | (((rb & 0xFFFF) * m + 32768) >>> 16);
+                final int c = mMaskColumn[sx];
+                mAlpha[small] = ((int) (bits[maskRow + (c >> 6)] >>> (c & 63)) & 1) * ONE;
+            }
+        }
+    }
+
+    // the rows [beginRow, endRow) of source (width x height), box-blurred along the row with
+    // clamped edges, into the columns of target (height x width)
+    private static void blurColorRows(int[] source, int[] target, int width, int height, int radius, int beginRow, int endRow) {
+        // (sum * multiplier + 32768) >>> 16 is the rounded average (a window of one color gives that
+        // color exactly)
+        final int window = 2 * radius + 1;
+        final int multiplier = 65536 / window;
+        final int last = width - 1;
+        for (int y = beginRow; y < endRow; y++) {
+            final int row = y * width;
+            int r = 0, g = 0, b = 0;
+            for (int i = -radius; i <= radius; i++) {
+                final int pixel = source[row + (i < 0 ? 0 : i > last ? last : i)];
+                r += (pixel >>> 16) & 0xFF;
+                g += (pixel >>> 8) & 0xFF;
+                b += pixel & 0xFF;
+            }
+            for (int x = 0, t = y; x < width; x++, t += height) {
+                target[t] = ((r * multiplier + 32768) >>> 16) << 16 | ((g * multiplier + 32768) >>> 16) << 8 | ((b * multiplier + 32768) >>> 16);
+                final int in = x + radius + 1;
+                final int out = x - radius;
+                final int added = source[row + (in > last ? last : in)];
+                final int removed = source[row + (out < 0 ? 0 : out)];
+                r += ((added >>> 16) & 0xFF) - ((removed >>> 16) & 0xFF);
+                g += ((added >>> 8) & 0xFF) - ((removed >>> 8) & 0xFF);
+                b += (added & 0xFF) - (removed & 0xFF);
+            }
+        }
+    }
+
+    // the same, for one value per pixel
+    private static void blurAlphaRows(int[] source, int[] target, int width, int height, int radius, int beginRow, int endRow) {
+        final int window = 2 * radius + 1;
+        final int multiplier = 65536 / window;
+        final int last = width - 1;
+        for (int y = beginRow; y < endRow; y++) {
+            final int row = y * width;
+            int sum = 0;
+            for (int i = -radius; i <= radius; i++)
+                sum += source[row + (i < 0 ? 0 : i > last ? last : i)];
+            for (int x = 0, t = y; x < width; x++, t += height) {
+                target[t] = (sum * multiplier + 32768) >>> 16;
+                final int in = x + radius + 1;
+                final int out = x - radius;
+                sum += source[row + (in > last ? last : in)] - source[row + (out < 0 ? 0 : out)];
+            }
+        }
+    }
+
+    // the blurred colors and the alpha, bilinear (the 2 rows at the low resolution, then along the
+    // row), under the foreground
+    private void upsampleRows(int beginRow, int endRow, int[] rowColors, int[] rowAlpha) {
+        final int[] argb = mArgb;
+        final int[] small = mSmall;
+        final int[] alpha = mAlpha;
+        final int smallWidth = mSmallWidth;
+        final boolean cover = mMode == MODE_COVER;
+        for (int y = beginRow; y < endRow; y++) {
+            final int row0 = mRow0[y] * smallWidth;
+            final int row1 = mRow1[y] * smallWidth;
+            final int rowWeight = mRowWeight[y];
+            boolean background = false;
+            for (int sx = 0; sx < smallWidth; sx++) {
+                final int a = (alpha[row0 + sx] * (ONE - rowWeight) + alpha[row1 + sx] * rowWeight + 128) >> 8;
+                rowAlpha[sx] = a;
+                rowColors[sx] = lerp(small[row0 + sx], small[row1 + sx], rowWeight);
+                background |= a != ONE;
+            }
+            // foreground all along: the frame stays
+            if (!background && !cover)
+                continue;
+            for (int x = 0, i = y * mWidth; x < mWidth; x++, i++) {
+                final int c0 = mColumn0[x];
+                final int c1 = mColumn1[x];
+                final int a0 = rowAlpha[c0];
+                final int a1 = rowAlpha[c1];
+                if ((a0 & a1) == ONE) {
+                    // foreground: the frame stays
+                    if (cover)
+                        argb[i] = 0;
+                    continue;
+                }
+                final int w = mColumnWeight[x];
+                final int a = (a0 * (ONE - w) + a1 * w + 128) >> 8;
+                final int blurred = lerp(rowColors[c0], rowColors[c1], w);
+                if (cover)
+                    argb[i] = (((ONE - a) * 255 + 128) >> 8) << 24 | blurred;
+                else if (a == 0)
+                    argb[i] = 0xFF000000 | blurred;
+                else
+                    argb[i] = lerp(0xFF000000 | blurred, argb[i], a);
+            }
+        }
+    }
+
+    // p * (1 - weight) + q * weight on the 4 channels, 2 per multiply (255 * 256 fits in 16 bits)
+    private static int lerp(int p, int q, int weight) {
+        final int rb = ((p & 0x00FF00FF) * (ONE - weight) + (q & 0x00FF00FF) * weight) >>> 8;
+        final int ag = (((p >>> 8) & 0x00FF00FF) * (ONE - weight) + ((q >>> 8) & 0x00FF00FF) * weight) >>> 8;
+        return (rb & 0x00FF00FF) | ((ag & 0x00FF00FF) << 8);
+    }
+}
@@ -0,0 +1,106 @@
+package com.qualcomm.qti.snpedetector.segmentation;
+
+import com.qualcomm.qti.snpedetector.engine.ClassPolicy;
+import com.qualcomm.qti.snpedetector.engine.SegmentationOutputs;
+
+/**
+ * The foreground (e.g. the "person" class 15 of DeepLab) of a segmentation, as a PackedMask.
+ * <p>
+ * A map of class ids (1 channel) is a lookup per pixel. On a map of scores (1 channel per class),
+ * the argmax is only taken over the foreground classes and the competing ones (by default the
+ * background, class 0): a pixel is foreground when its best foreground score beats them. For a
+ * privacy mask the scene is person vs background, so this reads 2 of the 21 channels of DeepLab
+ * instead of all of them.
+ */
+public final class MaskBuilder {
+    private final int[] mForegroundClasses;
+    private final ClassPolicy mForeground;
+    private int[] mCompetingClasses = {0};
+
+    public MaskBuilder(int... foregroundClasses) {
+        if (foregroundClasses.length == 0)
+            throw new IllegalArgumentException("at least one foreground class is needed");
+        mForegroundClasses = foregroundClasses.clone();
+        mForeground = ClassPolicy.ofClassIds(foregroundClasses);
+    }
+
+    /**
+     * The classes the foreground must beat, on maps of scores (default: 0, the background).
+     */
+    public void setCompetingClasses(int... competingClasses) {
+        mCompetingClasses = competingClasses.clone();
+    }
+
+    /**
+     * Resizes 'mask' to the outputs and fills it. Returns the number of foreground pixels.
+     */
+    public int build(SegmentationOutputs outputs, PackedMask mask) {
+        mask.setSize(outputs.width, outputs.height);
+        return outputs.channels == 1 ? buildFromClassIds(outputs, mask) : buildFromScores(outputs, mask);
+    }
+
+    private int buildFromClassIds(SegmentationOutputs outputs, PackedMask mask) {
+        final float[] data = outputs.dataHWC;
+        final long[] bits = mask.getBits();
+        final int width = outputs.width;
+        final int wordsPerRow = mask.getWordsPerRow();
+        final ClassPolicy foreground = mForeground;
+        int count = 0;
+        for (int y = 0; y < outputs.height; y++) {
+            final int rowBase = y * width;
+            for (int w = 0; w < wordsPerRow; w++) {
+                final int x0 = w << 6;
+                final int x1 = Math.min(width, x0 + 64);
+                long word = 0;
+                for (int x = x0; x < x1; x++) {
+                    if (foreground.accepts((int) data[rowBase + x]))
+                        word |= 1L << (x - x0);
+                }
+                bits[y * wordsPerRow + w] = word;
+                count += Long.bitCount(word);
+            }
+        }
+        return count;
+    }
+
+    private int buildFromScores(SegmentationOutputs outputs, PackedMask mask) {
+        final int channels = outputs.channels;
+        checkClasses(mForegroundClasses, channels);
+        checkClasses(mCompetingClasses, channels);
+        final float[] data = outputs.dataHWC;
+        final long[] bits = mask.getBits();
+        final int width = outputs.width;
+        final int wordsPerRow = mask.getWordsPerRow();
+        final int[] foregroundClasses = mForegroundClasses;
+        final int[] competingClasses = mCompetingClasses;
+        int count = 0;
+        for (int y = 0; y < outputs.height; y++) {
+            for (int w = 0; w < wordsPerRow; w++) {
+                final int x0 = w << 6;
+                final int x1 = Math.min(width, x0 + 64);
+                long word = 0;
+                for (int x = x0; x < x1; x++) {
+                    final int base = (y * width + x) * channels;
+                    float best = data[base + foregroundClasses[0]];
+                    for (int i = 1; i < foregroundClasses.length; i++)
+                        best = Math.max(best, data[base + foregroundClasses[i]]);
+                    boolean wins = true;
+                    for (int i = 0; i < competingClasses.length && wins; i++)
+                        wins = best > data[base + competingClasses[i]];
+                    if (wins)
+                        word |= 1L << (x - x0);
+                }
+                bits[y * wordsPerRow + w] = word;
+                count += Long.bitCount(word);
+            }
+        }
+        return count;
+    }
+
+    private static void checkClasses(int[] classes, int channels) {
+        for (int classId : classes) {
+            if (classId < 0 || classId >= channels)
+                throw new IllegalArgumentException("class " + classId + " is not in the " + channels + " channels of the scores");
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.qualcomm.qti.snpedetector.segmentation;
+
+import com.qualcomm.qti.snpedetector.helpers.StripeWorkerPool;
+
+import java.util.Arrays;
+
+/**
+ * Composites a frame over a fill color, in place, with a PackedMask as the alpha: the foreground
+ * of the mask keeps the frame, the rest becomes the fill, and the edges are blended. The mask is
+ * upsampled to the frame with a separable bilinear filter (8-bit weights):
+ * <ul>
+ * <li>per frame column and per frame row, the 2 mask columns / rows and the weight of the 2nd
+ * are precomputed once for a geometry (frame size, mask size, region);</li>
+ * <li>the frame columns over a 64-pixel word of the mask are handled at once when the word is
+ * set (or clear) on both mask rows: skipped (or filled), without computing any alpha; in the
+ * other words, the same goes for each byte (8 mask pixels);</li>
+ * <li>only the columns near an edge of the mask compute their alpha from the 4 mask bits, and
+ * blend.</li>
+ * </ul>
+ * The frame is in the orientation of the mask: the region (normalized mask coordinates) is the
+ * part of the mask over the frame, e.g. the content of a letterboxed model input.
+ * The rows are split over a StripeWorkerPool; the composite calls are meant for a single thread.
+ */
+public final class MaskCompositor implements StripeWorkerPool.StripeTask {
+    private static final int ONE = 256;
+    private static final int MODE_ARGB = 1;
+    private static final int MODE_NV21 = 2;
+
+    private final StripeWorkerPool mPool;
+
+    // the part of the mask over the frame
+    private float mRegionLeft = 0;
+    private float mRegionTop = 0;
+    private float mRegionRight = 1;
+    private float mRegionBottom = 1;
+
+    // the lookup tables of the current geometry: frame column -> mask columns and weight of the 2nd
+    private int mTableWidth, mTableHeight, mTableMaskWidth, mTableMaskHeight;
+    private boolean mTablesValid;
+    private int[] mColumn0 = new int[0];
+    private int[] mColumn1 = new int[0];
+    private int[] mColumnWeight = new int[0];
+    private int[] mRow0 = new int[0];
+    private int[] mRow1 = new int[0];
+    private int[] mRowWeight = new int[0];
+    // per mask word (and byte) of a row, the frame columns that only read that word (begin inclusive, end exclusive)
+    private int[] mWordColumnBegin = new int[0];
+    private int[] mWordColumnEnd = new int[0];
+    private int[] mByteColumnBegin = new int[0];
+    private int[] mByteColumnEnd = new int[0];
+    // the valid bits of the last word of a mask row
+    private long mLastWordBits;
+
+    // the frame being composited: set before running the stripes, cleared after
+    private int mMode;
+    private PackedMask mMask;
+    private int[] mArgb;
+    private byte[] mNV21;
+    private int mWidth;
+    private int mHeight;
+    private int mFillArgb;
+    private int mFillY, mFillU, mFillV;
+
+    public MaskCompositor(int stripeCount) {
+        mPool = new StripeWorkerPool(stripeCount);
+    }
+
+    public int getStripeCount() {
+        return mPool.getStripeCount();
+    }
+
+    /**
+     * The part of the mask (normalized, 0..1) that covers the frame; the default is all of it.
+     */
+    public void setMaskRegion(float left, float top, float right, float bottom) {
+        if (!(left >= 0 && top >= 0 && right <= 1 && bottom <= 1 && left < right && top < bottom))
+            throw new IllegalArgumentException("bad mask region: " + left + "," + top + " - " + right + "," + bottom);
+        if (left != mRegionLeft || top != mRegionTop || right != mRegionRight || bottom != mRegionBottom)
+            mTablesValid = false;
+        mRegionLeft = left;
+        mRegionTop = top;
+        mRegionRight = right;
+        mRegionBottom = bottom;
+    }
+
+    /**
+     * ARGB frame: out = frame * alpha + fill * (1 - alpha), on the 4 channels.
+     */
+    public void compositeArgb(PackedMask mask, int[] argb, int width, int height, int fillArgb) {
+        if (argb.length < width * height)
+            throw new IllegalArgumentException("the frame is smaller than " + width + "x" + height);
+        mMode = MODE_ARGB;
+        mArgb = argb;
+        mFillArgb = fillArgb;
+        runStripes(mask, width, height);
+    }
+
+    /**
+     * NV21 frame: Y per pixel, and VU per 2x2 block with the alpha of its top-left pixel.
+     */
+    public void compositeNV21(PackedMask mask, byte[] nv21, int width, int height, int fillY, int fillU, int fillV) {
+        if ((width & 1) != 0 || (height & 1) != 0 || nv21.length < width * height * 3 / 2)
+            throw new IllegalArgumentException("bad NV21 frame: " + width + "x" + height + " in " + nv21.length + " bytes");
+        mMode = MODE_NV21;
+        mNV21 = nv21;
+        mFillY = fillY;
+        mFillU = fillU;
+        mFillV = fillV;
+        runStripes(mask, width, height);
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    private void runStripes(PackedMask mask, int width, int height) {
+        mMask = mask;
+        mWidth = width;
+        mHeight = height;
+        updateTables(mask, width, height);
+        try {
+            mPool.run(this);
+        } finally {
+            mMask = null;
+            mArgb = null;
+            mNV21 = null;
+        }
+    }
+
+    private void updateTables(PackedMask mask, int width, int height) {
+        final int maskWidth = mask.getWidth();
+        final int maskHeight = mask.getHeight();
+        if (mTablesValid && width == mTableWidth && height == mTableHeight
+                && maskWidth == mTableMaskWidth && maskHeight == mTableMaskHeight)
+            return;
+        if (mColumn0.length < width) {
+            mColumn0 = new int[width];
+            mColumn1 = new int[width];
+            mColumnWeight = new int[width];
+        }
+        if (mRow0.length < height) {
+            mRow0 = new int[height];
+            mRow1 = new int[height];
+            mRowWeight = new int[height];
+        }
+        fillAxisTable(mColumn0, mColumn1, mColumnWeight, width, maskWidth, mRegionLeft, mRegionRight);
+        fillAxisTable(mRow0, mRow1, mRowWeight, height, maskHeight, mRegionTop, mRegionBottom);
+
+        // the columns are monotonic: the ones within a word (or byte) are a span
+        final int wordsPerRow = mask.getWordsPerRow();
+        if (mWordColumnBegin.length < wordsPerRow) {
+            mWordColumnBegin = new int[wordsPerRow];
+            mWordColumnEnd = new int[wordsPerRow];
+            mByteColumnBegin = new int[wordsPerRow * 8];
+            mByteColumnEnd = new int[wordsPerRow * 8];
+        }
+        fillSpanTable(mWordColumnBegin, mWordColumnEnd, wordsPerRow, width, 6);
+        fillSpanTable(mByteColumnBegin, mByteColumnEnd, wordsPerRow * 8, width, 3);
+        final int tailBits = maskWidth & 63;
+        mLastWordBits = tailBits == 0 ? -1L : (1L << tailBits) - 1;
+
+        mTableWidth = width;
+        mTableHeight = height;
+        mTableMaskWidth = maskWidth;
+        mTableMaskHeight = maskHeight;
+        mTablesValid = true;
+    }
+
+    // pixel centers to pixel centers: frame pixel i is at mask coordinate (begin + (i + 0.5) / n * extent) * maskSize - 0.5
+    static void fillAxisTable(int[] index0, int[] index1, int[] weight1, int n, int maskSize, float begin, float end) {
+        final float scale = (end - begin) * maskSize / n;
+        final float offset = begin * maskSize - 0.5f;
+        for (int i = 0; i < n; i++) {
+            final float m = offset + (i + 0.5f) * scale;
+            int m0 = (int) Math.floor(m);
+            int w = Math.round((m - m0) * ONE);
+            if (m0 < 0) {
+                m0 = 0;
+                w = 0;
+            } else if (m0 >= maskSize - 1) {
+                m0 = maskSize - 1;
+                w = 0;
+            }
+            index0[i] = m0;
+            index1[i] = Math.min(m0 + 1, maskSize - 1);
+            weight1[i] = w;
+        }
+    }
+
+    private void fillSpanTable(int[] begin, int[] end, int groups, int width, int groupShift) {
+        Arrays.fill(begin, 0, groups, width);
+        Arrays.fill(end, 0, groups, 0);
+        for (int x = 0; x < width; x++) {
+            final int group = mColumn0[x] >> groupShift;
+            if (group == mColumn1[x] >> groupShift) {
+                begin[group] = Math.min(begin[group], x);
+                end[group] = x + 1;
+            }
+        }
+    }
+
+    @Override
+    public void runStripe(int stripe, int stripeCount) {
+        final int beginRow = StripeWorkerPool.stripeBegin(stripe, stripeCount, mHeight);
+        final int endRow = StripeWorkerPool.stripeBegin(stripe + 1, stripeCount, mHeight);
+        final long[] bits = mMask.getBits();
+        final int wordsPerRow = mMask.getWordsPerRow();
+        for (int y = beginRow; y < endRow; y++) {
+            final int rowWeight = mRowWeight[y];
+            final int rowOffset0 = mRow0[y] * wordsPerRow;
+            final int rowOffset1 = (rowWeight == 0 ? mRow0[y] : mRow1[y]) * wordsPerRow;
+            int x = 0;
+            for (int w = 0; w < wordsPerRow; w++) {
+                final int spanBegin = mWordColumnBegin[w];
+                final int spanEnd = mWordColumnEnd[w];
+                if (spanBegin >= spanEnd)
+                    continue;
+                // the columns between 2 words
+                if (x < spanBegin)
+                    blendSpan(y, x, spanBegin, bits, rowOffset0, rowOffset1, rowWeight);
+                final long valid = w == wordsPerRow - 1 ? mLastWordBits : -1L;
+                final long word0 = bits[rowOffset0 + w] & valid;
+                final long word1 = bits[rowOffset1 + w] & valid;
+                if ((word0 & word1) == valid) {
+                    // foreground: the frame stays
+                } else if ((word0 | word1) == 0)
+                    fillSpan(y, spanBegin, spanEnd);
+                else
+                    compositeWord(y, w, spanBegin, spanEnd, word0, word1, valid, bits, rowOffset0, rowOffset1, rowWeight);
+                x = spanEnd;
+            }
+            if (x < mWidth)
+                blendSpan(y, x, mWidth, bits, rowOffset0, rowOffset1, rowWeight);
+        }
+    }
+
+    // the same as the row, per byte of a word
+    private void compositeWord(int y, int w, int spanBegin, int spanEnd, long word0, long word1, long valid,
+                               long[] bits, int rowOffset0, int rowOffset1, int rowWeight) {
+        int x = spanBegin;
+        for (int b = 0; b < 8; b++) {
+            final int byteBegin = mByteColumnBegin[w * 8 + b];
+            final int byteEnd = mByteColumnEnd[w * 8 + b];
+            if (byteBegin >= byteEnd)
+                continue;
+            if (x < byteBegin)
+                blendSpan(y, x, byteBegin, bits, rowOffset0, rowOffset1, rowWeight);
+            final int byteValid = (int) (valid >>> (b << 3)) & 0xFF;
+            final int byte0 = (int) (word0 >>> (b << 3)) & 0xFF;
+            final int byte1 = (int) (word1 >>> (b << 3)) & 0xFF;
+            if ((byte0 & byte1) == byteValid) {
+                // foreground
+            } else if ((byte0 | byte1) == 0)
+                fillSpan(y, byteBegin, byteEnd);
+            else
+                blendSpan(y, byteBegin, byteEnd, bits, rowOffset0, rowOffset1, rowWeight);
+            x = byteEnd;
+        }
+        if (x < spanEnd)
+            blendSpan(y, x, spanEnd, bits, rowOffset0, rowOffset1, rowWeight);
+    }
+
+    private void fillSpan(int y, int x0, int x1) {
+        if (mMode == MODE_ARGB) {
+            Arrays.fill(mArgb, y * mWidth + x0, y * mWidth + x1, mFillArgb);
+            return;
+        }
+        final byte[] nv21 = mNV21;
+        Arrays.fill(nv21, y * mWidth + x0, y * mWidth + x1, (byte) mFillY);
+        // the VU of the 2x2 blocks is written by their top-left pixel
+        if ((y & 1) == 0) {
+            final int vuOffset = mWidth * mHeight + (y >> 1) * mWidth;
+            for (int x = (x0 + 1) & ~1; x < x1; x += 2) {
+                nv21[vuOffset + x] = (byte) mFillV;
+                nv21[vuOffset + x + 1] = (byte) mFillU;
+            }
+        }
+    }
+
+    private void blendSpan(int y, int x0, int x1, long[] bits, int rowOffset0, int rowOffset1, int rowWeight) {
+        final int[] column0 = mColumn0;
+        final int[] column1 = mColumn1;
+        final int[] columnWeight = mColumnWeight;
+        for (int x = x0; x < x1; x++) {
+            // horizontal on the 2 mask rows, then vertical
+            final int c0 = column0[x];
+            final int c1 = column1[x];
+            final int w = columnWeight[x];
+            final int top = ((int) (bits[rowOffset0 + (c0 >> 6)] >>> (c0 & 63)) & 1) * (ONE - w)
+                    + ((int) (bits[rowOffset0 + (c1 >> 6)] >>> (c1 & 63)) & 1) * w;
+            final int bottom = ((int) (bits[rowOffset1 + (c0 >> 6)] >>> (c0 & 63)) & 1) * (ONE - w)
+                    + ((int) (bits[rowOffset1 + (c1 >> 6)] >>> (c1 & 63)) & 1) * w;
+            final int alpha = (top * (ONE - rowWeight) + bottom * rowWeight + 128) >> 8;
+            if (alpha == ONE)
+                continue;
+            if (mMode == MODE_ARGB)
+                blendArgb(y * mWidth + x, alpha);
+            else
+                blendNV21(x, y, alpha);
+        }
+    }
+
+    private void blendArgb(int i, int alpha) {
+        final int fill = mFillArgb;
+        if (alpha == 0) {
+            mArgb[i] = fill;
+            return;
+        }
+        // 2 channels per multiply: 255 * 256 still fits in the 16 bits of each
+        final int pixel = mArgb[i];
+        final int rb = ((pixel & 0x00FF00FF) * alpha + (fill & 0x00FF00FF) * (ONE - alpha)) >>> 8;
+        final int ag = (((pixel >>> 8) & 0x00FF00FF) * alpha + ((fill >>> 8) & 0x00FF00FF) * (ONE - alpha)) >>> 8;
+        mArgb[i] = (rb & 0x00FF00FF) | ((ag & 0x00FF00FF) << 8);
+    }
+
+    private void blendNV21(int x, int y, int alpha) {
+        final byte[] nv21 = mNV21;
+        final int i = y * mWidth + x;
+        nv21[i] = (byte) (((nv21[i] & 0xFF) * alpha + mFillY * (ONE - alpha)) >> 8);
+        if (((x | y) & 1) == 0) {
+            final int v = mWidth * mHeight + (y >> 1) * mWidth + x;
+            nv21[v] = (byte) (((nv21[v] & 0xFF) * alpha + mFillV * (ONE - alpha)) >> 8);
+            nv21[v + 1] = (byte) (((nv21[v + 1] & 0xFF) * alpha + mFillU * (ONE - alpha)) >> 8);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.qualcomm.qti.snpedetector.segmentation;
+
+import java.util.Arrays;
+
+/**
+ * A binary mask, 1 bit per pixel: bit (x & 63) of the word (x >> 6) of its row. A 513x513
+ * segmentation is 37 KB as a PackedMask, against 1 MB as the floats of the model output, so it
+ * is cheap to hand over between threads. The storage is re-used when the size changes.
+ */
+public final class PackedMask {
+    private int mWidth;
+    private int mHeight;
+    private int mWordsPerRow;
+    private long[] mBits = new long[0];
+
+    // resizes, and clears
+    public void setSize(int width, int height) {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("bad mask size: " + width + "x" + height);
+        mWidth = width;
+        mHeight = height;
+        mWordsPerRow = (width + 63) >> 6;
+        final int words = mWordsPerRow * height;
+        if (mBits.length < words)
+            mBits = new long[words];
+        else
+            Arrays.fill(mBits, 0, words, 0);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getWordsPerRow() {
+        return mWordsPerRow;
+    }
+
+    // the words of the rows, one after the other (the array may be longer)
+    public long[] getBits() {
+        return mBits;
+    }
+
+    public boolean get(int x, int y) {
+        return (mBits[y * mWordsPerRow + (x >> 6)] & (1L << (x & 63))) != 0;
+    }
+
+    public void set(int x, int y) {
+        mBits[y * mWordsPerRow + (x >> 6)] |= 1L << (x & 63);
+    }
+
+    public int countSet() {
+        int count = 0;
+        for (int i = 0, words = mWordsPerRow * mHeight; i < words; i++)
+            count += Long.bitCount(mBits[i]);
+        return count;
+    }
+
+    public void copyTo(PackedMask other) {
+        other.setSize(mWidth, mHeight);
+        System.arraycopy(mBits, 0, other.mBits, 0, mWordsPerRow * mHeight);
+    }
+}
@@ -0,0 +1,191 @@
+package com.qualcomm.qti.snpedetector.tracking;
+
+/**
+ * Constant-velocity Kalman filters for boxes, on timestamps: each slot follows one box (its
+ * center and size, one position + velocity filter per coordinate, in normalized coordinates
+ * per second), corrected by every detection of it, and predicted to any time in between, e.g.
+ * the display time of the overlay instead of the capture time of the last inference.
+ * <p>
+ * The states are flat float arrays for 'capacity' slots: nothing is allocated after the
+ * construction, and for the same inputs the results are the same. The slots are managed by
+ * the caller (see MultiObjectTracker). Not thread-safe.
+ */
+public final class BoxPropagator {
+    // predictions go no further than that after the last correction: beyond, the box stops
+    public static final long MAX_EXTRAPOLATION_NS = 300_000_000L;
+    // std. deviations: of the acceleration (white noise, per second^2), and of the detections
+    public static final float DEFAULT_ACCELERATION_NOISE = 1f;
+    public static final float DEFAULT_MEASUREMENT_NOISE = 0.02f;
+    // of the velocity of a new box (unknown), per second
+    private static final float INITIAL_VELOCITY_NOISE = 0.5f;
+    // center x, center y, width, height
+    private static final int DIMS = 4;
+
+    private final int mCapacity;
+    private final float mAccelerationVariance;
+    private final float mMeasurementVariance;
+
+    // DIMS per slot: position, velocity and covariance
+    private final float[] mPos;
+    private final float[] mVel;
+    private final float[] mP00;
+    private final float[] mP01;
+    private final float[] mP11;
+    // time of the state of each slot
+    private final long[] mTimeNs;
+    // of the last correction, for the extrapolation limit
+    private final long[] mCorrectedNs;
+
+    public BoxPropagator(int capacity) {
+        this(capacity, DEFAULT_ACCELERATION_NOISE, DEFAULT_MEASUREMENT_NOISE);
+    }
+
+    public BoxPropagator(int capacity, float accelerationNoise, float measurementNoise) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be >= 1, was " + capacity);
+        if (accelerationNoise < 0 || measurementNoise <= 0)
+            throw new IllegalArgumentException("bad noise: acceleration " + accelerationNoise + ", measurement " + measurementNoise);
+        mCapacity = capacity;
+        mAccelerationVariance = accelerationNoise * accelerationNoise;
+        mMeasurementVariance = measurementNoise * measurementNoise;
+        mPos = new float[capacity * DIMS];
+        mVel = new float[capacity * DIMS];
+        mP00 = new float[capacity * DIMS];
+        mP01 = new float[capacity * DIMS];
+        mP11 = new float[capacity * DIMS];
+        mTimeNs = new long[capacity];
+        mCorrectedNs = new long[capacity];
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * A new box in 'slot', seen at timeNs, not moving until corrected.
+     */
+    public void start(int slot, long timeNs, float left, float top, float right, float bottom) {
+        final int i = slot * DIMS;
+        mPos[i] = (left + right) / 2;
+        mPos[i + 1] = (top + bottom) / 2;
+        mPos[i + 2] = right - left;
+        mPos[i + 3] = bottom - top;
+        for (int k = i; k < i + DIMS; k++) {
+            mVel[k] = 0;
+            mP00[k] = mMeasurementVariance;
+            mP01[k] = 0;
+            mP11[k] = INITIAL_VELOCITY_NOISE * INITIAL_VELOCITY_NOISE;
+        }
+        mTimeNs[slot] = timeNs;
+        mCorrectedNs[slot] = timeNs;
+    }
+
+    /**
+     * Moves the state of 'slot' forward to timeNs (not backwards, and no further than the
+     * extrapolation limit), its uncertainty growing with the time.
+     */
+    public void predict(int slot, long timeNs) {
+        final long targetNs = Math.min(timeNs, mCorrectedNs[slot] + MAX_EXTRAPOLATION_NS);
+        if (targetNs <= mTimeNs[slot])
+            return;
+        final float dt = (targetNs - mTimeNs[slot]) * 1e-9f;
+        mTimeNs[slot] = targetNs;
+        // x += v dt; P = F P F' + Q, Q of a white noise acceleration over dt
+        final float q = mAccelerationVariance;
+        final float q00 = q * dt * dt * dt / 3;
+        final float q01 = q * dt * dt / 2;
+        final float q11 = q * dt;
+        for (int i = slot * DIMS; i < (slot + 1) * DIMS; i++) {
+            mPos[i] += mVel[i] * dt;
+            mP00[i] += dt * (2 * mP01[i] + dt * mP11[i]) + q00;
+            mP01[i] += dt * mP11[i] + q01;
+            mP11[i] += q11;
+        }
+    }
+
+    /**
+     * The box of 'slot' was detected at timeNs: the state is predicted to that time, then
+     * corrected. A detection older than the state only corrects its current position.
+     */
+    public void correct(int slot, long timeNs, float left, float top, float right, float bottom) {
+        mCorrectedNs[slot] = Math.max(mCorrectedNs[slot], timeNs);
+        predict(slot, timeNs);
+        final int i = slot * DIMS;
+        correctCoordinate(i, (left + right) / 2);
+        correctCoordinate(i + 1, (top + bottom) / 2);
+        correctCoordinate(i + 2, right - left);
+        correctCoordinate(i + 3, bottom - top);
+    }
+
+    // the Kalman gain, for a measurement of the position only
+    private void correctCoordinate(int i, float measurement) {
+        final float p00 = mP00[i];
+        final float p01 = mP01[i];
+        final float s = p00 + mMeasurementVariance;
+        final float k0 = p00 / s;
+        final float k1 = p01 / s;
+        final float innovation = measurement - mPos[i];
+        mPos[i] += k0 * innovation;
+        mVel[i] += k1 * innovation;
+        mP00[i] = (1 - k0) * p00;
+        mP01[i] = (1 - k0) * p01;
+        mP11[i] -= k1 * p01;
+    }
+
+    /**
+     * The box of 'slot' at timeNs, as left, top, right, bottom into out[offset..offset + 3],
+     * without changing the state (within the extrapolation limit; not before the state).
+     */
+    public void getBox(int slot, long timeNs, float[] out, int offset) {
+        final long targetNs = Math.min(timeNs, mCorrectedNs[slot] + MAX_EXTRAPOLATION_NS);
+        final float dt = Math.max(0, targetNs - mTimeNs[slot]) * 1e-9f;
+        final int i = slot * DIMS;
+        final float centerX = mPos[i] + mVel[i] * dt;
+        final float centerY = mPos[i + 1] + mVel[i + 1] * dt;
+        final float halfWidth = Math.max(0, mPos[i + 2] + mVel[i + 2] * dt) / 2;
+        final float halfHeight = Math.max(0, mPos[i + 3] + mVel[i + 3] * dt) / 2;
+        out[offset] = centerX - halfWidth;
+        out[offset + 1] = centerY - halfHeight;
+        out[offset + 2] = centerX + halfWidth;
+        out[offset + 3] = centerY + halfHeight;
+    }
+
+    /**
+     * The velocity of the edges of 'slot' (left, top, right, bottom, per second) into
+     * out[offset..offset + 3]: getBox() moves linearly with it, up to the extrapolation limit
+     * (0 once the state is there).
+     */
+    public void getVelocity(int slot, float[] out, int offset) {
+        if (mTimeNs[slot] >= mCorrectedNs[slot] + MAX_EXTRAPOLATION_NS) {
+            out[offset] = out[offset + 1] = out[offset + 2] = out[offset + 3] = 0;
+            return;
+        }
+        final int i = slot * DIMS;
+        out[offset] = mVel[i] - mVel[i + 2] / 2;
+        out[offset + 1] = mVel[i + 1] - mVel[i + 3] / 2;
+        out[offset + 2] = mVel[i] + mVel[i + 2] / 2;
+        out[offset + 3] = mVel[i + 1] + mVel[i + 3] / 2;
+    }
+
+    // time of the state of 'slot', and of its last correction
+    public long getTime(int slot) {
+        return mTimeNs[slot];
+    }
+
+    public long getCorrectionTime(int slot) {
+        return mCorrectedNs[slot];
+    }
+
+    // copies a slot over another (to compact the slots in use)
+    public void move(int from, int to) {
+        if (from == to)
+            return;
+        System.arraycopy(mPos, from * DIMS, mPos, to * DIMS, DIMS);
+        System.arraycopy(mVel, from * DIMS, mVel, to * DIMS, DIMS);
+        System.arraycopy(mP00, from * DIMS, mP00, to * DIMS, DIMS);
+        System.arraycopy(mP01, from * DIMS, mP01, to * DIMS, DIMS);
+        System.arraycopy(mP11, from * DIMS, mP11, to * DIMS, DIMS);
+        mTimeNs[to] = mTimeNs[from];
+        mCorrectedNs[to] = mCorrectedNs[from];
+    }
+}
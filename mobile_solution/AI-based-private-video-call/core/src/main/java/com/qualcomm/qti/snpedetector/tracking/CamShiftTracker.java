@@ -0,0 +1,122 @@
+package com.qualcomm.qti.snpedetector.tracking;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.core.Rect2d;
+import org.opencv.core.Scalar;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Video.CamShift on the back-projection of the hue histogram of the seed box (skin and clothes
+ * have a stable hue), ignoring the dark and unsaturated pixels. No contrib module needed,
+ * but it follows colors, not the object: a background of the same hue takes the track.
+ * All the Mats are allocated once.
+ */
+final class CamShiftTracker implements ObjectTracker {
+    private static final int HUE_BINS = 16;
+    // pixels without a reliable hue: too dark, or too gray
+    private static final Scalar VALID_HSV_LOW = new Scalar(0, 60, 32);
+    private static final Scalar VALID_HSV_HIGH = new Scalar(180, 255, 255);
+    // smaller than that, the window has collapsed: the track is lost
+    private static final int MIN_WINDOW_SIZE = 4;
+
+    private final Mat mHsv = new Mat();
+    private final Mat mValidMask = new Mat();
+    private final Mat mHistogram = new Mat();
+    private final Mat mBackProjection = new Mat();
+    private final List<Mat> mHsvList = Collections.singletonList(mHsv);
+    private final MatOfInt mHueChannel = new MatOfInt(0);
+    private final MatOfInt mHistogramSize = new MatOfInt(HUE_BINS);
+    private final MatOfFloat mHueRange = new MatOfFloat(0, 180);
+    private final TermCriteria mCriteria = new TermCriteria(TermCriteria.EPS | TermCriteria.COUNT, 10, 1);
+    private final Rect mWindow = new Rect();
+    private boolean mTracking;
+
+    @Override
+    public String getName() {
+        return "CamShift";
+    }
+
+    @Override
+    public boolean needsColor() {
+        return true;
+    }
+
+    @Override
+    public boolean init(Mat image, Rect2d box) {
+        mTracking = false;
+        if (!toWindow(box, image.cols(), image.rows()))
+            return false;
+        convertToHsv(image);
+        final Mat hsvRoi = mHsv.submat(mWindow);
+        final Mat maskRoi = mValidMask.submat(mWindow);
+        Imgproc.calcHist(Collections.singletonList(hsvRoi), mHueChannel, maskRoi, mHistogram, mHistogramSize, mHueRange);
+        hsvRoi.release();
+        maskRoi.release();
+        Core.normalize(mHistogram, mHistogram, 0, 255, Core.NORM_MINMAX);
+        mTracking = true;
+        return true;
+    }
+
+    @Override
+    public boolean isTracking() {
+        return mTracking;
+    }
+
+    @Override
+    public boolean update(Mat image, Rect2d outBox) {
+        if (!mTracking)
+            return false;
+        convertToHsv(image);
+        Imgproc.calcBackProject(mHsvList, mHueChannel, mHistogram, mBackProjection, mHueRange, 1);
+        Core.bitwise_and(mBackProjection, mValidMask, mBackProjection);
+        // moves mWindow
+        Video.CamShift(mBackProjection, mWindow, mCriteria);
+        if (mWindow.width < MIN_WINDOW_SIZE || mWindow.height < MIN_WINDOW_SIZE) {
+            mTracking = false;
+            return false;
+        }
+        outBox.x = mWindow.x;
+        outBox.y = mWindow.y;
+        outBox.width = mWindow.width;
+        outBox.height = mWindow.height;
+        return true;
+    }
+
+    @Override
+    public void release() {
+        mHsv.release();
+        mValidMask.release();
+        mHistogram.release();
+        mBackProjection.release();
+        mTracking = false;
+    }
+
+    private void convertToHsv(Mat rgb) {
+        Imgproc.cvtColor(rgb, mHsv, Imgproc.COLOR_RGB2HSV);
+        Core.inRange(mHsv, VALID_HSV_LOW, VALID_HSV_HIGH, mValidMask);
+    }
+
+    // the box, clipped to the image; false if nothing is left
+    private boolean toWindow(Rect2d box, int width, int height) {
+        final int left = (int) Math.max(0, Math.round(box.x));
+        final int top = (int) Math.max(0, Math.round(box.y));
+        final int right = (int) Math.min(width, Math.round(box.x + box.width));
+        final int bottom = (int) Math.min(height, Math.round(box.y + box.height));
+        if (right - left < MIN_WINDOW_SIZE || bottom - top < MIN_WINDOW_SIZE)
+            return false;
+        mWindow.x = left;
+        mWindow.y = top;
+        mWindow.width = right - left;
+        mWindow.height = bottom - top;
+        return true;
+    }
+}
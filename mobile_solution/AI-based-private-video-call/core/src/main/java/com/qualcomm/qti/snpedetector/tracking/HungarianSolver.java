@@ -0,0 +1,123 @@
+package com.qualcomm.qti.snpedetector.tracking;
+
+/**
+ * Minimum-cost assignment of rows to columns (Hungarian algorithm, with potentials: O(n^2 m)
+ * for n <= m), on a rectangular cost matrix. Every row of the smaller side gets a column.
+ * The work arrays are sized once for the largest matrix: solve() doesn't allocate.
+ * <p>
+ * Not thread-safe.
+ */
+public final class HungarianSolver {
+    private final int mMaxRows;
+    private final int mMaxCols;
+    // 1-based, as in the textbook version; index 0 is the virtual row/column
+    private final double[] mRowPotential;
+    private final double[] mColPotential;
+    private final double[] mMinSlack;
+    private final int[] mColToRow;
+    private final int[] mPrevCol;
+    private final boolean[] mUsed;
+
+    public HungarianSolver(int maxRows, int maxCols) {
+        if (maxRows < 1 || maxCols < 1)
+            throw new IllegalArgumentException("bad matrix capacity " + maxRows + "x" + maxCols);
+        mMaxRows = maxRows;
+        mMaxCols = maxCols;
+        final int n = Math.max(maxRows, maxCols) + 1;
+        mRowPotential = new double[n];
+        mColPotential = new double[n];
+        mMinSlack = new double[n];
+        mColToRow = new int[n];
+        mPrevCol = new int[n];
+        mUsed = new boolean[n];
+    }
+
+    /**
+     * Assigns the rows of 'cost' (rows x cols, row-major) to its columns, minimizing the total
+     * cost. rowToCol[row] gets the column of each row, or -1 if there are more rows than columns
+     * and the row is left out. Returns the total cost.
+     */
+    public double solve(float[] cost, int rows, int cols, int[] rowToCol) {
+        if (rows > mMaxRows || cols > mMaxCols)
+            throw new IllegalArgumentException(rows + "x" + cols + " is over the capacity " + mMaxRows + "x" + mMaxCols);
+        if (cost.length < rows * cols || rowToCol.length < rows)
+            throw new IllegalArgumentException("arrays too small for " + rows + "x" + cols);
+        for (int r = 0; r < rows; r++)
+            rowToCol[r] = -1;
+        if (rows == 0 || cols == 0)
+            return 0;
+
+        // the algorithm needs n <= m: solve the transposed problem if needed
+        final boolean transposed = rows > cols;
+        final int n = transposed ? cols : rows;
+        final int m = transposed ? rows : cols;
+        final double[] u = mRowPotential;
+        final double[] v = mColPotential;
+        final double[] minv = mMinSlack;
+        final int[] p = mColToRow;
+        final int[] way = mPrevCol;
+        final boolean[] used = mUsed;
+        for (int j = 0; j <= m; j++) {
+            v[j] = 0;
+            p[j] = 0;
+        }
+        for (int i = 0; i <= n; i++)
+            u[i] = 0;
+
+        for (int i = 1; i <= n; i++) {
+            // augmenting path from row i, through the column of least reduced cost
+            p[0] = i;
+            int j0 = 0;
+            for (int j = 0; j <= m; j++) {
+                minv[j] = Double.MAX_VALUE;
+                used[j] = false;
+            }
+            do {
+                used[j0] = true;
+                final int i0 = p[j0];
+                double delta = Double.MAX_VALUE;
+                int j1 = 0;
+                for (int j = 1; j <= m; j++) {
+                    if (used[j])
+                        continue;
+                    final float c = transposed ? cost[(j - 1) * cols + (i0 - 1)] : cost[(i0 - 1) * cols + (j - 1)];
+                    final double reduced = c - u[i0] - v[j];
+                    if (reduced < minv[j]) {
+                        minv[j] = reduced;
+                        way[j] = j0;
+                    }
+                    if (minv[j] < delta) {
+                        delta = minv[j];
+                        j1 = j;
+                    }
+                }
+                for (int j = 0; j <= m; j++) {
+                    if (used[j]) {
+                        u[p[j]] += delta;
+                        v[j] -= delta;
+                    } else {
+                        minv[j] -= delta;
+                    }
+                }
+                j0 = j1;
+            } while (p[j0] != 0);
+            // flip the path
+            do {
+                final int j1 = way[j0];
+                p[j0] = p[j1];
+                j0 = j1;
+            } while (j0 != 0);
+        }
+
+        double total = 0;
+        for (int j = 1; j <= m; j++) {
+            if (p[j] == 0)
+                continue;
+            final int row = transposed ? j - 1 : p[j] - 1;
+            final int col = transposed ? p[j] - 1 : j - 1;
+            rowToCol[row] = col;
+            total += cost[row * cols + col];
+        }
+        return total;
+    }
+}
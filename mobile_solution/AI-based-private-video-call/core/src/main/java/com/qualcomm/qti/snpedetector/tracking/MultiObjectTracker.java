@@ -0,0 +1,233 @@
+package com.qualcomm.qti.snpedetector.tracking;
+
+import com.qualcomm.qti.snpedetector.Box;
+import com.qualcomm.qti.snpedetector.BoxGeometry;
+
+import java.util.ArrayList;
+
+/**
+ * Follows every detected person with a persistent id, so that the detection can run on a
+ * fraction of the frames: in between, predict() moves the tracks with their motion model.
+ * <p>
+ * Each track is a slot of a BoxPropagator (constant-velocity Kalman filters, on timestamps).
+ * On update(), the tracks are predicted to the time of the detections, then associated to them
+ * by minimum total (1 - GIoU) with the HungarianSolver (the generalized IoU still ranks the
+ * pairs that don't overlap, e.g. after a fast move); pairs under minIou are not associations.
+ * Matched tracks are corrected, the others coast until maxMissed updates without a detection,
+ * and unmatched detections start new tracks.
+ * <p>
+ * The state is in flat arrays sized at construction: update() and predict() don't allocate,
+ * and nothing depends on OpenCV. Not thread-safe.
+ */
+public final class MultiObjectTracker {
+    public static final float DEFAULT_MIN_IOU = 0.3f;
+    public static final int DEFAULT_MAX_MISSED = 5;
+
+    private final int mMaxTracks;
+    private final int mMaxDetections;
+    private final float mMinIou;
+    private final int mMaxMissed;
+
+    // per track: its motion, id, and the class, score and selection of its last detection
+    private final BoxPropagator mPropagator;
+    private final int[] mIds;
+    private final int[] mMissed;
+    private final Box[] mAttributes;
+    private int mTrackCount;
+    private int mNextId;
+    // time of the last update() or predict()
+    private long mTimeNs;
+
+    // association work arrays
+    private final HungarianSolver mSolver;
+    private final float[] mCost;
+    private final int[] mDetectionIndex;
+    private final int[] mDetectionToTrack;
+    private final boolean[] mTrackMatched;
+    // packed left, top, right, bottom (see BoxGeometry)
+    private final float[] mDetectionBoxes;
+    private final float[] mTrackBoxes;
+    private final float[] mTrackBox = new float[4];
+
+    public MultiObjectTracker(int maxTracks, int maxDetections) {
+        this(maxTracks, maxDetections, DEFAULT_MIN_IOU, DEFAULT_MAX_MISSED);
+    }
+
+    /**
+     * @param maxTracks     the tracks beyond are not created
+     * @param maxDetections the detections beyond (by order) are not associated
+     * @param minIou        the least overlap between a detection and the track it corrects
+     * @param maxMissed     updates a track survives without a detection
+     */
+    public MultiObjectTracker(int maxTracks, int maxDetections, float minIou, int maxMissed) {
+        if (maxTracks < 1 || maxDetections < 1)
+            throw new IllegalArgumentException("bad capacity: " + maxTracks + " tracks, " + maxDetections + " detections");
+        if (minIou < 0 || minIou > 1 || maxMissed < 0)
+            throw new IllegalArgumentException("bad association: min IoU " + minIou + ", max missed " + maxMissed);
+        mMaxTracks = maxTracks;
+        mMaxDetections = maxDetections;
+        mMinIou = minIou;
+        mMaxMissed = maxMissed;
+        mPropagator = new BoxPropagator(maxTracks);
+        mIds = new int[maxTracks];
+        mMissed = new int[maxTracks];
+        mAttributes = new Box[maxTracks];
+        for (int t = 0; t < maxTracks; t++)
+            mAttributes[t] = new Box();
+        mSolver = new HungarianSolver(maxDetections, maxTracks);
+        mCost = new float[maxDetections * maxTracks];
+        mDetectionIndex = new int[maxDetections];
+        mDetectionToTrack = new int[maxDetections];
+        mTrackMatched = new boolean[maxTracks];
+        mDetectionBoxes = new float[maxDetections * 4];
+        mTrackBoxes = new float[maxTracks * 4];
+    }
+
+    public int getTrackCount() {
+        return mTrackCount;
+    }
+
+    // drops all the tracks (e.g. the frames stopped, or the camera changed)
+    public void reset() {
+        mTrackCount = 0;
+    }
+
+    /**
+     * Moves all the tracks forward to timeNs, for a frame without detections.
+     */
+    public void predict(long timeNs) {
+        mTimeNs = timeNs;
+        for (int t = 0; t < mTrackCount; t++)
+            mPropagator.predict(t, timeNs);
+    }
+
+    /**
+     * The detections of the frame of timeNs: the tracks are predicted to it, and associated to
+     * the detections of at least 'scoreThreshold'. Their track_id is set (-1 for the ones not
+     * tracked), and the tracks take their class, score and selection.
+     */
+    public void update(ArrayList<Box> detections, float scoreThreshold, long timeNs) {
+        predict(timeNs);
+
+        // the detections to associate
+        int detectionCount = 0;
+        for (int d = 0; d < detections.size(); d++) {
+            final Box box = detections.get(d);
+            box.track_id = -1;
+            if (box.type_score < scoreThreshold || detectionCount == mMaxDetections)
+                continue;
+            final int k = detectionCount * 4;
+            mDetectionBoxes[k] = box.left;
+            mDetectionBoxes[k + 1] = box.top;
+            mDetectionBoxes[k + 2] = box.right;
+            mDetectionBoxes[k + 3] = box.bottom;
+            mDetectionIndex[detectionCount++] = d;
+        }
+
+        // (1 - GIoU) of every detection with every track
+        final int tracks = mTrackCount;
+        for (int t = 0; t < tracks; t++)
+            mPropagator.getBox(t, timeNs, mTrackBoxes, t * 4);
+        BoxGeometry.giouMatrix(mDetectionBoxes, detectionCount, mTrackBoxes, tracks, mCost);
+        for (int i = 0; i < detectionCount * tracks; i++)
+            mCost[i] = 1 - mCost[i];
+        mSolver.solve(mCost, detectionCount, tracks, mDetectionToTrack);
+
+        // correct the matched tracks, start new ones for the other detections
+        for (int t = 0; t < tracks; t++)
+            mTrackMatched[t] = false;
+        for (int d = 0; d < detectionCount; d++) {
+            final Box box = detections.get(mDetectionIndex[d]);
+            final int t = mDetectionToTrack[d];
+            if (t >= 0 && iou(d, t) >= mMinIou) {
+                mPropagator.correct(t, timeNs, box.left, box.top, box.right, box.bottom);
+                mMissed[t] = 0;
+                box.copyTo(mAttributes[t]);
+                mTrackMatched[t] = true;
+                box.track_id = mIds[t];
+            } else if (mTrackCount < mMaxTracks) {
+                // appended after the 'tracks' of this association: not looked at below
+                final int n = mTrackCount++;
+                mPropagator.start(n, timeNs, box.left, box.top, box.right, box.bottom);
+                mIds[n] = mNextId++;
+                mMissed[n] = 0;
+                box.copyTo(mAttributes[n]);
+                box.track_id = mIds[n];
+            }
+        }
+
+        // the tracks not seen for too long go; the last one takes their place
+        for (int t = tracks - 1; t >= 0; t--) {
+            if (mTrackMatched[t] || ++mMissed[t] <= mMaxMissed)
+                continue;
+            moveTrack(--mTrackCount, t);
+        }
+    }
+
+    /**
+     * The boxes of all the tracks, at the time of the last update() or predict(), into
+     * 'outBoxes' (its Box objects are re-used). Returns the number of boxes.
+     */
+    public int getBoxes(ArrayList<Box> outBoxes) {
+        return getBoxes(mTimeNs, outBoxes, null);
+    }
+
+    /**
+     * The boxes of all the tracks at timeNs (e.g. the display time), without moving them. If
+     * 'outVelocities' isn't null, it gets the velocity of the edges of each box (left, top,
+     * right, bottom per second, 4 floats per box) to extrapolate them further.
+     */
+    public int getBoxes(long timeNs, ArrayList<Box> outBoxes, float[] outVelocities) {
+        if (outVelocities != null && outVelocities.length < mTrackCount * 4)
+            throw new IllegalArgumentException("the velocities need " + mTrackCount * 4 + " floats");
+        for (int t = 0; t < mTrackCount; t++) {
+            if (t >= outBoxes.size())
+                outBoxes.add(new Box());
+            final Box box = outBoxes.get(t);
+            mAttributes[t].copyTo(box);
+            mPropagator.getBox(t, timeNs, mTrackBox, 0);
+            box.left = mTrackBox[0];
+            box.top = mTrackBox[1];
+            box.right = mTrackBox[2];
+            box.bottom = mTrackBox[3];
+            box.track_id = mIds[t];
+            if (outVelocities != null)
+                mPropagator.getVelocity(t, outVelocities, t * 4);
+        }
+        while (outBoxes.size() > mTrackCount)
+            outBoxes.remove(outBoxes.size() - 1);
+        return mTrackCount;
+    }
+
+    /**
+     * The velocity of the edges of the track 'trackId' (see getBoxes()) into out[offset..
+     * offset + 3]. Returns false (and zeros) if there is no such track.
+     */
+    public boolean getVelocity(int trackId, float[] out, int offset) {
+        for (int t = 0; t < mTrackCount; t++) {
+            if (mIds[t] == trackId) {
+                mPropagator.getVelocity(t, out, offset);
+                return true;
+            }
+        }
+        out[offset] = out[offset + 1] = out[offset + 2] = out[offset + 3] = 0;
+        return false;
+    }
+
+    private void moveTrack(int from, int to) {
+        if (from == to)
+            return;
+        mPropagator.move(from, to);
+        mIds[to] = mIds[from];
+        mMissed[to] = mMissed[from];
+        mAttributes[from].copyTo(mAttributes[to]);
+    }
+
+    // of a packed detection with a packed track
+    private float iou(int d, int t) {
+        final float[] a = mDetectionBoxes;
+        final float[] b = mTrackBoxes;
+        return BoxGeometry.iou(a[d * 4], a[d * 4 + 1], a[d * 4 + 2], a[d * 4 + 3],
+                b[t * 4], b[t * 4 + 1], b[t * 4 + 2], b[t * 4 + 3]);
+    }
+}
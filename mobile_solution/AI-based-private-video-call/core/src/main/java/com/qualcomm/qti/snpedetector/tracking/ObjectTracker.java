@@ -0,0 +1,34 @@
+package com.qualcomm.qti.snpedetector.tracking;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect2d;
+
+/**
+ * A single-object tracker on a sequence of images of the same size: seeded with a box by init(),
+ * then moved along by update(). Images are 8-bit gray, or RGB if needsColor().
+ * Not thread-safe: one per tracking thread.
+ */
+public interface ObjectTracker {
+
+    String getName();
+
+    // true if it works on RGB images (or works better on them); gray ones are enough otherwise
+    boolean needsColor();
+
+    /**
+     * (Re)starts the track on 'box' (pixels). Returns false if the tracker can't start on it.
+     */
+    boolean init(Mat image, Rect2d box);
+
+    // true between a successful init() and a lost track (or release())
+    boolean isTracking();
+
+    /**
+     * Moves the track to the next image, into 'outBox'. Returns false if the track is lost (or
+     * was never started).
+     */
+    boolean update(Mat image, Rect2d outBox);
+
+    // frees the native state now; init() can start again afterwards
+    void release();
+}
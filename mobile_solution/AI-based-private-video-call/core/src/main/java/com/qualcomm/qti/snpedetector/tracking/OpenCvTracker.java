@@ -0,0 +1,68 @@
+package com.qualcomm.qti.snpedetector.tracking;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect2d;
+import org.opencv.tracking.Tracker;
+
+/**
+ * An org.opencv.tracking tracker. Their init() can only be called once, so a new native tracker
+ * is created for every seed; the previous one is cleared right away, and deleted by its finalizer
+ * (the Java bindings have no explicit delete).
+ */
+final class OpenCvTracker implements ObjectTracker {
+
+    interface Factory {
+        Tracker create();
+    }
+
+    private final String mName;
+    private final boolean mNeedsColor;
+    private final Factory mFactory;
+    private Tracker mTracker;
+    private boolean mTracking;
+
+    OpenCvTracker(String name, boolean needsColor, Factory factory) {
+        mName = name;
+        mNeedsColor = needsColor;
+        mFactory = factory;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public boolean needsColor() {
+        return mNeedsColor;
+    }
+
+    @Override
+    public boolean init(Mat image, Rect2d box) {
+        release();
+        mTracker = mFactory.create();
+        mTracking = mTracker.init(image, box);
+        return mTracking;
+    }
+
+    @Override
+    public boolean isTracking() {
+        return mTracking;
+    }
+
+    @Override
+    public boolean update(Mat image, Rect2d outBox) {
+        if (!mTracking)
+            return false;
+        mTracking = mTracker.update(image, outBox);
+        return mTracking;
+    }
+
+    @Override
+    public void release() {
+        if (mTracker != null)
+            mTracker.clear();
+        mTracker = null;
+        mTracking = false;
+    }
+}
@@ -0,0 +1,86 @@
+package com.qualcomm.qti.snpedetector.tracking;
+
+/**
+ * When to re-seed a tracker from the detection that matches its track. Seeding is the expensive
+ * part of most trackers (a new model of the object), and re-seeding on every matched frame also
+ * throws away what the tracker learned: only re-seed when the track has drifted from the
+ * detection (IoU below 1 - maxDrift), or every reseedInterval frames, to follow the changes of
+ * appearance.
+ * <p>
+ * A detection matches the track if their IoU is at least matchIou: below that, it's not the same
+ * object, and it can't correct the track.
+ */
+public final class ReinitPolicy {
+    public static final float DEFAULT_MATCH_IOU = 0.3f;
+    public static final float DEFAULT_MAX_DRIFT = 0.4f;
+    public static final int DEFAULT_RESEED_INTERVAL = 30;
+
+    private final float mMatchIou;
+    private final float mMaxDrift;
+    private final int mReseedInterval;
+
+    private int mFramesSinceSeed;
+    // statistics
+    private long mFrames;
+    private long mSeeds;
+    private long mDriftSeeds;
+
+    public ReinitPolicy() {
+        this(DEFAULT_MATCH_IOU, DEFAULT_MAX_DRIFT, DEFAULT_RESEED_INTERVAL);
+    }
+
+    public ReinitPolicy(float matchIou, float maxDrift, int reseedInterval) {
+        if (matchIou < 0 || matchIou > 1 || maxDrift < 0 || maxDrift > 1 || reseedInterval < 1)
+            throw new IllegalArgumentException("bad re-init policy: match IoU " + matchIou + ", drift " + maxDrift + ", interval " + reseedInterval);
+        mMatchIou = matchIou;
+        mMaxDrift = maxDrift;
+        mReseedInterval = reseedInterval;
+    }
+
+    public float getMatchIou() {
+        return mMatchIou;
+    }
+
+    public boolean isMatch(double iou) {
+        return iou >= mMatchIou;
+    }
+
+    /**
+     * Once per tracked frame, with the IoU between the track and its best detection (0 if none).
+     * Returns true if the tracker should be re-seeded from that detection now.
+     */
+    public boolean shouldReseed(double bestIou) {
+        mFrames++;
+        mFramesSinceSeed++;
+        if (!isMatch(bestIou))
+            return false;
+        final boolean drifted = bestIou < 1 - mMaxDrift;
+        if (!drifted && mFramesSinceSeed < mReseedInterval)
+            return false;
+        if (drifted)
+            mDriftSeeds++;
+        return true;
+    }
+
+    // after any seed (the first one, or one asked by shouldReseed)
+    public void onSeeded() {
+        mSeeds++;
+        mFramesSinceSeed = 0;
+    }
+
+    public long getSeedCount() {
+        return mSeeds;
+    }
+
+    public void resetStatistics() {
+        mFrames = 0;
+        mSeeds = 0;
+        mDriftSeeds = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "re-seed on drift > " + mMaxDrift + " or every " + mReseedInterval + " frames: " +
+                mSeeds + " seeds (" + mDriftSeeds + " on drift) in " + mFrames + " tracked frames";
+    }
+}
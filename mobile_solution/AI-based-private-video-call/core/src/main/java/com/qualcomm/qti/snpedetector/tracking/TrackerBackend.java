@@ -0,0 +1,54 @@
+package com.qualcomm.qti.snpedetector.tracking;
+
+import org.opencv.tracking.TrackerCSRT;
+import org.opencv.tracking.TrackerKCF;
+import org.opencv.tracking.TrackerMIL;
+import org.opencv.tracking.TrackerMOSSE;
+import org.opencv.tracking.TrackerMedianFlow;
+
+/**
+ * The trackers to choose from. Their update times and track losses on recorded clips are
+ * measured by the offline TrackerBenchmark, to pick the one that fits a device class.
+ */
+public enum TrackerBackend {
+    // hue histogram + mean shift
+    CAMSHIFT,
+    // correlation filter on gray
+    MOSSE,
+    // optical flow of a point grid, with a forward-backward check (loses the track cleanly)
+    MEDIAN_FLOW,
+    // kernelized correlation filter, on gray and color-names features
+    KCF,
+    // multiple-instance learning: the original tracker of the app
+    MIL,
+    // discriminative correlation filter with channel and spatial reliability
+    CSRT;
+
+    public ObjectTracker create() {
+        switch (this) {
+            case CAMSHIFT:
+                return new CamShiftTracker();
+            case MOSSE:
+                return new OpenCvTracker("MOSSE", false, TrackerMOSSE::create);
+            case MEDIAN_FLOW:
+                return new OpenCvTracker("MedianFlow", false, TrackerMedianFlow::create);
+            case KCF:
+                return new OpenCvTracker("KCF", true, TrackerKCF::create);
+            case MIL:
+                return new OpenCvTracker("MIL", false, TrackerMIL::create);
+            case CSRT:
+                return new OpenCvTracker("CSRT", true, TrackerCSRT::create);
+            default:
+                throw new IllegalStateException("no tracker for " + this);
+        }
+    }
+
+    // e.g. "kcf" or "median_flow"
+    public static TrackerBackend fromName(String name) {
+        for (TrackerBackend backend : values()) {
+            if (backend.name().equalsIgnoreCase(name) || backend.name().replace("_", "").equalsIgnoreCase(name))
+                return backend;
+        }
+        throw new IllegalArgumentException("unknown tracker " + name);
+    }
+}
@@ -0,0 +1,211 @@
+package com.qualcomm.qti.snpedetector;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BoxGeometryTest {
+    // the float kernels against the double reference (normalized boxes: all the terms are <= 1)
+    private static final double TOLERANCE = 1e-5;
+
+    private enum Metric {IOU, GIOU, DIOU}
+
+    // the scalar reference, in double, from the definitions
+    private static double reference(Metric metric, float[] a, int i, float[] b, int j) {
+        final double aLeft = a[i * 4], aTop = a[i * 4 + 1], aRight = a[i * 4 + 2], aBottom = a[i * 4 + 3];
+        final double bLeft = b[j * 4], bTop = b[j * 4 + 1], bRight = b[j * 4 + 2], bBottom = b[j * 4 + 3];
+        final double interWidth = Math.max(0, Math.min(aRight, bRight) - Math.max(aLeft, bLeft));
+        final double interHeight = Math.max(0, Math.min(aBottom, bBottom) - Math.max(aTop, bTop));
+        final double inter = interWidth * interHeight;
+        final double union = (aRight - aLeft) * (aBottom - aTop) + (bRight - bLeft) * (bBottom - bTop) - inter;
+        final double enclosingWidth = Math.max(aRight, bRight) - Math.min(aLeft, bLeft);
+        final double enclosingHeight = Math.max(aBottom, bBottom) - Math.min(aTop, bTop);
+        switch (metric) {
+            case IOU:
+                return inter > 0 ? inter / union : 0;
+            case GIOU: {
+                final double enclosing = enclosingWidth * enclosingHeight;
+                if (union <= 0 || enclosing <= 0)
+                    return 0;
+                return inter / union - (enclosing - union) / enclosing;
+            }
+            default: {
+                final double diagonal2 = enclosingWidth * enclosingWidth + enclosingHeight * enclosingHeight;
+                if (union <= 0 || diagonal2 <= 0)
+                    return 0;
+                final double dx = (bLeft + bRight) / 2 - (aLeft + aRight) / 2;
+                final double dy = (bTop + bBottom) / 2 - (aTop + aBottom) / 2;
+                return inter / union - (dx * dx + dy * dy) / diagonal2;
+            }
+        }
+    }
+
+    private static void matrix(Metric metric, float[] a, int aCount, float[] b, int bCount, float[] out) {
+        switch (metric) {
+            case IOU:
+                BoxGeometry.iouMatrix(a, aCount, b, bCount, out);
+                break;
+            case GIOU:
+                BoxGeometry.giouMatrix(a, aCount, b, bCount, out);
+                break;
+            default:
+                BoxGeometry.diouMatrix(a, aCount, b, bCount, out);
+                break;
+        }
+    }
+
+    private static void assertMatchesReference(Metric metric, float[] a, int aCount, float[] b, int bCount) {
+        final float[] out = new float[aCount * bCount];
+        matrix(metric, a, aCount, b, bCount, out);
+        for (int i = 0; i < aCount; i++) {
+            for (int j = 0; j < bCount; j++) {
+                final float value = out[i * bCount + j];
+                final String pair = metric + " of " + Arrays.toString(Arrays.copyOfRange(a, i * 4, i * 4 + 4))
+                        + " and " + Arrays.toString(Arrays.copyOfRange(b, j * 4, j * 4 + 4));
+                assertFalse(pair + " is NaN", Float.isNaN(value));
+                assertEquals(pair, reference(metric, a, i, b, j), value, TOLERANCE);
+            }
+        }
+    }
+
+    private static float[] randomBoxes(Random random, int count) {
+        final float[] boxes = new float[count * 4];
+        for (int i = 0; i < count; i++) {
+            final float left = random.nextFloat();
+            final float top = random.nextFloat();
+            boxes[i * 4] = left;
+            boxes[i * 4 + 1] = top;
+            boxes[i * 4 + 2] = left + random.nextFloat() * (1 - left);
+            boxes[i * 4 + 3] = top + random.nextFloat() * (1 - top);
+        }
+        return boxes;
+    }
+
+    // every box of a 5-step grid: includes the empty (zero width or height), touching and identical pairs
+    private static float[] gridBoxes() {
+        final int steps = 5;
+        int count = 0;
+        final float[] boxes = new float[4 * 225];
+        for (int left = 0; left < steps; left++)
+            for (int right = left; right < steps; right++)
+                for (int top = 0; top < steps; top++)
+                    for (int bottom = top; bottom < steps; bottom++, count++) {
+                        boxes[count * 4] = left / (steps - 1f);
+                        boxes[count * 4 + 1] = top / (steps - 1f);
+                        boxes[count * 4 + 2] = right / (steps - 1f);
+                        boxes[count * 4 + 3] = bottom / (steps - 1f);
+                    }
+        assertEquals(225, count);
+        return boxes;
+    }
+
+    @Test
+    public void randomBoxesMatchTheReference() {
+        final Random random = new Random(22);
+        final float[] a = randomBoxes(random, 100);
+        final float[] b = randomBoxes(random, 64);
+        for (Metric metric : Metric.values())
+            assertMatchesReference(metric, a, 100, b, 64);
+    }
+
+    @Test
+    public void gridBoxesMatchTheReference() {
+        final float[] boxes = gridBoxes();
+        for (Metric metric : Metric.values())
+            assertMatchesReference(metric, boxes, 225, boxes, 225);
+    }
+
+    @Test
+    public void degenerateCases() {
+        final float[] a = {0.1f, 0.1f, 0.3f, 0.3f};
+        final float[] b = {
+                // disjoint
+                0.5f, 0.5f, 0.7f, 0.7f,
+                // touching on an edge
+                0.3f, 0.1f, 0.5f, 0.3f,
+                // identical
+                0.1f, 0.1f, 0.3f, 0.3f,
+                // zero width, inside
+                0.2f, 0.1f, 0.2f, 0.3f,
+                // zero area, on a corner
+                0.3f, 0.3f, 0.3f, 0.3f,
+        };
+        final float[] out = new float[5];
+        BoxGeometry.iouMatrix(a, 1, b, 5, out);
+        assertArrayEquals(new float[]{0, 0, 1, 0, 0}, out, 0);
+        // the disjoint and touching pairs still rank by their distance with GIoU and DIoU
+        for (Metric metric : Metric.values())
+            assertMatchesReference(metric, a, 1, b, 5);
+        BoxGeometry.giouMatrix(a, 1, b, 5, out);
+        assertEquals(1, out[2], TOLERANCE);
+        assertEquals(0, out[1], TOLERANCE);
+        assertEquals(-(0.36f - 0.08f) / 0.36f, out[0], TOLERANCE);
+        BoxGeometry.diouMatrix(a, 1, b, 5, out);
+        assertEquals(1, out[2], TOLERANCE);
+        // two empty boxes at the same point: nothing to compare, 0 rather than NaN
+        final float[] point = {0.3f, 0.3f, 0.3f, 0.3f};
+        for (Metric metric : Metric.values()) {
+            matrix(metric, point, 1, point, 1, out);
+            assertEquals(metric.toString(), 0, out[0], 0);
+        }
+    }
+
+    @Test
+    public void emptySidesWriteNothing() {
+        final float[] boxes = {0.1f, 0.1f, 0.3f, 0.3f};
+        final float[] out = {42};
+        for (Metric metric : Metric.values()) {
+            matrix(metric, boxes, 0, boxes, 1, out);
+            matrix(metric, boxes, 1, boxes, 0, out);
+            matrix(metric, new float[0], 0, new float[0], 0, out);
+            assertEquals(42, out[0], 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsATooSmallOutput() {
+        final float[] boxes = new float[8];
+        BoxGeometry.iouMatrix(boxes, 2, boxes, 2, new float[3]);
+    }
+
+    @Test
+    public void pairIouMatchesTheMatrix() {
+        final Random random = new Random(7);
+        final float[] a = randomBoxes(random, 20);
+        final float[] b = randomBoxes(random, 20);
+        final float[] out = new float[400];
+        BoxGeometry.iouMatrix(a, 20, b, 20, out);
+        for (int i = 0; i < 20; i++)
+            for (int j = 0; j < 20; j++)
+                assertEquals(out[i * 20 + j], BoxGeometry.iou(a[i * 4], a[i * 4 + 1], a[i * 4 + 2], a[i * 4 + 3],
+                        b[j * 4], b[j * 4 + 1], b[j * 4 + 2], b[j * 4 + 3]), 1e-6f);
+    }
+
+    // regression: the right edge of the intersection was a max(), the areas mixed x and y, and
+    // a +1 pixel was added to continuous coordinates
+    @Test
+    public void computeIouIsThePlainIou() {
+        final double epsilon = 1e-12;
+        // identical, disjoint, touching
+        assertEquals(1, BoxGeometry.computeIou(10, 20, 30, 40, 10, 20, 30, 40), epsilon);
+        assertEquals(0, BoxGeometry.computeIou(0, 0, 10, 10, 20, 20, 10, 10), epsilon);
+        assertEquals(0, BoxGeometry.computeIou(0, 0, 10, 10, 10, 0, 10, 10), epsilon);
+        // quarter overlap: 25 / (100 + 100 - 25)
+        assertEquals(1.0 / 7, BoxGeometry.computeIou(0, 0, 10, 10, 5, 5, 10, 10), epsilon);
+        // contained: 16 / 100
+        assertEquals(0.16, BoxGeometry.computeIou(0, 0, 10, 10, 2, 2, 4, 4), epsilon);
+        // not square, and not symmetric in x and y: 100 / (200 + 200 - 100)
+        assertEquals(1.0 / 3, BoxGeometry.computeIou(0, 0, 20, 10, 10, 0, 20, 10), epsilon);
+        assertEquals(1.0 / 3, BoxGeometry.computeIou(10, 0, 20, 10, 0, 0, 20, 10), epsilon);
+        // empty boxes
+        assertEquals(0, BoxGeometry.computeIou(0, 0, 0, 10, 0, 0, 10, 10), epsilon);
+        // the same as the float pair iou()
+        assertEquals(BoxGeometry.iou(0.1f, 0.2f, 0.5f, 0.4f, 0.3f, 0.1f, 0.6f, 0.3f),
+                BoxGeometry.computeIou(0.1, 0.2, 0.4, 0.2, 0.3, 0.1, 0.3, 0.2), 1e-6);
+    }
+}
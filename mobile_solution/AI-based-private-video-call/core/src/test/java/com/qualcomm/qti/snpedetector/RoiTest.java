@@ -0,0 +1,73 @@
+package com.qualcomm.qti.snpedetector;
+
+import com.qualcomm.qti.snpedetector.engine.DetectionBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RoiTest {
+    private static final float EPSILON = 1e-6f;
+
+    @Test
+    public void cropToFrameRoundTrip() {
+        final Roi roi = new Roi().set(0.2f, 0.35f, 0.6f, 0.75f);
+        for (float v = 0; v <= 1; v += 0.125f) {
+            assertEquals(v, roi.toRoiX(roi.toFrameX(v)), EPSILON);
+            assertEquals(v, roi.toRoiY(roi.toFrameY(v)), EPSILON);
+        }
+        // the corners of the crop are the corners of the roi
+        assertEquals(0.2f, roi.toFrameX(0), EPSILON);
+        assertEquals(0.6f, roi.toFrameX(1), EPSILON);
+        assertEquals(0.35f, roi.toFrameY(0), EPSILON);
+        assertEquals(0.75f, roi.toFrameY(1), EPSILON);
+    }
+
+    @Test
+    public void mapsDetectionsToTheFrame() {
+        final Roi roi = new Roi().set(0.2f, 0.35f, 0.6f, 0.75f);
+        final DetectionBuffer detections = new DetectionBuffer(2);
+        detections.left[0] = 0.25f;
+        detections.top[0] = 0.5f;
+        detections.right[0] = 0.75f;
+        detections.bottom[0] = 1;
+        detections.count = 1;
+        roi.mapToFrame(detections);
+        assertEquals(0.3f, detections.left[0], EPSILON);
+        assertEquals(0.55f, detections.top[0], EPSILON);
+        assertEquals(0.5f, detections.right[0], EPSILON);
+        assertEquals(0.75f, detections.bottom[0], EPSILON);
+
+        // a Box maps the same way, and back
+        final Box box = new Box();
+        box.left = 0.25f;
+        box.top = 0.5f;
+        box.right = 0.75f;
+        box.bottom = 1;
+        roi.mapToFrame(box);
+        assertEquals(detections.left[0], box.left, 0);
+        assertEquals(detections.top[0], box.top, 0);
+        assertEquals(detections.right[0], box.right, 0);
+        assertEquals(detections.bottom[0], box.bottom, 0);
+        assertEquals(0.25f, roi.toRoiX(box.left), EPSILON);
+        assertEquals(1, roi.toRoiY(box.bottom), EPSILON);
+    }
+
+    @Test
+    public void fullFrameIsTheIdentity() {
+        final Roi roi = new Roi();
+        assertTrue(roi.isFullFrame());
+        assertEquals(0.3f, roi.toFrameX(0.3f), 0);
+        assertEquals(0.7f, roi.toRoiY(0.7f), 0);
+        roi.set(0, 0, 0.5f, 1);
+        assertFalse(roi.isFullFrame());
+        assertTrue(roi.setFullFrame().isFullFrame());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyRoi() {
+        new Roi().set(0.5f, 0, 0.5f, 1);
+    }
+}
@@ -0,0 +1,146 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import com.qualcomm.qti.snpedetector.Box;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class DetectionBufferTest {
+    // 0-based COCO classes
+    private static final int PERSON = 0;
+    private static final int CAR = 2;
+    private static final int DOG = 17;
+
+    @Test
+    public void stopsAtTheScoreFloor() {
+        // the last one is above the floor, but comes after the first one below it: the NMS
+        // outputs are sorted, so it is never looked at
+        final DetectionOutputs outputs = outputs(
+                new float[]{0.9f, 0.8f, 0.5f, 0.39f, 0.2f, 0.95f},
+                new int[]{PERSON, CAR, PERSON, PERSON, PERSON, PERSON});
+        final DetectionBuffer buffer = new DetectionBuffer(10);
+        buffer.setScoreFloor(0.4f);
+        assertEquals(3, buffer.decode(outputs));
+        assertEquals(3, buffer.getLastScannedCount());
+        assertEquals(0.5f, buffer.scores[2], 0);
+
+        // 0: all of them
+        buffer.setScoreFloor(0);
+        assertEquals(6, buffer.decode(outputs));
+        assertEquals(6, buffer.getLastScannedCount());
+    }
+
+    @Test
+    public void scoreOnTheFloorIsKept() {
+        final DetectionBuffer buffer = new DetectionBuffer(10);
+        buffer.setScoreFloor(0.5f);
+        assertEquals(2, buffer.decode(outputs(new float[]{0.7f, 0.5f, 0.4f}, new int[]{PERSON, PERSON, PERSON})));
+    }
+
+    @Test
+    public void keepsOnlyTheClassesOfThePolicy() {
+        final DetectionOutputs outputs = outputs(
+                new float[]{0.9f, 0.8f, 0.7f, 0.6f, 0.3f},
+                new int[]{CAR, PERSON, DOG, PERSON, PERSON});
+        final DetectionBuffer buffer = new DetectionBuffer(10);
+        buffer.setScoreFloor(0.5f);
+        buffer.setClassPolicy(ClassPolicy.ofLabels("person"));
+        assertEquals(2, buffer.decode(outputs));
+        // compacted, in order, with their boxes
+        assertEquals(0.8f, buffer.scores[0], 0);
+        assertEquals(0.6f, buffer.scores[1], 0);
+        assertEquals(PERSON, buffer.classIds[1]);
+        assertEquals(outputs.boxesN4[3 * 4], buffer.top[1], 0);
+        assertEquals(outputs.boxesN4[3 * 4 + 1], buffer.left[1], 0);
+        assertEquals(outputs.boxesN4[3 * 4 + 2], buffer.bottom[1], 0);
+        assertEquals(outputs.boxesN4[3 * 4 + 3], buffer.right[1], 0);
+        // the dropped classes were looked at, the one below the floor wasn't
+        assertEquals(4, buffer.getLastScannedCount());
+    }
+
+    @Test
+    public void decodesUpToTheCapacity() {
+        final DetectionBuffer buffer = new DetectionBuffer(2);
+        assertEquals(2, buffer.decode(outputs(new float[]{0.9f, 0.8f, 0.7f}, new int[]{PERSON, PERSON, PERSON})));
+    }
+
+    @Test
+    public void asBoxesReusesItsBoxes() {
+        final DetectionBuffer buffer = new DetectionBuffer(4);
+        buffer.decode(outputs(new float[]{0.9f, 0.8f}, new int[]{PERSON, DOG}));
+        final ArrayList<Box> boxes = buffer.asBoxes();
+        assertEquals(2, boxes.size());
+        assertEquals("person", boxes.get(0).type_name);
+        assertEquals("dog", boxes.get(1).type_name);
+        assertEquals(-1, boxes.get(1).track_id);
+        final Box first = boxes.get(0);
+        buffer.decode(outputs(new float[]{0.6f}, new int[]{CAR}));
+        assertSame(boxes, buffer.asBoxes());
+        assertEquals(1, boxes.size());
+        assertSame(first, boxes.get(0));
+        assertEquals("car", first.type_name);
+    }
+
+    @Test
+    public void decodingAllocatesNothing() {
+        final com.sun.management.ThreadMXBean threads = threadMXBean();
+        Assume.assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        final long threadId = Thread.currentThread().getId();
+
+        final DetectionOutputs outputs = outputs(
+                new float[]{0.9f, 0.85f, 0.8f, 0.7f, 0.6f, 0.5f, 0.3f},
+                new int[]{PERSON, CAR, PERSON, DOG, PERSON, PERSON, PERSON});
+        final DetectionBuffer buffer = new DetectionBuffer(100);
+        final DetectionBuffer copy = new DetectionBuffer(100);
+        buffer.setScoreFloor(0.4f);
+        buffer.setClassPolicy(ClassPolicy.ofLabels("person"));
+        // warm-up: the asBoxes() view is allocated on the first call, and the code gets compiled
+        long checksum = decodeFrames(buffer, copy, outputs, 20000);
+
+        // the cost of the measurement itself
+        final long overhead = -threads.getThreadAllocatedBytes(threadId) + threads.getThreadAllocatedBytes(threadId);
+        final long before = threads.getThreadAllocatedBytes(threadId);
+        checksum += decodeFrames(buffer, copy, outputs, 20000);
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+        assertEquals("bytes allocated by 20000 decodes", 0, allocated);
+        assertFalse(checksum == 0);
+    }
+
+    private static long decodeFrames(DetectionBuffer buffer, DetectionBuffer copy, DetectionOutputs outputs, int frames) {
+        long checksum = 0;
+        for (int i = 0; i < frames; i++) {
+            checksum += buffer.decode(outputs);
+            buffer.copyTo(copy);
+            checksum += copy.asBoxes().size();
+        }
+        return checksum;
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) threads : null;
+    }
+
+    // NMS outputs: one box per detection, each a bit further right
+    private static DetectionOutputs outputs(float[] scores, int[] classIds) {
+        final DetectionOutputs outputs = new DetectionOutputs(scores.length);
+        for (int i = 0; i < scores.length; i++) {
+            outputs.boxesN4[i * 4] = 0.1f;
+            outputs.boxesN4[i * 4 + 1] = 0.05f * i;
+            outputs.boxesN4[i * 4 + 2] = 0.6f;
+            outputs.boxesN4[i * 4 + 3] = 0.05f * i + 0.3f;
+            outputs.classesN[i] = classIds[i];
+            outputs.scoresN[i] = scores[i];
+        }
+        outputs.count = scores.length;
+        return outputs;
+    }
+}
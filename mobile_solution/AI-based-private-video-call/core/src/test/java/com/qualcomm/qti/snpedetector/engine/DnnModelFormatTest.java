@@ -0,0 +1,71 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import com.qualcomm.qti.snpedetector.helpers.MobileNetSSDDecoder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DnnModelFormatTest {
+    // 2 pixels, as RGB: (30, 20, 10) and (255, 128, 0)
+    private static final int[][] PIXELS_RGB = {{30, 20, 10}, {255, 128, 0}};
+
+    // the InferenceEngine input of PIXELS_RGB: BGR, -1..1
+    private static float[] engineInput() {
+        final float[] input = new float[PIXELS_RGB.length * 3];
+        for (int p = 0; p < PIXELS_RGB.length; p++) {
+            for (int c = 0; c < 3; c++)
+                input[p * 3 + c] = (PIXELS_RGB[p][2 - c] - InferenceEngine.INPUT_MEAN) * InferenceEngine.INPUT_SCALE;
+        }
+        return input;
+    }
+
+    @Test
+    public void tensorflowTakesRgbPixels() {
+        final float[] chw = new float[PIXELS_RGB.length * 3];
+        DnnModelFormat.TENSORFLOW_SSD.toNetworkInput(engineInput(), chw, PIXELS_RGB.length);
+        for (int p = 0; p < PIXELS_RGB.length; p++) {
+            for (int c = 0; c < 3; c++)
+                assertEquals("pixel " + p + ", channel " + c, PIXELS_RGB[p][c], chw[c * PIXELS_RGB.length + p], 1e-3f);
+        }
+    }
+
+    @Test
+    public void caffeTakesCenteredBgr() {
+        final float[] chw = new float[PIXELS_RGB.length * 3];
+        DnnModelFormat.CAFFE_VOC_SSD.toNetworkInput(engineInput(), chw, PIXELS_RGB.length);
+        for (int p = 0; p < PIXELS_RGB.length; p++) {
+            for (int c = 0; c < 3; c++) {
+                final float expected = (PIXELS_RGB[p][2 - c] - 127.5f) * 0.007843f;
+                assertEquals("pixel " + p + ", channel " + c, expected, chw[c * PIXELS_RGB.length + p], 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    public void tensorflowClassesAreOneBasedCoco() {
+        final DnnModelFormat format = DnnModelFormat.TENSORFLOW_SSD;
+        assertEquals(-1, format.toClassId(0));
+        assertEquals(MobileNetSSDDecoder.findClassId("person"), format.toClassId(1));
+        assertEquals(MobileNetSSDDecoder.findClassId("car"), format.toClassId(3));
+        assertEquals(MobileNetSSDDecoder.findClassId("toothbrush"), format.toClassId(90));
+        assertEquals(-1, format.toClassId(91));
+        assertEquals(-1, format.toClassId(-1));
+    }
+
+    @Test
+    public void caffeClassesAreVoc() {
+        final DnnModelFormat format = DnnModelFormat.CAFFE_VOC_SSD;
+        // 0 is the background, 15 the person (not "bench", the COCO class 15)
+        assertEquals(-1, format.toClassId(0));
+        assertEquals(MobileNetSSDDecoder.findClassId("person"), format.toClassId(15));
+        assertTrue(ClassPolicy.ofLabels("person").accepts(format.toClassId(15)));
+        assertEquals(MobileNetSSDDecoder.findClassId("airplane"), format.toClassId(1));
+        assertEquals(MobileNetSSDDecoder.findClassId("motorcycle"), format.toClassId(14));
+        assertEquals(MobileNetSSDDecoder.findClassId("tv"), format.toClassId(20));
+        assertEquals(-1, format.toClassId(21));
+        for (int vocClass = 1; vocClass <= 20; vocClass++)
+            assertTrue("VOC class " + vocClass, format.toClassId(vocClass) >= 0);
+    }
+}
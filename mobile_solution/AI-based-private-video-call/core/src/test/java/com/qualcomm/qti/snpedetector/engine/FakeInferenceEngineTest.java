@@ -0,0 +1,71 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FakeInferenceEngineTest extends InferenceEngineContract {
+
+    @Override
+    protected InferenceEngine createEngine(int inputSlots) {
+        return new FakeInferenceEngine("fake", 40, 30, inputSlots);
+    }
+
+    @Test
+    public void findsThePersonWhereItWasDrawn() {
+        mEngine.setInput(0, input(0.25f, 0.2f, 0.75f, 0.6f));
+        final DetectionOutputs outputs = new DetectionOutputs(CAPACITY);
+        assertTrue(mEngine.execute(0, outputs));
+        assertEquals(1, outputs.count);
+        assertEquals(0.2f, outputs.boxesN4[0], 1e-6f);
+        assertEquals(0.25f, outputs.boxesN4[1], 1e-6f);
+        assertEquals(0.6f, outputs.boxesN4[2], 1e-6f);
+        assertEquals(0.75f, outputs.boxesN4[3], 1e-6f);
+        assertEquals(0, outputs.classesN[0], 0);
+        assertEquals(FakeInferenceEngine.DETECTION_SCORE, outputs.scoresN[0], 0);
+    }
+
+    @Test
+    public void noRoomForDetections() {
+        mEngine.setInput(0, input(0.25f, 0.2f, 0.75f, 0.6f));
+        final DetectionOutputs outputs = new DetectionOutputs(0);
+        assertTrue(mEngine.execute(0, outputs));
+        assertEquals(0, outputs.count);
+    }
+
+    @Test
+    public void takesTheScriptedTimes() {
+        final FakeInferenceEngine engine = new FakeInferenceEngine("fake", 40, 30, 1);
+        engine.setLatenciesMs(30, 0);
+        final DetectionOutputs outputs = new DetectionOutputs(CAPACITY);
+        long startNs = System.nanoTime();
+        assertTrue(engine.execute(0, outputs));
+        assertTrue(System.nanoTime() - startNs >= 30000000L);
+        // the last one repeats
+        for (int i = 0; i < 3; i++)
+            assertTrue(engine.execute(0, outputs));
+        assertEquals(4, engine.getExecuteCount());
+    }
+
+    @Test
+    public void failsWhenInterrupted() {
+        final FakeInferenceEngine engine = new FakeInferenceEngine("fake", 40, 30, 1);
+        engine.setLatenciesMs(1000);
+        Thread.currentThread().interrupt();
+        assertFalse(engine.execute(0, new DetectionOutputs(CAPACITY)));
+        // and keeps the interrupt for the caller
+        assertTrue(Thread.interrupted());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoInputSlots() {
+        new FakeInferenceEngine("fake", 40, 30, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoLatencies() {
+        new FakeInferenceEngine("fake", 40, 30, 1).setLatenciesMs();
+    }
+}
@@ -0,0 +1,131 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * What the pipeline expects of any InferenceEngine. Subclasses create the engine, with at least
+ * 2 input slots, of a network that detects a bright rectangle on a dark input.
+ */
+public abstract class InferenceEngineContract {
+    protected static final int CAPACITY = 10;
+    protected InferenceEngine mEngine;
+
+    protected abstract InferenceEngine createEngine(int inputSlots);
+
+    @Before
+    public void createEngine() {
+        mEngine = createEngine(2);
+    }
+
+    @After
+    public void releaseEngine() {
+        mEngine.release();
+    }
+
+    @Test
+    public void describesItsInput() {
+        assertTrue(mEngine.getName().length() > 0);
+        assertTrue(mEngine.getInputWidth() > 0);
+        assertTrue(mEngine.getInputHeight() > 0);
+        assertEquals(2, mEngine.getInputSlotCount());
+    }
+
+    @Test
+    public void outputsAreValidDetections() {
+        mEngine.setInput(0, input(0.25f, 0.3f, 0.75f, 0.8f));
+        final DetectionOutputs outputs = new DetectionOutputs(CAPACITY);
+        assertTrue(mEngine.execute(0, outputs));
+        assertTrue(outputs.count > 0 && outputs.count <= CAPACITY);
+        for (int i = 0; i < outputs.count; i++) {
+            if (i > 0)
+                assertTrue("sorted by decreasing score", outputs.scoresN[i] <= outputs.scoresN[i - 1]);
+            final float top = outputs.boxesN4[i * 4], left = outputs.boxesN4[i * 4 + 1];
+            final float bottom = outputs.boxesN4[i * 4 + 2], right = outputs.boxesN4[i * 4 + 3];
+            assertTrue(0 <= top && top < bottom && bottom <= 1);
+            assertTrue(0 <= left && left < right && right <= 1);
+        }
+    }
+
+    @Test
+    public void copiesTheInput() {
+        final float[] input = input(0.25f, 0.3f, 0.75f, 0.8f);
+        mEngine.setInput(0, input);
+        final DetectionOutputs expected = new DetectionOutputs(CAPACITY);
+        assertTrue(mEngine.execute(0, expected));
+        // the caller re-uses its array right after setInput()
+        mEngine.setInput(0, input);
+        Arrays.fill(input, -1);
+        final DetectionOutputs outputs = new DetectionOutputs(CAPACITY);
+        assertTrue(mEngine.execute(0, outputs));
+        assertSameDetections(expected, outputs);
+    }
+
+    @Test
+    public void slotsAreIndependent() {
+        final float[] bright = input(0.1f, 0.1f, 0.5f, 0.6f);
+        final float[] dark = input(0, 0, 0, 0);
+        mEngine.setInput(0, bright);
+        mEngine.setInput(1, dark);
+        final DetectionOutputs fromDark = new DetectionOutputs(CAPACITY);
+        final DetectionOutputs fromBright = new DetectionOutputs(CAPACITY);
+        // in any order
+        assertTrue(mEngine.execute(1, fromDark));
+        assertTrue(mEngine.execute(0, fromBright));
+        assertEquals(0, fromDark.count);
+        assertTrue(fromBright.count > 0);
+    }
+
+    @Test
+    public void writesASlotWhileAnotherExecutes() throws InterruptedException {
+        mEngine.setInput(0, input(0.2f, 0.2f, 0.6f, 0.6f));
+        final DetectionOutputs expected = new DetectionOutputs(CAPACITY);
+        assertTrue(mEngine.execute(0, expected));
+
+        final DetectionOutputs outputs = new DetectionOutputs(CAPACITY);
+        final boolean[] executed = new boolean[1];
+        final Thread executing = new Thread(() -> executed[0] = mEngine.execute(0, outputs));
+        executing.start();
+        final float[] other = input(0.5f, 0.5f, 0.9f, 0.9f);
+        for (int i = 0; i < 20; i++)
+            mEngine.setInput(1, other);
+        executing.join();
+        assertTrue(executed[0]);
+        assertSameDetections(expected, outputs);
+    }
+
+    @Test
+    public void isDeterministic() {
+        mEngine.setInput(1, input(0.3f, 0.1f, 0.9f, 0.4f));
+        final DetectionOutputs first = new DetectionOutputs(CAPACITY);
+        final DetectionOutputs second = new DetectionOutputs(CAPACITY);
+        assertTrue(mEngine.execute(1, first));
+        assertTrue(mEngine.execute(1, second));
+        assertSameDetections(first, second);
+    }
+
+    // normalized BGR (-1..1) floats: black, with a white rectangle (in 0..1 of the input)
+    protected float[] input(float left, float top, float right, float bottom) {
+        final int width = mEngine.getInputWidth(), height = mEngine.getInputHeight();
+        final float[] floats = new float[width * height * 3];
+        Arrays.fill(floats, -1);
+        for (int y = Math.round(top * height); y < Math.round(bottom * height); y++)
+            for (int x = Math.round(left * width); x < Math.round(right * width); x++)
+                Arrays.fill(floats, (y * width + x) * 3, (y * width + x) * 3 + 3, 1);
+        return floats;
+    }
+
+    private static void assertSameDetections(DetectionOutputs expected, DetectionOutputs actual) {
+        assertEquals(expected.count, actual.count);
+        assertArrayEquals(Arrays.copyOf(expected.boxesN4, expected.count * 4), Arrays.copyOf(actual.boxesN4, actual.count * 4), 0);
+        assertArrayEquals(Arrays.copyOf(expected.classesN, expected.count), Arrays.copyOf(actual.classesN, actual.count), 0);
+        assertArrayEquals(Arrays.copyOf(expected.scoresN, expected.count), Arrays.copyOf(actual.scoresN, actual.count), 0);
+    }
+}
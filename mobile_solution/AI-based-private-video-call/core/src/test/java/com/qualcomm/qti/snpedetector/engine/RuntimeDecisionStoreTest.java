@@ -0,0 +1,110 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RuntimeDecisionStoreTest {
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void decisionIsReusedOnTheNextStart() throws IOException {
+        final File file = new File(mFolder.getRoot(), "decisions.properties");
+        final String key = RuntimeDecisionStore.createKey("Pixel 3", "1.19.2", "9f86d081");
+        final AtomicInteger probes = new AtomicInteger();
+
+        // first start: probed, then stored
+        assertEquals("GPU", decide(new RuntimeDecisionStore(file), key, probes));
+        assertEquals(1, probes.get());
+        // next start: read back from the file, no probing
+        assertEquals("GPU", decide(new RuntimeDecisionStore(file), key, probes));
+        assertEquals(1, probes.get());
+    }
+
+    @Test
+    public void anotherModelIsProbedAgain() throws IOException {
+        final File file = new File(mFolder.getRoot(), "decisions.properties");
+        final String key = RuntimeDecisionStore.createKey("Pixel 3", "1.19.2", "9f86d081");
+        final AtomicInteger probes = new AtomicInteger();
+        decide(new RuntimeDecisionStore(file), key, probes);
+
+        // the model changed: its hash too, so the decision of the old one doesn't apply
+        final String otherModel = RuntimeDecisionStore.createKey("Pixel 3", "1.19.2", "e3b0c442");
+        assertNull(new RuntimeDecisionStore(file).get(otherModel));
+        decide(new RuntimeDecisionStore(file), otherModel, probes);
+        assertEquals(2, probes.get());
+        // same for another SDK version
+        assertNull(new RuntimeDecisionStore(file).get(RuntimeDecisionStore.createKey("Pixel 3", "1.20.0", "9f86d081")));
+        // and both decisions are kept
+        final RuntimeDecisionStore store = new RuntimeDecisionStore(file);
+        assertEquals("GPU", store.get(key));
+        assertEquals("GPU", store.get(otherModel));
+    }
+
+    @Test
+    public void removedDecisionIsProbedAgain() throws IOException {
+        final File file = new File(mFolder.getRoot(), "decisions.properties");
+        final String key = RuntimeDecisionStore.createKey("Pixel 3", "1.19.2", "9f86d081");
+        final AtomicInteger probes = new AtomicInteger();
+        decide(new RuntimeDecisionStore(file), key, probes);
+        // the decided runtime stopped loading
+        new RuntimeDecisionStore(file).remove(key);
+        assertNull(new RuntimeDecisionStore(file).get(key));
+        decide(new RuntimeDecisionStore(file), key, probes);
+        assertEquals(2, probes.get());
+    }
+
+    @Test
+    public void unreadableFileIsAnEmptyStore() throws IOException {
+        final File file = mFolder.newFile("decisions.properties");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            // a malformed \\uXXXX escape
+            out.write("key=\\u12".getBytes("ISO-8859-1"));
+        }
+        final RuntimeDecisionStore store = new RuntimeDecisionStore(file);
+        assertNull(store.get("key"));
+        assertTrue(store.put("key", "CPU"));
+        assertEquals("CPU", new RuntimeDecisionStore(file).get("key"));
+    }
+
+    @Test
+    public void unwritableFileKeepsTheDecisionInMemory() throws IOException {
+        // the parent is a file: the directory can't be created
+        final File file = new File(mFolder.newFile("not-a-directory"), "decisions.properties");
+        final RuntimeDecisionStore store = new RuntimeDecisionStore(file);
+        assertFalse(store.put("key", "DSP"));
+        assertEquals("DSP", store.get("key"));
+    }
+
+    // what the app does on start: the stored runtime, or the fastest one measured, then stored
+    private static String decide(RuntimeDecisionStore store, String key, AtomicInteger probes) {
+        final String decided = store.get(key);
+        if (decided != null)
+            return decided;
+        probes.incrementAndGet();
+        final RuntimeSelector selector = new RuntimeSelector(0, 1);
+        selector.addReferenceCandidate("CPU", () -> scripted("CPU", 20));
+        selector.addCandidate("GPU", () -> scripted("GPU", 1));
+        final RuntimeSelector.Selection selection = selector.select();
+        selection.engine.release();
+        store.put(key, selection.selectedName);
+        return selection.selectedName;
+    }
+
+    private static InferenceEngine scripted(String name, long latencyMs) {
+        final FakeInferenceEngine engine = new FakeInferenceEngine(name, 32, 24, 1);
+        engine.setLatenciesMs(latencyMs);
+        return engine;
+    }
+}
@@ -0,0 +1,253 @@
+package com.qualcomm.qti.snpedetector.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RuntimeSelector on fake runtimes, with scripted latencies and failures.
+ */
+public class RuntimeSelectorTest {
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 24;
+
+    private final List<ScriptedEngine> mLoaded = new ArrayList<>();
+
+    @Test
+    public void selectsTheFastestRuntime() {
+        final RuntimeSelector selector = new RuntimeSelector(1, 3);
+        selector.addReferenceCandidate("CPU", loader("CPU", 30));
+        selector.addCandidate("GPU", loader("GPU", 2));
+        selector.addCandidate("DSP", loader("DSP", 12));
+        final RuntimeSelector.Selection selection = selector.select();
+
+        assertEquals("GPU", selection.selectedName);
+        assertSame(engine("GPU"), selection.engine);
+        assertEquals(3, selection.results.size());
+        for (RuntimeSelector.Result result : selection.results)
+            assertTrue(result.toString(), result.isEligible());
+        // only the winner stays loaded
+        assertFalse(engine("GPU").released);
+        assertTrue(engine("CPU").released);
+        assertTrue(engine("DSP").released);
+        assertTrue(selection.results.get(1).medianExecuteMs < selection.results.get(0).medianExecuteMs);
+    }
+
+    @Test
+    public void skipsTheRuntimesThatFail() {
+        final RuntimeSelector selector = new RuntimeSelector(1, 3);
+        selector.addReferenceCandidate("CPU", loader("CPU", 20));
+        // fastest, but each one fails in its own way
+        selector.addCandidate("THROWS", () -> {
+            throw new IllegalStateException("no such runtime");
+        });
+        selector.addCandidate("MISSING", () -> null);
+        selector.addCandidate("CRASHES", () -> load("CRASHES", 1, true, 0));
+        selector.addCandidate("WRONG", () -> load("WRONG", 1, false, 0.5f));
+        selector.addCandidate("DSP", loader("DSP", 8));
+        final RuntimeSelector.Selection selection = selector.select();
+
+        assertEquals("DSP", selection.selectedName);
+        assertEquals("load failed: java.lang.IllegalStateException: no such runtime", selection.results.get(1).rejection);
+        assertEquals("not available", selection.results.get(2).rejection);
+        assertFalse(selection.results.get(3).executed);
+        assertEquals("execute failed", selection.results.get(3).rejection);
+        assertTrue(selection.results.get(4).executed);
+        assertFalse(selection.results.get(4).accurate);
+        for (int i = 1; i <= 4; i++)
+            assertFalse(selection.results.get(i).isEligible());
+        assertTrue(engine("CRASHES").released);
+        assertTrue(engine("WRONG").released);
+    }
+
+    @Test
+    public void noRuntimeWorks() {
+        final RuntimeSelector selector = new RuntimeSelector(0, 1);
+        selector.addReferenceCandidate("CPU", () -> load("CPU", 0, true, 0));
+        selector.addCandidate("GPU", () -> null);
+        final RuntimeSelector.Selection selection = selector.select();
+        assertNull(selection.selectedName);
+        assertNull(selection.engine);
+        assertTrue(engine("CPU").released);
+    }
+
+    @Test
+    public void theReferenceRunsFirst() {
+        final ArrayList<String> loadOrder = new ArrayList<>();
+        final RuntimeSelector selector = new RuntimeSelector(0, 1);
+        selector.addCandidate("GPU", () -> {
+            loadOrder.add("GPU");
+            return load("GPU", 0, false, 0);
+        });
+        selector.addReferenceCandidate("CPU", () -> {
+            loadOrder.add("CPU");
+            return load("CPU", 0, false, 0);
+        });
+        selector.select();
+        assertEquals("[CPU, GPU]", loadOrder.toString());
+    }
+
+    // e.g. a badly quantized DSP run: fast, but it finds nobody
+    @Test
+    public void rejectsARuntimeThatDetectsNothing() {
+        final RuntimeSelector selector = new RuntimeSelector(0, 1);
+        selector.addReferenceCandidate("CPU", loader("CPU", 10));
+        selector.addCandidate("DSP", () -> load("DSP", 0, false, 0).blind());
+        final RuntimeSelector.Selection selection = selector.select();
+        assertEquals("CPU", selection.selectedName);
+        assertTrue(selection.accuracyChecked);
+        assertFalse(selection.results.get(1).accurate);
+        assertEquals("no detections, CPU has 1", selection.results.get(1).rejection);
+    }
+
+    @Test
+    public void nothingToCompareOnAnEmptyPicture() {
+        final RuntimeSelector selector = new RuntimeSelector(0, 1);
+        selector.addReferenceCandidate("CPU", loader("CPU", 10));
+        selector.addCandidate("DSP", () -> load("DSP", 0, false, 0).blind());
+        // dark: the fake engines find nothing on it
+        final float[] dark = new float[WIDTH * HEIGHT * 3];
+        Arrays.fill(dark, -1);
+        selector.setProbeInput(dark);
+        final RuntimeSelector.Selection selection = selector.select();
+        assertEquals("DSP", selection.selectedName);
+        assertFalse(selection.accuracyChecked);
+        assertTrue(selection.toString().contains("(detections not compared)"));
+    }
+
+    @Test
+    public void probesWithAPicture() {
+        // a light person-sized rectangle on a dark picture, twice the size of the input
+        final int width = 2 * WIDTH;
+        final int height = 2 * HEIGHT;
+        final int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                pixels[y * width + x] = x >= width / 4 && x < width / 2 && y >= height / 8 ? 0xFFE0E0E0 : 0xFF202020;
+        final RuntimeSelector selector = new RuntimeSelector(0, 1);
+        selector.addReferenceCandidate("CPU", loader("CPU", 10));
+        selector.addCandidate("GPU", loader("GPU", 0));
+        selector.addCandidate("DSP", () -> load("DSP", 0, false, 0).blind());
+        selector.setProbeImage(pixels, width, height, InferenceEngine.INPUT_MEAN, InferenceEngine.INPUT_SCALE, true);
+        final RuntimeSelector.Selection selection = selector.select();
+        assertEquals("GPU", selection.selectedName);
+        assertTrue(selection.accuracyChecked);
+        assertFalse(selection.results.get(2).isEligible());
+    }
+
+    // a 2x1 picture (red, blue) into a 4x4 input: scaled 2x, between black bars of a row each
+    @Test
+    public void probePictureIsLetterboxedAndNormalized() {
+        final int[] pixels = {0xFFFF0000, 0xFF0000FF};
+        final float[] bgr = RuntimeSelector.createProbeInput(pixels, 2, 1, 4, 4, 127.5f, 1 / 127.5f, true);
+        final float[] rgb = RuntimeSelector.createProbeInput(pixels, 2, 1, 4, 4, 0, 1, false);
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                final int i = (y * 4 + x) * 3;
+                final boolean bar = y == 0 || y == 3;
+                final boolean red = !bar && x < 2;
+                final boolean blue = !bar && x >= 2;
+                assertEquals(blue ? 1 : -1, bgr[i], 1e-6f);
+                assertEquals(-1, bgr[i + 1], 1e-6f);
+                assertEquals(red ? 1 : -1, bgr[i + 2], 1e-6f);
+                assertEquals(red ? 255 : 0, rgb[i], 0);
+                assertEquals(0, rgb[i + 1], 0);
+                assertEquals(blue ? 255 : 0, rgb[i + 2], 0);
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void onlyOneReference() {
+        new RuntimeSelector(0, 1).addReferenceCandidate("CPU", loader("CPU", 0)).addReferenceCandidate("GPU", loader("GPU", 0));
+    }
+
+    // a runtime that works, at that speed
+    private RuntimeSelector.EngineLoader loader(String name, long latencyMs) {
+        return () -> load(name, latencyMs, false, 0);
+    }
+
+    private ScriptedEngine load(String name, long latencyMs, boolean failExecute, float boxShift) {
+        final ScriptedEngine engine = new ScriptedEngine(name, latencyMs, failExecute, boxShift);
+        mLoaded.add(engine);
+        return engine;
+    }
+
+    private ScriptedEngine engine(String name) {
+        for (ScriptedEngine engine : mLoaded)
+            if (engine.getName().equals(name))
+                return engine;
+        throw new AssertionError(name + " was not loaded");
+    }
+
+    // a FakeInferenceEngine that takes a scripted time, and can fail or move its detections
+    private static final class ScriptedEngine implements InferenceEngine {
+        private final FakeInferenceEngine mFake;
+        private final boolean mFailExecute;
+        private final float mBoxShift;
+        private boolean mBlind;
+        boolean released;
+
+        ScriptedEngine(String name, long latencyMs, boolean failExecute, float boxShift) {
+            mFake = new FakeInferenceEngine(name, WIDTH, HEIGHT, 1);
+            mFake.setLatenciesMs(latencyMs);
+            mFailExecute = failExecute;
+            mBoxShift = boxShift;
+        }
+
+        // detects nothing from now on
+        ScriptedEngine blind() {
+            mBlind = true;
+            return this;
+        }
+
+        @Override
+        public String getName() {
+            return mFake.getName();
+        }
+
+        @Override
+        public int getInputWidth() {
+            return mFake.getInputWidth();
+        }
+
+        @Override
+        public int getInputHeight() {
+            return mFake.getInputHeight();
+        }
+
+        @Override
+        public int getInputSlotCount() {
+            return mFake.getInputSlotCount();
+        }
+
+        @Override
+        public void setInput(int slot, float[] inputFloatsHW3) {
+            mFake.setInput(slot, inputFloatsHW3);
+        }
+
+        @Override
+        public boolean execute(int slot, DetectionOutputs outputs) {
+            if (!mFake.execute(slot, outputs) || mFailExecute)
+                return false;
+            if (mBlind)
+                outputs.count = 0;
+            for (int i = 0; i < outputs.count * 4; i++)
+                outputs.boxesN4[i] = Math.min(1, outputs.boxesN4[i] + mBoxShift);
+            return true;
+        }
+
+        @Override
+        public void release() {
+            released = true;
+        }
+    }
+}
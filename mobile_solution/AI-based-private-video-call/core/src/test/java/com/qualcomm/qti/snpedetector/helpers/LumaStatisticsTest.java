@@ -0,0 +1,76 @@
+package com.qualcomm.qti.snpedetector.helpers;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LumaStatisticsTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    // with the default stride of 8
+    private static final int SAMPLES = (WIDTH / 8) * (HEIGHT / 8);
+
+    // a flat gray NV21 frame
+    private static byte[] flat(int luma) {
+        final byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(nv21, 0, WIDTH * HEIGHT, (byte) luma);
+        Arrays.fill(nv21, WIDTH * HEIGHT, nv21.length, (byte) 128);
+        return nv21;
+    }
+
+    // 8x8 squares of 'dark' and 'light': every sample differs from its neighbours
+    private static byte[] checkerboard(int dark, int light) {
+        final byte[] nv21 = flat(0);
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++)
+                nv21[y * WIDTH + x] = (byte) (((x / 8 + y / 8) & 1) == 0 ? dark : light);
+        return nv21;
+    }
+
+    @Test
+    public void meanAndHistogram() {
+        final LumaStatistics statistics = new LumaStatistics();
+        assertTrue(statistics.analyze(checkerboard(40, 200), WIDTH, HEIGHT));
+        assertEquals(SAMPLES, statistics.getSampleCount());
+        assertEquals(120, statistics.getMeanLuma(), 1e-3f);
+        final int[] histogram = statistics.getHistogram();
+        assertEquals(LumaStatistics.HISTOGRAM_BINS, histogram.length);
+        assertEquals(SAMPLES / 2, histogram[40 >> 4]);
+        assertEquals(SAMPLES / 2, histogram[200 >> 4]);
+        // the next frame starts from an empty histogram
+        statistics.analyze(flat(255), WIDTH, HEIGHT);
+        assertEquals(SAMPLES, histogram[LumaStatistics.HISTOGRAM_BINS - 1]);
+        assertEquals(0, histogram[40 >> 4]);
+    }
+
+    @Test
+    public void sharpness() {
+        final LumaStatistics statistics = new LumaStatistics();
+        statistics.analyze(flat(120), WIDTH, HEIGHT);
+        assertEquals(0, statistics.getSharpness(), 0);
+        statistics.analyze(checkerboard(40, 200), WIDTH, HEIGHT);
+        assertEquals(160, statistics.getSharpness(), 1e-3f);
+    }
+
+    @Test
+    public void darkFramesAreRejected() {
+        final LumaStatistics statistics = new LumaStatistics();
+        assertFalse(statistics.analyze(flat(LumaStatistics.DEFAULT_MIN_MEAN_LUMA - 1), WIDTH, HEIGHT));
+        assertTrue(statistics.analyze(flat(LumaStatistics.DEFAULT_MIN_MEAN_LUMA), WIDTH, HEIGHT));
+    }
+
+    // a flat (or blurry) frame is kept, unless the blur gate is turned on
+    @Test
+    public void blurGateIsOffByDefault() {
+        final LumaStatistics statistics = new LumaStatistics();
+        assertTrue(statistics.analyze(flat(120), WIDTH, HEIGHT));
+        statistics.setMinSharpness(10);
+        assertFalse(statistics.analyze(flat(120), WIDTH, HEIGHT));
+        assertTrue(statistics.analyze(checkerboard(40, 200), WIDTH, HEIGHT));
+        assertTrue(statistics.toString(), statistics.toString().startsWith("rejected 0 dark and 1 blurry of 3 frames"));
+    }
+}
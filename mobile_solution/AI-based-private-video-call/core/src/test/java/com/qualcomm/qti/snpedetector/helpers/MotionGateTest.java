@@ -0,0 +1,53 @@
+package com.qualcomm.qti.snpedetector.helpers;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotionGateTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    // a flat gray NV21 frame
+    private static byte[] frame(int luma) {
+        final byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(nv21, 0, WIDTH * HEIGHT, (byte) luma);
+        Arrays.fill(nv21, WIDTH * HEIGHT, nv21.length, (byte) 128);
+        return nv21;
+    }
+
+    @Test
+    public void staticFramesAreSkipped() {
+        final MotionGate gate = new MotionGate();
+        final byte[] frame = frame(100);
+        assertTrue(gate.shouldInfer(frame, WIDTH, HEIGHT));
+        assertFalse(gate.shouldInfer(frame, WIDTH, HEIGHT));
+        assertTrue(gate.shouldInfer(frame(160), WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void skipsAreBounded() {
+        final MotionGate gate = new MotionGate();
+        gate.setMaxConsecutiveSkips(2);
+        final byte[] frame = frame(100);
+        assertTrue(gate.shouldInfer(frame, WIDTH, HEIGHT));
+        assertFalse(gate.shouldInfer(frame, WIDTH, HEIGHT));
+        assertFalse(gate.shouldInfer(frame, WIDTH, HEIGHT));
+        assertTrue(gate.shouldInfer(frame, WIDTH, HEIGHT));
+    }
+
+    // a dark frame in between (rejected before the gate): the frame after it is inferred, even
+    // if it is the same as the reference from before
+    @Test
+    public void invalidateInfersTheNextFrame() {
+        final MotionGate gate = new MotionGate();
+        final byte[] frame = frame(100);
+        assertTrue(gate.shouldInfer(frame, WIDTH, HEIGHT));
+        gate.invalidate();
+        assertTrue(gate.shouldInfer(frame, WIDTH, HEIGHT));
+        assertFalse(gate.shouldInfer(frame, WIDTH, HEIGHT));
+    }
+}
@@ -0,0 +1,250 @@
+package com.qualcomm.qti.snpedetector.helpers;
+
+import com.qualcomm.qti.snpedetector.Roi;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The fused kernel against the three passes it replaced: NV21 -> RGB at preview size, the
+ * Canvas Matrix (scale to fit, center, rotate around the integer center of the input) with
+ * bilinear filtering into the model input, then normalization.
+ * <p>
+ * The kernel filters in YUV and converts once, the reference converts and then filters, so the
+ * two agree within TOLERANCE levels wherever the conversion is linear: pixels next to a clamped
+ * (0 or 255) channel, and pixels on the edge of the letterbox bands, are not compared.
+ */
+public class NV21ToTensorKernelTest {
+    private static final int TOLERANCE = 3;
+
+    // mean, scale, bgr: the default (-1..1 BGR), and the other layouts a manifest can ask for
+    private static final float[][] NORMALIZATIONS = {
+            {127.5f, RgbaToFloatHelper.INPUT_SCALE, 1},
+            {127.5f, RgbaToFloatHelper.INPUT_SCALE, 0},
+            {0, 1 / 255f, 0},
+            {123, 1 / 58f, 1},
+    };
+
+    @Test
+    public void matchesThreePassesAtEveryRotation() {
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            compare(640, 480, rotation, false, 300, 300, null, NORMALIZATIONS[0]);
+            compare(640, 480, rotation, true, 300, 300, null, NORMALIZATIONS[0]);
+        }
+    }
+
+    @Test
+    public void matchesThreePassesAtOddSizes() {
+        compare(322, 242, 270, false, 299, 227, null, NORMALIZATIONS[0]);
+        compare(322, 242, 90, false, 227, 299, null, NORMALIZATIONS[0]);
+        compare(178, 334, 0, false, 151, 97, null, NORMALIZATIONS[0]);
+        compare(96, 64, 270, false, 301, 301, null, NORMALIZATIONS[0]);
+    }
+
+    @Test
+    public void matchesThreePassesOnARoi() {
+        compare(640, 480, 270, false, 300, 300, new Roi().set(0.25f, 0.1f, 0.75f, 0.6f), NORMALIZATIONS[0]);
+        compare(640, 480, 0, false, 300, 300, new Roi().set(0.6f, 0.4f, 0.95f, 0.75f), NORMALIZATIONS[0]);
+        // past the edges of the frame: that part is black
+        compare(322, 242, 270, false, 299, 227, new Roi().set(-0.2f, -0.1f, 0.3f, 0.45f), NORMALIZATIONS[0]);
+    }
+
+    @Test
+    public void matchesThreePassesInEveryNormalization() {
+        for (float[] normalization : NORMALIZATIONS) {
+            compare(640, 480, 270, false, 300, 300, null, normalization);
+            compare(322, 242, 0, false, 299, 227, new Roi().set(0.1f, 0.2f, 0.7f, 0.9f), normalization);
+        }
+    }
+
+    @Test
+    public void defaultNormalizationIsTheBitmapPathOne() {
+        final NV21ToTensorKernel kernel = new NV21ToTensorKernel();
+        kernel.configure(640, 480, 270, false, 300, 300);
+        assertTrue(kernel.isNormalizedAs(127.5f, RgbaToFloatHelper.INPUT_SCALE, true));
+
+        // and the same floats as RgbaToFloatHelper, given the same pixels
+        final byte[] nv21 = syntheticNV21(640, 480, 3);
+        final float[] floats = new float[300 * 300 * 3];
+        final int[] argb = new int[300 * 300];
+        final long sumG = kernel.convert(nv21, floats, argb);
+        final byte[] rgba = new byte[300 * 300 * 4];
+        for (int i = 0; i < argb.length; i++) {
+            rgba[i * 4] = (byte) (argb[i] >> 16);
+            rgba[i * 4 + 1] = (byte) (argb[i] >> 8);
+            rgba[i * 4 + 2] = (byte) argb[i];
+        }
+        final float[] expected = new float[floats.length];
+        assertEquals(RgbaToFloatHelper.rgbaToNormalFloatsBGR(rgba, expected, argb.length), sumG);
+        for (int i = 0; i < floats.length; i++)
+            assertEquals(expected[i], floats[i], 1e-6f);
+    }
+
+    @Test
+    public void stripesAddUpToTheWholeFrame() {
+        final NV21ToTensorKernel kernel = new NV21ToTensorKernel();
+        kernel.configure(322, 242, 270, false, 299, 227);
+        final byte[] nv21 = syntheticNV21(322, 242, 5);
+        final float[] whole = new float[299 * 227 * 3];
+        final float[] striped = new float[whole.length];
+        final long sumG = kernel.convert(nv21, whole, null);
+        long stripedSumG = 0;
+        for (int row = 0; row < 227; row += 50)
+            stripedSumG += kernel.convertRows(nv21, striped, null, row, Math.min(227, row + 50));
+        assertEquals(sumG, stripedSumG);
+        for (int i = 0; i < whole.length; i++)
+            assertEquals(whole[i], striped[i], 0);
+    }
+
+    private static void compare(int previewWidth, int previewHeight, int rotation, boolean mirror,
+                                int inputWidth, int inputHeight, Roi roi, float[] normalization) {
+        final String what = previewWidth + "x" + previewHeight + " -> " + inputWidth + "x" + inputHeight +
+                " rot " + rotation + (mirror ? " mirrored" : "") + (roi != null ? " roi " + roi : "") +
+                " norm " + normalization[0] + "," + normalization[1] + "," + normalization[2];
+        final float mean = normalization[0];
+        final float scale = normalization[1];
+        final boolean bgr = normalization[2] != 0;
+        final byte[] nv21 = syntheticNV21(previewWidth, previewHeight, previewWidth * 31 + rotation);
+
+        final NV21ToTensorKernel kernel = new NV21ToTensorKernel();
+        kernel.configure(previewWidth, previewHeight, rotation, mirror, inputWidth, inputHeight, roi);
+        kernel.setNormalization(mean, scale, bgr);
+        final float[] fused = new float[inputWidth * inputHeight * 3];
+        kernel.convert(nv21, fused, null);
+
+        // 1. NV21 -> RGB, full preview size
+        final int[] previewRgb = new int[previewWidth * previewHeight];
+        for (int y = 0; y < previewHeight; y++)
+            for (int x = 0; x < previewWidth; x++)
+                previewRgb[y * previewWidth + x] = NV21ToTensorKernel.yuvToRgb(nv21, y * previewWidth + x,
+                        previewWidth * previewHeight + (y >> 1) * previewWidth + (x & ~1));
+
+        // 2. the inverse of the Canvas Matrix, in doubles
+        final double[] inverse = inverseCanvasMatrix(previewWidth, previewHeight, rotation, mirror, inputWidth, inputHeight);
+        final double roiLeft = roi == null ? 0 : roi.left, roiTop = roi == null ? 0 : roi.top;
+        final double roiWidth = roi == null ? 1 : roi.width(), roiHeight = roi == null ? 1 : roi.height();
+        final double[][] source = new double[inputWidth * inputHeight][];
+        for (int oy = 0; oy < inputHeight; oy++) {
+            for (int ox = 0; ox < inputWidth; ox++) {
+                final double x = roiLeft * inputWidth + (ox + 0.5) * roiWidth;
+                final double y = roiTop * inputHeight + (oy + 0.5) * roiHeight;
+                final double sx = inverse[0] * x + inverse[1] * y + inverse[2];
+                final double sy = inverse[3] * x + inverse[4] * y + inverse[5];
+                if (sx >= 0 && sy >= 0 && sx < previewWidth && sy < previewHeight)
+                    source[oy * inputWidth + ox] = new double[]{sx, sy};
+            }
+        }
+
+        int compared = 0, inside = 0, maxDiff = 0;
+        for (int oy = 0; oy < inputHeight; oy++) {
+            for (int ox = 0; ox < inputWidth; ox++) {
+                final int i = oy * inputWidth + ox;
+                final double[] s = source[i];
+                final int[] rgb = new int[3];
+                boolean linear = !isLetterboxEdge(source, ox, oy, inputWidth, inputHeight);
+                if (s != null) {
+                    inside++;
+                    linear &= bilinear(previewRgb, previewWidth, previewHeight, s[0], s[1], rgb);
+                }
+                // 3. normalize
+                for (int c = 0; c < 3; c++) {
+                    final int channel = bgr ? 2 - c : c;
+                    final float expected = (rgb[channel] - mean) * scale;
+                    final float actual = fused[i * 3 + c];
+                    if (!linear)
+                        continue;
+                    final int diff = Math.round(Math.abs(actual - expected) / scale);
+                    maxDiff = Math.max(maxDiff, diff);
+                    assertTrue(what + ": pixel " + ox + "," + oy + " channel " + c + " differs by " + diff,
+                            diff <= TOLERANCE);
+                }
+                if (s != null && linear)
+                    compared++;
+            }
+        }
+        assertTrue(what + ": only " + compared + " of " + inside + " pixels compared", compared * 10 >= inside * 8);
+        assertTrue(what + ": max diff " + maxDiff, maxDiff <= TOLERANCE);
+    }
+
+    // (model input) -> (preview), as {a, b, c, d, e, f}: x' = a x + b y + c, y' = d x + e y + f
+    private static double[] inverseCanvasMatrix(int previewWidth, int previewHeight, int rotation, boolean mirror,
+                                                int inputWidth, int inputHeight) {
+        // forward, like the app did it: postScale, postTranslate(bands), rotate around the
+        // integer center of the input, then (if mirrored) flip horizontally
+        final double scale = Math.min((double) inputWidth / previewWidth, (double) inputHeight / previewHeight);
+        final double bandX = (inputWidth - previewWidth * scale) / 2;
+        final double bandY = (inputHeight - previewHeight * scale) / 2;
+        final double cx = inputWidth / 2, cy = inputHeight / 2;
+        final double angle = Math.toRadians(-rotation);
+        final double cos = Math.round(Math.cos(angle)), sin = Math.round(Math.sin(angle));
+        final double m = mirror ? -1 : 1;
+        final double a = m * cos * scale, b = -m * sin * scale;
+        final double c = m * (cos * (bandX - cx) - sin * (bandY - cy) + cx) + (mirror ? inputWidth : 0);
+        final double d = sin * scale, e = cos * scale;
+        final double f = sin * (bandX - cx) + cos * (bandY - cy) + cy;
+        final double det = a * e - b * d;
+        return new double[]{
+                e / det, -b / det, (b * f - e * c) / det,
+                -d / det, a / det, (d * c - a * f) / det};
+    }
+
+    // a pixel next to one on the other side of a band edge: its center may be on that edge
+    private static boolean isLetterboxEdge(double[][] source, int ox, int oy, int width, int height) {
+        final boolean inside = source[oy * width + ox] != null;
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                final int x = ox + dx, y = oy + dy;
+                if (x >= 0 && y >= 0 && x < width && y < height && (source[y * width + x] != null) != inside)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    // filtered like a Bitmap drawn with FILTER_BITMAP_FLAG, clamped to the edges; false if any
+    // of the 4 samples has a clamped channel
+    private static boolean bilinear(int[] rgb, int width, int height, double sx, double sy, int[] out) {
+        final double fx = sx - 0.5, fy = sy - 0.5;
+        final int x0f = (int) Math.floor(fx), y0f = (int) Math.floor(fy);
+        final double wx = fx - x0f, wy = fy - y0f;
+        final int x0 = Math.max(0, x0f), y0 = Math.max(0, y0f);
+        final int x1 = Math.min(width - 1, x0f + 1), y1 = Math.min(height - 1, y0f + 1);
+        final int p00 = rgb[y0 * width + x0], p01 = rgb[y0 * width + x1];
+        final int p10 = rgb[y1 * width + x0], p11 = rgb[y1 * width + x1];
+        boolean linear = true;
+        for (int c = 0; c < 3; c++) {
+            final int shift = 16 - c * 8;
+            final int v00 = (p00 >> shift) & 0xFF, v01 = (p01 >> shift) & 0xFF;
+            final int v10 = (p10 >> shift) & 0xFF, v11 = (p11 >> shift) & 0xFF;
+            final double top = v00 * (1 - wx) + v01 * wx;
+            final double bottom = v10 * (1 - wx) + v11 * wx;
+            out[c] = (int) (top * (1 - wy) + bottom * wy + 0.5);
+            linear &= isLinear(v00) && isLinear(v01) && isLinear(v10) && isLinear(v11);
+        }
+        return linear;
+    }
+
+    private static boolean isLinear(int value) {
+        return value > 0 && value < 255;
+    }
+
+    // smooth gradients with some noise, mostly in the range where the conversion does not clamp
+    private static byte[] syntheticNV21(int width, int height, long seed) {
+        final Random random = new Random(seed);
+        final byte[] nv21 = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                nv21[y * width + x] = (byte) (60 + 100 * (x + y) / (width + height) + random.nextInt(24));
+        for (int y = 0; y < height / 2; y++) {
+            for (int x = 0; x < width; x += 2) {
+                nv21[width * height + y * width + x] = (byte) (100 + 50 * x / width + random.nextInt(8));
+                nv21[width * height + y * width + x + 1] = (byte) (150 - 50 * y * 2 / height - random.nextInt(8));
+            }
+        }
+        return nv21;
+    }
+}
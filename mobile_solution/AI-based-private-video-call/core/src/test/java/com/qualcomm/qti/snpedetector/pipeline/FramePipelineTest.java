@@ -0,0 +1,141 @@
+package com.qualcomm.qti.snpedetector.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A synthetic camera pushing frames much faster than a slow, scripted inference stage.
+ */
+public class FramePipelineTest {
+    private static final int FRAMES = 200;
+    private static final long FRAME_INTERVAL_MS = 1;
+    private static final long INFERENCE_MS = 15;
+
+    @Test
+    public void latencyMode() throws InterruptedException {
+        run(1);
+    }
+
+    @Test
+    public void throughputMode() throws InterruptedException {
+        run(2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoFramesInFlight() {
+        new FramePipeline(frame -> true, frame -> true, frame -> true, 0);
+    }
+
+    private static void run(int framesInFlight) throws InterruptedException {
+        final ScriptedStages stages = new ScriptedStages();
+        final FramePipeline pipeline = new FramePipeline(stages.preprocess, stages.inference, stages.postprocess, framesInFlight);
+        pipeline.setReleaseListener(stages::onFrameReleased);
+        pipeline.start();
+
+        final byte[] image = new byte[64 * 48 * 3 / 2];
+        for (int i = 0; i < FRAMES; i++) {
+            pipeline.submit(image, 64, 48, 0);
+            Thread.sleep(FRAME_INTERVAL_MS);
+        }
+        // the last frame always gets through: it is never replaced by a newer one
+        final long lastSequence = FRAMES - 1 - pipeline.getIntakeDropCount();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (stages.lastPublished.get() != lastSequence && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        pipeline.stop();
+        assertEquals("the newest frame wins", lastSequence, stages.lastPublished.get());
+
+        // latest frame wins: the slow inference saw a fraction of the frames, the others were dropped
+        final int published = stages.publishedCount.get();
+        assertTrue("published " + published + " of " + FRAMES, published > 1 && published < FRAMES / 2);
+        long dropped = pipeline.getIntakeDropCount();
+        for (int i = 0; i < pipeline.getStageCount(); i++)
+            dropped += pipeline.getStageMailbox(i).getDropCount();
+        assertTrue("dropped " + dropped, dropped > 0);
+
+        assertTrue("in flight: " + stages.maxInFlight.get() + " > " + framesInFlight,
+                stages.maxInFlight.get() <= framesInFlight);
+        assertEquals("in flight after stop()", 0, stages.inFlight.get());
+        // every frame went through the stages in order, and each stage saw the frames in order
+        for (Map.Entry<Long, List<Integer>> visits : stages.visits.entrySet()) {
+            final List<Integer> stageIndices = visits.getValue();
+            for (int i = 0; i < stageIndices.size(); i++)
+                assertEquals("frame " + visits.getKey() + " visited " + stageIndices, i, (int) stageIndices.get(i));
+        }
+        for (int i = 0; i < pipeline.getStageCount(); i++)
+            assertTrue("stage " + i + " went back in time", stages.inOrder[i]);
+    }
+
+    private static final class ScriptedStages {
+        final Map<Long, List<Integer>> visits = new ConcurrentHashMap<>();
+        final long[] lastSequence = {-1, -1, -1};
+        final boolean[] inOrder = {true, true, true};
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger publishedCount = new AtomicInteger();
+        final AtomicLong lastPublished = new AtomicLong(-1);
+
+        // the test counts a frame in flight from the start of the pre-processing (which has a
+        // permit by then) to the end of the inference or its release (before the permit is back)
+        final FramePipeline.Stage preprocess = frame -> {
+            visit(frame, 0);
+            frame.inputSlot = 0;
+            final int count = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(count, Math::max);
+            return true;
+        };
+
+        final FramePipeline.Stage inference = frame -> {
+            visit(frame, 1);
+            try {
+                Thread.sleep(INFERENCE_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            endFlight(frame);
+            return true;
+        };
+
+        final FramePipeline.Stage postprocess = frame -> {
+            visit(frame, 2);
+            publishedCount.incrementAndGet();
+            lastPublished.set(frame.sequence);
+            return true;
+        };
+
+        void onFrameReleased(PipelineFrame frame) {
+            endFlight(frame);
+        }
+
+        private void endFlight(PipelineFrame frame) {
+            if (frame.inputSlot >= 0) {
+                frame.inputSlot = -1;
+                inFlight.decrementAndGet();
+            }
+        }
+
+        // each stage runs on a single thread
+        private void visit(PipelineFrame frame, int stageIndex) {
+            if (frame.sequence <= lastSequence[stageIndex])
+                inOrder[stageIndex] = false;
+            lastSequence[stageIndex] = frame.sequence;
+            List<Integer> stageIndices = visits.get(frame.sequence);
+            if (stageIndices == null) {
+                stageIndices = new ArrayList<>();
+                visits.put(frame.sequence, stageIndices);
+            }
+            synchronized (stageIndices) {
+                stageIndices.add(stageIndex);
+            }
+        }
+    }
+}
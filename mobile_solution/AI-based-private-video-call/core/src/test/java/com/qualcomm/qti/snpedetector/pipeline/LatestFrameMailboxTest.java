@@ -0,0 +1,72 @@
+package com.qualcomm.qti.snpedetector.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class LatestFrameMailboxTest {
+
+    @Test
+    public void newestFrameWinsInASingleSlot() throws InterruptedException {
+        final LatestFrameMailbox mailbox = new LatestFrameMailbox("test");
+        final PipelineFrame first = frame(0), second = frame(1), third = frame(2);
+        assertNull(mailbox.put(first));
+        assertSame(first, mailbox.put(second));
+        assertSame(second, mailbox.put(third));
+        assertSame(third, mailbox.take(0));
+        assertNull(mailbox.take(0));
+        assertEquals(3, mailbox.getPutCount());
+        assertEquals(2, mailbox.getDropCount());
+    }
+
+    @Test
+    public void keepsTheNewestFramesInOrder() throws InterruptedException {
+        final LatestFrameMailbox mailbox = new LatestFrameMailbox("test", 3);
+        final PipelineFrame[] frames = new PipelineFrame[5];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = frame(i);
+            final PipelineFrame dropped = mailbox.put(frames[i]);
+            // the oldest one goes once the 3 slots are full
+            assertSame(i < 3 ? null : frames[i - 3], dropped);
+        }
+        for (int i = 2; i < frames.length; i++)
+            assertSame(frames[i], mailbox.take(0));
+        assertNull(mailbox.poll());
+        assertEquals(2, mailbox.getDropCount());
+    }
+
+    @Test
+    public void takeWaitsForAPut() throws InterruptedException {
+        final LatestFrameMailbox mailbox = new LatestFrameMailbox("test");
+        final PipelineFrame frame = frame(7);
+        final Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                return;
+            }
+            mailbox.put(frame);
+        });
+        producer.start();
+        assertSame(frame, mailbox.take(5000));
+        producer.join();
+    }
+
+    @Test
+    public void takeTimesOut() throws InterruptedException {
+        assertNull(new LatestFrameMailbox("test").take(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyMailbox() {
+        new LatestFrameMailbox("test", 0);
+    }
+
+    private static PipelineFrame frame(long sequence) {
+        final PipelineFrame frame = new PipelineFrame();
+        frame.reset(sequence, sequence);
+        return frame;
+    }
+}
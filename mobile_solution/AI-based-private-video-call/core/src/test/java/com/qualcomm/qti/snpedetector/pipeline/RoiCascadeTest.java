@@ -0,0 +1,152 @@
+package com.qualcomm.qti.snpedetector.pipeline;
+
+import com.qualcomm.qti.snpedetector.Roi;
+import com.qualcomm.qti.snpedetector.engine.DetectionBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RoiCascadeTest {
+    private static final float EPSILON = 1e-6f;
+
+    @Test
+    public void squareAroundThePaddedSubjects() {
+        final RoiCascade cascade = new RoiCascade(5, 0.3f, 0.1f);
+        // two subjects: their union is 0.2 wide, 0.1 high, centered on (0.5, 0.45)
+        cascade.update(new Roi(), detections(0.4f, 0.4f, 0.5f, 0.5f, 0.55f, 0.42f, 0.6f, 0.48f));
+        final Roi roi = new Roi();
+        assertTrue(cascade.nextRoi(roi));
+        // the longest side, padded on both sides
+        final float size = 0.2f * (1 + 2 * 0.3f);
+        assertEquals(size, roi.width(), EPSILON);
+        assertEquals(size, roi.height(), EPSILON);
+        assertEquals(0.5f, (roi.left + roi.right) / 2, EPSILON);
+        assertEquals(0.45f, (roi.top + roi.bottom) / 2, EPSILON);
+    }
+
+    @Test
+    public void noMoreZoomThanTheMinSize() {
+        final RoiCascade cascade = new RoiCascade(5, 0.3f, 0.25f);
+        cascade.update(new Roi(), detections(0.5f, 0.5f, 0.52f, 0.53f));
+        final Roi roi = new Roi();
+        assertTrue(cascade.nextRoi(roi));
+        assertEquals(0.25f, roi.width(), EPSILON);
+        assertEquals(0.25f, roi.height(), EPSILON);
+    }
+
+    @Test
+    public void clampedAtEachEdgeOfTheFrame() {
+        final RoiCascade cascade = new RoiCascade(5, 0.5f, 0.1f);
+        final Roi roi = new Roi();
+        // left
+        cascade.update(new Roi(), detections(0, 0.4f, 0.1f, 0.5f));
+        assertTrue(cascade.computeCrop(roi));
+        assertEquals(0, roi.left, EPSILON);
+        assertEquals(0.2f, roi.right, EPSILON);
+        assertEquals(0.45f, (roi.top + roi.bottom) / 2, EPSILON);
+        // top
+        cascade.update(new Roi(), detections(0.4f, 0.02f, 0.5f, 0.12f));
+        assertTrue(cascade.computeCrop(roi));
+        assertEquals(0, roi.top, EPSILON);
+        assertEquals(0.2f, roi.bottom, EPSILON);
+        assertEquals(0.45f, (roi.left + roi.right) / 2, EPSILON);
+        // right
+        cascade.update(new Roi(), detections(0.92f, 0.4f, 1, 0.5f));
+        assertTrue(cascade.computeCrop(roi));
+        assertEquals(1, roi.right, EPSILON);
+        assertEquals(0.8f, roi.left, EPSILON);
+        // bottom
+        cascade.update(new Roi(), detections(0.4f, 0.95f, 0.5f, 1));
+        assertTrue(cascade.computeCrop(roi));
+        assertEquals(1, roi.bottom, EPSILON);
+        assertEquals(0.8f, roi.top, EPSILON);
+        // a corner
+        cascade.update(new Roi(), detections(0.9f, 0, 1, 0.1f));
+        assertTrue(cascade.computeCrop(roi));
+        assertEquals(1, roi.right, EPSILON);
+        assertEquals(0, roi.top, EPSILON);
+        assertEquals(0.2f, roi.width(), EPSILON);
+        assertEquals(0.2f, roi.height(), EPSILON);
+    }
+
+    @Test
+    public void largeSubjectsGetTheFullFrame() {
+        final RoiCascade cascade = new RoiCascade(5, 0.3f, 0.25f);
+        cascade.update(new Roi(), detections(0.1f, 0.2f, 0.8f, 0.9f));
+        final Roi roi = new Roi().set(0.1f, 0.1f, 0.2f, 0.2f);
+        assertFalse(cascade.nextRoi(roi));
+        assertTrue(roi.isFullFrame());
+    }
+
+    @Test
+    public void fullFrameEveryNInferences() {
+        final int interval = 5;
+        final RoiCascade cascade = new RoiCascade(interval, 0.3f, 0.25f);
+        final Roi roi = new Roi();
+        final StringBuilder schedule = new StringBuilder();
+        for (int i = 0; i < 3 * interval + 1; i++) {
+            schedule.append(cascade.nextRoi(roi) ? 'c' : 'F');
+            // the subject is always found, in the frame coordinates
+            cascade.update(roi, detections(0.4f, 0.4f, 0.5f, 0.5f));
+        }
+        // no subject known yet, then 1 full frame out of 5
+        assertEquals("FccccFccccFccccF", schedule.toString());
+        assertTrue(cascade.toString(), cascade.toString().contains("12 crops, 4 full frames"));
+    }
+
+    @Test
+    public void emptyCropFallsBackToTheFullFrame() {
+        final RoiCascade cascade = new RoiCascade(5, 0.3f, 0.25f);
+        final Roi roi = new Roi();
+        cascade.update(roi, detections(0.4f, 0.4f, 0.5f, 0.5f));
+        assertTrue(cascade.nextRoi(roi));
+        // the subject left the crop
+        cascade.update(roi, detections());
+        assertFalse(cascade.nextRoi(roi));
+    }
+
+    @Test
+    public void intervalOfOneNeverCrops() {
+        final RoiCascade cascade = new RoiCascade(1, 0.3f, 0.25f);
+        final Roi roi = new Roi();
+        for (int i = 0; i < 5; i++) {
+            assertFalse(cascade.nextRoi(roi));
+            cascade.update(roi, detections(0.4f, 0.4f, 0.5f, 0.5f));
+        }
+    }
+
+    @Test
+    public void resetStartsFromTheFullFrame() {
+        final RoiCascade cascade = new RoiCascade(5, 0.3f, 0.25f);
+        final Roi roi = new Roi();
+        cascade.update(roi, detections(0.4f, 0.4f, 0.5f, 0.5f));
+        cascade.reset();
+        assertFalse(cascade.nextRoi(roi));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnIntervalOfZero() {
+        new RoiCascade(0, 0.3f, 0.25f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAMinSizeAboveTheFrame() {
+        new RoiCascade(5, 0.3f, 1.5f);
+    }
+
+    // left, top, right, bottom of each detection, in the frame coordinates
+    private static DetectionBuffer detections(float... ltrb) {
+        final DetectionBuffer detections = new DetectionBuffer(Math.max(1, ltrb.length / 4));
+        for (int i = 0; i < ltrb.length / 4; i++) {
+            detections.left[i] = ltrb[i * 4];
+            detections.top[i] = ltrb[i * 4 + 1];
+            detections.right[i] = ltrb[i * 4 + 2];
+            detections.bottom[i] = ltrb[i * 4 + 3];
+        }
+        detections.count = ltrb.length / 4;
+        return detections;
+    }
+}
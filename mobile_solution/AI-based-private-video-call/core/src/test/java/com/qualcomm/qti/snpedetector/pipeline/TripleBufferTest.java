@@ -0,0 +1,124 @@
+package com.qualcomm.qti.snpedetector.pipeline;
+
+import com.qualcomm.qti.snpedetector.Box;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TripleBufferTest {
+    private static final int MAX_BOXES = 8;
+    private static final long STRESS_SNAPSHOTS = 2_000_000;
+
+    private static TripleBuffer<BoxSnapshot> snapshots() {
+        return new TripleBuffer<>(new BoxSnapshot(), new BoxSnapshot(), new BoxSnapshot());
+    }
+
+    @Test
+    public void theLatestSnapshotWins() {
+        final TripleBuffer<BoxSnapshot> buffer = snapshots();
+        final BoxSnapshot initial = buffer.getReadBuffer();
+        assertFalse(buffer.hasFresh());
+        for (long sequence = 1; sequence <= 3; sequence++) {
+            buffer.getWriteBuffer().set(sequence, sequence, null, null);
+            buffer.publish();
+        }
+        assertTrue(buffer.hasFresh());
+        final BoxSnapshot latest = buffer.getReadBuffer();
+        assertNotSame(initial, latest);
+        assertEquals(3, latest.sequence);
+        // nothing new: the same snapshot again
+        assertFalse(buffer.hasFresh());
+        assertSame(latest, buffer.getReadBuffer());
+        assertNotSame(latest, buffer.getWriteBuffer());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsThreeDistinctBuffers() {
+        final BoxSnapshot snapshot = new BoxSnapshot();
+        new TripleBuffer<>(snapshot, new BoxSnapshot(), snapshot);
+    }
+
+    /**
+     * One producer writes its sequence number into every field of every snapshot it publishes,
+     * while one consumer reads as fast as it can: each snapshot read must be whole (all its
+     * fields agree, none from another sequence), and the sequence never goes backwards.
+     */
+    @Test
+    public void snapshotsAreWholeAndInOrderAcrossThreads() throws InterruptedException {
+        final TripleBuffer<BoxSnapshot> buffer = snapshots();
+        final AtomicReference<Throwable> producerError = new AtomicReference<>();
+        final Thread producer = new Thread(() -> {
+            try {
+                final ArrayList<Box> boxes = Box.createBoxes(MAX_BOXES);
+                final float[] velocities = new float[MAX_BOXES * 4];
+                final ArrayList<Box> published = new ArrayList<>();
+                for (long sequence = 1; sequence <= STRESS_SNAPSHOTS; sequence++) {
+                    // a count that changes, and every field of every box set to the sequence
+                    final int count = (int) (sequence % (MAX_BOXES + 1));
+                    published.clear();
+                    for (int i = 0; i < count; i++) {
+                        final Box box = boxes.get(i);
+                        box.left = box.top = box.right = box.bottom = box.type_score = sequence;
+                        box.track_id = (int) sequence;
+                        published.add(box);
+                    }
+                    for (int i = 0; i < count * 4; i++)
+                        velocities[i] = sequence;
+                    buffer.getWriteBuffer().set(sequence, sequence, published, velocities);
+                    buffer.publish();
+                }
+            } catch (Throwable t) {
+                producerError.set(t);
+            }
+        }, "producer");
+        producer.start();
+
+        long last = 0;
+        long reads = 0;
+        while (last < STRESS_SNAPSHOTS && (producer.isAlive() || buffer.hasFresh())) {
+            final BoxSnapshot snapshot = buffer.getReadBuffer();
+            final long sequence = snapshot.sequence;
+            if (sequence < last)
+                throw new AssertionError("went back from " + last + " to " + sequence);
+            if (sequence == last)
+                continue;
+            assertWhole(snapshot);
+            last = sequence;
+            reads++;
+        }
+        producer.join();
+        assertNull(producerError.get());
+        // the consumer ends on the last snapshot, whatever it skipped
+        assertEquals(STRESS_SNAPSHOTS, buffer.getReadBuffer().sequence);
+        assertTrue("no snapshot read", reads > 0);
+    }
+
+    private static void assertWhole(BoxSnapshot snapshot) {
+        final long sequence = snapshot.sequence;
+        final float value = sequence;
+        final String message = "snapshot " + sequence;
+        assertEquals(message, sequence, snapshot.frameTimeNs);
+        assertTrue(message, snapshot.hasResults);
+        assertEquals(message, (int) (sequence % (MAX_BOXES + 1)), snapshot.count);
+        assertEquals(message, snapshot.count > 0, snapshot.moving);
+        for (int i = 0; i < snapshot.count; i++) {
+            assertEquals(message, value, snapshot.left[i], 0);
+            assertEquals(message, value, snapshot.top[i], 0);
+            assertEquals(message, value, snapshot.right[i], 0);
+            assertEquals(message, value, snapshot.bottom[i], 0);
+            assertEquals(message, value, snapshot.scores[i], 0);
+            assertEquals(message, (int) sequence, snapshot.trackIds[i]);
+        }
+        for (int i = 0; i < snapshot.count * 4; i++)
+            assertEquals(message, value, snapshot.velocities[i], 0);
+    }
+}
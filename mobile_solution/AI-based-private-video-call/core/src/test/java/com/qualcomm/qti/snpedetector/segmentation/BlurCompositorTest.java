@@ -0,0 +1,123 @@
+package com.qualcomm.qti.snpedetector.segmentation;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BlurCompositorTest {
+    // not multiples of the downsampling, and (for the last ones) more stripes than low resolution rows
+    private static final int WIDTH = 317;
+    private static final int HEIGHT = 241;
+    private static final int[] STRIPE_COUNTS = {2, 3, 7, 16, 64};
+
+    private static int[] frame(long seed) {
+        final Random random = new Random(seed);
+        final int[] argb = new int[WIDTH * HEIGHT];
+        // smooth gradients with noise: the blur has something to average
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++)
+                argb[y * WIDTH + x] = 0xFF000000 | (x * 255 / WIDTH) << 16 | (y * 255 / HEIGHT) << 8 | random.nextInt(256);
+        return argb;
+    }
+
+    // a person-like blob: an ellipse, with some holes
+    private static PackedMask mask(long seed) {
+        final Random random = new Random(seed);
+        final PackedMask mask = new PackedMask();
+        mask.setSize(97, 73);
+        for (int y = 0; y < 73; y++) {
+            for (int x = 0; x < 97; x++) {
+                final float dx = (x - 48) / 30f;
+                final float dy = (y - 40) / 28f;
+                if (dx * dx + dy * dy < 1 && random.nextInt(20) != 0)
+                    mask.set(x, y);
+            }
+        }
+        return mask;
+    }
+
+    private static int[] run(int stripes, boolean cover, PackedMask mask, int[] frame,
+                             int radius, int feather, int downsample, float[] region) {
+        final BlurCompositor compositor = new BlurCompositor(stripes);
+        try {
+            compositor.setBlur(radius, feather, downsample);
+            if (region != null)
+                compositor.setMaskRegion(region[0], region[1], region[2], region[3]);
+            final int[] argb = frame.clone();
+            if (cover)
+                compositor.coverArgb(mask, argb, WIDTH, HEIGHT);
+            else
+                compositor.compositeArgb(mask, argb, WIDTH, HEIGHT);
+            // a second frame through the same buffers comes out the same
+            final int[] again = frame.clone();
+            if (cover)
+                compositor.coverArgb(mask, again, WIDTH, HEIGHT);
+            else
+                compositor.compositeArgb(mask, again, WIDTH, HEIGHT);
+            assertArrayEquals(argb, again);
+            return argb;
+        } finally {
+            compositor.shutdown();
+        }
+    }
+
+    private static void assertSameForAnyStripeCount(int radius, int feather, int downsample, float[] region) {
+        final PackedMask mask = mask(1);
+        final int[] frame = frame(2);
+        for (boolean cover : new boolean[]{false, true}) {
+            final int[] single = run(1, cover, mask, frame, radius, feather, downsample, region);
+            assertFalse("nothing blurred", Arrays.equals(frame, single));
+            for (int stripes : STRIPE_COUNTS) {
+                final int[] striped = run(stripes, cover, mask, frame, radius, feather, downsample, region);
+                for (int i = 0; i < single.length; i++) {
+                    if (single[i] != striped[i])
+                        assertEquals((cover ? "cover" : "blend") + " with " + stripes + " stripes, pixel ("
+                                + i % WIDTH + ", " + i / WIDTH + ")", Integer.toHexString(single[i]), Integer.toHexString(striped[i]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameOutputForAnyStripeCount() {
+        assertSameForAnyStripeCount(16, 4, 4, null);
+    }
+
+    @Test
+    public void sameOutputWithoutDownsamplingOrFeather() {
+        assertSameForAnyStripeCount(5, 0, 1, null);
+    }
+
+    @Test
+    public void sameOutputAtTheLargestDownsampling() {
+        assertSameForAnyStripeCount(BlurCompositor.MAX_RADIUS * 4, 12, BlurCompositor.MAX_DOWNSAMPLE, null);
+    }
+
+    @Test
+    public void sameOutputOnAMaskRegion() {
+        assertSameForAnyStripeCount(12, 6, 3, new float[]{0.1f, 0.05f, 0.85f, 0.9f});
+    }
+
+    @Test
+    public void uniformFrameStaysUniform() {
+        final int[] frame = new int[WIDTH * HEIGHT];
+        Arrays.fill(frame, 0xFF336699);
+        final int[] out = run(4, false, mask(3), frame, 20, 5, 4, null);
+        assertArrayEquals(frame, out);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsATooLargeDownsampling() {
+        final BlurCompositor compositor = new BlurCompositor(1);
+        try {
+            compositor.setBlur(16, 4, BlurCompositor.MAX_DOWNSAMPLE + 1);
+        } finally {
+            compositor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.qualcomm.qti.snpedetector.tracking;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BoxPropagatorTest {
+    private static final long FRAME_NS = 33_333_333L;
+    private static final float EPSILON = 1e-6f;
+    // of the estimated positions (normalized) and velocities (per second), once converged
+    private static final float POSITION_TOLERANCE = 2e-3f;
+    private static final float VELOCITY_TOLERANCE = 0.02f;
+
+    // a 0.2 x 0.3 box going right at 0.3 per second and up at 0.1, from (0.1, 0.5)
+    private static final float VX = 0.3f;
+    private static final float VY = -0.1f;
+
+    private static float left(long timeNs) {
+        return 0.1f + VX * timeNs * 1e-9f;
+    }
+
+    private static float top(long timeNs) {
+        return 0.5f + VY * timeNs * 1e-9f;
+    }
+
+    private static void correct(BoxPropagator propagator, int slot, long timeNs) {
+        propagator.correct(slot, timeNs, left(timeNs), top(timeNs), left(timeNs) + 0.2f, top(timeNs) + 0.3f);
+    }
+
+    // detected on every frame, up to (and including) 'frames'
+    private static BoxPropagator tracked(int frames) {
+        final BoxPropagator propagator = new BoxPropagator(2);
+        propagator.start(0, 0, left(0), top(0), left(0) + 0.2f, top(0) + 0.3f);
+        for (int f = 1; f <= frames; f++)
+            correct(propagator, 0, f * FRAME_NS);
+        return propagator;
+    }
+
+    private static float[] box(BoxPropagator propagator, int slot, long timeNs) {
+        final float[] box = new float[4];
+        propagator.getBox(slot, timeNs, box, 0);
+        return box;
+    }
+
+    @Test
+    public void extrapolatesAtConstantVelocityToTheDisplayTime() {
+        final long lastNs = 60 * FRAME_NS;
+        final BoxPropagator propagator = tracked(60);
+        // e.g. a vsync half a frame after the capture of the last detection
+        final long displayNs = lastNs + FRAME_NS / 2;
+        final float[] box = box(propagator, 0, displayNs);
+        assertEquals(left(displayNs), box[0], POSITION_TOLERANCE);
+        assertEquals(top(displayNs), box[1], POSITION_TOLERANCE);
+        assertEquals(left(displayNs) + 0.2f, box[2], POSITION_TOLERANCE);
+        assertEquals(top(displayNs) + 0.3f, box[3], POSITION_TOLERANCE);
+        // the edges all move with the box
+        final float[] velocity = new float[4];
+        propagator.getVelocity(0, velocity, 0);
+        assertArrayEquals(new float[]{VX, VY, VX, VY}, velocity, VELOCITY_TOLERANCE);
+        // getBox() doesn't move the state
+        assertEquals(lastNs, propagator.getTime(0));
+        // and predict() gets to the same box
+        propagator.predict(0, displayNs);
+        assertArrayEquals(box, box(propagator, 0, displayNs), EPSILON);
+    }
+
+    @Test
+    public void stopsAtTheExtrapolationLimit() {
+        final long lastNs = 60 * FRAME_NS;
+        final BoxPropagator propagator = tracked(60);
+        final float[] atLimit = box(propagator, 0, lastNs + BoxPropagator.MAX_EXTRAPOLATION_NS);
+        assertArrayEquals(atLimit, box(propagator, 0, lastNs + 5 * BoxPropagator.MAX_EXTRAPOLATION_NS), EPSILON);
+        propagator.predict(0, lastNs + 5 * BoxPropagator.MAX_EXTRAPOLATION_NS);
+        assertEquals(lastNs + BoxPropagator.MAX_EXTRAPOLATION_NS, propagator.getTime(0));
+        assertArrayEquals(atLimit, box(propagator, 0, lastNs + 5 * BoxPropagator.MAX_EXTRAPOLATION_NS), EPSILON);
+        final float[] velocity = new float[4];
+        propagator.getVelocity(0, velocity, 0);
+        assertArrayEquals(new float[4], velocity, 0);
+    }
+
+    @Test
+    public void startResetsTheVelocityAndTheCovariance() {
+        // slot 0 has converged on a moving box; slot 1 is new
+        final long seedNs = 60 * FRAME_NS;
+        final BoxPropagator propagator = tracked(60);
+        propagator.start(0, seedNs, 0.6f, 0.1f, 0.7f, 0.2f);
+        propagator.start(1, seedNs, 0.6f, 0.1f, 0.7f, 0.2f);
+        final float[] velocity = new float[4];
+        propagator.getVelocity(0, velocity, 0);
+        assertArrayEquals(new float[4], velocity, 0);
+        assertArrayEquals(new float[]{0.6f, 0.1f, 0.7f, 0.2f}, box(propagator, 0, seedNs + FRAME_NS), EPSILON);
+        // the same detections move both the same way: nothing of the old track is left, not even
+        // its (small) covariance, which would make the re-seeded slot slower to follow
+        final float[] reseeded = new float[4];
+        final float[] fresh = new float[4];
+        for (int f = 1; f <= 5; f++) {
+            final long timeNs = seedNs + f * FRAME_NS;
+            final float x = 0.6f + 0.01f * f;
+            propagator.correct(0, timeNs, x, 0.1f, x + 0.1f, 0.2f);
+            propagator.correct(1, timeNs, x, 0.1f, x + 0.1f, 0.2f);
+            assertArrayEquals(box(propagator, 1, timeNs), box(propagator, 0, timeNs), 0);
+            propagator.getVelocity(0, reseeded, 0);
+            propagator.getVelocity(1, fresh, 0);
+            assertArrayEquals(fresh, reseeded, 0);
+        }
+    }
+
+    @Test
+    public void zeroOrNegativeTimeStepsAreNoOps() {
+        final long lastNs = 30 * FRAME_NS;
+        final BoxPropagator propagator = tracked(30);
+        final float[] before = box(propagator, 0, lastNs);
+        final float[] velocityBefore = new float[4];
+        propagator.getVelocity(0, velocityBefore, 0);
+
+        propagator.predict(0, lastNs);
+        propagator.predict(0, lastNs - FRAME_NS);
+        propagator.predict(0, Long.MIN_VALUE);
+        assertEquals(lastNs, propagator.getTime(0));
+        assertArrayEquals(before, box(propagator, 0, lastNs), 0);
+        // the box of a time before the state is the box of the state
+        assertArrayEquals(before, box(propagator, 0, lastNs - 10 * FRAME_NS), 0);
+        final float[] velocity = new float[4];
+        propagator.getVelocity(0, velocity, 0);
+        assertArrayEquals(velocityBefore, velocity, 0);
+
+        // a late detection corrects the position, but doesn't take the state back in time
+        correct(propagator, 0, lastNs - FRAME_NS);
+        assertEquals(lastNs, propagator.getTime(0));
+        assertEquals(lastNs, propagator.getCorrectionTime(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyCapacity() {
+        new BoxPropagator(0);
+    }
+}
@@ -0,0 +1,181 @@
+package com.qualcomm.qti.snpedetector.tracking;
+
+import com.qualcomm.qti.snpedetector.Box;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MultiObjectTrackerTest {
+    private static final long FRAME_NS = 33_333_333L;
+    private static final int DETECTION_INTERVAL = 3;
+    private static final float SCORE_THRESHOLD = 0.5f;
+    // the predicted boxes stay this close to the scripted ones (normalized)
+    private static final float POSITION_TOLERANCE = 0.02f;
+
+    // a scripted person: a box of constant size and velocity (normalized units per frame)
+    private static final class Person {
+        final float left;
+        final float top;
+        final float size;
+        final float vx;
+        final float vy;
+
+        Person(float left, float top, float size, float vx, float vy) {
+            this.left = left;
+            this.top = top;
+            this.size = size;
+            this.vx = vx;
+            this.vy = vy;
+        }
+
+        float left(int frame) {
+            return left + vx * frame;
+        }
+
+        float top(int frame) {
+            return top + vy * frame;
+        }
+
+        void detect(int frame, Box box) {
+            box.left = left(frame);
+            box.top = top(frame);
+            box.right = box.left + size;
+            box.bottom = box.top + size;
+            box.type_id = 0;
+            box.type_score = 0.9f;
+            box.track_id = -1;
+        }
+    }
+
+    private static final Person[] PEOPLE = {
+            new Person(0.1f, 0.3f, 0.2f, 0.003f, 0),
+            new Person(0.7f, 0.2f, 0.2f, -0.003f, 0.001f),
+            new Person(0.4f, 0.7f, 0.15f, 0, 0),
+    };
+
+    // the scripted detector: all the people of the frame, in an order that changes every time
+    private static ArrayList<Box> detect(int frame, Person[] people) {
+        final ArrayList<Box> boxes = Box.createBoxes(people.length);
+        for (int i = 0; i < people.length; i++)
+            people[(i + frame) % people.length].detect(frame, boxes.get(i));
+        return boxes;
+    }
+
+    // the person a box is closest to
+    private static int personOf(Box box, int frame) {
+        int best = -1;
+        float bestDistance = Float.MAX_VALUE;
+        for (int p = 0; p < PEOPLE.length; p++) {
+            final float distance = Math.abs(box.left - PEOPLE[p].left(frame)) + Math.abs(box.top - PEOPLE[p].top(frame));
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = p;
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void idsPersistThroughTheSkippedFrames() {
+        final MultiObjectTracker tracker = new MultiObjectTracker(8, 8);
+        final int[] ids = {-1, -1, -1};
+        final ArrayList<Box> predicted = new ArrayList<>();
+        for (int frame = 0; frame < 90; frame++) {
+            final long timeNs = frame * FRAME_NS;
+            if (frame % DETECTION_INTERVAL == 0) {
+                final ArrayList<Box> detections = detect(frame, PEOPLE);
+                tracker.update(detections, SCORE_THRESHOLD, timeNs);
+                for (Box box : detections) {
+                    final int p = personOf(box, frame);
+                    assertNotEquals("frame " + frame + ": not tracked", -1, box.track_id);
+                    if (ids[p] < 0)
+                        ids[p] = box.track_id;
+                    assertEquals("frame " + frame + ": the id of person " + p, ids[p], box.track_id);
+                }
+            } else {
+                // a frame without inference: the tracks move on their own
+                tracker.predict(timeNs);
+                assertEquals(PEOPLE.length, tracker.getBoxes(timeNs, predicted, null));
+                for (Box box : predicted) {
+                    final int p = personOf(box, frame);
+                    assertEquals("frame " + frame + ": the id of person " + p, ids[p], box.track_id);
+                    assertEquals(PEOPLE[p].left(frame), box.left, POSITION_TOLERANCE);
+                    assertEquals(PEOPLE[p].top(frame), box.top, POSITION_TOLERANCE);
+                }
+            }
+            assertEquals(PEOPLE.length, tracker.getTrackCount());
+        }
+        final Set<Integer> distinct = new HashSet<>();
+        for (int id : ids)
+            distinct.add(id);
+        assertEquals(PEOPLE.length, distinct.size());
+    }
+
+    @Test
+    public void aMissedPersonKeepsItsIdUntilMaxMissed() {
+        final int maxMissed = 2;
+        final MultiObjectTracker tracker = new MultiObjectTracker(8, 8, MultiObjectTracker.DEFAULT_MIN_IOU, maxMissed);
+        final Person[] withoutFirst = {PEOPLE[1], PEOPLE[2]};
+        int frame = 0;
+        ArrayList<Box> detections = detect(frame, PEOPLE);
+        tracker.update(detections, SCORE_THRESHOLD, 0);
+        final int id = detections.get(0).track_id;
+
+        // missed by maxMissed detections in a row, with skipped frames in between: still there
+        for (int miss = 0; miss < maxMissed; miss++) {
+            for (int skipped = 1; skipped < DETECTION_INTERVAL; skipped++)
+                tracker.predict(++frame * FRAME_NS);
+            tracker.update(detect(++frame, withoutFirst), SCORE_THRESHOLD, frame * FRAME_NS);
+            assertEquals(PEOPLE.length, tracker.getTrackCount());
+        }
+        detections = detect(++frame, PEOPLE);
+        tracker.update(detections, SCORE_THRESHOLD, frame * FRAME_NS);
+        assertEquals(id, findPerson(detections, frame, 0).track_id);
+
+        // missed once more than that: the track is gone, and the person comes back with a new id
+        for (int miss = 0; miss <= maxMissed; miss++)
+            tracker.update(detect(++frame, withoutFirst), SCORE_THRESHOLD, frame * FRAME_NS);
+        assertEquals(PEOPLE.length - 1, tracker.getTrackCount());
+        detections = detect(++frame, PEOPLE);
+        tracker.update(detections, SCORE_THRESHOLD, frame * FRAME_NS);
+        final int newId = findPerson(detections, frame, 0).track_id;
+        assertNotEquals(-1, newId);
+        assertNotEquals(id, newId);
+    }
+
+    @Test
+    public void lowScoresAreNotTracked() {
+        final MultiObjectTracker tracker = new MultiObjectTracker(8, 8);
+        final ArrayList<Box> detections = detect(0, PEOPLE);
+        detections.get(1).type_score = SCORE_THRESHOLD / 2;
+        tracker.update(detections, SCORE_THRESHOLD, 0);
+        assertEquals(PEOPLE.length - 1, tracker.getTrackCount());
+        assertEquals(-1, detections.get(1).track_id);
+    }
+
+    @Test
+    public void resetDropsTheTracks() {
+        final MultiObjectTracker tracker = new MultiObjectTracker(8, 8);
+        tracker.update(detect(0, PEOPLE), SCORE_THRESHOLD, 0);
+        tracker.reset();
+        assertEquals(0, tracker.getTrackCount());
+        final ArrayList<Box> boxes = new ArrayList<>();
+        assertEquals(0, tracker.getBoxes(boxes));
+        assertTrue(boxes.isEmpty());
+    }
+
+    private static Box findPerson(ArrayList<Box> boxes, int frame, int person) {
+        for (Box box : boxes) {
+            if (personOf(box, frame) == person)
+                return box;
+        }
+        throw new AssertionError("person " + person + " not detected");
+    }
+}
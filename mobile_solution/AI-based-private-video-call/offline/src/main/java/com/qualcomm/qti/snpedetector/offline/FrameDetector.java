@@ -0,0 +1,100 @@
+package com.qualcomm.qti.snpedetector.offline;
+
+import com.qualcomm.qti.snpedetector.Box;
+import com.qualcomm.qti.snpedetector.engine.ClassPolicy;
+import com.qualcomm.qti.snpedetector.engine.DetectionBuffer;
+import com.qualcomm.qti.snpedetector.engine.DetectionOutputs;
+import com.qualcomm.qti.snpedetector.engine.InferenceEngine;
+import com.qualcomm.qti.snpedetector.helpers.RgbaToFloatHelper;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+
+/**
+ * Detection on whole pictures: the picture is letterboxed to the model input, as in the app, and
+ * normalized to the input of InferenceEngine; the engine converts it to the input of its network
+ * (see DnnModelFormat). The detections are mapped back to the whole picture, and decoded like in
+ * the app.
+ * <p>
+ * Not thread-safe: use one per thread (with its own engine).
+ */
+final class FrameDetector {
+    private static final int MAX_DETECTIONS = 100;
+
+    private final InferenceEngine mEngine;
+    private final int mInputWidth;
+    private final int mInputHeight;
+    private final Mat mInput;
+    private final Mat mInputFloats = new Mat();
+    private final Mat mScaled = new Mat();
+    private final float[] mInputFloatsHW3;
+    private final DetectionOutputs mOutputs = new DetectionOutputs(MAX_DETECTIONS);
+    private final DetectionBuffer mDetections = new DetectionBuffer(MAX_DETECTIONS);
+
+    /**
+     * Only the detections of 'classPolicy', scoring at least 'scoreFloor', come out of detect().
+     */
+    FrameDetector(InferenceEngine engine, ClassPolicy classPolicy, float scoreFloor) {
+        mEngine = engine;
+        mOutputs.scoreFloor = scoreFloor;
+        mDetections.setScoreFloor(scoreFloor);
+        mDetections.setClassPolicy(classPolicy);
+        mInputWidth = engine.getInputWidth();
+        mInputHeight = engine.getInputHeight();
+        mInput = new Mat(mInputHeight, mInputWidth, CvType.CV_8UC3);
+        mInputFloatsHW3 = new float[mInputWidth * mInputHeight * 3];
+    }
+
+    /**
+     * Detects on a BGR picture. Returns false (and no boxes) if the picture is black.
+     */
+    boolean detect(Mat bgr, ArrayList<Box> outBoxes) {
+        // letterbox (centerInside) the picture into the model input
+        final double scale = Math.min((double) mInputWidth / bgr.cols(), (double) mInputHeight / bgr.rows());
+        final int scaledWidth = Math.max(1, (int) Math.round(bgr.cols() * scale));
+        final int scaledHeight = Math.max(1, (int) Math.round(bgr.rows() * scale));
+        final int dx = (mInputWidth - scaledWidth) / 2;
+        final int dy = (mInputHeight - scaledHeight) / 2;
+        Imgproc.resize(bgr, mScaled, new Size(scaledWidth, scaledHeight), 0, 0, Imgproc.INTER_LINEAR);
+        mInput.setTo(Scalar.all(0));
+        final Mat inputRoi = mInput.submat(new Rect(dx, dy, scaledWidth, scaledHeight));
+        mScaled.copyTo(inputRoi);
+        inputRoi.release();
+
+        // same black-frame check as the app, on the average Green
+        final long sumG = (long) Core.sumElems(mInput).val[1];
+        if (RgbaToFloatHelper.isBlack(sumG, mInputWidth * mInputHeight)) {
+            outBoxes.clear();
+            return false;
+        }
+
+        // BGR(0..255) -> the input of InferenceEngine
+        mInput.convertTo(mInputFloats, CvType.CV_32FC3, InferenceEngine.INPUT_SCALE,
+                -InferenceEngine.INPUT_MEAN * InferenceEngine.INPUT_SCALE);
+        mInputFloats.get(0, 0, mInputFloatsHW3);
+        mEngine.setInput(0, mInputFloatsHW3);
+        if (!mEngine.execute(0, mOutputs)) {
+            outBoxes.clear();
+            return false;
+        }
+
+        // from the model input to the whole picture
+        final float[] boxes = mOutputs.boxesN4;
+        for (int i = 0; i < mOutputs.count * 4; i += 4) {
+            boxes[i] = (boxes[i] * mInputHeight - dy) / scaledHeight;
+            boxes[i + 1] = (boxes[i + 1] * mInputWidth - dx) / scaledWidth;
+            boxes[i + 2] = (boxes[i + 2] * mInputHeight - dy) / scaledHeight;
+            boxes[i + 3] = (boxes[i + 3] * mInputWidth - dx) / scaledWidth;
+        }
+        mDetections.decode(mOutputs);
+        Box.copyBoxes(mDetections.asBoxes(), outBoxes);
+        return true;
+    }
+}
@@ -0,0 +1,26 @@
+package com.qualcomm.qti.snpedetector.offline;
+
+import com.qualcomm.qti.snpedetector.Box;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+
+/**
+ * One video frame going through the OfflineVideoProcessor stages. Frames are recycled after
+ * encoding, so that the Mats are re-used.
+ */
+final class OfflineFrame {
+    // decoded picture (BGR), and the masked picture to encode
+    final Mat image = new Mat();
+    final Mat output = new Mat();
+
+    // detections, in normalized picture coordinates, valid if hasResults
+    final ArrayList<Box> boxes = new ArrayList<>();
+    boolean hasResults;
+
+    void release() {
+        image.release();
+        output.release();
+    }
+}
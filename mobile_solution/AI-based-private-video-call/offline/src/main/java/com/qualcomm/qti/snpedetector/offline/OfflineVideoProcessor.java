@@ -0,0 +1,152 @@
+package com.qualcomm.qti.snpedetector.offline;
+
+import com.qualcomm.qti.snpedetector.engine.FakeInferenceEngine;
+import com.qualcomm.qti.snpedetector.engine.InferenceEngine;
+import com.qualcomm.qti.snpedetector.engine.OpenCvDnnEngine;
+import com.qualcomm.qti.snpedetector.pipeline.OrderedBatchPipeline;
+
+import org.opencv.core.Core;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.VideoWriter;
+import org.opencv.videoio.Videoio;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Offline (batch) privacy masking of a video file, with MobileNet-SSD on OpenCV dnn:
+ * <pre>
+ *   decode (VideoCapture) -> inference (N threads) -> compositing -> encode (VideoWriter)
+ * </pre>
+ * The stages overlap, with bounded queues between them, and the frames are encoded in their
+ * original order. At the end, the frames/s and the utilisation of each stage are printed.
+ * <p>
+ * Usage: -i input -o output.avi -m frozen_inference_graph.pb -c graph.pbtxt
+ * [-t inference threads] [-s model input size] [-p score threshold]
+ * <p>
+ * The model can also be Caffe (-m model.caffemodel -c deploy.prototxt), or "fake" (no -c): a
+ * FakeInferenceEngine, to measure the throughput of the rest of the pipeline.
+ */
+public final class OfflineVideoProcessor {
+    private static final int DEFAULT_INPUT_SIZE = 300;
+    private static final String FAKE_MODEL = "fake";
+
+    private final String mModelPath;
+    private final String mConfigPath;
+    private final int mInputSize;
+    private final float mScoreThreshold;
+    private final int mInferenceThreads;
+
+    private String mLastReport;
+
+    public OfflineVideoProcessor(String modelPath, String configPath, int inputSize, float scoreThreshold, int inferenceThreads) {
+        mModelPath = modelPath;
+        mConfigPath = configPath;
+        mInputSize = inputSize;
+        mScoreThreshold = scoreThreshold;
+        mInferenceThreads = inferenceThreads;
+    }
+
+    /**
+     * Masks the whole input video into the output one (same size and frame rate, MJPG).
+     * Returns the number of frames written.
+     */
+    public long process(String inputPath, String outputPath) throws Exception {
+        final VideoCapture capture = new VideoCapture(inputPath);
+        if (!capture.isOpened())
+            throw new IllegalArgumentException("cannot open the input video " + inputPath);
+        final int width = (int) capture.get(Videoio.CAP_PROP_FRAME_WIDTH);
+        final int height = (int) capture.get(Videoio.CAP_PROP_FRAME_HEIGHT);
+        double fps = capture.get(Videoio.CAP_PROP_FPS);
+        if (fps <= 0)
+            fps = 30;
+        final VideoWriter writer = new VideoWriter(outputPath, VideoWriter.fourcc('M', 'J', 'P', 'G'), fps, new Size(width, height));
+        if (!writer.isOpened()) {
+            capture.release();
+            throw new IllegalArgumentException("cannot open the output video " + outputPath);
+        }
+
+        // the inference threads are the parallelism: keep OpenCV's own thread pool out of their way
+        if (mInferenceThreads > 1)
+            OpenCvDnnEngine.setThreadCount(1);
+
+        // frames come back here after encoding; the bounded queues bound their number
+        final ConcurrentLinkedQueue<OfflineFrame> freeFrames = new ConcurrentLinkedQueue<>();
+        final OrderedBatchPipeline<OfflineFrame> pipeline = new OrderedBatchPipeline<OfflineFrame>(2 * mInferenceThreads, "decode", "encode")
+                .addStage("inference", mInferenceThreads, () -> {
+                    final FrameDetector detector = new FrameDetector(createEngine(), PrivacyCompositor.PRIVACY_CLASSES, mScoreThreshold);
+                    return frame -> frame.hasResults = detector.detect(frame.image, frame.boxes);
+                })
+                .addStage("composite", 1, () -> frame ->
+                        PrivacyCompositor.composite(frame.image, frame.hasResults ? frame.boxes : null, mScoreThreshold, frame.output));
+
+        final long frames;
+        try {
+            frames = pipeline.run(() -> {
+                OfflineFrame frame = freeFrames.poll();
+                if (frame == null)
+                    frame = new OfflineFrame();
+                if (!capture.read(frame.image) || frame.image.empty()) {
+                    frame.release();
+                    return null;
+                }
+                return frame;
+            }, frame -> {
+                writer.write(frame.output);
+                freeFrames.offer(frame);
+            });
+        } finally {
+            capture.release();
+            writer.release();
+            OfflineFrame frame;
+            while ((frame = freeFrames.poll()) != null)
+                frame.release();
+        }
+        mLastReport = pipeline.getReport("frames");
+        return frames;
+    }
+
+    // one per inference thread
+    private InferenceEngine createEngine() {
+        if (FAKE_MODEL.equals(mModelPath))
+            return new FakeInferenceEngine("fake", mInputSize, mInputSize, 1);
+        if (mModelPath.endsWith(".caffemodel"))
+            return OpenCvDnnEngine.fromCaffe(mConfigPath, mModelPath, mInputSize, mInputSize, 1);
+        return OpenCvDnnEngine.fromTensorflow(mModelPath, mConfigPath, mInputSize, mInputSize, 1);
+    }
+
+    // frames/s and per-stage utilisation of the last process()
+    public String getLastReport() {
+        return mLastReport;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String input = null, output = null, model = null, config = null;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+        int inputSize = DEFAULT_INPUT_SIZE;
+        float threshold = PrivacyCompositor.DEFAULT_SCORE_THRESHOLD;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "-i": input = value; break;
+                case "-o": output = value; break;
+                case "-m": model = value; break;
+                case "-c": config = value; break;
+                case "-t": threads = Integer.parseInt(value); break;
+                case "-s": inputSize = Integer.parseInt(value); break;
+                case "-p": threshold = Float.parseFloat(value); break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        if (input == null || output == null || model == null || (config == null && !FAKE_MODEL.equals(model))) {
+            System.err.println("Usage: -i input -o output.avi -m frozen_inference_graph.pb|model.caffemodel|fake " +
+                    "-c graph.pbtxt|deploy.prototxt [-t inference threads] [-s model input size] [-p score threshold]");
+            System.exit(2);
+        }
+
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        final OfflineVideoProcessor processor = new OfflineVideoProcessor(model, config, inputSize, threshold, threads);
+        processor.process(input, output);
+        System.out.println("Saved to " + output + " - " + processor.getLastReport());
+    }
+}
@@ -0,0 +1,53 @@
+package com.qualcomm.qti.snpedetector.offline;
+
+import com.qualcomm.qti.snpedetector.Box;
+import com.qualcomm.qti.snpedetector.engine.ClassPolicy;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+import java.util.ArrayList;
+
+/**
+ * The privacy mask of the app's OverlayRenderer, on a picture: everything is black except the
+ * persons detected above the score threshold. The boxes are expected to be of PRIVACY_CLASSES
+ * only (see FrameDetector), so no class is checked here.
+ */
+final class PrivacyCompositor {
+    // same as OverlayRenderer
+    static final float DEFAULT_SCORE_THRESHOLD = 0.4f;
+    static final ClassPolicy PRIVACY_CLASSES = ClassPolicy.ofLabels("person");
+
+    private PrivacyCompositor() {
+    }
+
+    static void composite(Mat image, ArrayList<Box> boxes, float scoreThreshold, Mat output) {
+        output.create(image.rows(), image.cols(), image.type());
+        output.setTo(Scalar.all(0));
+        if (boxes == null)
+            return;
+        final int width = image.cols();
+        final int height = image.rows();
+        for (Box box : boxes) {
+            if (box.type_score < scoreThreshold)
+                continue;
+            final int left = clamp(Math.round(box.left * width), width);
+            final int top = clamp(Math.round(box.top * height), height);
+            final int right = clamp(Math.round(box.right * width), width);
+            final int bottom = clamp(Math.round(box.bottom * height), height);
+            if (right <= left || bottom <= top)
+                continue;
+            final Rect rect = new Rect(left, top, right - left, bottom - top);
+            final Mat src = image.submat(rect);
+            final Mat dst = output.submat(rect);
+            src.copyTo(dst);
+            src.release();
+            dst.release();
+        }
+    }
+
+    private static int clamp(int value, int max) {
+        return value < 0 ? 0 : value > max ? max : value;
+    }
+}
@@ -0,0 +1,277 @@
+package com.qualcomm.qti.snpedetector.offline;
+
+import com.qualcomm.qti.snpedetector.Box;
+import com.qualcomm.qti.snpedetector.BoxGeometry;
+import com.qualcomm.qti.snpedetector.engine.InferenceEngine;
+import com.qualcomm.qti.snpedetector.engine.OpenCvDnnEngine;
+import com.qualcomm.qti.snpedetector.tracking.ObjectTracker;
+import com.qualcomm.qti.snpedetector.tracking.ReinitPolicy;
+import com.qualcomm.qti.snpedetector.tracking.TrackerBackend;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect2d;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the tracker backends on recorded clips, to choose the one that fits the frame budget
+ * of a device class. Every clip is decoded and detected once (the detections are the ground
+ * truth), at the size of the tracker grid of the app; then each backend follows the best
+ * detection of the first frame, re-seeded by a ReinitPolicy like in the app, and is timed.
+ * <p>
+ * A frame counts as a loss if the update fails, or if no detection matches the track anymore
+ * while there are detections; the tracker is then re-seeded from the best detection. Per
+ * backend, this prints the mean and p95 times of init() and update(), and the loss rate.
+ * <p>
+ * Usage: -i clip [-i clip ...] -m frozen_inference_graph.pb -c graph.pbtxt [-b kcf,mosse,...]
+ * [-n max frames per clip] [-s tracker grid size] [-p score threshold]
+ */
+public final class TrackerBenchmark {
+    private static final int DEFAULT_GRID_SIZE = 300;
+    private static final int DEFAULT_MAX_FRAMES = 600;
+    private static final int MODEL_INPUT_SIZE = 300;
+
+    // a decoded clip: its frames at the grid size (RGB), and their detections in grid pixels
+    private static final class Clip {
+        final List<Mat> frames = new ArrayList<>();
+        final List<Rect2d[]> detections = new ArrayList<>();
+
+        void release() {
+            for (Mat frame : frames)
+                frame.release();
+        }
+    }
+
+    // the timings and losses of one backend, over all the clips
+    private static final class Result {
+        final String name;
+        final ReinitPolicy policy = new ReinitPolicy();
+        long[] initNs = new long[64];
+        long[] updateNs = new long[1024];
+        int inits;
+        int updates;
+        int losses;
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        void addInit(long ns) {
+            if (inits == initNs.length)
+                initNs = Arrays.copyOf(initNs, inits * 2);
+            initNs[inits++] = ns;
+        }
+
+        void addUpdate(long ns) {
+            if (updates == updateNs.length)
+                updateNs = Arrays.copyOf(updateNs, updates * 2);
+            updateNs[updates++] = ns;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-10s init %6.2f ms (p95 %6.2f)  update %6.2f ms (p95 %6.2f)  loss %5.1f%% (%d/%d)  %s",
+                    name, meanMs(initNs, inits), p95Ms(initNs, inits), meanMs(updateNs, updates), p95Ms(updateNs, updates),
+                    updates == 0 ? 0 : 100.0 * losses / updates, losses, updates, policy);
+        }
+
+        private static double meanMs(long[] ns, int count) {
+            long sum = 0;
+            for (int i = 0; i < count; i++)
+                sum += ns[i];
+            return count == 0 ? 0 : sum / 1e6 / count;
+        }
+
+        private static double p95Ms(long[] ns, int count) {
+            if (count == 0)
+                return 0;
+            final long[] sorted = Arrays.copyOf(ns, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int) (count * 0.95))] / 1e6;
+        }
+    }
+
+    private final FrameDetector mDetector;
+    private final int mGridSize;
+    private final int mMaxFrames;
+    private final ArrayList<Box> mBoxes = new ArrayList<>();
+    private final Mat mBgr = new Mat();
+
+    public TrackerBenchmark(InferenceEngine engine, float scoreThreshold, int gridSize, int maxFrames) {
+        mDetector = new FrameDetector(engine, PrivacyCompositor.PRIVACY_CLASSES, scoreThreshold);
+        mGridSize = gridSize;
+        mMaxFrames = maxFrames;
+    }
+
+    /**
+     * Runs every backend over every clip. Returns one line per backend.
+     */
+    public String run(List<String> clipPaths, List<TrackerBackend> backends) {
+        final List<Result> results = new ArrayList<>();
+        for (TrackerBackend backend : backends)
+            results.add(new Result(backend.name()));
+        for (String path : clipPaths) {
+            final Clip clip = decode(path);
+            for (int i = 0; i < backends.size(); i++)
+                track(clip, backends.get(i), results.get(i));
+            clip.release();
+        }
+        final StringBuilder report = new StringBuilder();
+        for (Result result : results)
+            report.append(result).append('\n');
+        return report.toString();
+    }
+
+    private Clip decode(String path) {
+        final VideoCapture capture = new VideoCapture(path);
+        if (!capture.isOpened())
+            throw new IllegalArgumentException("cannot open the clip " + path);
+        final Clip clip = new Clip();
+        try {
+            while (clip.frames.size() < mMaxFrames && capture.read(mBgr) && !mBgr.empty()) {
+                // the longest side on the grid, as the model input of the app
+                final double scale = (double) mGridSize / Math.max(mBgr.cols(), mBgr.rows());
+                final int width = Math.max(1, (int) Math.round(mBgr.cols() * scale));
+                final int height = Math.max(1, (int) Math.round(mBgr.rows() * scale));
+                final Mat frame = new Mat();
+                Imgproc.resize(mBgr, frame, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+                Imgproc.cvtColor(frame, frame, Imgproc.COLOR_BGR2RGB);
+                clip.frames.add(frame);
+
+                // normalized picture coordinates -> grid pixels
+                final boolean detected = mDetector.detect(mBgr, mBoxes);
+                final Rect2d[] rects = new Rect2d[detected ? mBoxes.size() : 0];
+                for (int i = 0; i < rects.length; i++) {
+                    final Box box = mBoxes.get(i);
+                    rects[i] = new Rect2d(box.left * width, box.top * height,
+                            (box.right - box.left) * width, (box.bottom - box.top) * height);
+                }
+                clip.detections.add(rects);
+            }
+        } finally {
+            capture.release();
+        }
+        System.out.println("Decoded " + clip.frames.size() + " frames of " + path);
+        return clip;
+    }
+
+    private static void track(Clip clip, TrackerBackend backend, Result result) {
+        final ObjectTracker tracker = backend.create();
+        final Mat image = new Mat();
+        final Rect2d trackedRect = new Rect2d();
+        boolean seeded = false;
+        for (int f = 0; f < clip.frames.size(); f++) {
+            // the tracker gets what it gets in the app: gray, or RGB
+            final Mat rgb = clip.frames.get(f);
+            if (tracker.needsColor())
+                rgb.copyTo(image);
+            else
+                Imgproc.cvtColor(rgb, image, Imgproc.COLOR_RGB2GRAY);
+            final Rect2d[] detections = clip.detections.get(f);
+
+            // first seed: the biggest detection (the subject of a video call)
+            if (!seeded) {
+                final int biggest = biggestIndex(detections);
+                if (biggest >= 0)
+                    seeded = seed(tracker, image, detections[biggest], result);
+                continue;
+            }
+
+            long start = System.nanoTime();
+            final boolean ok = tracker.update(image, trackedRect);
+            result.addUpdate(System.nanoTime() - start);
+
+            final int best = ok ? bestIouIndex(trackedRect, detections) : -1;
+            final double bestIou = best >= 0 ? iou(trackedRect, detections[best]) : 0;
+            if (!ok || (detections.length > 0 && !result.policy.isMatch(bestIou))) {
+                // lost: start again from the subject
+                result.losses++;
+                final int biggest = biggestIndex(detections);
+                seeded = biggest >= 0 && seed(tracker, image, detections[biggest], result);
+            } else if (result.policy.shouldReseed(bestIou)) {
+                seed(tracker, image, detections[best], result);
+            }
+        }
+        tracker.release();
+        image.release();
+    }
+
+    private static boolean seed(ObjectTracker tracker, Mat image, Rect2d box, Result result) {
+        final long start = System.nanoTime();
+        final boolean ok = tracker.init(image, box);
+        result.addInit(System.nanoTime() - start);
+        if (ok)
+            result.policy.onSeeded();
+        return ok;
+    }
+
+    private static int biggestIndex(Rect2d[] rects) {
+        int index = -1;
+        for (int i = 0; i < rects.length; i++) {
+            if (index < 0 || rects[i].area() > rects[index].area())
+                index = i;
+        }
+        return index;
+    }
+
+    private static int bestIouIndex(Rect2d track, Rect2d[] rects) {
+        int index = -1;
+        double bestIou = 0;
+        for (int i = 0; i < rects.length; i++) {
+            final double iou = iou(track, rects[i]);
+            if (iou > bestIou) {
+                bestIou = iou;
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    private static double iou(Rect2d a, Rect2d b) {
+        return BoxGeometry.computeIou(a.x, a.y, a.width, a.height, b.x, b.y, b.width, b.height);
+    }
+
+    public static void main(String[] args) {
+        final List<String> clips = new ArrayList<>();
+        String model = null, config = null;
+        List<TrackerBackend> backends = Arrays.asList(TrackerBackend.values());
+        int gridSize = DEFAULT_GRID_SIZE;
+        int maxFrames = DEFAULT_MAX_FRAMES;
+        float threshold = PrivacyCompositor.DEFAULT_SCORE_THRESHOLD;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            switch (args[i]) {
+                case "-i": clips.add(value); break;
+                case "-m": model = value; break;
+                case "-c": config = value; break;
+                case "-b":
+                    backends = new ArrayList<>();
+                    for (String name : value.split(","))
+                        backends.add(TrackerBackend.fromName(name.trim()));
+                    break;
+                case "-n": maxFrames = Integer.parseInt(value); break;
+                case "-s": gridSize = Integer.parseInt(value); break;
+                case "-p": threshold = Float.parseFloat(value); break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        if (clips.isEmpty() || model == null || config == null) {
+            System.err.println("Usage: -i clip [-i clip ...] -m frozen_inference_graph.pb|model.caffemodel " +
+                    "-c graph.pbtxt|deploy.prototxt [-b kcf,mosse,...] [-n max frames per clip] [-s tracker grid size] [-p score threshold]");
+            System.exit(2);
+        }
+
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        final InferenceEngine engine = model.endsWith(".caffemodel") ?
+                OpenCvDnnEngine.fromCaffe(config, model, MODEL_INPUT_SIZE, MODEL_INPUT_SIZE, 1) :
+                OpenCvDnnEngine.fromTensorflow(model, config, MODEL_INPUT_SIZE, MODEL_INPUT_SIZE, 1);
+        final TrackerBenchmark benchmark = new TrackerBenchmark(engine, threshold, gridSize, maxFrames);
+        System.out.print(benchmark.run(clips, backends));
+    }
+}